@@ -55,6 +55,13 @@ CREATE INDEX certificatedata_idx18 ON CertificateData (issuerDN, status, crlPart
 -- CREATE NONCLUSTERED INDEX certificatedata_idx19 ON CertificateData (issuerDN, status, revocationDate, fingerprint, crlPartitionIndex) INCLUDE (expireDate, revocationReason, serialNumber);
 -- Index useful when searching for certificates with an invalidity date.
 -- CREATE INDEX certificatedata_idx20 ON CertificateData (invalidityDate);
+-- Index for incremental base CRL generation, when crl.incremental.dir is set in ejbca.properties, and for incremental
+-- refreshes of the OCSP revocation index, when ocsp.revocationindex.dir is set in ocsp.properties.
+-- CREATE INDEX certificatedata_idx21 ON CertificateData (issuerDN, updateTime);
+-- Index for base CRL generation with keyset pagination, when database.crlgenfetchkeyset is set in cesecore.properties.
+-- CREATE INDEX certificatedata_idx22 ON CertificateData (issuerDN, status, crlPartitionIndex, serialNumber);
+-- Index for building the OCSP revocation index, when ocsp.revocationindex.dir is set in ocsp.properties.
+-- CREATE INDEX certificatedata_idx23 ON CertificateData (issuerDN, fingerprint);
 -- The following indexes can be beneficial to perfomance for certificate search in RA web and REST AAPI
 CREATE INDEX certificatedata_idx_serial ON CertificateData (serialNumber);
 -- The accountBindingId is often not used, but even if it is not used, it is necessary to have an index (EJBCA will still search by this column)
@@ -81,7 +88,9 @@ CREATE INDEX userdata_idx11 ON UserData (status);
 -- Increase speed while selecting all the user data while looking for end entities
 CREATE INDEX userdata_idx12 ON UserData(timeCreated);
 
-CREATE INDEX publisherqueue_idx3 ON PublisherQueueData (publisherId, publishStatus, timeCreated);
+-- publisherqueue_idx5, used by the Publish Queue Process Service to read the queue oldest entries first, is created by create-tables-ejbca-*.sql
+-- Used by the Publish Queue Process Service to read the entries it has claimed
+CREATE INDEX publisherqueue_idx4 ON PublisherQueueData (leaseOwner);
 
 -- When using a role members with many entries
 CREATE INDEX rolemember_idx1 ON RoleMemberData (tokenType,roleId);
@@ -100,6 +109,8 @@ CREATE INDEX noconflictcertificatedata_idx5 ON NoConflictCertificateData (issuer
 CREATE INDEX noconflictcertificatedata_idx6 ON NoConflictCertificateData (issuerDN, status, crlPartitionIndex, revocationDate);
 -- Optimized index for CRL generation on Microsoft SQL Server (should be used instead of noconflictcertificatedata_idx5 and noconflictcertificatedata_idx6).
 -- CREATE NONCLUSTERED INDEX noconflictcertificatedata_idx7 ON NoConflictCertificateData (issuerDN, status, revocationDate, fingerprint, crlPartitionIndex) INCLUDE (expireDate, revocationReason, serialNumber);
+-- Index for base CRL generation with keyset pagination, when database.crlgenfetchkeyset is set in cesecore.properties.
+-- CREATE INDEX noconflictcertificatedata_idx8 ON NoConflictCertificateData (issuerDN, crlPartitionIndex, serialNumber);
 
 -- Index for searching for ACME accounts by public key
 CREATE INDEX acmeaccountdata_idx1 ON AcmeAccountData (currentKeyId);
@@ -126,4 +137,12 @@ CREATE INDEX sctdata_idx1 ON SctData (fingerprint);
 CREATE INDEX ocspresponsedata_idx1 ON OcspResponseData (cAId);
 CREATE INDEX ocspresponsedata_idx2 ON OcspResponseData (serialNumber);
 CREATE INDEX ocspresponsedata_idx3 ON OcspResponseData (producedAt);
+-- Index for cleaning up old OCSP responses of a CA in batches, ordered by serial number.
+CREATE INDEX ocspresponsedata_idx4 ON OcspResponseData (cAId, serialNumber, producedAt);
 
+
+-- Indexes for reading the revocation change log: by CA since a time (delta CRLs), by time (cache invalidation and
+-- cleanup), and for finding the last sequence number of a node on startup.
+CREATE INDEX revocationchangedata_idx1 ON RevocationChangeData (issuerDN, changeTime);
+CREATE INDEX revocationchangedata_idx2 ON RevocationChangeData (changeTime);
+CREATE UNIQUE INDEX revocationchangedata_idx3 ON RevocationChangeData (nodeId, sequenceNumber);
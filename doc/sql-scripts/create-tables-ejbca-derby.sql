@@ -110,7 +110,8 @@ CREATE TABLE CAData (
 
 CREATE TABLE CRLData (
     fingerprint VARCHAR(256) NOT NULL,
-    base64Crl CLOB NOT NULL,
+    base64Crl CLOB,
+    binaryCrl BLOB,
     cAFingerprint VARCHAR(256) NOT NULL,
     crlPartitionIndex INTEGER,
     cRLNumber INTEGER NOT NULL,
@@ -296,6 +297,8 @@ CREATE TABLE PublisherQueueData (
     pk VARCHAR(256) NOT NULL,
     fingerprint VARCHAR(256),
     lastUpdate BIGINT NOT NULL,
+    leaseExpireTime BIGINT,
+    leaseOwner VARCHAR(256),
     publishStatus INTEGER NOT NULL,
     publishType INTEGER NOT NULL,
     publisherId INTEGER NOT NULL,
@@ -307,6 +310,9 @@ CREATE TABLE PublisherQueueData (
     PRIMARY KEY (pk)
 );
 
+-- Used by the Publish Queue Process Service to read the queue of a publisher in chunks, oldest entries first
+CREATE INDEX publisherqueue_idx5 ON PublisherQueueData (publisherId, publishStatus, timeCreated, pk);
+
 CREATE TABLE BlacklistData (
     id INTEGER NOT NULL,
     type VARCHAR(256) NOT NULL,
@@ -472,6 +478,25 @@ CREATE TABLE IncompleteIssuanceJournalData (
     PRIMARY KEY (serialNumberAndCaId)
 );
 
+CREATE TABLE RevocationChangeData (
+    pk VARCHAR(256) NOT NULL,
+    changeTime BIGINT NOT NULL,
+    crlPartitionIndex INTEGER NOT NULL,
+    expireDate BIGINT NOT NULL,
+    fingerprint VARCHAR(256) NOT NULL,
+    invalidityDate BIGINT NOT NULL,
+    issuerDN VARCHAR(256) NOT NULL,
+    nodeId VARCHAR(256) NOT NULL,
+    revocationDate BIGINT NOT NULL,
+    revocationReason INTEGER NOT NULL,
+    rowProtection CLOB(10 K),
+    rowVersion INTEGER NOT NULL,
+    sequenceNumber BIGINT NOT NULL,
+    serialNumber VARCHAR(256) NOT NULL,
+    status INTEGER NOT NULL,
+    PRIMARY KEY (pk)
+);
+
 alter table AccessRulesData add constraint FKABB4C1DFDBBC970 foreign key (AdminGroupData_accessRules) references AdminGroupData;
 
 alter table AdminEntityData add constraint FKD9A99EBCB3A110AD foreign key (AdminGroupData_adminEntities) references AdminGroupData;
@@ -110,7 +110,8 @@ CREATE TABLE CAData (
 
 CREATE TABLE CRLData (
     fingerprint VARCHAR(256) NOT NULL,
-    base64Crl LONG VARCHAR NOT NULL,
+    base64Crl LONG VARCHAR,
+    binaryCrl LONG BYTE,
     cAFingerprint VARCHAR(256) NOT NULL,
     crlPartitionIndex INT4 with null,
     cRLNumber INT4 NOT NULL,
@@ -267,6 +268,8 @@ CREATE TABLE PublisherQueueData (
     pk VARCHAR(256) NOT NULL,
     fingerprint VARCHAR(256) with null,
     lastUpdate INT8 NOT NULL,
+    leaseExpireTime INT8 with null,
+    leaseOwner VARCHAR(256) with null,
     publishStatus INT4 NOT NULL,
     publishType INT4 NOT NULL,
     publisherId INT4 NOT NULL,
@@ -278,6 +281,9 @@ CREATE TABLE PublisherQueueData (
     PRIMARY KEY (pk)
 );
 
+-- Used by the Publish Queue Process Service to read the queue of a publisher in chunks, oldest entries first
+CREATE INDEX publisherqueue_idx5 ON PublisherQueueData (publisherId, publishStatus, timeCreated, pk);
+
 CREATE TABLE BlacklistData (
     id INT4 NOT NULL,
     type VARCHAR(256) NOT NULL,
@@ -476,3 +482,22 @@ CREATE TABLE IncompleteIssuanceJournalData (
     rowVersion INT4 NOT NULL,
     PRIMARY KEY (serialNumberAndCaId)
 );
+
+CREATE TABLE RevocationChangeData (
+    pk VARCHAR(256) NOT NULL,
+    changeTime INT8 NOT NULL,
+    crlPartitionIndex INT4 NOT NULL,
+    expireDate INT8 NOT NULL,
+    fingerprint VARCHAR(256) NOT NULL,
+    invalidityDate INT8 NOT NULL,
+    issuerDN VARCHAR(256) NOT NULL,
+    nodeId VARCHAR(256) NOT NULL,
+    revocationDate INT8 NOT NULL,
+    revocationReason INT4 NOT NULL,
+    rowProtection LONG VARCHAR with null,
+    rowVersion INT4 NOT NULL,
+    sequenceNumber INT8 NOT NULL,
+    serialNumber VARCHAR(256) NOT NULL,
+    status INT4 NOT NULL,
+    PRIMARY KEY (pk)
+);
@@ -113,7 +113,8 @@ CREATE TABLE CAData (
 
 CREATE TABLE CRLData (
     fingerprint VARCHAR(250) BINARY NOT NULL,
-    base64Crl LONGTEXT NOT NULL,
+    base64Crl LONGTEXT,
+    binaryCrl LONGBLOB,
     cAFingerprint VARCHAR(250) BINARY NOT NULL,
     crlPartitionIndex INT(11),
     cRLNumber INT(11) NOT NULL,
@@ -270,6 +271,8 @@ CREATE TABLE PublisherQueueData (
     pk VARCHAR(250) BINARY NOT NULL,
     fingerprint VARCHAR(250) BINARY,
     lastUpdate BIGINT(20) NOT NULL,
+    leaseExpireTime BIGINT(20),
+    leaseOwner VARCHAR(250) BINARY,
     publishStatus INT(11) NOT NULL,
     publishType INT(11) NOT NULL,
     publisherId INT(11) NOT NULL,
@@ -281,6 +284,9 @@ CREATE TABLE PublisherQueueData (
     PRIMARY KEY (pk)
 ) TABLESPACE ejbca_ts STORAGE DISK ENGINE=NDB;
 
+-- Used by the Publish Queue Process Service to read the queue of a publisher in chunks, oldest entries first
+CREATE INDEX publisherqueue_idx5 ON PublisherQueueData (publisherId, publishStatus, timeCreated, pk);
+
 CREATE TABLE BlacklistData (
     id INT(11) NOT NULL,
     type VARCHAR(250) BINARY NOT NULL,
@@ -481,3 +487,22 @@ CREATE TABLE IncompleteIssuanceJournalData (
     rowVersion INT(11) NOT NULL,
     PRIMARY KEY (serialNumberAndCaId)
 ) TABLESPACE ejbca_ts STORAGE DISK ENGINE=NDB;
+
+CREATE TABLE RevocationChangeData (
+    pk VARCHAR(250) BINARY NOT NULL,
+    changeTime BIGINT(20) NOT NULL,
+    crlPartitionIndex INT(11) NOT NULL,
+    expireDate BIGINT(20) NOT NULL,
+    fingerprint VARCHAR(250) BINARY NOT NULL,
+    invalidityDate BIGINT(20) NOT NULL,
+    issuerDN VARCHAR(250) BINARY NOT NULL,
+    nodeId VARCHAR(250) BINARY NOT NULL,
+    revocationDate BIGINT(20) NOT NULL,
+    revocationReason INT(11) NOT NULL,
+    rowProtection LONGTEXT,
+    rowVersion INT(11) NOT NULL,
+    sequenceNumber BIGINT(20) NOT NULL,
+    serialNumber VARCHAR(250) BINARY NOT NULL,
+    status INT(11) NOT NULL,
+    PRIMARY KEY (pk)
+) TABLESPACE ejbca_ts STORAGE DISK ENGINE=NDB;
@@ -110,7 +110,8 @@ CREATE TABLE CAData (
 
 CREATE TABLE CRLData (
     fingerprint VARCHAR2(255 byte) NOT NULL,
-    base64Crl CLOB NOT NULL,
+    base64Crl CLOB,
+    binaryCrl BLOB,
     cAFingerprint VARCHAR2(255 byte) NOT NULL,
     crlPartitionIndex NUMBER(10),
     cRLNumber NUMBER(10) NOT NULL,
@@ -267,6 +268,8 @@ CREATE TABLE PublisherQueueData (
     pk VARCHAR2(255 byte) NOT NULL,
     fingerprint VARCHAR2(255 byte),
     lastUpdate NUMBER(19) NOT NULL,
+    leaseExpireTime NUMBER(19),
+    leaseOwner VARCHAR2(255 byte),
     publishStatus NUMBER(10) NOT NULL,
     publishType NUMBER(10) NOT NULL,
     publisherId NUMBER(10) NOT NULL,
@@ -278,6 +281,9 @@ CREATE TABLE PublisherQueueData (
     PRIMARY KEY (pk)
 );
 
+-- Used by the Publish Queue Process Service to read the queue of a publisher in chunks, oldest entries first
+CREATE INDEX publisherqueue_idx5 ON PublisherQueueData (publisherId, publishStatus, timeCreated, pk);
+
 CREATE TABLE BlacklistData (
     id NUMBER(10) NOT NULL,
     type VARCHAR2(255 byte) NOT NULL,
@@ -476,3 +482,22 @@ CREATE TABLE IncompleteIssuanceJournalData (
     rowVersion NUMBER(10) NOT NULL,
     PRIMARY KEY (serialNumberAndCaId)
 );
+
+CREATE TABLE RevocationChangeData (
+    pk VARCHAR2(255 byte) NOT NULL,
+    changeTime NUMBER(19) NOT NULL,
+    crlPartitionIndex NUMBER(10) NOT NULL,
+    expireDate NUMBER(19) NOT NULL,
+    fingerprint VARCHAR2(255 byte) NOT NULL,
+    invalidityDate NUMBER(19) NOT NULL,
+    issuerDN VARCHAR2(255 byte) NOT NULL,
+    nodeId VARCHAR2(255 byte) NOT NULL,
+    revocationDate NUMBER(19) NOT NULL,
+    revocationReason NUMBER(10) NOT NULL,
+    rowProtection CLOB,
+    rowVersion NUMBER(10) NOT NULL,
+    sequenceNumber NUMBER(19) NOT NULL,
+    serialNumber VARCHAR2(255 byte) NOT NULL,
+    status NUMBER(10) NOT NULL,
+    PRIMARY KEY (pk)
+);
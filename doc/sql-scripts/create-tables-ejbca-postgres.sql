@@ -110,7 +110,8 @@ CREATE TABLE CAData (
 
 CREATE TABLE CRLData (
     fingerprint TEXT NOT NULL,
-    base64Crl TEXT NOT NULL,
+    base64Crl TEXT,
+    binaryCrl BYTEA,
     cAFingerprint TEXT NOT NULL,
     crlPartitionIndex INT4,
     cRLNumber INT4 NOT NULL,
@@ -267,6 +268,8 @@ CREATE TABLE PublisherQueueData (
     pk TEXT NOT NULL,
     fingerprint TEXT,
     lastUpdate INT8 NOT NULL,
+    leaseExpireTime INT8,
+    leaseOwner TEXT,
     publishStatus INT4 NOT NULL,
     publishType INT4 NOT NULL,
     publisherId INT4 NOT NULL,
@@ -278,6 +281,9 @@ CREATE TABLE PublisherQueueData (
     PRIMARY KEY (pk)
 );
 
+-- Used by the Publish Queue Process Service to read the queue of a publisher in chunks, oldest entries first
+CREATE INDEX publisherqueue_idx5 ON PublisherQueueData (publisherId, publishStatus, timeCreated, pk);
+
 CREATE TABLE BlacklistData (
     id INT4 NOT NULL,
     type TEXT NOT NULL,
@@ -473,6 +479,25 @@ CREATE TABLE IncompleteIssuanceJournalData (
     PRIMARY KEY (serialNumberAndCaId)
 );
 
+CREATE TABLE RevocationChangeData (
+    pk TEXT NOT NULL,
+    changeTime INT8 NOT NULL,
+    crlPartitionIndex INT4 NOT NULL,
+    expireDate INT8 NOT NULL,
+    fingerprint TEXT NOT NULL,
+    invalidityDate INT8 NOT NULL,
+    issuerDN TEXT NOT NULL,
+    nodeId TEXT NOT NULL,
+    revocationDate INT8 NOT NULL,
+    revocationReason INT4 NOT NULL,
+    rowProtection TEXT,
+    rowVersion INT4 NOT NULL,
+    sequenceNumber INT8 NOT NULL,
+    serialNumber TEXT NOT NULL,
+    status INT4 NOT NULL,
+    PRIMARY KEY (pk)
+);
+
 alter table AccessRulesData add constraint FKABB4C1DFDBBC970 foreign key (AdminGroupData_accessRules) references AdminGroupData;
 
 alter table AdminEntityData add constraint FKD9A99EBCB3A110AD foreign key (AdminGroupData_adminEntities) references AdminGroupData;
@@ -110,7 +110,8 @@ CREATE TABLE CAData (
 
 CREATE TABLE CRLData (
     fingerprint VARCHAR(255) NOT NULL,
-    base64Crl TEXT NOT NULL,
+    base64Crl TEXT,
+    binaryCrl IMAGE,
     cAFingerprint VARCHAR(255) NOT NULL,
     crlPartitionIndex INTEGER,
     cRLNumber INTEGER NOT NULL,
@@ -267,6 +268,8 @@ CREATE TABLE PublisherQueueData (
     pk VARCHAR(255) NOT NULL,
     fingerprint VARCHAR(255),
     lastUpdate DECIMAL(20,0) NOT NULL,
+    leaseExpireTime DECIMAL(20,
+    leaseOwner VARCHAR(255),
     publishStatus INTEGER NOT NULL,
     publishType INTEGER NOT NULL,
     publisherId INTEGER NOT NULL,
@@ -278,6 +281,9 @@ CREATE TABLE PublisherQueueData (
     PRIMARY KEY (pk)
 );
 
+-- Used by the Publish Queue Process Service to read the queue of a publisher in chunks, oldest entries first
+CREATE INDEX publisherqueue_idx5 ON PublisherQueueData (publisherId, publishStatus, timeCreated, pk);
+
 CREATE TABLE BlacklistData (
     id INTEGER NOT NULL,
     type VARCHAR(255) NOT NULL,
@@ -476,3 +482,22 @@ CREATE TABLE IncompleteIssuanceJournalData (
     rowVersion INTEGER NOT NULL,
     PRIMARY KEY (serialNumberAndCaId)
 );
+
+CREATE TABLE RevocationChangeData (
+    pk VARCHAR(255) NOT NULL,
+    changeTime DECIMAL(20,0) NOT NULL,
+    crlPartitionIndex INTEGER NOT NULL,
+    expireDate DECIMAL(20,0) NOT NULL,
+    fingerprint VARCHAR(255) NOT NULL,
+    invalidityDate DECIMAL(20,0) NOT NULL,
+    issuerDN VARCHAR(255) NOT NULL,
+    nodeId VARCHAR(255) NOT NULL,
+    revocationDate DECIMAL(20,0) NOT NULL,
+    revocationReason INTEGER NOT NULL,
+    rowProtection TEXT,
+    rowVersion INTEGER NOT NULL,
+    sequenceNumber DECIMAL(20,0) NOT NULL,
+    serialNumber VARCHAR(255) NOT NULL,
+    status INTEGER NOT NULL,
+    PRIMARY KEY (pk)
+);
@@ -37,3 +37,4 @@ drop table AcmeOrderData if exists;
 drop table SctData if exists;
 drop table OcspResponseData if exists;
 drop table IncompleteIssuanceJournalData if exists;
+drop table RevocationChangeData if exists;
@@ -37,3 +37,4 @@ drop table if exists AcmeOrderData cascade;
 drop table if exists SctData cascade;
 drop table if exists OcspResponseData cascade;
 drop table if exists IncompleteIssuanceJournalData;
+drop table if exists RevocationChangeData;
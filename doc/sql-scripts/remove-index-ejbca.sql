@@ -28,6 +28,9 @@ DROP INDEX certificatedata_idx17 ON CertificateData;
 DROP INDEX certificatedata_idx18 ON CertificateData;
 DROP INDEX certificatedata_idx19 ON CertificateData;
 DROP INDEX certificatedata_idx20 ON CertificateData;
+DROP INDEX certificatedata_idx21 ON CertificateData;
+DROP INDEX certificatedata_idx22 ON CertificateData;
+DROP INDEX certificatedata_idx23 ON CertificateData;
 
 DROP INDEX historydata_idx1 ON CertReqHistoryData;
 DROP INDEX historydata_idx3 ON CertReqHistoryData;
@@ -35,7 +38,7 @@ DROP INDEX historydata_idx3 ON CertReqHistoryData;
 DROP INDEX userdata_idx10 ON UserData;
 DROP INDEX userdata_idx11 ON UserData;
 
-DROP INDEX publisherqueue_idx3 ON PublisherQueueData;
+DROP INDEX publisherqueue_idx4 ON PublisherQueueData;
 
 DROP INDEX rolemember_idx1 ON RoleMemberData;
 
@@ -50,6 +53,7 @@ DROP INDEX noconflictcertificatedata_idx4 ON NoConflictCertificateData;
 DROP INDEX noconflictcertificatedata_idx5 ON NoConflictCertificateData;
 DROP INDEX noconflictcertificatedata_idx6 ON NoConflictCertificateData;
 DROP INDEX noconflictcertificatedata_idx7 ON NoConflictCertificateData;
+DROP INDEX noconflictcertificatedata_idx8 ON NoConflictCertificateData;
 
 DROP INDEX acmeaccountdata_idx1 ON AcmeAccountData;
 DROP INDEX acmeorderdata_idx1 ON AcmeOrderData;
@@ -62,3 +66,8 @@ DROP INDEX acmechallengedata_idx1 ON AcmeChallengeData;
 DROP INDEX ocspresponsedata_idx1 ON OcspResponseData;
 DROP INDEX ocspresponsedata_idx2 ON OcspResponseData;
 DROP INDEX ocspresponsedata_idx3 ON OcspResponseData;
+DROP INDEX ocspresponsedata_idx4 ON OcspResponseData;
+
+DROP INDEX revocationchangedata_idx1 ON RevocationChangeData;
+DROP INDEX revocationchangedata_idx2 ON RevocationChangeData;
+DROP INDEX revocationchangedata_idx3 ON RevocationChangeData;
@@ -71,11 +71,17 @@ public final class LdapPublisherMBData implements Serializable {
     private boolean useCustomDnOrder;
     private ArrayList<Integer> useFieldInLdapDN;
     private String fieldsInLdapDnCustomOrder;
+    private List<String> connectionPoolStatistics;
     
     public LdapPublisherMBData(final LdapPublisher ldapPublisher) {
         initializeData(ldapPublisher);
     }
     
+    /** @return a summary of the connections that are kept open to each server, on this node */
+    public List<String> getConnectionPoolStatistics() {
+        return connectionPoolStatistics;
+    }
+
     public String getHostName() {
         return hostName;
     }
@@ -364,6 +370,7 @@ public final class LdapPublisherMBData implements Serializable {
         useFieldInLdapDN = new ArrayList<>(publisher.getUseFieldInLdapDN());
         useCustomDnOrder = publisher.getUseCustomDnOrder();
         fieldsInLdapDnCustomOrder = buildFieldsInLdapDnCustomOrder(publisher);
+        connectionPoolStatistics = publisher.getConnectionPoolStatistics();
 
         securityItems.put(EjbcaJSFHelper.getBean().getEjbcaWebBean().getText("PLAIN"), ConnectionSecurity.PLAIN);
         securityItems.put(EjbcaJSFHelper.getBean().getEjbcaWebBean().getText("STARTTLS"), ConnectionSecurity.STARTTLS);
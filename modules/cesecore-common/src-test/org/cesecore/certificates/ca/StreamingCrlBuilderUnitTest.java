@@ -0,0 +1,109 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.util.Date;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Tests that the streaming CRL builder produces the same encoding as the Bouncy Castle CRL builder.
+ */
+public class StreamingCrlBuilderUnitTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=StreamingCrlBuilderUnitTest,O=Test,C=SE");
+    private static final Date THIS_UPDATE = new Date(1700000000000L);
+    private static final Date NEXT_UPDATE = new Date(1700086400000L);
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        keyPair = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+    }
+
+    @Test
+    public void testEmptyCrl() throws Exception {
+        assertSameEncoding(0);
+    }
+
+    @Test
+    public void testSmallCrl() throws Exception {
+        assertSameEncoding(100);
+    }
+
+    @Test
+    public void testCrlWithEntriesInTemporaryFile() throws Exception {
+        // Enough entries to exceed the size kept in memory
+        assertSameEncoding(StreamingCrlBuilder.MEMORY_THRESHOLD / 20);
+    }
+
+    /** RSA PKCS#1 v1.5 signatures are deterministic, so the complete CRLs can be compared */
+    private void assertSameEncoding(final int entries) throws Exception {
+        final X509v2CRLBuilder expectedBuilder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        expectedBuilder.setNextUpdate(NEXT_UPDATE);
+        try (final StreamingCrlBuilder streamingBuilder = new StreamingCrlBuilder(ISSUER, THIS_UPDATE)) {
+            streamingBuilder.setNextUpdate(NEXT_UPDATE);
+            for (int i = 0; i < entries; i++) {
+                final BigInteger serialNumber = BigInteger.valueOf(i).shiftLeft(i % 100).add(BigInteger.ONE);
+                // Revocation dates on both sides of 2050, where the encoding changes from UTCTime to GeneralizedTime
+                final Date revocationDate = new Date(THIS_UPDATE.getTime() + (i % 7 == 0 ? 1000L * 86400 * 365 * 30 : 0) + i * 1001L);
+                final int reason = i % 11 == 7 ? RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED : i % 11;
+                if (i % 5 == 0) {
+                    final Date invalidityDate = new Date(revocationDate.getTime() - 3600000L - i);
+                    expectedBuilder.addCRLEntry(serialNumber, revocationDate, reason, invalidityDate);
+                    streamingBuilder.addCRLEntry(serialNumber, revocationDate, reason, invalidityDate);
+                } else {
+                    expectedBuilder.addCRLEntry(serialNumber, revocationDate, reason);
+                    streamingBuilder.addCRLEntry(serialNumber, revocationDate, reason);
+                }
+            }
+            expectedBuilder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+            streamingBuilder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+            expectedBuilder.addExtension(Extension.deltaCRLIndicator, true, new CRLNumber(BigInteger.valueOf(4710)));
+            streamingBuilder.addExtension(Extension.deltaCRLIndicator, true, new CRLNumber(BigInteger.valueOf(4710)));
+
+            final X509CRLHolder expected = expectedBuilder.build(createSigner());
+            final X509CRLHolder actual = streamingBuilder.build(createSigner());
+            assertEquals(entries, streamingBuilder.getEntryCount());
+            assertArrayEquals("Streamed CRL differs from the CRL built in memory", expected.getEncoded(), actual.getEncoded());
+            assertTrue("Signature should be valid", streamingBuilder.isSignatureValid(new JcaContentVerifierProviderBuilder().build(keyPair.getPublic())));
+            assertEquals(entries, actual.getRevokedCertificates().size());
+        }
+    }
+
+    private static ContentSigner createSigner() throws Exception {
+        return new JcaContentSignerBuilder(AlgorithmConstants.SIGALG_SHA256_WITH_RSA).setProvider("BC").build(keyPair.getPrivate());
+    }
+}
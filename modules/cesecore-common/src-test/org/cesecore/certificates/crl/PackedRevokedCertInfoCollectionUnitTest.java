@@ -0,0 +1,74 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link PackedRevokedCertInfoCollection} returns the entries that were added.
+ */
+public class PackedRevokedCertInfoCollectionUnitTest {
+
+    @Test
+    public void testAddAndIterate() {
+        final PackedRevokedCertInfoCollection collection = new PackedRevokedCertInfoCollection();
+        // Enough entries to fill more than one chunk
+        final int entries = 20000;
+        for (int i = 0; i < entries; i++) {
+            final Long invalidityDate = i % 3 == 0 ? Long.valueOf(1000L + i) : null;
+            collection.add(new RevokedCertInfo(String.format("%040x", i).getBytes(), BigInteger.valueOf(i).shiftLeft(150).negate().toByteArray(), 2000L + i,
+                    i % 11, 3000L + i, invalidityDate));
+        }
+        assertEquals(entries, collection.size());
+        int i = 0;
+        for (final RevokedCertInfo revokedCertInfo : collection) {
+            assertEquals(String.format("%040x", i), revokedCertInfo.getCertificateFingerprint());
+            assertEquals(BigInteger.valueOf(i).shiftLeft(150).negate(), revokedCertInfo.getUserCertificate());
+            assertEquals(2000L + i, revokedCertInfo.getRevocationDate().getTime());
+            assertEquals(i % 11, revokedCertInfo.getReason());
+            assertEquals(3000L + i, revokedCertInfo.getExpireDate().getTime());
+            if (i % 3 == 0) {
+                assertEquals(1000L + i, revokedCertInfo.getInvalidityDate().getTime());
+            } else {
+                assertNull(revokedCertInfo.getInvalidityDate());
+            }
+            i++;
+        }
+        assertEquals(entries, i);
+        collection.clear();
+        assertTrue(collection.isEmpty());
+        assertFalse(collection.iterator().hasNext());
+    }
+
+    @Test
+    public void testAddWhileIterating() {
+        final PackedRevokedCertInfoCollection collection = new PackedRevokedCertInfoCollection();
+        collection.add(new RevokedCertInfo(null, BigInteger.ONE.toByteArray(), 0, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, 0));
+        final Iterator<RevokedCertInfo> iterator = collection.iterator();
+        collection.add(new RevokedCertInfo(null, BigInteger.TEN.toByteArray(), 0, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 0));
+        final RevokedCertInfo first = iterator.next();
+        assertNull(first.getCertificateFingerprint());
+        assertFalse(first.isRevocationDateSet());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, first.getReason());
+        assertFalse("Entries added after the iterator was created should not be returned", iterator.hasNext());
+        assertEquals(2, collection.size());
+    }
+}
@@ -14,7 +14,9 @@ package org.cesecore.certificates.crl;
 
 import java.math.BigInteger;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 
 import org.cesecore.util.CompressedCollection;
@@ -121,6 +123,20 @@ public class RevokedCertInfoTest {
         assertEquals("REMOVEFROMCRL should be removed when Base CRL is more recent than revocation date.", 0, res.size());
     }
 
+    @Test
+    public void mergeEntries() {
+        assertRCIEquals("Older permanent revocation should win.", REVINFO_3_UNSPECIFIED,
+                RevokedCertInfo.mergeEntriesByDateAndStatus(REVINFO_4_UNSPECIFIED, Arrays.asList(REVINFO_2_ONHOLD, REVINFO_3_UNSPECIFIED), 0));
+        assertRCIEquals("Most recent temporary status should win.", REVINFO_2_ONHOLD,
+                RevokedCertInfo.mergeEntriesByDateAndStatus(null, Arrays.asList(REVINFO_2_ONHOLD, REVINFO_1_NOTREVOKED), 0));
+        assertRCIEquals("Entry without duplicates should be kept.", REVINFO_2_ONHOLD,
+                RevokedCertInfo.mergeEntriesByDateAndStatus(REVINFO_2_ONHOLD, Collections.emptyList(), 0));
+        assertNull("REMOVEFROMCRL should not be included in a Base CRL.",
+                RevokedCertInfo.mergeEntriesByDateAndStatus(REVINFO_2_ONHOLD, Arrays.asList(REVINFO_5_REMOVEFROMCRL), 0));
+        assertRCIEquals("REMOVEFROMCRL should be kept when Base CRL is older than revocation date.", REVINFO_5_REMOVEFROMCRL,
+                RevokedCertInfo.mergeEntriesByDateAndStatus(REVINFO_2_ONHOLD, Arrays.asList(REVINFO_5_REMOVEFROMCRL), date("2017-04-01")));
+    }
+
     @Test
     public void testCanRevocationReasonBeChanged() {
         final Date today = new Date();
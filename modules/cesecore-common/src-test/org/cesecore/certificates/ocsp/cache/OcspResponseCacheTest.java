@@ -0,0 +1,142 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.OcspConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of the cache that holds signed OCSP responses.
+ */
+public class OcspResponseCacheTest {
+
+    private static final int SIGNER_ID = 4711;
+    private static final byte[] RESPONSE = new byte[1024 - 256];
+
+    private String defaultConfigurationValue = null;
+
+    @Before
+    public void before() {
+        defaultConfigurationValue = ConfigurationHolder.getString(OcspConfiguration.RESPONSE_CACHE_MAX_SIZE);
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_SIZE, "3072");
+        OcspResponseCache.INSTANCE.flush();
+    }
+
+    @After
+    public void after() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_SIZE, defaultConfigurationValue);
+        OcspResponseCache.INSTANCE.flush();
+    }
+
+    @Test
+    public void testCacheDisabledByDefault() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_SIZE, "0");
+        assertFalse("Cache should be disabled when the max size is 0.", OcspResponseCache.INSTANCE.isEnabled());
+        OcspResponseCache.INSTANCE.put(certId(1), SIGNER_ID, response(60000));
+        assertEquals("Nothing should be cached when the max size is 0.", 0, OcspResponseCache.INSTANCE.getEntryCount());
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        assertTrue(OcspResponseCache.INSTANCE.isEnabled());
+        final long hits = OcspResponseCache.INSTANCE.getHits();
+        final long misses = OcspResponseCache.INSTANCE.getMisses();
+        assertNull("Cache should be empty from start.", OcspResponseCache.INSTANCE.get(certId(1), SIGNER_ID));
+        OcspResponseCache.INSTANCE.put(certId(1), SIGNER_ID, response(60000));
+        assertNotNull("Response should have been cached.", OcspResponseCache.INSTANCE.get(certId(1), SIGNER_ID));
+        assertNull("Response for another signer should not be returned.", OcspResponseCache.INSTANCE.get(certId(1), SIGNER_ID + 1));
+        assertNull("Response for another serial number should not be returned.", OcspResponseCache.INSTANCE.get(certId(2), SIGNER_ID));
+        assertEquals(hits + 1, OcspResponseCache.INSTANCE.getHits());
+        assertEquals(misses + 3, OcspResponseCache.INSTANCE.getMisses());
+    }
+
+    @Test
+    public void testExpiredResponseNotReturned() {
+        OcspResponseCache.INSTANCE.put(certId(1), SIGNER_ID, response(-1));
+        assertNull("Response that has passed nextUpdate should not be cached.", OcspResponseCache.INSTANCE.get(certId(1), SIGNER_ID));
+        assertEquals(0, OcspResponseCache.INSTANCE.getEntryCount());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        final long evictions = OcspResponseCache.INSTANCE.getEvictions();
+        OcspResponseCache.INSTANCE.put(certId(1), SIGNER_ID, response(60000));
+        OcspResponseCache.INSTANCE.put(certId(2), SIGNER_ID, response(60000));
+        OcspResponseCache.INSTANCE.put(certId(3), SIGNER_ID, response(60000));
+        // Use the first entry, so the second one is the least recently used
+        assertNotNull(OcspResponseCache.INSTANCE.get(certId(1), SIGNER_ID));
+        OcspResponseCache.INSTANCE.put(certId(4), SIGNER_ID, response(60000));
+        assertEquals("Cache should not grow beyond its max size.", 3, OcspResponseCache.INSTANCE.getEntryCount());
+        assertEquals(3072, OcspResponseCache.INSTANCE.getSize());
+        assertEquals(evictions + 1, OcspResponseCache.INSTANCE.getEvictions());
+        assertNull("Least recently used entry should have been evicted.", OcspResponseCache.INSTANCE.get(certId(2), SIGNER_ID));
+        assertNotNull(OcspResponseCache.INSTANCE.get(certId(1), SIGNER_ID));
+        assertNotNull(OcspResponseCache.INSTANCE.get(certId(4), SIGNER_ID));
+    }
+
+    @Test
+    public void testInvalidateBySerialNumber() {
+        OcspResponseCache.INSTANCE.put(certId(1), SIGNER_ID, response(60000));
+        OcspResponseCache.INSTANCE.put(certId(1), SIGNER_ID + 1, response(60000));
+        OcspResponseCache.INSTANCE.put(certId(2), SIGNER_ID, response(60000));
+        OcspResponseCache.INSTANCE.invalidate(BigInteger.valueOf(1));
+        assertNull(OcspResponseCache.INSTANCE.get(certId(1), SIGNER_ID));
+        assertNull(OcspResponseCache.INSTANCE.get(certId(1), SIGNER_ID + 1));
+        assertNotNull("Other serial numbers should not be invalidated.", OcspResponseCache.INSTANCE.get(certId(2), SIGNER_ID));
+        assertEquals(1024, OcspResponseCache.INSTANCE.getSize());
+    }
+
+    @Test
+    public void testSegmentedCache() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.RESPONSE_CACHE_MAX_SIZE, String.valueOf(64 * 1024 * 1024));
+        for (long serialNumber = 1; serialNumber <= 100; serialNumber++) {
+            OcspResponseCache.INSTANCE.put(certId(serialNumber), SIGNER_ID, response(60000));
+        }
+        assertEquals(100, OcspResponseCache.INSTANCE.getEntryCount());
+        assertEquals(100 * 1024, OcspResponseCache.INSTANCE.getSize());
+        OcspResponseCache.INSTANCE.invalidate(BigInteger.valueOf(42));
+        assertNull(OcspResponseCache.INSTANCE.get(certId(42), SIGNER_ID));
+        for (long serialNumber = 1; serialNumber <= 100; serialNumber++) {
+            if (serialNumber != 42) {
+                assertNotNull("Response " + serialNumber + " should be found in its segment.", OcspResponseCache.INSTANCE.get(certId(serialNumber), SIGNER_ID));
+            }
+        }
+        assertEquals(99 * 1024, OcspResponseCache.INSTANCE.getSize());
+    }
+
+    private static CertificateID certId(final long serialNumber) {
+        return new CertificateID(new CertID(new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256), new DEROctetString(new byte[] { 1, 2, 3 }),
+                new DEROctetString(new byte[] { 4, 5, 6 }), new ASN1Integer(serialNumber)));
+    }
+
+    private static OcspResponseCache.CachedResponse response(final long untilNextUpdate) {
+        return new OcspResponseCache.CachedResponse(RESPONSE, System.currentTimeMillis(), System.currentTimeMillis() + untilNextUpdate, 30000, null, 0, -1);
+    }
+}
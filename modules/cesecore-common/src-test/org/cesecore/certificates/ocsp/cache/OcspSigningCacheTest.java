@@ -0,0 +1,147 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.keybind.impl.OcspKeyBinding;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Test of the incremental reload of the OCSP signing cache.
+ */
+public class OcspSigningCacheTest {
+
+    private static OcspSigningCacheEntry entryA;
+    private static OcspSigningCacheEntry entryB;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        entryA = createEntry("CN=OcspSigningCacheTest A");
+        entryB = createEntry("CN=OcspSigningCacheTest B");
+    }
+
+    @After
+    public void after() {
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            OcspSigningCache.INSTANCE.stagingCommit(null);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+    }
+
+    @Test
+    public void testUnchangedEntriesAreReused() {
+        reload(entryA, "digestA");
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            assertTrue("Entry with unchanged digest should be reused", OcspSigningCache.INSTANCE.stagingAddUnchanged("digestA", entryA.getPrivateKey()));
+            assertFalse("Entry with changed digest should not be reused", OcspSigningCache.INSTANCE.stagingAddUnchanged("digestB", entryA.getPrivateKey()));
+            OcspSigningCache.INSTANCE.stagingCommit(null);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+        assertSame(entryA, OcspSigningCache.INSTANCE.getEntry(getCertificateId(entryA)));
+    }
+
+    @Test
+    public void testEntriesWithOtherKeyReferenceAreNotReused() throws Exception {
+        reload(entryA, "digestA");
+        // As after the crypto token has been deactivated and activated again, which gives the same token status
+        final PrivateKey reloadedKey = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA).getPrivate();
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            assertFalse("Entry holding an old key reference should not be reused", OcspSigningCache.INSTANCE.stagingAddUnchanged("digestA", reloadedKey));
+            assertFalse("Entry should not be reused without a key", OcspSigningCache.INSTANCE.stagingAddUnchanged("digestA", null));
+            OcspSigningCache.INSTANCE.stagingCommit(null);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+        assertNull("Entry should be gone after reload", OcspSigningCache.INSTANCE.getEntry(getCertificateId(entryA)));
+    }
+
+    @Test
+    public void testEntriesWithoutDigestAreNotReused() {
+        reload(entryA, null);
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            assertFalse(OcspSigningCache.INSTANCE.stagingAddUnchanged("digestA", entryA.getPrivateKey()));
+            OcspSigningCache.INSTANCE.stagingCommit(null);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+        assertNull("Entry should be gone after reload", OcspSigningCache.INSTANCE.getEntry(getCertificateId(entryA)));
+    }
+
+    @Test
+    public void testAddSingleEntryDoesNotModifyPublishedMap() {
+        reload(entryA, "digestA");
+        final Collection<OcspSigningCacheEntry> entriesBefore = OcspSigningCache.INSTANCE.getEntries();
+        final int sizeBefore = entriesBefore.size();
+        OcspSigningCache.INSTANCE.addSingleEntry(entryB);
+        assertEquals("Readers of the previous map should not see the added entry", sizeBefore, entriesBefore.size());
+        assertSame(entryB, OcspSigningCache.INSTANCE.getEntry(getCertificateId(entryB)));
+        // A later reload still knows the digest of the entry from the previous reload
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            assertTrue(OcspSigningCache.INSTANCE.stagingAddUnchanged("digestA", entryA.getPrivateKey()));
+            OcspSigningCache.INSTANCE.stagingCommit(null);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+        assertNull(OcspSigningCache.INSTANCE.getEntry(getCertificateId(entryB)));
+    }
+
+    private static void reload(final OcspSigningCacheEntry entry, final String digest) {
+        OcspSigningCache.INSTANCE.stagingStart();
+        try {
+            OcspSigningCache.INSTANCE.stagingAdd(entry, digest);
+            OcspSigningCache.INSTANCE.stagingCommit(null);
+        } finally {
+            OcspSigningCache.INSTANCE.stagingRelease();
+        }
+    }
+
+    private static CertificateID getCertificateId(final OcspSigningCacheEntry entry) {
+        return entry.getCertificateID().get(0);
+    }
+
+    private static OcspSigningCacheEntry createEntry(final String subjectDn) throws Exception {
+        final KeyPair keyPair = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+        final X509Certificate caCertificate = CertTools.genSelfCert(subjectDn, 365, null, keyPair.getPrivate(), keyPair.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+        return new OcspSigningCacheEntry(caCertificate, CertificateStatus.OK, Collections.singletonList(caCertificate), null, keyPair.getPrivate(),
+                "BC", null, OcspKeyBinding.ResponderIdType.KEYHASH);
+    }
+}
@@ -0,0 +1,188 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.cesecore.certificates.ocsp.cache.PreProducedResponseStore.StoredResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of the file-backed segments of the local store of pre-produced OCSP responses.
+ */
+public class PreProducedResponseSegmentTest {
+
+    private static final int CA_ID = 4711;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        try (final PreProducedResponseSegment segment = openSegment()) {
+            final StoredResponse response = createResponse(1, 1000, Long.MAX_VALUE);
+            assertTrue(segment.put(BigInteger.ONE, response, 42));
+            final StoredResponse storedResponse = segment.get(BigInteger.ONE);
+            assertNotNull("Stored response was not found", storedResponse);
+            assertArrayEquals(response.getEncodedResponse(), storedResponse.getEncodedResponse());
+            assertEquals(1000, storedResponse.getProducedAt());
+            assertEquals(Long.MAX_VALUE, storedResponse.getNextUpdate());
+            assertEquals(42, storedResponse.getValidated());
+            assertNull("Response for other serial number should not be found", segment.get(BigInteger.TEN));
+        }
+    }
+
+    @Test
+    public void testReplaceAndRemove() throws IOException {
+        try (final PreProducedResponseSegment segment = openSegment()) {
+            segment.put(BigInteger.ONE, createResponse(1, 1000, Long.MAX_VALUE), 1);
+            segment.put(BigInteger.ONE, createResponse(2, 2000, Long.MAX_VALUE), 2);
+            assertEquals(2000, segment.get(BigInteger.ONE).getProducedAt());
+            assertEquals(1, segment.getEntryCount());
+            assertTrue("Replaced record should be garbage", segment.getGarbageBytes() > 0);
+            // The same response again only updates the validation time
+            final long garbageBytes = segment.getGarbageBytes();
+            segment.put(BigInteger.ONE, createResponse(2, 2000, Long.MAX_VALUE), 3);
+            assertEquals(garbageBytes, segment.getGarbageBytes());
+            assertEquals(3, segment.get(BigInteger.ONE).getValidated());
+            segment.remove(BigInteger.ONE);
+            assertNull(segment.get(BigInteger.ONE));
+            assertEquals(0, segment.getEntryCount());
+        }
+    }
+
+    @Test
+    public void testInvalidateAll() throws IOException {
+        try (final PreProducedResponseSegment segment = openSegment()) {
+            segment.put(BigInteger.ONE, createResponse(1, 1000, Long.MAX_VALUE), 42);
+            segment.put(BigInteger.TEN, createResponse(2, 1000, Long.MAX_VALUE), 42);
+            segment.invalidateAll();
+            assertEquals("Invalidated responses must be compared with the database again", 0, segment.get(BigInteger.ONE).getValidated());
+            assertEquals(0, segment.get(BigInteger.TEN).getValidated());
+            assertEquals(2, segment.getEntryCount());
+        }
+    }
+
+    @Test
+    public void testManyEntriesAndReopen() throws IOException {
+        final int count = 5000;
+        try (final PreProducedResponseSegment segment = openSegment()) {
+            for (int i = 0; i < count; i++) {
+                segment.put(serialNumber(i), createResponse(i, i, Long.MAX_VALUE), 1);
+            }
+            // Remove every third entry, which moves entries in the open addressing index
+            for (int i = 0; i < count; i += 3) {
+                segment.remove(serialNumber(i));
+            }
+            assertAllEntries(segment, count);
+        }
+        try (final PreProducedResponseSegment segment = openSegment()) {
+            // Removals are not persisted, so the index is rebuilt with all records of the file
+            assertEquals(count, segment.getEntryCount());
+            assertEquals("Responses read from file must be compared with the database before use", 0, segment.get(serialNumber(1)).getValidated());
+        }
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        final int count = 2000;
+        final int rounds = 5;
+        try (final PreProducedResponseSegment segment = openSegment()) {
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < count; i++) {
+                    // The response for serial number 1 has expired
+                    segment.put(serialNumber(i), createResponse(i, round * count + i, i == 1 ? 1 : Long.MAX_VALUE), round);
+                }
+            }
+            for (int i = 0; i < count; i += 3) {
+                segment.remove(serialNumber(i));
+            }
+            assertTrue("Segment should need compaction", segment.isCompactionNeeded());
+            segment.compact(System.currentTimeMillis());
+            assertEquals(0, segment.getGarbageBytes());
+            assertNull("Expired response should be removed", segment.get(serialNumber(1)));
+            assertEquals("Validation time should be kept", rounds - 1, segment.get(serialNumber(2)).getValidated());
+            assertEquals("Latest response should be kept", (rounds - 1) * count + 2, segment.get(serialNumber(2)).getProducedAt());
+            // New responses can still be appended after compaction
+            segment.put(serialNumber(0), createResponse(0, 4711, Long.MAX_VALUE), rounds);
+            assertEquals(4711, segment.get(serialNumber(0)).getProducedAt());
+        }
+        try (final PreProducedResponseSegment segment = openSegment()) {
+            // Removed and expired responses, and the one added after compaction
+            assertEquals(count - (count + 2) / 3 - 1 + 1, segment.getEntryCount());
+            assertEquals((rounds - 1) * count + 5, segment.get(serialNumber(5)).getProducedAt());
+        }
+    }
+
+    @Test
+    public void testReopenWithInvalidSerialNumberLength() throws IOException {
+        try (final PreProducedResponseSegment segment = openSegment()) {
+            segment.put(BigInteger.ONE, createResponse(1, 1000, Long.MAX_VALUE), 1);
+            segment.put(BigInteger.TEN, createResponse(1, 1000, Long.MAX_VALUE), 1);
+        }
+        // The second record starts after the 24 byte header and the 38 + 1 + 101 bytes of the first record
+        try (final FileChannel channel = FileChannel.open(segmentFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { (byte) 0x80 }), 24 + 140 + 4);
+        }
+        try (final PreProducedResponseSegment segment = openSegment()) {
+            assertNotNull("Response before the invalid record was not found", segment.get(BigInteger.ONE));
+            assertNull("Invalid record should be ignored", segment.get(BigInteger.TEN));
+            assertEquals(1, segment.getEntryCount());
+            assertTrue(segment.put(BigInteger.TEN, createResponse(2, 2000, Long.MAX_VALUE), 1));
+            assertEquals(2000, segment.get(BigInteger.TEN).getProducedAt());
+        }
+    }
+
+    private void assertAllEntries(final PreProducedResponseSegment segment, final int count) {
+        for (int i = 0; i < count; i++) {
+            if (i % 3 == 0) {
+                assertNull("Removed response for " + i + " was found", segment.get(serialNumber(i)));
+            } else {
+                final StoredResponse storedResponse = segment.get(serialNumber(i));
+                assertNotNull("Response for " + i + " was not found", storedResponse);
+                assertEquals(i % 127, storedResponse.getEncodedResponse()[0]);
+            }
+        }
+    }
+
+    private PreProducedResponseSegment openSegment() throws IOException {
+        return PreProducedResponseSegment.open(segmentFile(), CA_ID);
+    }
+
+    private Path segmentFile() {
+        return temporaryFolder.getRoot().toPath().resolve("preproduced-" + CA_ID + ".seg");
+    }
+
+    private static BigInteger serialNumber(final int i) {
+        return BigInteger.valueOf(i).shiftLeft(64).add(BigInteger.valueOf(i));
+    }
+
+    private static StoredResponse createResponse(final int content, final long producedAt, final long nextUpdate) {
+        final byte[] encodedResponse = new byte[100 + content % 50];
+        encodedResponse[0] = (byte) (content % 127);
+        return new StoredResponse(encodedResponse, producedAt, producedAt, nextUpdate, 0, -1);
+    }
+}
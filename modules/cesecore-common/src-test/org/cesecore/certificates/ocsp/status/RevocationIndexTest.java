@@ -0,0 +1,249 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.status;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.OcspConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of the memory-mapped revocation index used by the OCSP responder.
+ */
+public class RevocationIndexTest {
+
+    private static final String ISSUER_DN = "CN=RevocationIndexTest,O=Test";
+    private static final int PROFILE_ID = 4711;
+    private static final String USE_CHANGE_LOG = "database.useRevocationChangeLog";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String defaultConfigurationValue = null;
+    private String defaultChangeLogValue = null;
+
+    @Before
+    public void before() {
+        defaultConfigurationValue = ConfigurationHolder.getString(OcspConfiguration.REVOCATION_INDEX_DIR);
+        defaultChangeLogValue = ConfigurationHolder.getString(USE_CHANGE_LOG);
+        RevocationIndexStatusProvider.INSTANCE.clear();
+    }
+
+    @After
+    public void after() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.REVOCATION_INDEX_DIR, defaultConfigurationValue);
+        ConfigurationHolder.updateConfiguration(USE_CHANGE_LOG, defaultChangeLogValue);
+        RevocationIndexStatusProvider.INSTANCE.clear();
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        final Path file = temporaryFolder.getRoot().toPath().resolve("test.idx");
+        final List<Integer> serialNumbers = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            serialNumbers.add(i);
+        }
+        // Certificates are read from the database in fingerprint order, which is unrelated to the serial number order
+        Collections.shuffle(serialNumbers, new Random(4711));
+        final RevocationIndex index;
+        try (final RevocationIndex.Builder builder = RevocationIndex.builder(ISSUER_DN, file)) {
+            for (final int i : serialNumbers) {
+                final boolean revoked = i % 10 == 0;
+                builder.update(BigInteger.valueOf(i), revoked ? CertificateConstants.CERT_REVOKED : CertificateConstants.CERT_ACTIVE, revoked ? 1000L * i : -1,
+                        revoked ? RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE : RevokedCertInfo.NOT_REVOKED, i == 500 ? 42L : -1, PROFILE_ID + i, i);
+            }
+            // Serial numbers are not unique per issuer in the database
+            builder.update(BigInteger.valueOf(7), CertificateConstants.CERT_ACTIVE, -1, RevokedCertInfo.NOT_REVOKED, -1, PROFILE_ID + 7, 7);
+            index = builder.write();
+        }
+        assertFalse("Temporary file should have been replaced.", Files.exists(file.resolveSibling("test.idx.tmp")));
+        assertEquals(ISSUER_DN, index.getIssuerDn());
+        assertEquals(100, index.getRevokedCount());
+        assertEquals(1000, index.getIssuedCount());
+        assertEquals(1000, index.getLastUpdateTime());
+        for (int i = 1; i <= 1000; i++) {
+            final CertificateStatus status = index.getStatus(BigInteger.valueOf(i));
+            if (i % 10 == 0) {
+                assertEquals(CertificateStatus.REVOKED, status);
+                assertEquals(1000L * i, status.revocationDate.getTime());
+                assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, status.revocationReason);
+            } else {
+                assertEquals("Serial number " + i + " should be good.", CertificateStatus.OK, status);
+            }
+            assertEquals(PROFILE_ID + i, status.certificateProfileId);
+        }
+        assertEquals(42L, index.getStatus(BigInteger.valueOf(500)).invalidityDate.getTime());
+        assertEquals(CertificateStatus.NOT_AVAILABLE, index.getStatus(BigInteger.ZERO));
+        for (int i = 1001; i <= 2000; i++) {
+            assertEquals("Serial number " + i + " has not been issued.", CertificateStatus.NOT_AVAILABLE, index.getStatus(BigInteger.valueOf(i)));
+        }
+        assertNull("Serial numbers longer than 20 octets can not be indexed.", index.getStatus(BigInteger.ONE.shiftLeft(160)));
+        // Same content when mapped again
+        assertEquals(CertificateStatus.REVOKED, RevocationIndex.open(file).getStatus(BigInteger.valueOf(990)));
+    }
+
+    @Test
+    public void testLargeSerialNumbers() throws IOException {
+        final BigInteger large = BigInteger.ONE.shiftLeft(159).add(BigInteger.valueOf(3)); // 20 octets, highest bit set
+        final BigInteger small = BigInteger.valueOf(0x7F);
+        final RevocationIndex index;
+        try (final RevocationIndex.Builder builder = RevocationIndex.builder(ISSUER_DN, temporaryFolder.getRoot().toPath().resolve("test.idx"))) {
+            builder.update(large, CertificateConstants.CERT_REVOKED, 1, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, -1, PROFILE_ID, 1);
+            builder.update(small, CertificateConstants.CERT_REVOKED, 2, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, -1, PROFILE_ID, 2);
+            assertFalse(builder.update(BigInteger.ONE.shiftLeft(160), CertificateConstants.CERT_ACTIVE, -1, RevokedCertInfo.NOT_REVOKED, -1, PROFILE_ID, 3));
+            index = builder.write();
+        }
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, index.getStatus(large).revocationReason);
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, index.getStatus(small).revocationReason);
+        assertEquals(2, index.getIssuedCount());
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws IOException {
+        final Path file = temporaryFolder.getRoot().toPath().resolve("test.idx");
+        final RevocationIndex index;
+        try (final RevocationIndex.Builder builder = RevocationIndex.builder(ISSUER_DN, file)) {
+            builder.update(BigInteger.valueOf(2), CertificateConstants.CERT_ACTIVE, -1, RevokedCertInfo.NOT_REVOKED, -1, PROFILE_ID, 10);
+            builder.update(BigInteger.valueOf(4), CertificateConstants.CERT_REVOKED, 5, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, -1, PROFILE_ID, 10);
+            builder.update(BigInteger.valueOf(6), CertificateConstants.CERT_REVOKED, 5, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, -1, PROFILE_ID, 10);
+            index = builder.write();
+        }
+
+        try (final RevocationIndex.Builder unchanged = index.toBuilder(file)) {
+            unchanged.update(BigInteger.valueOf(4), CertificateConstants.CERT_REVOKED, 5, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, -1, PROFILE_ID, 10);
+            unchanged.remove(BigInteger.valueOf(5));
+            assertFalse("Reading the same data again should not modify the index.", unchanged.isModified());
+        }
+
+        final RevocationIndex updated;
+        try (final RevocationIndex.Builder incremental = index.toBuilder(file)) {
+            incremental.update(BigInteger.valueOf(2), CertificateConstants.CERT_REVOKED, 20, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, -1, PROFILE_ID, 20);
+            // Removed from hold
+            incremental.update(BigInteger.valueOf(4), CertificateConstants.CERT_ACTIVE, -1, RevokedCertInfo.NOT_REVOKED, -1, PROFILE_ID, 20);
+            // Limited entry removed from the database
+            incremental.remove(BigInteger.valueOf(6));
+            // New certificates before, between and after the existing ones
+            incremental.update(BigInteger.valueOf(1), CertificateConstants.CERT_ACTIVE, -1, RevokedCertInfo.NOT_REVOKED, -1, PROFILE_ID, 20);
+            incremental.update(BigInteger.valueOf(3), CertificateConstants.CERT_ACTIVE, -1, RevokedCertInfo.NOT_REVOKED, -1, PROFILE_ID, 20);
+            incremental.update(BigInteger.valueOf(7), CertificateConstants.CERT_REVOKED, 20, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, -1, PROFILE_ID, 20);
+            assertTrue(incremental.isModified());
+            updated = incremental.write();
+        }
+        assertEquals(CertificateStatus.OK, updated.getStatus(BigInteger.valueOf(1)));
+        assertEquals(CertificateStatus.REVOKED, updated.getStatus(BigInteger.valueOf(2)));
+        assertEquals(CertificateStatus.OK, updated.getStatus(BigInteger.valueOf(3)));
+        assertEquals(CertificateStatus.OK, updated.getStatus(BigInteger.valueOf(4)));
+        assertEquals(CertificateStatus.NOT_AVAILABLE, updated.getStatus(BigInteger.valueOf(6)));
+        assertEquals(CertificateStatus.REVOKED, updated.getStatus(BigInteger.valueOf(7)));
+        assertEquals(5, updated.getIssuedCount());
+        assertEquals(2, updated.getRevokedCount());
+        assertEquals(20, updated.getLastUpdateTime());
+        // The previous mapping stays usable for lookups in progress
+        assertEquals(CertificateStatus.REVOKED, index.getStatus(BigInteger.valueOf(4)));
+    }
+
+    @Test
+    public void testArchivedStatus() throws IOException {
+        final RevocationIndex index;
+        try (final RevocationIndex.Builder builder = RevocationIndex.builder(ISSUER_DN, temporaryFolder.getRoot().toPath().resolve("test.idx"))) {
+            builder.update(BigInteger.valueOf(1), CertificateConstants.CERT_ARCHIVED, 5, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, -1, PROFILE_ID, 1);
+            builder.update(BigInteger.valueOf(2), CertificateConstants.CERT_ARCHIVED, -1, RevokedCertInfo.NOT_REVOKED, -1, PROFILE_ID, 1);
+            index = builder.write();
+        }
+        assertEquals("Expired revoked certificates should still be revoked.", CertificateStatus.REVOKED, index.getStatus(BigInteger.valueOf(1)));
+        assertEquals(CertificateStatus.OK, index.getStatus(BigInteger.valueOf(2)));
+    }
+
+    @Test
+    public void testIndexFileName() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.REVOCATION_INDEX_DIR, temporaryFolder.getRoot().getAbsolutePath());
+        // Same String.hashCode()
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertNotEquals(RevocationIndexStatusProvider.INSTANCE.getIndexFile("CN=Aa"), RevocationIndexStatusProvider.INSTANCE.getIndexFile("CN=BB"));
+        assertEquals(RevocationIndexStatusProvider.INSTANCE.getIndexFile("CN=Aa"), RevocationIndexStatusProvider.INSTANCE.getIndexFile("CN=Aa"));
+    }
+
+    @Test
+    public void testProviderAnswersOnlyWhenCurrent() throws IOException {
+        final RevocationIndexStatusProvider provider = RevocationIndexStatusProvider.INSTANCE;
+        assertFalse("Revocation index should be disabled by default.", provider.isEnabled());
+        assertNull(provider.getStatus(ISSUER_DN, BigInteger.ONE));
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.REVOCATION_INDEX_DIR, temporaryFolder.getRoot().getAbsolutePath());
+        ConfigurationHolder.updateConfiguration(USE_CHANGE_LOG, "true");
+        try (final RevocationIndex.Builder builder = RevocationIndex.builder(ISSUER_DN, provider.getIndexFile(ISSUER_DN))) {
+            builder.update(BigInteger.ONE, CertificateConstants.CERT_REVOKED, 5, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, -1, PROFILE_ID, 1);
+            builder.update(BigInteger.TEN, CertificateConstants.CERT_ACTIVE, -1, RevokedCertInfo.NOT_REVOKED, -1, PROFILE_ID, 1);
+            builder.write();
+        }
+        // As after a restart. The index is loaded, but changes may have been made while the node was down.
+        provider.clear();
+        final RevocationIndex loaded = provider.getIndex(ISSUER_DN);
+        assertNotNull(loaded);
+        final long now = System.currentTimeMillis();
+        provider.changeLogRead(now);
+        assertNull("Index loaded from disk should not be used before it has been refreshed.", provider.getStatus(ISSUER_DN, BigInteger.ONE));
+        assertFalse(provider.hasStatusForIssuer(ISSUER_DN));
+        provider.swap(loaded, now, Collections.emptyMap());
+        assertTrue(provider.hasStatusForIssuer(ISSUER_DN));
+        assertEquals(CertificateStatus.REVOKED, provider.getStatus(ISSUER_DN, BigInteger.ONE));
+        assertEquals(CertificateStatus.OK, provider.getStatus(ISSUER_DN, BigInteger.TEN));
+        assertEquals(CertificateStatus.NOT_AVAILABLE, provider.getStatus(ISSUER_DN, BigInteger.valueOf(2)));
+        assertNull(provider.getStatus("CN=Other", BigInteger.ONE));
+
+        // Removed from hold after the refresh
+        provider.markChanged(ISSUER_DN, BigInteger.ONE);
+        assertNull("Changed certificate should be looked up in the database.", provider.getStatus(ISSUER_DN, BigInteger.ONE));
+        assertEquals(CertificateStatus.OK, provider.getStatus(ISSUER_DN, BigInteger.TEN));
+        final Map<BigInteger, Long> changes = provider.getChangedCertificates(ISSUER_DN, Long.MAX_VALUE);
+        assertEquals(Collections.singleton(BigInteger.ONE), changes.keySet());
+        assertTrue("Changes after the refresh started are not read.", provider.getChangedCertificates(ISSUER_DN, now - 1).isEmpty());
+        provider.swap(loaded, System.currentTimeMillis(), changes);
+        assertEquals(CertificateStatus.REVOKED, provider.getStatus(ISSUER_DN, BigInteger.ONE));
+
+        provider.markIssuerChanged(ISSUER_DN);
+        assertNull("All certificates of the issuer have changed.", provider.getStatus(ISSUER_DN, BigInteger.TEN));
+        provider.swap(loaded, System.currentTimeMillis() + 1, Collections.emptyMap());
+        assertEquals(CertificateStatus.OK, provider.getStatus(ISSUER_DN, BigInteger.TEN));
+
+        provider.changeLogRead(now - 4 * CesecoreConfiguration.getRevocationChangeLogPollInterval());
+        assertNull("Index should not be used when the change log has not been read recently.", provider.getStatus(ISSUER_DN, BigInteger.TEN));
+        provider.changeLogRead(System.currentTimeMillis());
+        assertEquals(CertificateStatus.OK, provider.getStatus(ISSUER_DN, BigInteger.TEN));
+        ConfigurationHolder.updateConfiguration(USE_CHANGE_LOG, "false");
+        assertNull("Index should not be used without the change log.", provider.getStatus(ISSUER_DN, BigInteger.TEN));
+    }
+}
@@ -0,0 +1,169 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.util.cert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+
+/**
+ * Tests that {@link StreamingCrlParser} reads the same information from a CRL as X509CRL.
+ */
+public class StreamingCrlParserUnitTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=Streaming CRL Parser Test,O=PrimeKey");
+    private static final X500Name OTHER_ISSUER = new X500Name("CN=Other Issuer,O=PrimeKey");
+    private static final Date THIS_UPDATE = new Date(1600000000000L);
+    private static final Date NEXT_UPDATE = new Date(1600086400000L);
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC", "BC");
+        keyPairGenerator.initialize(256);
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    @Test
+    public void testCrlWithEntries() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        builder.setNextUpdate(NEXT_UPDATE);
+        for (int i = 1; i <= 1000; i++) {
+            builder.addCRLEntry(BigInteger.valueOf(i).shiftLeft(64), new Date(THIS_UPDATE.getTime() - i * 1000L), i % 11);
+        }
+        final ExtensionsGenerator entryExtensions = new ExtensionsGenerator();
+        entryExtensions.addExtension(Extension.reasonCode, false, CRLReason.lookup(CRLReason.keyCompromise));
+        entryExtensions.addExtension(Extension.invalidityDate, false, new ASN1GeneralizedTime(new Date(1500000000000L)));
+        builder.addCRLEntry(BigInteger.valueOf(5000), THIS_UPDATE, entryExtensions.generate());
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(42)));
+        final byte[] encoded = sign(builder);
+
+        final X509CRL x509crl = CertTools.getCRLfromByteArray(encoded);
+        final StreamingCrlParser parser = new StreamingCrlParser(encoded);
+        assertEquals(x509crl.getIssuerX500Principal(), parser.getIssuerX500Principal());
+        assertEquals(THIS_UPDATE, parser.getThisUpdate());
+        assertEquals(NEXT_UPDATE, parser.getNextUpdate());
+        assertEquals(42, parser.getCrlNumber().intValue());
+        assertEquals(-1, parser.getDeltaCRLIndicator().intValue());
+        assertTrue(parser.isSignatureValid(keyPair.getPublic()));
+        int count = 0;
+        StreamingCrlParser.Entry entry;
+        while ((entry = parser.nextEntry()) != null) {
+            final X509CRLEntry x509entry = x509crl.getRevokedCertificate(entry.getSerialNumber());
+            assertEquals(x509entry.getRevocationDate(), entry.getRevocationDate());
+            assertEquals(CrlExtensions.extractReasonCode(x509entry), entry.getReasonCode());
+            final ASN1GeneralizedTime invalidityDate = CrlExtensions.extractInvalidityDate(x509entry);
+            assertEquals(invalidityDate == null ? null : invalidityDate.getDate(), entry.getInvalidityDate());
+            assertNull(entry.getCertificateIssuer());
+            count++;
+        }
+        assertEquals(x509crl.getRevokedCertificates().size(), count);
+        assertNull("No more entries should be returned", parser.nextEntry());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, CrlExtensions.extractReasonCode(x509crl.getRevokedCertificate(BigInteger.valueOf(5000))));
+    }
+
+    @Test
+    public void testEmptyDeltaCrl() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(43)));
+        builder.addExtension(Extension.deltaCRLIndicator, true, new CRLNumber(BigInteger.valueOf(42)));
+        final StreamingCrlParser parser = new StreamingCrlParser(sign(builder));
+        assertNull(parser.getNextUpdate());
+        assertEquals(43, parser.getCrlNumber().intValue());
+        assertEquals(42, parser.getDeltaCRLIndicator().intValue());
+        assertNull(parser.nextEntry());
+    }
+
+    @Test
+    public void testIndirectCrl() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        builder.addCRLEntry(BigInteger.ONE, THIS_UPDATE, 0);
+        final ExtensionsGenerator entryExtensions = new ExtensionsGenerator();
+        entryExtensions.addExtension(Extension.certificateIssuer, true, new GeneralNames(new GeneralName(OTHER_ISSUER)));
+        builder.addCRLEntry(BigInteger.TWO, THIS_UPDATE, entryExtensions.generate());
+        builder.addCRLEntry(BigInteger.TEN, THIS_UPDATE, 0);
+        final StreamingCrlParser parser = new StreamingCrlParser(sign(builder));
+        assertNull(parser.nextEntry().getCertificateIssuer());
+        assertEquals(OTHER_ISSUER, parser.nextEntry().getCertificateIssuer());
+        assertEquals("Certificate issuer should apply to the following entries", OTHER_ISSUER, parser.nextEntry().getCertificateIssuer());
+    }
+
+    @Test
+    public void testInvalidSignature() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        builder.addCRLEntry(BigInteger.ONE, THIS_UPDATE, 0);
+        final byte[] encoded = sign(builder);
+        // Change the serial number of the entry, which is in the signed TBSCertList
+        final byte[] modified = encoded.clone();
+        final int serialNumberOffset = indexOf(modified, new byte[] { 0x02, 0x01, 0x01, 0x17 }) + 2;
+        modified[serialNumberOffset] = 0x02;
+        assertFalse(new StreamingCrlParser(modified).isSignatureValid(keyPair.getPublic()));
+        assertTrue(new StreamingCrlParser(encoded).isSignatureValid(keyPair.getPublic()));
+    }
+
+    @Test
+    public void testTruncatedCrl() throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+        builder.addCRLEntry(BigInteger.ONE, THIS_UPDATE, 0);
+        final byte[] encoded = sign(builder);
+        try {
+            new StreamingCrlParser(Arrays.copyOf(encoded, encoded.length - 10));
+            fail("Truncated CRL should not be parsed");
+        } catch (CRLException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] sign(final X509v2CRLBuilder builder) throws Exception {
+        return builder.build(new JcaContentSignerBuilder("SHA256withECDSA").setProvider("BC").build(keyPair.getPrivate())).getEncoded();
+    }
+
+    private static int indexOf(final byte[] array, final byte[] target) {
+        for (int i = 0; i <= array.length - target.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(array, i, i + target.length), target)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not found");
+    }
+}
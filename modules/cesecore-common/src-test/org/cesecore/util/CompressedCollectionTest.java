@@ -14,9 +14,14 @@ package org.cesecore.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Iterator;
@@ -24,6 +29,7 @@ import java.util.Iterator;
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCodec;
 import org.junit.Test;
 
 /**
@@ -105,6 +111,67 @@ public class CompressedCollectionTest {
         compressedCollection.clear();
     }
 
+    @Test
+    public void testCodec() {
+        final CompressedCollection<RevokedCertInfo> compressedCollection = new CompressedCollection<>(RevokedCertInfoCodec.INSTANCE, 1);
+        final String hexFingerprint = "0123456789abcdef0123456789abcdef01234567";
+        compressedCollection.add(new RevokedCertInfo(hexFingerprint.getBytes(), new BigInteger("123456789012345678901234567890").toByteArray(), 1000L,
+                RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 2000L, 500L));
+        compressedCollection.add(new RevokedCertInfo("not a hex fingerprint".getBytes(), BigInteger.ONE.negate().toByteArray(), 0L,
+                RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, 0L));
+        compressedCollection.add(new RevokedCertInfo(null, new byte[200], 3000L, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, 4000L));
+        assertEquals(3, compressedCollection.size());
+        for (int i = 0; i < 2; i++) {
+            final Iterator<RevokedCertInfo> iterator = compressedCollection.iterator();
+            final RevokedCertInfo first = iterator.next();
+            assertEquals(hexFingerprint, first.getCertificateFingerprint());
+            assertEquals(new BigInteger("123456789012345678901234567890"), first.getUserCertificate());
+            assertEquals(1000L, first.getRevocationDate().getTime());
+            assertEquals(2000L, first.getExpireDate().getTime());
+            assertEquals(500L, first.getInvalidityDate().getTime());
+            assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, first.getReason());
+            final RevokedCertInfo second = iterator.next();
+            assertEquals("not a hex fingerprint", second.getCertificateFingerprint());
+            assertEquals(BigInteger.ONE.negate(), second.getUserCertificate());
+            assertFalse(second.isRevocationDateSet());
+            assertNull(second.getExpireDate());
+            assertFalse(second.isInvalidityDateSet());
+            assertEquals(RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, second.getReason());
+            final RevokedCertInfo third = iterator.next();
+            assertNull(third.getCertificateFingerprint());
+            assertEquals(BigInteger.ZERO, third.getUserCertificate());
+            assertEquals(RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, third.getReason());
+            assertFalse(iterator.hasNext());
+        }
+        compressedCollection.clear();
+        assertFalse(compressedCollection.iterator().hasNext());
+    }
+
+    @Test
+    public void testCodecSerialization() throws Exception {
+        final CompressedCollection<RevokedCertInfo> compressedCollection = new CompressedCollection<>(RevokedCertInfoCodec.INSTANCE, 9);
+        for (int i = 0; i < 1000; i++) {
+            compressedCollection.add(new RevokedCertInfo(String.format("%040x", i).getBytes(), BigInteger.valueOf(i).toByteArray(), 1000L + i,
+                    RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, 2000L + i));
+        }
+        compressedCollection.closeForWrite();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(compressedCollection);
+        }
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            @SuppressWarnings("unchecked")
+            final CompressedCollection<RevokedCertInfo> deserialized = (CompressedCollection<RevokedCertInfo>) ois.readObject();
+            assertEquals(1000, deserialized.size());
+            int i = 0;
+            for (final RevokedCertInfo revokedCertInfo : deserialized) {
+                assertEquals(BigInteger.valueOf(i), revokedCertInfo.getUserCertificate());
+                i++;
+            }
+            assertEquals(1000, i);
+        }
+    }
+
     private void logMemUnreliably() {
         System.gc();
         // Memory still not allocated by the JVM + available memory of what is allocated by the JVM
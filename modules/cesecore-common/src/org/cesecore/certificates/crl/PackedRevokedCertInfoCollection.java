@@ -0,0 +1,118 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Append-only collection of RevokedCertInfo, that keeps the entries in a compact binary layout in memory instead of as objects.
+ * <p>
+ * Unlike {@link org.cesecore.util.CompressedCollection} there is no Java serialization and no compression, so adding and
+ * reading entries is cheap, at the cost of roughly 100 bytes of memory per entry. Each entry is stored as:
+ * <pre>
+ * fingerprint length (1 byte), fingerprint
+ * serial number length (1 byte), serial number as BigInteger.toByteArray()
+ * revocation date (8 bytes), expire date (8 bytes), invalidity date (8 bytes, NO_DATE if not set)
+ * reason (1 byte)
+ * </pre>
+ * Entries are read as new RevokedCertInfo objects, so changes to the returned objects are not stored.
+ */
+public class PackedRevokedCertInfoCollection extends AbstractCollection<RevokedCertInfo> {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    /** Largest possible entry, with fingerprint and serial number of at most 255 bytes */
+    private static final int MAX_ENTRY_SIZE = 2 * (1 + 255) + 3 * Long.BYTES + 1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int size = 0;
+
+    @Override
+    public boolean add(final RevokedCertInfo revokedCertInfo) {
+        final String fingerprintString = revokedCertInfo.getCertificateFingerprint();
+        final byte[] fingerprint = fingerprintString == null ? new byte[0] : fingerprintString.getBytes();
+        final byte[] serialNumber = revokedCertInfo.getUserCertificate().toByteArray();
+        if (fingerprint.length > 255 || serialNumber.length > 255) {
+            throw new IllegalArgumentException("Fingerprint or serial number of revoked certificate is too long: " + revokedCertInfo);
+        }
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < MAX_ENTRY_SIZE) {
+            chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            chunks.add(chunk);
+        }
+        chunk.put((byte) fingerprint.length);
+        chunk.put(fingerprint);
+        chunk.put((byte) serialNumber.length);
+        chunk.put(serialNumber);
+        chunk.putLong(revokedCertInfo.isRevocationDateSet() ? revokedCertInfo.getRevocationDate().getTime() : 0);
+        chunk.putLong(revokedCertInfo.getExpireDate() == null ? 0 : revokedCertInfo.getExpireDate().getTime());
+        chunk.putLong(revokedCertInfo.isInvalidityDateSet() ? revokedCertInfo.getInvalidityDate().getTime() : NO_DATE);
+        chunk.put((byte) revokedCertInfo.getReason());
+        size++;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Releases the memory used by the entries */
+    @Override
+    public void clear() {
+        chunks.clear();
+        size = 0;
+    }
+
+    @Override
+    public Iterator<RevokedCertInfo> iterator() {
+        return new Iterator<RevokedCertInfo>() {
+            private int chunkIndex = 0;
+            private ByteBuffer chunk = null;
+            private int remaining = size;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public RevokedCertInfo next() {
+                if (remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                if (chunk == null || !chunk.hasRemaining()) {
+                    // A separate view of the chunk, so the write position is not affected
+                    final ByteBuffer current = chunks.get(chunkIndex++);
+                    chunk = ByteBuffer.wrap(current.array(), 0, current.position());
+                }
+                final byte[] fingerprint = new byte[chunk.get() & 0xff];
+                chunk.get(fingerprint);
+                final byte[] serialNumber = new byte[chunk.get() & 0xff];
+                chunk.get(serialNumber);
+                final long revocationDate = chunk.getLong();
+                final long expireDate = chunk.getLong();
+                final long invalidityDate = chunk.getLong();
+                final int reason = chunk.get();
+                remaining--;
+                return new RevokedCertInfo(fingerprint.length == 0 ? null : fingerprint, serialNumber, revocationDate, reason, expireDate,
+                        invalidityDate == NO_DATE ? null : invalidityDate);
+            }
+        };
+    }
+}
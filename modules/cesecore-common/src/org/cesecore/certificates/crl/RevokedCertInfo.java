@@ -14,7 +14,9 @@ package org.cesecore.certificates.crl;
 
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -314,53 +316,69 @@ public class RevokedCertInfo implements Serializable {
         if (b.isEmpty()) {
             return a;
         }
-        // Merge revocation information
-        final Map<BigInteger,RevokedCertInfo> permRevoked = new HashMap<>();
-        final Map<BigInteger,RevokedCertInfo> tempRevoked = new HashMap<>();
+        final Map<BigInteger,List<RevokedCertInfo>> bBySerial = new HashMap<>();
+        for (final RevokedCertInfo revoked : b) {
+            bBySerial.computeIfAbsent(revoked.getUserCertificate(), serial -> new ArrayList<>()).add(revoked);
+        }
+        final CompressedCollection<RevokedCertInfo> mergedRevokedData = RevokedCertInfoCodec.createCompressedCollection();
         for (final RevokedCertInfo revoked : a) {
-            final BigInteger serial = revoked.getUserCertificate();
-            if (revoked.isPermanentlyRevoked()) {
-                permRevoked.put(serial, revoked);
-            } else {
-                tempRevoked.put(serial, revoked);
+            final List<RevokedCertInfo> duplicates = bBySerial.remove(revoked.getUserCertificate());
+            final RevokedCertInfo merged = mergeEntriesByDateAndStatus(revoked, duplicates == null ? Collections.emptyList() : duplicates, lastBaseCrlDate);
+            if (merged != null) {
+                mergedRevokedData.add(merged);
             }
         }
+        for (final List<RevokedCertInfo> duplicates : bBySerial.values()) {
+            final RevokedCertInfo merged = mergeEntriesByDateAndStatus(null, duplicates, lastBaseCrlDate);
+            if (merged != null) {
+                mergedRevokedData.add(merged);
+            }
+        }
+        mergedRevokedData.closeForWrite();
+        if (log.isDebugEnabled()) {
+            log.debug("mergeByDateAndStatus: Merged to " + mergedRevokedData.size() + " entries");
+        }
+        return mergedRevokedData;
+    }
+
+    /**
+     * Merges the entries for a single serial number, according to the same rules as {@link #mergeByDateAndStatus(Collection, Collection, long)}.
+     * Used when the entries are read in serial number order and merged as they are read.
+     *
+     * @param a Entry for the serial number from the first collection, or null if there is none.
+     * @param b Entries for the same serial number from the second collection, in the order they were read. May be empty.
+     * @param lastBaseCrlDate Entries in unrevoked state will only be included if they are more recent than this date. (<= 0 means never include them)
+     * @return the entry that should be included on the CRL, or null if the serial number should not be included.
+     */
+    public static RevokedCertInfo mergeEntriesByDateAndStatus(final RevokedCertInfo a, final Collection<RevokedCertInfo> b, final long lastBaseCrlDate) {
+        RevokedCertInfo permRevoked = a != null && a.isPermanentlyRevoked() ? a : null;
+        RevokedCertInfo tempRevoked = a != null && !a.isPermanentlyRevoked() ? a : null;
         for (final RevokedCertInfo revoked : b) {
-            final BigInteger serial = revoked.getUserCertificate();
             final Date revdate = revoked.getRevocationDate();
-            final RevokedCertInfo permDate = permRevoked.get(serial);
-            if (permDate != null) {
+            if (permRevoked != null) {
                 // Older permanent status changes win over newer ones
-                if (permDate.getRevocationDate().after(revdate) && revoked.isPermanentlyRevoked()) {
-                    permRevoked.put(serial, revoked);
-                    tempRevoked.remove(serial);
+                if (permRevoked.getRevocationDate().after(revdate) && revoked.isPermanentlyRevoked()) {
+                    permRevoked = revoked;
                 }
                 continue;
             }
             if (revoked.isPermanentlyRevoked()) {
                 // Permanently revoked wins over temporary revoked/re-activated
-                permRevoked.put(serial, revoked);
-                tempRevoked.remove(serial);
+                permRevoked = revoked;
+                tempRevoked = null;
                 continue;
             }
-            final RevokedCertInfo tempDate = tempRevoked.get(serial);
-            // More recent temporary status changes win over older ones 
-            if (tempDate == null || tempDate.getRevocationDate().before(revdate)) {
-                tempRevoked.put(serial, revoked);
+            // More recent temporary status changes win over older ones
+            if (tempRevoked == null || tempRevoked.getRevocationDate().before(revdate)) {
+                tempRevoked = revoked;
             }
         }
-        final CompressedCollection<RevokedCertInfo> mergedRevokedData = new CompressedCollection<>(RevokedCertInfo.class);
-        mergedRevokedData.addAll(permRevoked.values()); // Permanently revoked entries are always added
-        for (final RevokedCertInfo revoked : tempRevoked.values()) {
-            if (!revoked.isRevoked() && (lastBaseCrlDate <= 0 || revoked.getRevocationDate().getTime() <= lastBaseCrlDate)) {
-                continue; // REMOVEFROMCRL entries are not added in Base CRLs (lastBaseCrlDate=0) or if already removed from the latest Base CRL
-            }
-            mergedRevokedData.add(revoked);
+        if (permRevoked != null) {
+            return permRevoked; // Permanently revoked entries are always added
         }
-        mergedRevokedData.closeForWrite();
-        if (log.isDebugEnabled()) {
-            log.debug("mergeByDateAndStatus: Merged to " + mergedRevokedData.size() + " entries");
+        if (tempRevoked == null || (!tempRevoked.isRevoked() && (lastBaseCrlDate <= 0 || tempRevoked.getRevocationDate().getTime() <= lastBaseCrlDate))) {
+            return null; // REMOVEFROMCRL entries are not added in Base CRLs (lastBaseCrlDate=0) or if already removed from the latest Base CRL
         }
-        return mergedRevokedData;
+        return tempRevoked;
     }
 }
@@ -0,0 +1,349 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * Bounded cache of signed single-CertID OCSP responses. Only responses to requests without nonce (or other request
+ * extensions) are cached, and an entry is held until the nextUpdate of the response. The cache is bounded by the total
+ * size of the encoded responses, and the least recently used entries are evicted first.
+ * <p>
+ * The cache is split into up to {@link #MAX_SEGMENTS} segments by serial number, each with its own lock and an equal share
+ * of the maximum size, so concurrent requests for different certificates rarely wait for each other. Small caches use a
+ * single segment.
+ * <p>
+ * Entries are invalidated by serial number when the revocation status of a certificate is changed on this node. Changes
+ * made on other nodes reach this cache through the revocation change log, which CertificateStoreSessionBean polls when
+ * {@link org.cesecore.config.CesecoreConfiguration#useRevocationChangeLog()} is enabled. Without the change log, a node
+ * may serve a cached response for a certificate revoked on another node until the nextUpdate of the response.
+ *
+ * @see OcspConfiguration#getResponseCacheMaxSize()
+ */
+public enum OcspResponseCache {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(OcspResponseCache.class);
+
+    /** Rough estimation of the bookkeeping overhead of each entry, used when accounting for the cache size. */
+    private static final int ENTRY_OVERHEAD = 256;
+    /** Maximum number of independently locked segments */
+    private static final int MAX_SEGMENTS = 16;
+    /** Minimum size of a segment, so small caches are not split into segments that only hold a few responses each */
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    /** Lookup key of a cached response, (issuerNameHash, issuerKeyHash, serialNumber, hashAlgorithm, signerId). */
+    private static final class CacheKey {
+        private final byte[] issuerNameHash;
+        private final byte[] issuerKeyHash;
+        private final BigInteger serialNumber;
+        private final String hashAlgorithm;
+        private final int signerId;
+        private final int hashCode;
+
+        private CacheKey(final CertificateID certId, final int signerId) {
+            this.issuerNameHash = certId.getIssuerNameHash();
+            this.issuerKeyHash = certId.getIssuerKeyHash();
+            this.serialNumber = certId.getSerialNumber();
+            this.hashAlgorithm = certId.getHashAlgOID().getId();
+            this.signerId = signerId;
+            int result = Arrays.hashCode(issuerNameHash);
+            result = 31 * result + Arrays.hashCode(issuerKeyHash);
+            result = 31 * result + serialNumber.hashCode();
+            result = 31 * result + hashAlgorithm.hashCode();
+            this.hashCode = 31 * result + signerId;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) obj;
+            return hashCode == other.hashCode && signerId == other.signerId && serialNumber.equals(other.serialNumber)
+                    && hashAlgorithm.equals(other.hashAlgorithm) && Arrays.equals(issuerNameHash, other.issuerNameHash)
+                    && Arrays.equals(issuerKeyHash, other.issuerKeyHash);
+        }
+    }
+
+    /** A signed response together with the information needed to return it without re-parsing. */
+    public static final class CachedResponse {
+        private final byte[] encodedResponse;
+        private final long thisUpdate;
+        private final long nextUpdate;
+        private final long maxAge;
+        private final X509Certificate signerCertificate;
+        private final int certStatus;
+        private final int revocationReason;
+
+        /**
+         * @param encodedResponse DER encoded OCSPResp
+         * @param thisUpdate thisUpdate of the single response in milliseconds since epoch
+         * @param nextUpdate nextUpdate of the single response in milliseconds since epoch
+         * @param maxAge max age in milliseconds for the HTTP cache headers
+         * @param signerCertificate certificate used to sign the response
+         * @param certStatus status code of the single response, for transaction logging
+         * @param revocationReason revocation reason of the single response, or -1 if not revoked
+         */
+        public CachedResponse(final byte[] encodedResponse, final long thisUpdate, final long nextUpdate, final long maxAge,
+                final X509Certificate signerCertificate, final int certStatus, final int revocationReason) {
+            this.encodedResponse = encodedResponse;
+            this.thisUpdate = thisUpdate;
+            this.nextUpdate = nextUpdate;
+            this.maxAge = maxAge;
+            this.signerCertificate = signerCertificate;
+            this.certStatus = certStatus;
+            this.revocationReason = revocationReason;
+        }
+
+        public byte[] getEncodedResponse() { return encodedResponse; }
+        public long getThisUpdate() { return thisUpdate; }
+        public long getNextUpdate() { return nextUpdate; }
+        public long getMaxAge() { return maxAge; }
+        public X509Certificate getSignerCertificate() { return signerCertificate; }
+        public int getCertStatus() { return certStatus; }
+        public int getRevocationReason() { return revocationReason; }
+
+        private int getSize() {
+            return encodedResponse.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    /** One independently locked part of the cache. All responses for a serial number are kept in the same segment. */
+    private static final class Segment {
+        private final long maxSize;
+        /** Access ordered, so iteration starts with the least recently used entry. Guarded by "this". */
+        private final LinkedHashMap<CacheKey, CachedResponse> cache = new LinkedHashMap<>(1024, 0.75f, true);
+        /** All cached keys for each serial number, used for invalidation when the status of a certificate changes. Guarded by "this". */
+        private final Map<BigInteger, Set<CacheKey>> keysBySerialNumber = new HashMap<>();
+        private long currentSize = 0;
+
+        private Segment(final long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /** Must be called while holding the lock on "this". */
+        private void removeEntry(final CacheKey key) {
+            final CachedResponse removed = cache.remove(key);
+            if (removed != null) {
+                unindex(key, removed);
+            }
+        }
+
+        /** Must be called while holding the lock on "this". */
+        private void unindex(final CacheKey key, final CachedResponse removed) {
+            currentSize -= removed.getSize();
+            final Set<CacheKey> keys = keysBySerialNumber.get(key.serialNumber);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysBySerialNumber.remove(key.serialNumber);
+                }
+            }
+        }
+    }
+
+    /** The segments of the cache, and the maximum size of the whole cache they were created for. */
+    private static final class Segments {
+        private final long maxSize;
+        private final Segment[] segments;
+
+        private Segments(final long maxSize) {
+            this.maxSize = maxSize;
+            final int count = (int) Math.max(1, Math.min(MAX_SEGMENTS, maxSize / MIN_SEGMENT_SIZE));
+            segments = new Segment[count];
+            for (int i = 0; i < count; i++) {
+                segments[i] = new Segment(maxSize / count);
+            }
+        }
+
+        private Segment get(final BigInteger serialNumber) {
+            return segments[Math.floorMod(serialNumber.hashCode(), segments.length)];
+        }
+    }
+
+    /** Recreated, and thereby emptied, when the configured maximum size changes */
+    private volatile Segments segments = new Segments(0);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** @return true if the cache is enabled, i.e. has a maximum size larger than 0. */
+    public boolean isEnabled() {
+        return OcspConfiguration.getResponseCacheMaxSize() > 0;
+    }
+
+    /**
+     * @param certId the CertID of the request
+     * @param signerId identifier of the signer of the response
+     * @return a cached response that is still valid, or null if there is none
+     */
+    public CachedResponse get(final CertificateID certId, final int signerId) {
+        final CacheKey key = new CacheKey(certId, signerId);
+        final long now = System.currentTimeMillis();
+        final Segment segment = getSegments().get(key.serialNumber);
+        synchronized (segment) {
+            final CachedResponse cachedResponse = segment.cache.get(key);
+            if (cachedResponse != null) {
+                if (cachedResponse.getNextUpdate() > now) {
+                    hits.incrementAndGet();
+                    return cachedResponse;
+                }
+                segment.removeEntry(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds a response to the cache. Responses that have already passed their nextUpdate, or that are larger than a
+     * segment of the cache are ignored. Least recently used entries of the segment are evicted until the new entry fits.
+     *
+     * @param certId the CertID of the request
+     * @param signerId identifier of the signer of the response
+     * @param cachedResponse the response to cache
+     */
+    public void put(final CertificateID certId, final int signerId, final CachedResponse cachedResponse) {
+        final CacheKey key = new CacheKey(certId, signerId);
+        final Segment segment = getSegments().get(key.serialNumber);
+        if (cachedResponse.getSize() > segment.maxSize || cachedResponse.getNextUpdate() <= System.currentTimeMillis()) {
+            return;
+        }
+        synchronized (segment) {
+            segment.removeEntry(key);
+            final Iterator<Map.Entry<CacheKey, CachedResponse>> iterator = segment.cache.entrySet().iterator();
+            while (segment.currentSize + cachedResponse.getSize() > segment.maxSize && iterator.hasNext()) {
+                final Map.Entry<CacheKey, CachedResponse> eldest = iterator.next();
+                iterator.remove();
+                segment.unindex(eldest.getKey(), eldest.getValue());
+                evictions.incrementAndGet();
+            }
+            segment.cache.put(key, cachedResponse);
+            segment.keysBySerialNumber.computeIfAbsent(key.serialNumber, k -> new HashSet<>()).add(key);
+            segment.currentSize += cachedResponse.getSize();
+        }
+    }
+
+    /**
+     * Removes all cached responses for the given serial number, regardless of issuer. Serial numbers are unique per
+     * issuer, so this may at worst cause a few unnecessary cache misses for other CAs.
+     *
+     * @param serialNumber serial number of the certificate whose status has changed
+     */
+    public void invalidate(final BigInteger serialNumber) {
+        final Segment segment = segments.get(serialNumber);
+        synchronized (segment) {
+            final Set<CacheKey> keys = segment.keysBySerialNumber.remove(serialNumber);
+            if (keys != null) {
+                for (final CacheKey key : keys) {
+                    final CachedResponse removed = segment.cache.remove(key);
+                    if (removed != null) {
+                        segment.currentSize -= removed.getSize();
+                    }
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Invalidated " + keys.size() + " cached OCSP responses for serial number " + serialNumber.toString(16));
+                }
+            }
+        }
+    }
+
+    /** Clears the cache. Statistics are kept. */
+    public void flush() {
+        synchronized (this) {
+            segments = new Segments(OcspConfiguration.getResponseCacheMaxSize());
+        }
+    }
+
+    /** @return the number of cache hits since startup */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return the number of cache misses since startup */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return the number of entries evicted to make room for new entries since startup */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** @return the number of cached responses */
+    public int getEntryCount() {
+        int entryCount = 0;
+        for (final Segment segment : segments.segments) {
+            synchronized (segment) {
+                entryCount += segment.cache.size();
+            }
+        }
+        return entryCount;
+    }
+
+    /** @return the estimated size of all cached responses in bytes */
+    public long getSize() {
+        long size = 0;
+        for (final Segment segment : segments.segments) {
+            synchronized (segment) {
+                size += segment.currentSize;
+            }
+        }
+        return size;
+    }
+
+    /** @return a human readable summary of the cache statistics */
+    public String getStatistics() {
+        return "OCSP response cache: entries=" + getEntryCount() + ", size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions();
+    }
+
+    /** @return the segments for the configured maximum size. The cache is emptied if the maximum size has changed. */
+    private Segments getSegments() {
+        final long maxSize = OcspConfiguration.getResponseCacheMaxSize();
+        Segments current = segments;
+        if (current.maxSize != maxSize) {
+            synchronized (this) {
+                current = segments;
+                if (current.maxSize != maxSize) {
+                    current = new Segments(maxSize);
+                    segments = current;
+                }
+            }
+        }
+        return current;
+    }
+}
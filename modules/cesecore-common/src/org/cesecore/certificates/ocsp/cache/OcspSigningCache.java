@@ -29,6 +29,7 @@ import org.cesecore.certificates.ocsp.exception.OcspFailureException;
 import org.cesecore.util.LogRedactionUtils;
 
 import java.math.BigInteger;
+import java.security.PrivateKey;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
@@ -40,14 +41,25 @@ import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Hold information needed to create OCSP responses without database lookups.
+ * <p>
+ * The cache is rebuilt in a staging area, which replaces the cache when committed. Lookups never block, since the
+ * committed map is never modified after it has been published. Entries can be staged together with a digest of the CA or
+ * key binding they were built from, so a later reload can reuse the entries if the digest has not changed.
  */
 public enum OcspSigningCache {
     INSTANCE;
     
-    private Map<Integer, OcspSigningCacheEntry> cache = new HashMap<>();
+    /** Never modified after it has been assigned, so it can be read without locking */
+    private volatile Map<Integer, OcspSigningCacheEntry> cache = new HashMap<>();
     private Map<Integer, OcspSigningCacheEntry> staging = new HashMap<>();
-    private OcspSigningCacheEntry defaultResponderCacheEntry = null;
+    /** Committed entries by the digest of the CA or key binding they were built from. Never modified after it has been assigned. */
+    private volatile Map<String, List<OcspSigningCacheEntry>> entriesByDigest = new HashMap<>();
+    private Map<String, List<OcspSigningCacheEntry>> stagingEntriesByDigest = new HashMap<>();
+    private volatile OcspSigningCacheEntry defaultResponderCacheEntry = null;
+    /** Held during a reload, from stagingStart until stagingRelease */
     private final ReentrantLock lock = new ReentrantLock(false);
+    /** Held while the committed cache is replaced, which is much shorter than a reload */
+    private final Object commitLock = new Object();
     private final static Logger log = Logger.getLogger(OcspSigningCache.class);
     /** Flag to detect and log non-existence of a default responder once. */
     private boolean logDefaultHasRunOnce = false;
@@ -72,6 +84,45 @@ public enum OcspSigningCache {
     public void stagingStart() {
         lock.lock();
         staging = new HashMap<>();
+        stagingEntriesByDigest = new HashMap<>();
+    }
+
+    /**
+     * Adds an entry to the staging area, and remembers it by the digest of the CA or key binding it was built from.
+     *
+     * @param ocspSigningCacheEntry the entry to add
+     * @param digest digest of everything the entry was built from, or null if the entry must be rebuilt on every reload
+     */
+    public void stagingAdd(final OcspSigningCacheEntry ocspSigningCacheEntry, final String digest) {
+        stagingAdd(ocspSigningCacheEntry);
+        if (digest != null) {
+            stagingEntriesByDigest.computeIfAbsent(digest, k -> new ArrayList<>()).add(ocspSigningCacheEntry);
+        }
+    }
+
+    /**
+     * Adds the entries that were built from a CA or key binding with the same digest in the previous reload to the staging area.
+     * The entries are only reused if they hold the same private key reference, since a reference becomes unusable when the crypto
+     * token is deactivated, for example a PKCS#11 session handle, even if the token has been activated again since.
+     *
+     * @param digest digest of everything the entries would be built from
+     * @param privateKey the current reference to the private key of the CA or key binding, or null if it is not available
+     * @return true if the entries were reused, false if there were no matching entries for the digest and they have to be built
+     */
+    public boolean stagingAddUnchanged(final String digest, final PrivateKey privateKey) {
+        final List<OcspSigningCacheEntry> entries = entriesByDigest.get(digest);
+        if (entries == null || privateKey == null) {
+            return false;
+        }
+        for (final OcspSigningCacheEntry entry : entries) {
+            if (entry.getPrivateKey() != privateKey) {
+                return false;
+            }
+        }
+        for (final OcspSigningCacheEntry entry : entries) {
+            stagingAdd(entry, digest);
+        }
+        return true;
     }
 
     public void stagingAdd(OcspSigningCacheEntry ocspSigningCacheEntry) {
@@ -130,8 +181,11 @@ public enum OcspSigningCache {
             staging.remove(removedKey);
         }
         logDefaultResponderChanges(defaultResponderCacheEntry, stagedDefaultResponder, defaultResponderSubjectDn);
-        cache = staging;
-        defaultResponderCacheEntry = stagedDefaultResponder;
+        synchronized (commitLock) {
+            cache = staging;
+            entriesByDigest = stagingEntriesByDigest;
+            defaultResponderCacheEntry = stagedDefaultResponder;
+        }
         if (log.isDebugEnabled()) {
             log.debug("Committing the following to OCSP cache:");
             for (final Integer key : staging.keySet()) {
@@ -201,30 +255,30 @@ public enum OcspSigningCache {
 
     /**
      * This method will add a single cache entry to the cache. It should only be used to solve temporary cache inconsistencies.
+     * It does not wait for a reload in progress, and the entry is replaced when that reload is committed.
      * 
      * @param ocspSigningCacheEntry the entry to add
      */
     public void addSingleEntry(OcspSigningCacheEntry ocspSigningCacheEntry) {
-        List<CertificateID> certIDs = ocspSigningCacheEntry.getCertificateID();
-        for (CertificateID certID : certIDs) {
-            int cacheId = getCacheIdFromCertificateID(certID);
-            lock.lock();
-            try {
+        synchronized (commitLock) {
+            // Copy on write, since lookups read the committed map without locking
+            final Map<Integer, OcspSigningCacheEntry> updated = new HashMap<>(cache);
+            for (CertificateID certID : ocspSigningCacheEntry.getCertificateID()) {
+                int cacheId = getCacheIdFromCertificateID(certID);
                 //Make sure that another thread didn't add the same entry while this one was waiting.
-                if (!cache.containsKey(cacheId)) {
-                    cache.put(cacheId, ocspSigningCacheEntry);
+                if (!updated.containsKey(cacheId)) {
+                    updated.put(cacheId, ocspSigningCacheEntry);
                 }
-                for (CertificateID certIDOnBehalf : ocspSigningCacheEntry.getSignedBehalfOfCaIds()) {
-                    // override cache only if no OCSP key binding present or the entry is a placeholder
-                    int cacheIdOnBehalf = getCacheIdFromCertificateID(certIDOnBehalf);
-                    if(!cache.containsKey(cacheIdOnBehalf) || cache.get(cacheIdOnBehalf).isPlaceholder() 
-                                    || cache.get(cacheIdOnBehalf).getOcspKeyBinding()==null ) {
-                        cache.put(cacheIdOnBehalf, ocspSigningCacheEntry);
-                    }      
-                }
-            } finally {
-                lock.unlock();
             }
+            for (CertificateID certIDOnBehalf : ocspSigningCacheEntry.getSignedBehalfOfCaIds()) {
+                // override cache only if no OCSP key binding present or the entry is a placeholder
+                int cacheIdOnBehalf = getCacheIdFromCertificateID(certIDOnBehalf);
+                if(!updated.containsKey(cacheIdOnBehalf) || updated.get(cacheIdOnBehalf).isPlaceholder() 
+                                || updated.get(cacheIdOnBehalf).getOcspKeyBinding()==null ) {
+                    updated.put(cacheIdOnBehalf, ocspSigningCacheEntry);
+                }      
+            }
+            cache = updated;
         }
     }
 
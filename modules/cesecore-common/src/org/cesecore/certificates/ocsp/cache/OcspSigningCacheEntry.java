@@ -15,16 +15,21 @@ package org.cesecore.certificates.ocsp.cache;
 import com.keyfactor.util.CertTools;
 import com.keyfactor.util.SHA1DigestCalculator;
 import org.apache.log4j.Logger;
+import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.ocsp.CertificateID;
 import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.RespID;
 import org.bouncycastle.cert.ocsp.jcajce.JcaRespID;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.cesecore.certificates.certificate.CertificateStatus;
 import org.cesecore.certificates.util.cert.CertificateUtils;
 import org.cesecore.config.OcspConfiguration;
 import org.cesecore.keybind.impl.OcspKeyBinding;
 
 import java.security.PrivateKey;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -33,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Hold information needed for creating an OCSP response without database lookups.
@@ -59,6 +65,10 @@ public class OcspSigningCacheEntry {
     private final OcspKeyBinding.ResponderIdType responderIdType;
     private RespID respId;
     private final X509Certificate[] responseCertChain;
+    /** responseCertChain encoded once, so it does not have to be converted for every response */
+    private final X509CertificateHolder[] responseCertChainHolders;
+    /** Content signer builders by signature algorithm, which saves the algorithm identifier lookup for every response */
+    private final Map<String, JcaContentSignerBuilder> contentSignerBuilders = new ConcurrentHashMap<>();
     private final boolean signingCertificateForOcspSigning;
     
     // only relevant if CA itself signs the OCSP response
@@ -137,6 +147,15 @@ public class OcspSigningCacheEntry {
         } else {
             responseCertChain = getResponseCertChain(fullCertificateChain.toArray(new X509Certificate[0]));
         }
+        X509CertificateHolder[] holders = null;
+        if (responseCertChain != null) {
+            try {
+                holders = CertTools.convertToX509CertificateHolder(responseCertChain);
+            } catch (CertificateEncodingException e) {
+                log.warn("Unable to encode the certificate chain of the OCSP response signer, it will be encoded for each response.", e);
+            }
+        }
+        responseCertChainHolders = holders;
         
         // on behalf of CA entries
         signedBehalfOfCaIds = new HashSet<>();
@@ -190,6 +209,22 @@ public class OcspSigningCacheEntry {
 
     /** @return the part of the full certificate chain that has been configured to be included in the response. */
     public X509Certificate[] getResponseCertChain() { return responseCertChain; }
+
+    /** @return {@link #getResponseCertChain()} in the form used when building responses, or null if it could not be encoded */
+    public X509CertificateHolder[] getResponseCertChainHolders() { return responseCertChainHolders; }
+
+    /**
+     * Creates a signer for one response. The signer must not be shared between threads.
+     *
+     * @param signatureAlgorithm the signature algorithm, for example SHA256WithRSA
+     * @return a content signer using the private key and provider of this entry
+     * @throws OperatorCreationException if the signer could not be created
+     */
+    public ContentSigner createContentSigner(final String signatureAlgorithm) throws OperatorCreationException {
+        final JcaContentSignerBuilder builder = contentSignerBuilders.computeIfAbsent(signatureAlgorithm,
+                algorithm -> new JcaContentSignerBuilder(algorithm).setProvider(signatureProviderName));
+        return builder.build(privateKey);
+    }
     /**
      * Checks if the entry has a OCSP signing certificate separate from the certificate chain.
      * Only entries with a keybinding can have a separate certificate.
@@ -0,0 +1,528 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ocsp.cache.PreProducedResponseStore.StoredResponse;
+
+/**
+ * Append-only, memory-mapped file holding the pre-produced OCSP responses of one CA, with an in-memory open addressing
+ * index from serial number to the offset of the latest record for that serial number.
+ * <p>
+ * A new response for a serial number is appended, and the previous record becomes garbage. {@link #compact(long)} rewrites
+ * the file with only the latest, unexpired record of each serial number. The index is rebuilt by scanning the file when
+ * the segment is opened.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ * int    magic
+ * int    version
+ * int    caId
+ * int    reserved
+ * long   writePosition      end of the last complete record
+ * record*                   recordLength (int, excluding itself), serialNumberLength (byte), serialNumber (two's complement),
+ *                           producedAt (long), thisUpdate (long), nextUpdate (long), certStatus (byte), revocationReason (int),
+ *                           responseLength (int), response (DER encoded OCSPResp)
+ * </pre>
+ */
+final class PreProducedResponseSegment implements Closeable {
+
+    private static final Logger log = Logger.getLogger(PreProducedResponseSegment.class);
+
+    private static final int MAGIC = 0x4F505052; // "OPPR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+    private static final int WRITE_POSITION_OFFSET = 16;
+    /** Record size, excluding the serial number and the response */
+    private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 8 + 8 + 1 + 4 + 4;
+    private static final int MAX_SERIAL_LENGTH = Byte.MAX_VALUE;
+    private static final int INITIAL_CAPACITY = 1024 * 1024;
+    private static final int INITIAL_INDEX_SLOTS = 1024;
+    /** Garbage below this size is never compacted */
+    private static final long MIN_COMPACTION_GARBAGE = 1024 * 1024;
+
+    private final Path file;
+    private final int caId;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // All fields below are guarded by "lock"
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    /** Hash of the serial number of each slot. */
+    private int[] slotHashes;
+    /** Offset of the record of each slot, or 0 for an empty slot (offset 0 is the header). */
+    private int[] slotOffsets;
+    /** When the response of each slot was last stored or compared with the database, in milliseconds since epoch. */
+    private long[] slotValidated;
+    private int entryCount;
+    private long liveBytes;
+
+    private PreProducedResponseSegment(final Path file, final int caId) {
+        this.file = file;
+        this.caId = caId;
+    }
+
+    /**
+     * Opens an existing segment file, or creates a new one.
+     *
+     * @param file the segment file
+     * @param caId the CA the segment holds responses for
+     * @return the segment
+     * @throws IOException if the file can not be created or read, or belongs to another CA
+     */
+    static PreProducedResponseSegment open(final Path file, final int caId) throws IOException {
+        final PreProducedResponseSegment segment = new PreProducedResponseSegment(file, caId);
+        segment.lock.writeLock().lock();
+        try {
+            segment.load();
+        } catch (IOException | RuntimeException e) {
+            if (segment.channel != null) {
+                segment.channel.close();
+            }
+            throw e;
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        return segment;
+    }
+
+    /** @return the file this segment is stored in */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @param serialNumber serial number of the certificate
+     * @return the latest stored response for the certificate, or null if there is none
+     */
+    StoredResponse get(final BigInteger serialNumber) {
+        final byte[] serial = serialNumber.toByteArray();
+        lock.readLock().lock();
+        try {
+            final int slot = findSlot(serial, hash(serial));
+            if (slotOffsets[slot] == 0) {
+                return null;
+            }
+            return readRecord(slotOffsets[slot], slotValidated[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a response. If the latest stored response for the certificate was produced at the same time, only the
+     * validation time is updated and nothing is appended.
+     *
+     * @param serialNumber serial number of the certificate
+     * @param response the response to store
+     * @param validated the time the response was produced or read from the database, in milliseconds since epoch
+     * @return false if the response could not be stored because the segment has reached its maximum size
+     * @throws IOException if the file could not be extended
+     */
+    boolean put(final BigInteger serialNumber, final StoredResponse response, final long validated) throws IOException {
+        final byte[] serial = serialNumber.toByteArray();
+        if (serial.length > MAX_SERIAL_LENGTH) {
+            return false;
+        }
+        final int hash = hash(serial);
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(serial, hash);
+            final int previousOffset = slotOffsets[slot];
+            if (previousOffset != 0 && buffer.getLong(previousOffset + 5 + serial.length) == response.getProducedAt()) {
+                slotValidated[slot] = validated;
+                return true;
+            }
+            final int recordSize = RECORD_OVERHEAD + serial.length + response.getEncodedResponse().length;
+            if ((long) writePosition + recordSize > Integer.MAX_VALUE) {
+                return false;
+            }
+            ensureCapacity(writePosition + recordSize);
+            final int offset = writePosition;
+            writeRecord(buffer, offset, serial, response);
+            writePosition += recordSize;
+            buffer.putLong(WRITE_POSITION_OFFSET, writePosition);
+            liveBytes += recordSize;
+            if (previousOffset != 0) {
+                liveBytes -= buffer.getInt(previousOffset) + 4;
+            } else {
+                entryCount++;
+                if (entryCount * 2 > slotOffsets.length) {
+                    resizeIndex(slotOffsets.length * 2);
+                    slot = findSlot(serial, hash);
+                }
+            }
+            slotHashes[slot] = hash;
+            slotOffsets[slot] = offset;
+            slotValidated[slot] = validated;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets the stored response for a certificate. The record becomes garbage and is removed on the next compaction.
+     *
+     * @param serialNumber serial number of the certificate
+     */
+    void remove(final BigInteger serialNumber) {
+        final byte[] serial = serialNumber.toByteArray();
+        lock.writeLock().lock();
+        try {
+            final int slot = findSlot(serial, hash(serial));
+            if (slotOffsets[slot] != 0) {
+                liveBytes -= buffer.getInt(slotOffsets[slot]) + 4;
+                deleteSlot(slot);
+                entryCount--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Requires all stored responses to be compared with the database again before they are returned. */
+    void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(slotValidated, 0L);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** @return the number of certificates with a stored response */
+    int getEntryCount() {
+        lock.readLock().lock();
+        try {
+            return entryCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return the number of bytes used by replaced and removed records */
+    long getGarbageBytes() {
+        lock.readLock().lock();
+        try {
+            return writePosition - HEADER_SIZE - liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return true if at least half of the file is garbage, and the garbage is large enough to be worth compacting */
+    boolean isCompactionNeeded() {
+        lock.readLock().lock();
+        try {
+            final long garbageBytes = writePosition - HEADER_SIZE - liveBytes;
+            return garbageBytes >= MIN_COMPACTION_GARBAGE && garbageBytes >= liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the segment with only the latest record of each certificate, leaving out expired responses. The new file
+     * atomically replaces the old one. Lookups wait while the segment is compacted.
+     *
+     * @param now current time in milliseconds since epoch, responses with an earlier nextUpdate are dropped
+     * @throws IOException if the new file could not be written, in which case the segment is unchanged
+     */
+    void compact(final long now) throws IOException {
+        lock.writeLock().lock();
+        try {
+            final int sizeBefore = writePosition;
+            // The compacted records keep their slots, so the validation times are kept
+            final int[] compactedHashes = new int[slotOffsets.length];
+            final int[] compactedOffsets = new int[slotOffsets.length];
+            final long[] compactedValidated = new long[slotOffsets.length];
+            final int mask = slotOffsets.length - 1;
+            int compactedEntryCount = 0;
+            final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            int position = HEADER_SIZE;
+            try (final FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final MappedByteBuffer tempBuffer = tempChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + liveBytes);
+                writeHeader(tempBuffer);
+                for (int i = 0; i < slotOffsets.length; i++) {
+                    final int offset = slotOffsets[i];
+                    if (offset == 0) {
+                        continue;
+                    }
+                    final int recordSize = buffer.getInt(offset) + 4;
+                    final int serialLength = buffer.get(offset + 4);
+                    if (buffer.getLong(offset + 5 + serialLength + 16) <= now) {
+                        continue;
+                    }
+                    final ByteBuffer record = buffer.duplicate();
+                    record.limit(offset + recordSize).position(offset);
+                    tempBuffer.position(position);
+                    tempBuffer.put(record);
+                    int slot = slotHashes[i] & mask;
+                    while (compactedOffsets[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    compactedHashes[slot] = slotHashes[i];
+                    compactedOffsets[slot] = position;
+                    compactedValidated[slot] = slotValidated[i];
+                    compactedEntryCount++;
+                    position += recordSize;
+                }
+                tempBuffer.putLong(WRITE_POSITION_OFFSET, position);
+                tempBuffer.force();
+                tempChannel.truncate(position);
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            channel.close();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, position));
+            writePosition = position;
+            liveBytes = position - HEADER_SIZE;
+            entryCount = compactedEntryCount;
+            slotHashes = compactedHashes;
+            slotOffsets = compactedOffsets;
+            slotValidated = compactedValidated;
+            if (log.isDebugEnabled()) {
+                log.debug("Compacted pre-produced OCSP response segment " + file + " from " + sizeBefore + " to " + writePosition + " bytes. "
+                        + entryCount + " responses remain.");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Maps the file and rebuilds the index. Must be called while holding the write lock. */
+    private void load() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Pre-produced OCSP response segment " + file + " is too large.");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, size));
+        slotHashes = new int[INITIAL_INDEX_SLOTS];
+        slotOffsets = new int[INITIAL_INDEX_SLOTS];
+        slotValidated = new long[INITIAL_INDEX_SLOTS];
+        entryCount = 0;
+        liveBytes = 0;
+        if (size < HEADER_SIZE) {
+            writeHeader(buffer);
+            writePosition = HEADER_SIZE;
+            buffer.putLong(WRITE_POSITION_OFFSET, writePosition);
+            return;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != caId) {
+            throw new IOException(file + " is not a pre-produced OCSP response segment of version " + VERSION + " for CA " + caId + ".");
+        }
+        final long storedWritePosition = buffer.getLong(WRITE_POSITION_OFFSET);
+        final int end = (int) Math.min(Math.max(storedWritePosition, HEADER_SIZE), size);
+        int offset = HEADER_SIZE;
+        while (offset + 4 <= end) {
+            final int recordSize = buffer.getInt(offset) + 4;
+            if (recordSize < RECORD_OVERHEAD || (long) offset + recordSize > end || !isValidRecord(offset, recordSize)) {
+                log.warn("Pre-produced OCSP response segment " + file + " has an incomplete or invalid record at offset " + offset
+                        + ", ignoring the rest of the file.");
+                break;
+            }
+            final byte[] serial = readSerial(offset);
+            final int hash = hash(serial);
+            final int slot = findSlot(serial, hash);
+            if (slotOffsets[slot] != 0) {
+                liveBytes -= buffer.getInt(slotOffsets[slot]) + 4;
+            } else {
+                entryCount++;
+            }
+            slotHashes[slot] = hash;
+            slotOffsets[slot] = offset;
+            // Not validated since this node was started, so the database is consulted on first use
+            slotValidated[slot] = 0;
+            liveBytes += recordSize;
+            if (entryCount * 2 > slotOffsets.length) {
+                resizeIndex(slotOffsets.length * 2);
+            }
+            offset += recordSize;
+        }
+        writePosition = offset;
+        buffer.putLong(WRITE_POSITION_OFFSET, writePosition);
+    }
+
+    /** @return true if the serial number and response lengths of a record are valid and add up to the record size */
+    private boolean isValidRecord(final int offset, final int recordSize) {
+        final int serialLength = buffer.get(offset + 4);
+        if (serialLength < 1 || serialLength > MAX_SERIAL_LENGTH || RECORD_OVERHEAD + serialLength > recordSize) {
+            return false;
+        }
+        final int responseLength = buffer.getInt(offset + RECORD_OVERHEAD - 4 + serialLength);
+        return responseLength >= 0 && RECORD_OVERHEAD + serialLength + responseLength == recordSize;
+    }
+
+    private void writeHeader(final ByteBuffer target) {
+        target.putInt(0, MAGIC);
+        target.putInt(4, VERSION);
+        target.putInt(8, caId);
+        target.putInt(12, 0);
+        target.putLong(WRITE_POSITION_OFFSET, HEADER_SIZE);
+    }
+
+    /** Grows the mapping, doubling the capacity, until the given number of bytes fit. Must be called while holding the write lock. */
+    private void ensureCapacity(final int requiredCapacity) throws IOException {
+        if (requiredCapacity <= buffer.capacity()) {
+            return;
+        }
+        long capacity = buffer.capacity();
+        while (capacity < requiredCapacity) {
+            capacity *= 2;
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(capacity, Integer.MAX_VALUE));
+    }
+
+    private static void writeRecord(final ByteBuffer target, final int offset, final byte[] serial, final StoredResponse response) {
+        final byte[] encodedResponse = response.getEncodedResponse();
+        final ByteBuffer record = target.duplicate();
+        record.position(offset);
+        record.putInt(RECORD_OVERHEAD - 4 + serial.length + encodedResponse.length);
+        record.put((byte) serial.length);
+        record.put(serial);
+        record.putLong(response.getProducedAt());
+        record.putLong(response.getThisUpdate());
+        record.putLong(response.getNextUpdate());
+        record.put((byte) response.getCertStatus());
+        record.putInt(response.getRevocationReason());
+        record.putInt(encodedResponse.length);
+        record.put(encodedResponse);
+    }
+
+    private StoredResponse readRecord(final int offset, final long validated) {
+        final ByteBuffer record = buffer.duplicate();
+        record.position(offset + 4);
+        record.position(record.position() + 1 + record.get());
+        final long producedAt = record.getLong();
+        final long thisUpdate = record.getLong();
+        final long nextUpdate = record.getLong();
+        final int certStatus = record.get();
+        final int revocationReason = record.getInt();
+        final byte[] encodedResponse = new byte[record.getInt()];
+        record.get(encodedResponse);
+        return new StoredResponse(encodedResponse, producedAt, thisUpdate, nextUpdate, certStatus, revocationReason, validated);
+    }
+
+    private byte[] readSerial(final int offset) {
+        final byte[] serial = new byte[buffer.get(offset + 4)];
+        for (int i = 0; i < serial.length; i++) {
+            serial[i] = buffer.get(offset + 5 + i);
+        }
+        return serial;
+    }
+
+    private boolean serialEquals(final int offset, final byte[] serial) {
+        if (buffer.get(offset + 4) != serial.length) {
+            return false;
+        }
+        for (int i = 0; i < serial.length; i++) {
+            if (buffer.get(offset + 5 + i) != serial[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the slot holding the serial number, or the empty slot where it should be inserted */
+    private int findSlot(final byte[] serial, final int hash) {
+        final int mask = slotOffsets.length - 1;
+        int slot = hash & mask;
+        while (slotOffsets[slot] != 0 && (slotHashes[slot] != hash || !serialEquals(slotOffsets[slot], serial))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Empties a slot, moving back entries of the same probe sequence so that no lookup stops too early. */
+    private void deleteSlot(final int slot) {
+        final int mask = slotOffsets.length - 1;
+        int empty = slot;
+        int current = slot;
+        while (true) {
+            current = (current + 1) & mask;
+            if (slotOffsets[current] == 0) {
+                break;
+            }
+            final int home = slotHashes[current] & mask;
+            // Move the entry if its home slot is not cyclically in (empty, current]
+            if (empty <= current ? (home <= empty || home > current) : (home <= empty && home > current)) {
+                slotHashes[empty] = slotHashes[current];
+                slotOffsets[empty] = slotOffsets[current];
+                slotValidated[empty] = slotValidated[current];
+                empty = current;
+            }
+        }
+        slotHashes[empty] = 0;
+        slotOffsets[empty] = 0;
+        slotValidated[empty] = 0;
+    }
+
+    private void resizeIndex(final int slots) {
+        final int[] oldHashes = slotHashes;
+        final int[] oldOffsets = slotOffsets;
+        final long[] oldValidated = slotValidated;
+        slotHashes = new int[slots];
+        slotOffsets = new int[slots];
+        slotValidated = new long[slots];
+        final int mask = slots - 1;
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] != 0) {
+                int slot = oldHashes[i] & mask;
+                while (slotOffsets[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slotHashes[slot] = oldHashes[i];
+                slotOffsets[slot] = oldOffsets[i];
+                slotValidated[slot] = oldValidated[i];
+            }
+        }
+    }
+
+    private static int hash(final byte[] serial) {
+        final int hash = Arrays.hashCode(serial);
+        // Spread the bits, since the index uses the lowest bits only
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,234 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * Local read-through store of pre-produced OCSP responses, kept in one {@link PreProducedResponseSegment} per CA in the
+ * directory configured with {@link OcspConfiguration#PRE_PRODUCED_STORE_DIR}. The database remains the authoritative
+ * source: a stored response is only returned if it was stored or compared with the database within
+ * {@link OcspConfiguration#getPreProducedStoreRevalidateTime()} milliseconds, so responses re-produced on other nodes are
+ * picked up.
+ * <p>
+ * When the revocation status of a certificate changes, its stored response is removed once the change has been committed
+ * on this node, or once it has been read from the revocation change log on other nodes. Without the change log, other
+ * nodes may serve the previous response until it is revalidated.
+ */
+public enum PreProducedResponseStore {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(PreProducedResponseStore.class);
+
+    private static final String FILE_PREFIX = "preproduced-";
+    private static final String FILE_SUFFIX = ".seg";
+
+    /** A pre-produced response together with the information needed to return it without re-parsing. */
+    public static final class StoredResponse {
+        private final byte[] encodedResponse;
+        private final long producedAt;
+        private final long thisUpdate;
+        private final long nextUpdate;
+        private final int certStatus;
+        private final int revocationReason;
+        private final long validated;
+
+        /**
+         * @param encodedResponse DER encoded OCSPResp
+         * @param producedAt producedAt of the response in milliseconds since epoch
+         * @param thisUpdate thisUpdate of the single response in milliseconds since epoch
+         * @param nextUpdate nextUpdate of the single response in milliseconds since epoch
+         * @param certStatus status code of the single response, for transaction logging
+         * @param revocationReason revocation reason of the single response, or -1 if not revoked
+         */
+        public StoredResponse(final byte[] encodedResponse, final long producedAt, final long thisUpdate, final long nextUpdate, final int certStatus,
+                final int revocationReason) {
+            this(encodedResponse, producedAt, thisUpdate, nextUpdate, certStatus, revocationReason, 0);
+        }
+
+        StoredResponse(final byte[] encodedResponse, final long producedAt, final long thisUpdate, final long nextUpdate, final int certStatus,
+                final int revocationReason, final long validated) {
+            this.encodedResponse = encodedResponse;
+            this.producedAt = producedAt;
+            this.thisUpdate = thisUpdate;
+            this.nextUpdate = nextUpdate;
+            this.certStatus = certStatus;
+            this.revocationReason = revocationReason;
+            this.validated = validated;
+        }
+
+        public byte[] getEncodedResponse() { return encodedResponse; }
+        public long getProducedAt() { return producedAt; }
+        public long getThisUpdate() { return thisUpdate; }
+        public long getNextUpdate() { return nextUpdate; }
+        public int getCertStatus() { return certStatus; }
+        public int getRevocationReason() { return revocationReason; }
+        /** @return when the response was last stored or compared with the database, or 0 for responses not read from the store */
+        public long getValidated() { return validated; }
+    }
+
+    private final Map<Integer, PreProducedResponseSegment> segments = new ConcurrentHashMap<>();
+    /** CAs whose segment could not be opened, so the database is used without retrying on every request */
+    private final Set<Integer> unavailableSegments = ConcurrentHashMap.newKeySet();
+
+    /** @return true if a directory for pre-produced responses is configured */
+    public boolean isEnabled() {
+        return OcspConfiguration.getPreProducedStoreDirectory() != null;
+    }
+
+    /**
+     * @param caId the CA that issued the certificate
+     * @param serialNumber serial number of the certificate
+     * @return the stored response, if it has been compared with the database recently enough, or null if the database
+     *      should be consulted. The response may have passed its nextUpdate.
+     */
+    public StoredResponse get(final int caId, final BigInteger serialNumber) {
+        final PreProducedResponseSegment segment = getSegment(caId);
+        if (segment == null) {
+            return null;
+        }
+        final StoredResponse storedResponse = segment.get(serialNumber);
+        if (storedResponse == null || System.currentTimeMillis() - storedResponse.getValidated() >= OcspConfiguration.getPreProducedStoreRevalidateTime()) {
+            return null;
+        }
+        return storedResponse;
+    }
+
+    /**
+     * Stores a response that was just produced, or read from the database.
+     *
+     * @param caId the CA that issued the certificate
+     * @param serialNumber serial number of the certificate
+     * @param storedResponse the response
+     */
+    public void put(final int caId, final BigInteger serialNumber, final StoredResponse storedResponse) {
+        final PreProducedResponseSegment segment = getSegment(caId);
+        if (segment == null) {
+            return;
+        }
+        try {
+            if (!segment.put(serialNumber, storedResponse, System.currentTimeMillis()) && log.isDebugEnabled()) {
+                log.debug("Pre-produced OCSP response for serial number " + serialNumber.toString(16) + " was not stored locally, "
+                        + segment.getFile() + " is full.");
+            }
+        } catch (IOException e) {
+            log.warn("Unable to store pre-produced OCSP response in " + segment.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets the stored response for a certificate, for example when it has been deleted from the database.
+     *
+     * @param caId the CA that issued the certificate
+     * @param serialNumber serial number of the certificate
+     */
+    public void remove(final int caId, final BigInteger serialNumber) {
+        final PreProducedResponseSegment segment = segments.get(caId);
+        if (segment != null) {
+            segment.remove(serialNumber);
+        }
+    }
+
+    /**
+     * Requires all stored responses of a CA to be compared with the database again, for example when all certificates
+     * of the CA have been revoked.
+     *
+     * @param caId the CA that issued the certificates
+     */
+    public void invalidateAll(final int caId) {
+        final PreProducedResponseSegment segment = segments.get(caId);
+        if (segment != null) {
+            segment.invalidateAll();
+        }
+    }
+
+    /**
+     * Compacts the segments where at least half of the file consists of replaced or removed responses. Expired responses
+     * are left out at the same time.
+     *
+     * @return the number of compacted segments
+     */
+    public int compact() {
+        int compacted = 0;
+        for (final PreProducedResponseSegment segment : segments.values()) {
+            if (segment.isCompactionNeeded()) {
+                try {
+                    segment.compact(System.currentTimeMillis());
+                    compacted++;
+                } catch (IOException e) {
+                    log.warn("Unable to compact pre-produced OCSP response segment " + segment.getFile() + ": " + e.getMessage());
+                }
+            }
+        }
+        return compacted;
+    }
+
+    /** Closes all segments, so they are opened again on next use. Used when the configuration changes and in tests. */
+    public void clear() {
+        synchronized (this) {
+            for (final PreProducedResponseSegment segment : segments.values()) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    log.debug("Unable to close " + segment.getFile() + ": " + e.getMessage());
+                }
+            }
+            segments.clear();
+            unavailableSegments.clear();
+        }
+    }
+
+    private PreProducedResponseSegment getSegment(final int caId) {
+        final PreProducedResponseSegment segment = segments.get(caId);
+        if (segment != null) {
+            return segment;
+        }
+        final String directory = OcspConfiguration.getPreProducedStoreDirectory();
+        if (directory == null || unavailableSegments.contains(caId)) {
+            return null;
+        }
+        synchronized (this) {
+            return segments.computeIfAbsent(caId, id -> {
+                final Path file = Paths.get(directory, FILE_PREFIX + id + FILE_SUFFIX);
+                try {
+                    Files.createDirectories(file.getParent());
+                    final PreProducedResponseSegment opened = PreProducedResponseSegment.open(file, id);
+                    log.info("Opened pre-produced OCSP response segment " + file + " with " + opened.getEntryCount() + " responses.");
+                    return opened;
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Unable to read pre-produced OCSP response segment " + file + ", deleting it and starting with an empty segment: "
+                            + e.getMessage());
+                }
+                // The responses are also in the database, so nothing is lost by starting over
+                try {
+                    Files.deleteIfExists(file);
+                    return PreProducedResponseSegment.open(file, id);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Unable to open pre-produced OCSP response segment " + file + ", using the database only: " + e.getMessage());
+                    unavailableSegments.add(id);
+                    return null;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.exception;
+
+/**
+ * Thrown when an OCSP response can not be queued for signing because too many responses are already waiting for the same
+ * signing key. The responder should answer with tryLater.
+ */
+public class OcspSigningQueueFullException extends OcspFailureException {
+
+    private static final long serialVersionUID = 1L;
+
+    public OcspSigningQueueFullException(String msg) {
+        super(msg);
+    }
+
+}
@@ -0,0 +1,37 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.status;
+
+import java.math.BigInteger;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+
+/**
+ * Source of certificate status for the OCSP responder, used instead of the database for the issuers it covers.
+ */
+public interface OcspStatusProvider {
+
+    /**
+     * @param issuerDn the DN of the issuer, in the normalized format stored in the database
+     * @return true if this provider can answer status requests for certificates issued by the given issuer
+     */
+    boolean hasStatusForIssuer(String issuerDn);
+
+    /**
+     * @param issuerDn the DN of the issuer, in the normalized format stored in the database
+     * @param serialNumber the serial number of the certificate
+     * @return the status of the certificate, CertificateStatus.NOT_AVAILABLE if the certificate is not known, or null if this
+     *      provider can not answer for the certificate, in which case the database should be used
+     */
+    CertificateStatus getStatus(String issuerDn, BigInteger serialNumber);
+}
@@ -0,0 +1,543 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.status;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+
+/**
+ * Immutable, memory-mapped index of the status of all certificates issued by one CA.
+ * <p>
+ * The file contains a header and one entry per certificate, sorted by serial number. Certificates are found with a binary
+ * search directly in the mapped file, so the index answers GOOD, REVOKED and UNKNOWN (not issued) definitely. Whether
+ * the answer is still current is decided by {@link RevocationIndexStatusProvider}.
+ * <p>
+ * The index is never modified. Updates are made by creating a {@link Builder} from the current index, applying the
+ * changes and writing a new file, which atomically replaces the old one. Since the file is mapped in one piece, an index
+ * holds at most about 47 million certificates.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ * int    magic
+ * int    version
+ * long   lastUpdateTime     largest CertificateData.updateTime included in the index
+ * int    count              number of entries
+ * int    revokedCount       number of entries with status revoked
+ * int    issuerDnLength
+ * byte[] issuerDn           UTF-8
+ * entry[count]              serialNumber (20 bytes, unsigned), status (byte, 0 good or 1 revoked), revocationDate (long),
+ *                           invalidityDate (long, -1 if not set), revocationReason (int), certificateProfileId (int)
+ * </pre>
+ */
+public final class RevocationIndex {
+
+    private static final int MAGIC = 0x4F525649; // "ORVI"
+    private static final int VERSION = 2;
+    /** RFC 5280 limits serial numbers to 20 octets */
+    private static final int SERIAL_LENGTH = 20;
+    private static final int ENTRY_SIZE = SERIAL_LENGTH + 1 + 8 + 8 + 4 + 4;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+    private static final byte STATUS_GOOD = 0;
+    private static final byte STATUS_REVOKED = 1;
+
+    private final String issuerDn;
+    private final ByteBuffer buffer;
+    private final long lastUpdateTime;
+    private final int count;
+    private final int revokedCount;
+    private final int entriesOffset;
+
+    private RevocationIndex(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a revocation index file of version " + VERSION + ".");
+        }
+        this.lastUpdateTime = buffer.getLong(8);
+        this.count = buffer.getInt(16);
+        this.revokedCount = buffer.getInt(20);
+        final int issuerDnLength = buffer.getInt(24);
+        if (issuerDnLength < 0 || HEADER_SIZE + issuerDnLength > buffer.limit()) {
+            throw new IOException("Revocation index file is truncated.");
+        }
+        final byte[] issuerDnBytes = new byte[issuerDnLength];
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(HEADER_SIZE);
+        duplicate.get(issuerDnBytes);
+        this.issuerDn = new String(issuerDnBytes, StandardCharsets.UTF_8);
+        this.entriesOffset = HEADER_SIZE + issuerDnLength;
+        if (buffer.limit() != entriesOffset + (long) count * ENTRY_SIZE) {
+            throw new IOException("Revocation index file for '" + issuerDn + "' is truncated.");
+        }
+    }
+
+    /**
+     * Maps an existing index file into memory.
+     *
+     * @param file the index file
+     * @return the index
+     * @throws IOException if the file can not be read or is not a valid index file
+     */
+    public static RevocationIndex open(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Revocation index file " + file + " is too large.");
+            }
+            // The mapping remains valid after the channel is closed
+            return new RevocationIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Creates a builder for a new index of all certificates of an issuer. The entries are written to a temporary file next
+     * to the index file as they are added, and sorted in place when the index is written, so the builder needs little heap
+     * regardless of the number of certificates.
+     *
+     * @param issuerDn the DN of the issuer
+     * @param file the index file that will be written
+     * @return a builder for a new, empty index
+     * @throws IOException if the temporary file can not be created
+     */
+    public static Builder builder(final String issuerDn, final Path file) throws IOException {
+        return new Builder(issuerDn, file, null);
+    }
+
+    /**
+     * Creates a builder for an incremental update of this index. Only the changes are kept in memory, and they are merged
+     * with the entries of this index when the new index is written.
+     *
+     * @param file the index file that will be written
+     * @return a builder containing all data in this index
+     * @throws IOException if the temporary file can not be created
+     */
+    public Builder toBuilder(final Path file) throws IOException {
+        return new Builder(issuerDn, file, this);
+    }
+
+    /**
+     * Looks up the status of a certificate. The search is done directly in the mapped file, without any allocation apart
+     * from the encoding of the serial number and the returned status.
+     *
+     * @param serialNumber the serial number of the certificate
+     * @return the status of the certificate, CertificateStatus.NOT_AVAILABLE if the certificate has not been issued, or null
+     *      if the serial number is too long to be indexed
+     */
+    public CertificateStatus getStatus(final BigInteger serialNumber) {
+        final byte[] key = toKey(serialNumber);
+        if (key == null) {
+            return null;
+        }
+        final int position = find(key);
+        if (position < 0) {
+            return CertificateStatus.NOT_AVAILABLE;
+        }
+        final int offset = entriesOffset + position * ENTRY_SIZE;
+        final int certificateProfileId = buffer.getInt(offset + SERIAL_LENGTH + 21);
+        if (buffer.get(offset + SERIAL_LENGTH) == STATUS_GOOD) {
+            return new CertificateStatus(CertificateStatus.OK.toString(), -1L, RevokedCertInfo.NOT_REVOKED, certificateProfileId);
+        }
+        final long revocationDate = buffer.getLong(offset + SERIAL_LENGTH + 1);
+        final long invalidityDate = buffer.getLong(offset + SERIAL_LENGTH + 9);
+        final int reason = buffer.getInt(offset + SERIAL_LENGTH + 17);
+        if (invalidityDate == -1) {
+            return new CertificateStatus(CertificateStatus.REVOKED.toString(), revocationDate, reason, certificateProfileId);
+        }
+        return new CertificateStatus(CertificateStatus.REVOKED.toString(), revocationDate, invalidityDate, reason, certificateProfileId);
+    }
+
+    public String getIssuerDn() { return issuerDn; }
+    public long getLastUpdateTime() { return lastUpdateTime; }
+    public int getIssuedCount() { return count; }
+    public int getRevokedCount() { return revokedCount; }
+
+    /** @return the position of the entry with the key, or -1 if there is none */
+    private int find(final byte[] key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compare(buffer, entriesOffset + middle * ENTRY_SIZE, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(final ByteBuffer buffer, final int offset, final byte[] key) {
+        for (int i = 0; i < SERIAL_LENGTH; i++) {
+            final int difference = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    private static int compare(final ByteBuffer buffer, final int offset1, final int offset2) {
+        for (int i = 0; i < SERIAL_LENGTH; i++) {
+            final int difference = (buffer.get(offset1 + i) & 0xFF) - (buffer.get(offset2 + i) & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    /** @return the serial number as a 20 byte unsigned big-endian array, or null if it does not fit */
+    private static byte[] toKey(final BigInteger serialNumber) {
+        if (serialNumber.signum() < 0 || serialNumber.bitLength() > SERIAL_LENGTH * 8) {
+            return null;
+        }
+        final byte[] bytes = serialNumber.toByteArray();
+        final byte[] key = new byte[SERIAL_LENGTH];
+        // toByteArray may have a leading sign byte, which is then 0
+        final int length = Math.min(bytes.length, SERIAL_LENGTH);
+        System.arraycopy(bytes, bytes.length - length, key, SERIAL_LENGTH - length, length);
+        return key;
+    }
+
+    /** One certificate, in the form it is written to the file */
+    private static final class Entry {
+        private final byte status;
+        private final long revocationDate;
+        private final long invalidityDate;
+        private final int reason;
+        private final int certificateProfileId;
+
+        private Entry(final byte status, final long revocationDate, final long invalidityDate, final int reason, final int certificateProfileId) {
+            this.status = status;
+            this.revocationDate = revocationDate;
+            this.invalidityDate = invalidityDate;
+            this.reason = reason;
+            this.certificateProfileId = certificateProfileId;
+        }
+
+        private static Entry read(final ByteBuffer buffer, final int offset) {
+            return new Entry(buffer.get(offset + SERIAL_LENGTH), buffer.getLong(offset + SERIAL_LENGTH + 1), buffer.getLong(offset + SERIAL_LENGTH + 9),
+                    buffer.getInt(offset + SERIAL_LENGTH + 17), buffer.getInt(offset + SERIAL_LENGTH + 21));
+        }
+
+        private void write(final DataOutputStream out, final byte[] key) throws IOException {
+            out.write(key);
+            out.writeByte(status);
+            out.writeLong(revocationDate);
+            out.writeLong(invalidityDate);
+            out.writeInt(reason);
+            out.writeInt(certificateProfileId);
+        }
+
+        private boolean isSame(final Entry other) {
+            return status == other.status && revocationDate == other.revocationDate && invalidityDate == other.invalidityDate
+                    && reason == other.reason && certificateProfileId == other.certificateProfileId;
+        }
+    }
+
+    /**
+     * Collects certificate data for a new index file. Not thread safe. The builder must be closed, which removes the
+     * temporary file if the index was not written.
+     */
+    public static final class Builder implements Closeable {
+        /** Marks a certificate that is removed from the base index */
+        private static final Entry REMOVED = new Entry(STATUS_GOOD, -1, -1, RevokedCertInfo.NOT_REVOKED, 0);
+
+        private final String issuerDn;
+        private final Path file;
+        private final Path tempFile;
+        /** The index that is updated, or null when all certificates are added */
+        private final RevocationIndex base;
+        /** Changes to the base index, by serial number */
+        private final TreeMap<BigInteger, Entry> changes = new TreeMap<>();
+        /** Entries of a new index, in the order they are added */
+        private final DataOutputStream out;
+        private long lastUpdateTime;
+
+        private Builder(final String issuerDn, final Path file, final RevocationIndex base) throws IOException {
+            this.issuerDn = issuerDn;
+            this.file = file;
+            this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            this.base = base;
+            this.lastUpdateTime = base == null ? 0 : base.getLastUpdateTime();
+            if (base == null) {
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 65536));
+                writeHeader(out);
+            } else {
+                out = null;
+            }
+        }
+
+        /**
+         * Adds or updates a certificate in the index.
+         *
+         * @param serialNumber serial number of the certificate
+         * @param status status of the certificate, one of CertificateConstants.CERT_*
+         * @param revocationDate revocation date in milliseconds since epoch
+         * @param revocationReason revocation reason, one of RevokedCertInfo.REVOCATION_REASON_*
+         * @param invalidityDate invalidity date in milliseconds since epoch, or -1 if not set
+         * @param certificateProfileId id of the certificate profile of the certificate
+         * @param updateTime CertificateData.updateTime of the certificate
+         * @return false if the serial number is too long to be indexed, true otherwise
+         * @throws IOException if the entry could not be written to the temporary file
+         */
+        public boolean update(final BigInteger serialNumber, final int status, final long revocationDate, final int revocationReason,
+                final long invalidityDate, final int certificateProfileId, final long updateTime) throws IOException {
+            final byte[] key = toKey(serialNumber);
+            if (key == null) {
+                return false;
+            }
+            lastUpdateTime = Math.max(lastUpdateTime, updateTime);
+            // Same interpretation of status as CertificateStatusHelper
+            final boolean isRevoked = status == CertificateConstants.CERT_REVOKED || (status == CertificateConstants.CERT_ARCHIVED
+                    && revocationReason != RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL && revocationReason != RevokedCertInfo.NOT_REVOKED);
+            final Entry entry = isRevoked ? new Entry(STATUS_REVOKED, revocationDate, invalidityDate, revocationReason, certificateProfileId)
+                    : new Entry(STATUS_GOOD, -1L, -1L, RevokedCertInfo.NOT_REVOKED, certificateProfileId);
+            if (base == null) {
+                entry.write(out, key);
+            } else {
+                final int position = base.find(key);
+                if (position >= 0 && Entry.read(base.buffer, base.entriesOffset + position * ENTRY_SIZE).isSame(entry)) {
+                    changes.remove(serialNumber);
+                } else {
+                    changes.put(serialNumber, entry);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Removes a certificate that no longer exists in the database, such as a limited entry that has been removed from the CRL.
+         * Only supported for incremental updates, since a new index only contains the certificates that are added.
+         *
+         * @param serialNumber serial number of the certificate
+         */
+        public void remove(final BigInteger serialNumber) {
+            if (base == null) {
+                throw new IllegalStateException("Certificates can only be removed from an existing index.");
+            }
+            final byte[] key = toKey(serialNumber);
+            if (key != null && base.find(key) >= 0) {
+                changes.put(serialNumber, REMOVED);
+            } else {
+                changes.remove(serialNumber);
+            }
+        }
+
+        /** @return true if this is a new index, or if the status of any certificate in the base index has changed */
+        public boolean isModified() {
+            return base == null || !changes.isEmpty();
+        }
+
+        /**
+         * Writes the index to a temporary file, which then atomically replaces the given file, and maps the new file into memory.
+         *
+         * @return the new index
+         * @throws IOException if the file could not be written
+         */
+        public RevocationIndex write() throws IOException {
+            final int[] counts;
+            if (base == null) {
+                out.close();
+                counts = sortEntries();
+            } else {
+                counts = mergeChanges();
+            }
+            try (final FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                final ByteBuffer header = ByteBuffer.allocate(16);
+                header.putLong(lastUpdateTime).putInt(counts[0]).putInt(counts[1]).flip();
+                channel.write(header, 8);
+                channel.force(false);
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return open(file);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+            Files.deleteIfExists(tempFile);
+        }
+
+        /** Writes the header with the issuer DN. The times and counts are filled in when the entries have been written. */
+        private void writeHeader(final DataOutputStream out) throws IOException {
+            final byte[] issuerDnBytes = issuerDn.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(0L);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(issuerDnBytes.length);
+            out.write(issuerDnBytes);
+        }
+
+        /**
+         * Sorts the entries of a new index in place in the temporary file, and removes duplicate serial numbers.
+         *
+         * @return the number of entries and the number of revoked entries
+         */
+        private int[] sortEntries() throws IOException {
+            try (final FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Too many certificates for a revocation index of '" + issuerDn + "'.");
+                }
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                final int entriesOffset = HEADER_SIZE + issuerDn.getBytes(StandardCharsets.UTF_8).length;
+                final int entries = (int) ((size - entriesOffset) / ENTRY_SIZE);
+                heapSort(buffer, entriesOffset, entries);
+                // The database does not enforce unique serial numbers per issuer, so keep only the first of equal serial numbers
+                int count = 0;
+                int revokedCount = 0;
+                final byte[] entry = new byte[ENTRY_SIZE];
+                for (int i = 0; i < entries; i++) {
+                    final int offset = entriesOffset + i * ENTRY_SIZE;
+                    if (count > 0 && compare(buffer, entriesOffset + (count - 1) * ENTRY_SIZE, offset) == 0) {
+                        continue;
+                    }
+                    if (count != i) {
+                        copy(buffer, offset, entriesOffset + count * ENTRY_SIZE, entry);
+                    }
+                    if (buffer.get(offset + SERIAL_LENGTH) == STATUS_REVOKED) {
+                        revokedCount++;
+                    }
+                    count++;
+                }
+                buffer.force();
+                if (count != entries) {
+                    channel.truncate(entriesOffset + (long) count * ENTRY_SIZE);
+                }
+                return new int[] { count, revokedCount };
+            }
+        }
+
+        /**
+         * Writes the entries of the base index, with the changes applied, to the temporary file.
+         *
+         * @return the number of entries and the number of revoked entries
+         */
+        private int[] mergeChanges() throws IOException {
+            int count = 0;
+            int revokedCount = 0;
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 65536))) {
+                writeHeader(out);
+                final Iterator<Map.Entry<BigInteger, Entry>> iterator = changes.entrySet().iterator();
+                Map.Entry<BigInteger, Entry> change = iterator.hasNext() ? iterator.next() : null;
+                byte[] changeKey = change == null ? null : toKey(change.getKey());
+                final byte[] baseKey = new byte[SERIAL_LENGTH];
+                for (int i = 0; i <= base.count; i++) {
+                    final int offset = base.entriesOffset + i * ENTRY_SIZE;
+                    // Changes sorted before the current base entry, or after the last base entry, are new certificates
+                    while (change != null && (i == base.count || compare(base.buffer, offset, changeKey) > 0)) {
+                        if (change.getValue() != REMOVED) {
+                            change.getValue().write(out, changeKey);
+                            count++;
+                            revokedCount += change.getValue().status == STATUS_REVOKED ? 1 : 0;
+                        }
+                        change = iterator.hasNext() ? iterator.next() : null;
+                        changeKey = change == null ? null : toKey(change.getKey());
+                    }
+                    if (i == base.count) {
+                        break;
+                    }
+                    final Entry entry;
+                    if (change != null && compare(base.buffer, offset, changeKey) == 0) {
+                        entry = change.getValue();
+                        change = iterator.hasNext() ? iterator.next() : null;
+                        changeKey = change == null ? null : toKey(change.getKey());
+                    } else {
+                        entry = Entry.read(base.buffer, offset);
+                    }
+                    if (entry != REMOVED) {
+                        for (int j = 0; j < SERIAL_LENGTH; j++) {
+                            baseKey[j] = base.buffer.get(offset + j);
+                        }
+                        entry.write(out, baseKey);
+                        count++;
+                        revokedCount += entry.status == STATUS_REVOKED ? 1 : 0;
+                    }
+                }
+            }
+            return new int[] { count, revokedCount };
+        }
+
+        private static void heapSort(final ByteBuffer buffer, final int entriesOffset, final int entries) {
+            final byte[] temp = new byte[ENTRY_SIZE];
+            for (int i = entries / 2 - 1; i >= 0; i--) {
+                siftDown(buffer, entriesOffset, i, entries, temp);
+            }
+            for (int end = entries - 1; end > 0; end--) {
+                swap(buffer, entriesOffset, entriesOffset + end * ENTRY_SIZE, temp);
+                siftDown(buffer, entriesOffset, 0, end, temp);
+            }
+        }
+
+        private static void siftDown(final ByteBuffer buffer, final int entriesOffset, final int start, final int end, final byte[] temp) {
+            int root = start;
+            while (2 * root + 1 < end) {
+                int child = 2 * root + 1;
+                if (child + 1 < end && compare(buffer, entriesOffset + child * ENTRY_SIZE, entriesOffset + (child + 1) * ENTRY_SIZE) < 0) {
+                    child++;
+                }
+                if (compare(buffer, entriesOffset + root * ENTRY_SIZE, entriesOffset + child * ENTRY_SIZE) >= 0) {
+                    return;
+                }
+                swap(buffer, entriesOffset + root * ENTRY_SIZE, entriesOffset + child * ENTRY_SIZE, temp);
+                root = child;
+            }
+        }
+
+        private static void swap(final ByteBuffer buffer, final int offset1, final int offset2, final byte[] temp) {
+            for (int i = 0; i < ENTRY_SIZE; i++) {
+                temp[i] = buffer.get(offset1 + i);
+                buffer.put(offset1 + i, buffer.get(offset2 + i));
+                buffer.put(offset2 + i, temp[i]);
+            }
+        }
+
+        private static void copy(final ByteBuffer buffer, final int from, final int to, final byte[] temp) {
+            for (int i = 0; i < ENTRY_SIZE; i++) {
+                temp[i] = buffer.get(from + i);
+            }
+            for (int i = 0; i < ENTRY_SIZE; i++) {
+                buffer.put(to + i, temp[i]);
+            }
+        }
+    }
+}
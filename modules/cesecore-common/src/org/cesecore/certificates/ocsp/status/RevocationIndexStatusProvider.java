@@ -0,0 +1,288 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.status;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * Certificate status provider backed by one {@link RevocationIndex} file per issuer, kept in the directory configured
+ * with {@link OcspConfiguration#REVOCATION_INDEX_DIR}. Lookups never touch the database.
+ * <p>
+ * An index only reflects the database as of its last refresh, so answers are only given while the revocation change log
+ * tells this node about every later change:
+ * <ul>
+ * <li>The revocation change log must be enabled and must have been read recently, see {@link #changeLogRead(long)}.</li>
+ * <li>The index must have been refreshed after the change log was first read, so no change falls between the two.
+ * Indexes loaded from disk at startup are not used until they have been refreshed.</li>
+ * <li>Certificates that have changed since the refresh started, on this node or on another node according to the change
+ * log, are not answered until the next refresh, see {@link #markChanged(String, BigInteger)}.</li>
+ * </ul>
+ * Whenever no answer is given, the OCSP responder looks the certificate up in the database.
+ */
+public enum RevocationIndexStatusProvider implements OcspStatusProvider {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(RevocationIndexStatusProvider.class);
+
+    private static final String FILE_PREFIX = "revocationindex-";
+    private static final String FILE_SUFFIX = ".idx";
+    /** Number of poll intervals the revocation change log may be late before the indexes are no longer trusted */
+    private static final int MAX_MISSED_CHANGE_LOG_READS = 3;
+
+    /** An index with the time its last refresh started, or -1 if it was loaded from disk and has not been refreshed */
+    private static final class RefreshedIndex {
+        private final RevocationIndex index;
+        private final long refreshTime;
+
+        private RefreshedIndex(final RevocationIndex index, final long refreshTime) {
+            this.index = index;
+            this.refreshTime = refreshTime;
+        }
+    }
+
+    private final Map<String, RefreshedIndex> indexes = new ConcurrentHashMap<>();
+    /** Certificates changed since they were read into the index, by issuer DN and serial number, with the time of the change */
+    private final Map<String, Map<BigInteger, Long>> changedCertificates = new ConcurrentHashMap<>();
+    /** Issuers where all certificates have changed, with the time of the change */
+    private final Map<String, Long> changedIssuers = new ConcurrentHashMap<>();
+    /** Time of the first read of the revocation change log, or -1 if it has not been read */
+    private volatile long changeLogReadSince = -1;
+    /** Time of the last read of the revocation change log, or -1 if it has not been read */
+    private volatile long lastChangeLogRead = -1;
+    private volatile boolean loaded = false;
+
+    /** @return true if a revocation index directory is configured */
+    public boolean isEnabled() {
+        return OcspConfiguration.getRevocationIndexDirectory() != null;
+    }
+
+    @Override
+    public boolean hasStatusForIssuer(final String issuerDn) {
+        return getCurrentIndex(issuerDn) != null;
+    }
+
+    @Override
+    public CertificateStatus getStatus(final String issuerDn, final BigInteger serialNumber) {
+        final RevocationIndex index = getCurrentIndex(issuerDn);
+        if (index == null) {
+            return null;
+        }
+        final Map<BigInteger, Long> changed = changedCertificates.get(issuerDn);
+        if (changed != null && changed.containsKey(serialNumber)) {
+            return null;
+        }
+        return index.getStatus(serialNumber);
+    }
+
+    /**
+     * @param issuerDn the DN of the issuer, in the normalized format stored in the database
+     * @return the index for the issuer, or null if there is none. The index may be out of date.
+     */
+    public RevocationIndex getIndex(final String issuerDn) {
+        if (!isEnabled()) {
+            return null;
+        }
+        loadExistingIndexes();
+        final RefreshedIndex refreshedIndex = indexes.get(issuerDn);
+        return refreshedIndex == null ? null : refreshedIndex.index;
+    }
+
+    /**
+     * Replaces the index for an issuer after a refresh, and forgets the changes the refresh has read. Lookups in progress
+     * may still complete against the previous index.
+     *
+     * @param index the new index, already written to {@link #getIndexFile(String)}, or the current index if nothing has changed
+     * @param refreshTime the time the refresh started. All changes committed before this time must be included in the index.
+     * @param readChanges the changed certificates included in the index, from {@link #getChangedCertificates(String, long)}
+     */
+    public void swap(final RevocationIndex index, final long refreshTime, final Map<BigInteger, Long> readChanges) {
+        indexes.put(index.getIssuerDn(), new RefreshedIndex(index, refreshTime));
+        final Map<BigInteger, Long> changed = changedCertificates.get(index.getIssuerDn());
+        if (changed != null) {
+            // Conditional removal, so a certificate marked again during the refresh is still looked up in the database
+            readChanges.forEach(changed::remove);
+        }
+    }
+
+    /**
+     * Forgets the indexes and changes of issuers that are no longer refreshed, for example since the CA has been removed.
+     *
+     * @param issuerDns the issuers that are refreshed
+     */
+    public void retainIssuers(final Collection<String> issuerDns) {
+        indexes.keySet().retainAll(issuerDns);
+        changedCertificates.keySet().retainAll(issuerDns);
+        changedIssuers.keySet().retainAll(issuerDns);
+    }
+
+    /**
+     * Marks a certificate as changed, so it is looked up in the database until the index has been refreshed. Must be called
+     * after the change has been committed.
+     *
+     * @param issuerDn the DN of the issuer, in the normalized format stored in the database
+     * @param serialNumber the serial number of the certificate
+     */
+    public void markChanged(final String issuerDn, final BigInteger serialNumber) {
+        if (isEnabled()) {
+            changedCertificates.computeIfAbsent(issuerDn, k -> new ConcurrentHashMap<>()).put(serialNumber, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Marks all certificates of an issuer as changed, for example when all certificates of a CA have been revoked.
+     *
+     * @param issuerDn the DN of the issuer, in the normalized format stored in the database
+     */
+    public void markIssuerChanged(final String issuerDn) {
+        if (isEnabled()) {
+            changedIssuers.put(issuerDn, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @param issuerDn the DN of the issuer, in the normalized format stored in the database
+     * @param before only include changes marked before this time
+     * @return the serial numbers of the certificates of the issuer marked as changed before the given time, with the time of the change
+     */
+    public Map<BigInteger, Long> getChangedCertificates(final String issuerDn, final long before) {
+        final Map<BigInteger, Long> changed = changedCertificates.get(issuerDn);
+        if (changed == null) {
+            return Collections.emptyMap();
+        }
+        final Map<BigInteger, Long> result = new HashMap<>();
+        changed.forEach((serialNumber, time) -> {
+            if (time < before) {
+                result.put(serialNumber, time);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Called when the revocation change log has been read and the changes made on other nodes have been marked.
+     *
+     * @param readTime the time of the read. Changes made on other nodes before this time have been marked.
+     */
+    public void changeLogRead(final long readTime) {
+        if (changeLogReadSince == -1) {
+            changeLogReadSince = readTime;
+        }
+        lastChangeLogRead = readTime;
+    }
+
+    /**
+     * @param issuerDn the DN of the issuer, in the normalized format stored in the database
+     * @return the index file of the issuer in the configured directory, or null if no directory is configured
+     */
+    public Path getIndexFile(final String issuerDn) {
+        final String directory = OcspConfiguration.getRevocationIndexDirectory();
+        if (directory == null) {
+            return null;
+        }
+        try {
+            // The hash code of the DN is not unique, and one issuer must never use the index of another
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(issuerDn.getBytes(StandardCharsets.UTF_8));
+            return Paths.get(directory, FILE_PREFIX + Hex.toHexString(digest) + FILE_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    /** Forgets all loaded indexes and changes, so indexes are read from disk again on next use. Used when the configuration changes and in tests. */
+    public void clear() {
+        synchronized (this) {
+            indexes.clear();
+            changedCertificates.clear();
+            changedIssuers.clear();
+            changeLogReadSince = -1;
+            lastChangeLogRead = -1;
+            loaded = false;
+        }
+    }
+
+    /** @return the index for the issuer if it is known to include all changes except those marked, or null */
+    private RevocationIndex getCurrentIndex(final String issuerDn) {
+        if (!isEnabled() || !CesecoreConfiguration.useRevocationChangeLog() || changeLogReadSince == -1) {
+            return null;
+        }
+        if (System.currentTimeMillis() - lastChangeLogRead > MAX_MISSED_CHANGE_LOG_READS * CesecoreConfiguration.getRevocationChangeLogPollInterval()) {
+            if (log.isDebugEnabled()) {
+                log.debug("The revocation change log was last read at " + lastChangeLogRead + ", so the revocation indexes are not used.");
+            }
+            return null;
+        }
+        loadExistingIndexes();
+        final RefreshedIndex refreshedIndex = indexes.get(issuerDn);
+        if (refreshedIndex == null || refreshedIndex.refreshTime < changeLogReadSince) {
+            return null;
+        }
+        final Long issuerChangeTime = changedIssuers.get(issuerDn);
+        if (issuerChangeTime != null && issuerChangeTime >= refreshedIndex.refreshTime) {
+            return null;
+        }
+        return refreshedIndex.index;
+    }
+
+    private void loadExistingIndexes() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            final Path directory = Paths.get(OcspConfiguration.getRevocationIndexDirectory());
+            if (Files.isDirectory(directory)) {
+                try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+                    for (final Path file : files) {
+                        try {
+                            final RevocationIndex index = RevocationIndex.open(file);
+                            if (!file.equals(getIndexFile(index.getIssuerDn()))) {
+                                log.info("Ignoring revocation index " + file + " for '" + index.getIssuerDn() + "', since it has the wrong file name.");
+                                continue;
+                            }
+                            // Not used for lookups until refreshed, since changes may have been made while this node was down
+                            indexes.putIfAbsent(index.getIssuerDn(), new RefreshedIndex(index, -1L));
+                            log.info("Loaded revocation index for '" + index.getIssuerDn() + "' with " + index.getRevokedCount() + " revoked of "
+                                    + index.getIssuedCount() + " certificates from " + file);
+                        } catch (IOException e) {
+                            log.warn("Ignoring unreadable revocation index " + file + ": " + e.getMessage());
+                        }
+                    }
+                } catch (IOException e) {
+                    log.warn("Unable to list revocation indexes in " + directory + ": " + e.getMessage());
+                }
+            }
+            loaded = true;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.util.cert;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.cert.CRLException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1BitString;
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.TBSCertList;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+
+/**
+ * Reads a DER encoded X.509 CRL without decoding all revoked certificates up front, as X509CRL does. The fields of the
+ * TBSCertList and the CRL extensions are decoded when the parser is created, while the CRL entries are decoded one at a time
+ * by {@link #nextEntry()}, so memory use does not grow with the number of entries. The signature is verified over the
+ * encoded TBSCertList.
+ * <p>
+ * Not thread safe.
+ */
+public final class StreamingCrlParser {
+
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_UTC_TIME = 0x17;
+    private static final int TAG_GENERALIZED_TIME = 0x18;
+    private static final int TAG_CRL_EXTENSIONS = 0xa0;
+
+    private final byte[] encoded;
+    private final int tbsOffset;
+    private final int tbsLength;
+    private final AlgorithmIdentifier signatureAlgorithm;
+    private final byte[] issuer;
+    private final Date thisUpdate;
+    private final Date nextUpdate;
+    private final Extensions extensions;
+    private final byte[] signature;
+    private final int entriesEnd;
+
+    /** Position of the next CRL entry */
+    private int entryOffset;
+    /** Issuer of the entries of an indirect CRL, which applies to the following entries until another issuer is given */
+    private X500Name certificateIssuer = null;
+
+    /** A revoked certificate of the CRL. */
+    public static final class Entry {
+        private final BigInteger serialNumber;
+        private final Date revocationDate;
+        private final int reasonCode;
+        private final Date invalidityDate;
+        private final X500Name certificateIssuer;
+
+        private Entry(final BigInteger serialNumber, final Date revocationDate, final int reasonCode, final Date invalidityDate, final X500Name certificateIssuer) {
+            this.serialNumber = serialNumber;
+            this.revocationDate = revocationDate;
+            this.reasonCode = reasonCode;
+            this.invalidityDate = invalidityDate;
+            this.certificateIssuer = certificateIssuer;
+        }
+
+        public BigInteger getSerialNumber() {
+            return serialNumber;
+        }
+
+        public Date getRevocationDate() {
+            return revocationDate;
+        }
+
+        /** @return the revocation reason code as defined in RevokedCertInfo.REVOCATION_REASON_..., which is unspecified if the entry has no reason code */
+        public int getReasonCode() {
+            return reasonCode;
+        }
+
+        /** @return the invalidity date, or null if the entry has none */
+        public Date getInvalidityDate() {
+            return invalidityDate;
+        }
+
+        /** @return the issuer of the certificate in an indirect CRL, or null if it is the issuer of the CRL */
+        public X500Name getCertificateIssuer() {
+            return certificateIssuer;
+        }
+    }
+
+    /** Identifier, length and position of a DER encoded element */
+    private static final class Element {
+        private final int tag;
+        private final int offset;
+        private final int contentOffset;
+        private final int end;
+
+        private Element(final int tag, final int offset, final int contentOffset, final int end) {
+            this.tag = tag;
+            this.offset = offset;
+            this.contentOffset = contentOffset;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Decodes the fields of a CRL, except the revoked certificates.
+     *
+     * @param encoded the DER encoded CRL, which must not be modified while the parser is used
+     * @throws CRLException if the CRL is not a correctly encoded X.509 CRL
+     */
+    public StreamingCrlParser(final byte[] encoded) throws CRLException {
+        this.encoded = encoded;
+        try {
+            final Element certificateList = readElement(0, encoded.length, TAG_SEQUENCE);
+            final Element tbsCertList = readElement(certificateList.contentOffset, certificateList.end, TAG_SEQUENCE);
+            tbsOffset = tbsCertList.offset;
+            tbsLength = tbsCertList.end - tbsCertList.offset;
+            Element element = readElement(tbsCertList.contentOffset, tbsCertList.end, -1);
+            if (element.tag == TAG_INTEGER) {
+                // Version, which is v2 if there are any extensions
+                element = readElement(element.end, tbsCertList.end, -1);
+            }
+            signatureAlgorithm = AlgorithmIdentifier.getInstance(decode(element, TAG_SEQUENCE));
+            element = readElement(element.end, tbsCertList.end, TAG_SEQUENCE);
+            issuer = Arrays.copyOfRange(encoded, element.offset, element.end);
+            element = readElement(element.end, tbsCertList.end, -1);
+            thisUpdate = decodeTime(element);
+            element = element.end < tbsCertList.end ? readElement(element.end, tbsCertList.end, -1) : null;
+            if (element != null && (element.tag == TAG_UTC_TIME || element.tag == TAG_GENERALIZED_TIME)) {
+                nextUpdate = decodeTime(element);
+                element = element.end < tbsCertList.end ? readElement(element.end, tbsCertList.end, -1) : null;
+            } else {
+                nextUpdate = null;
+            }
+            if (element != null && element.tag == TAG_SEQUENCE) {
+                entryOffset = element.contentOffset;
+                entriesEnd = element.end;
+                element = element.end < tbsCertList.end ? readElement(element.end, tbsCertList.end, -1) : null;
+            } else {
+                entryOffset = 0;
+                entriesEnd = 0;
+            }
+            if (element != null && element.tag == TAG_CRL_EXTENSIONS) {
+                extensions = Extensions.getInstance(decode(readElement(element.contentOffset, element.end, TAG_SEQUENCE), TAG_SEQUENCE));
+                element = element.end < tbsCertList.end ? readElement(element.end, tbsCertList.end, -1) : null;
+            } else {
+                extensions = null;
+            }
+            if (element != null) {
+                throw new CRLException("Unexpected element with tag " + element.tag + " in TBSCertList.");
+            }
+            element = readElement(tbsCertList.end, certificateList.end, TAG_SEQUENCE);
+            if (!signatureAlgorithm.equals(AlgorithmIdentifier.getInstance(decode(element, TAG_SEQUENCE)))) {
+                throw new CRLException("Signature algorithm of the CRL does not match the one in TBSCertList.");
+            }
+            element = readElement(element.end, certificateList.end, -1);
+            signature = ASN1BitString.getInstance(decode(element, -1)).getOctets();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new CRLException("Invalid CRL: " + e.getMessage(), e);
+        }
+    }
+
+    public X500Principal getIssuerX500Principal() {
+        return new X500Principal(issuer);
+    }
+
+    public Date getThisUpdate() {
+        return thisUpdate;
+    }
+
+    /** @return nextUpdate, or null if the CRL has none */
+    public Date getNextUpdate() {
+        return nextUpdate;
+    }
+
+    /** @return the CRL number, or 0 if the CRL has none */
+    public BigInteger getCrlNumber() {
+        final CRLNumber crlNumber = getCrlNumberExtension(Extension.cRLNumber);
+        return crlNumber == null ? BigInteger.ZERO : crlNumber.getCRLNumber();
+    }
+
+    /** @return the CRL number of the base CRL of a delta CRL, or -1 if the CRL is not a delta CRL */
+    public BigInteger getDeltaCRLIndicator() {
+        final CRLNumber baseCrlNumber = getCrlNumberExtension(Extension.deltaCRLIndicator);
+        return baseCrlNumber == null ? BigInteger.valueOf(-1) : baseCrlNumber.getCRLNumber();
+    }
+
+    /**
+     * Verifies the signature of the CRL.
+     *
+     * @param publicKey public key of the issuer of the CRL
+     * @return true if the signature is valid
+     * @throws CRLException if the signature could not be verified, for example because the algorithm is not supported
+     */
+    public boolean isSignatureValid(final PublicKey publicKey) throws CRLException {
+        try {
+            final ContentVerifier verifier = new JcaContentVerifierProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(publicKey)
+                    .get(signatureAlgorithm);
+            try (final OutputStream out = verifier.getOutputStream()) {
+                out.write(encoded, tbsOffset, tbsLength);
+            }
+            return verifier.verify(signature);
+        } catch (OperatorCreationException | IOException e) {
+            throw new CRLException("Failed to verify CRL signature: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodes the next revoked certificate of the CRL.
+     *
+     * @return the next entry, or null if there are no more entries
+     * @throws CRLException if the entry is not correctly encoded
+     */
+    public Entry nextEntry() throws CRLException {
+        if (entryOffset >= entriesEnd) {
+            return null;
+        }
+        try {
+            final Element element = readElement(entryOffset, entriesEnd, TAG_SEQUENCE);
+            final TBSCertList.CRLEntry crlEntry = TBSCertList.CRLEntry.getInstance(decode(element, TAG_SEQUENCE));
+            entryOffset = element.end;
+            int reasonCode = RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED;
+            Date invalidityDate = null;
+            final Extensions entryExtensions = crlEntry.getExtensions();
+            if (entryExtensions != null) {
+                final Extension reasonCodeExtension = entryExtensions.getExtension(Extension.reasonCode);
+                if (reasonCodeExtension != null) {
+                    reasonCode = ASN1Enumerated.getInstance(reasonCodeExtension.getParsedValue()).intValueExact();
+                }
+                final Extension invalidityDateExtension = entryExtensions.getExtension(Extension.invalidityDate);
+                if (invalidityDateExtension != null) {
+                    invalidityDate = ASN1GeneralizedTime.getInstance(invalidityDateExtension.getParsedValue()).getDate();
+                }
+                final Extension certificateIssuerExtension = entryExtensions.getExtension(Extension.certificateIssuer);
+                if (certificateIssuerExtension != null) {
+                    certificateIssuer = null;
+                    for (final GeneralName generalName : GeneralNames.getInstance(certificateIssuerExtension.getParsedValue()).getNames()) {
+                        if (generalName.getTagNo() == GeneralName.directoryName) {
+                            certificateIssuer = X500Name.getInstance(generalName.getName());
+                            break;
+                        }
+                    }
+                }
+            }
+            return new Entry(crlEntry.getUserCertificate().getValue(), crlEntry.getRevocationDate().getDate(), reasonCode, invalidityDate, certificateIssuer);
+        } catch (IOException | IllegalArgumentException | ArithmeticException | ParseException e) {
+            throw new CRLException("Invalid CRL entry: " + e.getMessage(), e);
+        }
+    }
+
+    private CRLNumber getCrlNumberExtension(final ASN1ObjectIdentifier oid) {
+        final Extension extension = extensions == null ? null : extensions.getExtension(oid);
+        return extension == null ? null : CRLNumber.getInstance(extension.getParsedValue());
+    }
+
+    private Date decodeTime(final Element element) throws IOException {
+        if (element.tag != TAG_UTC_TIME && element.tag != TAG_GENERALIZED_TIME) {
+            throw new IOException("Expected a time, but found tag " + element.tag + ".");
+        }
+        return Time.getInstance(decode(element, -1)).getDate();
+    }
+
+    private ASN1Primitive decode(final Element element, final int expectedTag) throws IOException {
+        if (expectedTag != -1 && element.tag != expectedTag) {
+            throw new IOException("Expected tag " + expectedTag + ", but found " + element.tag + ".");
+        }
+        return ASN1Primitive.fromByteArray(Arrays.copyOfRange(encoded, element.offset, element.end));
+    }
+
+    /**
+     * Reads the identifier and length octets of an element.
+     *
+     * @param offset position of the element
+     * @param limit end of the enclosing element, which the element must not exceed
+     * @param expectedTag the tag the element must have, or -1 to accept any tag
+     */
+    private Element readElement(final int offset, final int limit, final int expectedTag) throws IOException {
+        if (offset + 2 > limit) {
+            throw new IOException("Truncated element at offset " + offset + ".");
+        }
+        final int tag = encoded[offset] & 0xff;
+        if ((tag & 0x1f) == 0x1f) {
+            throw new IOException("Unexpected high tag number at offset " + offset + ".");
+        }
+        if (expectedTag != -1 && tag != expectedTag) {
+            throw new IOException("Expected tag " + expectedTag + ", but found " + tag + " at offset " + offset + ".");
+        }
+        int position = offset + 1;
+        final int first = encoded[position++] & 0xff;
+        long length;
+        if (first < 0x80) {
+            length = first;
+        } else {
+            final int lengthOfLength = first & 0x7f;
+            if (lengthOfLength == 0 || lengthOfLength > 4) {
+                throw new IOException("Unsupported length encoding at offset " + offset + ".");
+            }
+            if (position + lengthOfLength > limit) {
+                throw new IOException("Truncated length at offset " + offset + ".");
+            }
+            length = 0;
+            for (int i = 0; i < lengthOfLength; i++) {
+                length = (length << 8) | (encoded[position++] & 0xff);
+            }
+        }
+        if (position + length > limit) {
+            throw new IOException("Element at offset " + offset + " exceeds the enclosing element.");
+        }
+        return new Element(tag, offset, position, (int) (position + length));
+    }
+}
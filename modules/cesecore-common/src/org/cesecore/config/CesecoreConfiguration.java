@@ -17,6 +17,7 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import org.apache.log4j.Logger;
 
@@ -288,6 +289,41 @@ public final class CesecoreConfiguration {
         return value!=null && Boolean.parseBoolean(value.trim());
     }
 
+    /**
+     * @return true if new CRLs should be stored DER encoded in the binaryCrl column of CRLData, instead of base64 encoded in base64Crl.
+     */
+    public static boolean useBinaryCrlStorage() {
+        final String value = ConfigurationHolder.getString("database.useBinaryCrlStorage");
+        return value!=null && Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * @return true if changes to the revocation status of certificates should be logged in the RevocationChangeData table, which is then
+     *      used when creating delta CRLs and for invalidating cached OCSP responses on all nodes.
+     */
+    public static boolean useRevocationChangeLog() {
+        final String value = ConfigurationHolder.getString("database.useRevocationChangeLog");
+        return value!=null && Boolean.parseBoolean(value.trim());
+    }
+
+    /** @return the number of milliseconds that entries are kept in the revocation change log */
+    public static long getRevocationChangeLogRetention() {
+        return getLongValue("database.revocationChangeLog.retention", 2678400000L, "milliseconds");
+    }
+
+    /** @return the interval in milliseconds at which each node reads the revocation change log to invalidate cached OCSP responses, or 0 to disable */
+    public static long getRevocationChangeLogPollInterval() {
+        return getLongValue("database.revocationChangeLog.pollInterval", 10000L, "milliseconds");
+    }
+
+    /**
+     * @return the number of milliseconds before the last read that each node reads the revocation change log again, which must cover the
+     *      longest time from a change to its commit
+     */
+    public static long getRevocationChangeLogReadOverlap() {
+        return getLongValue("database.revocationChangeLog.readOverlap", 300000L, "milliseconds");
+    }
+
     /** If database integrity protection should be used or not. */
     public static boolean useDatabaseIntegrityProtection(final String tableName) {
         // First check if we have explicit configuration for this entity
@@ -327,6 +363,22 @@ public final class CesecoreConfiguration {
         return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("database.crlgenfetchordered"));
     }
 
+    /**
+     * @return the Deflater compression level, 0-9, of the revoked certificates that are kept in memory when creating CRLs.
+     */
+    public static int getDatabaseRevokedCertInfoCompressionLevel() {
+        final long level = getLongValue("database.crlgencompressionlevel", 1L, "compression level");
+        return (int) Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    /**
+     * Whether revoked certificates for base CRLs should be read with keyset pagination on the serial number, and kept in a compact
+     * binary form instead of a compressed collection.
+     */
+    public static boolean getDatabaseRevokedCertInfoFetchKeyset() {
+        return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("database.crlgenfetchkeyset"));
+    }
+
     /** @return a list of enabled TLS protocol versions and cipher suites */
     /*
      * Java 6: http://docs.oracle.com/javase/6/docs/technotes/guides/security/SunProviders.html#SunJSSEProvider
@@ -38,6 +38,8 @@ public class GlobalCesecoreConfiguration extends ConfigurationBase implements Se
     
     private static final String REDACT_PII_DATA_DEFAULT = "redact.pii.default";
     private static final String REDACT_PII_DATA_ENFORCED = "redact.pii.enforced";
+
+    private static final String REVOCATION_CHANGE_LOG_ENABLED_SINCE_KEY = "revocationchangelog.enabledsince";
     
     @Override
     public void upgrade() {
@@ -106,4 +108,15 @@ public class GlobalCesecoreConfiguration extends ConfigurationBase implements Se
     public void setMaximumQueryTimeout(final long maximumQueryTimeoutMs) { 
         data.put(MAXIMUM_QUERY_TIMEOUT_KEY, Math.max(maximumQueryTimeoutMs, 0L));
     }
+
+    /** @return the time when the revocation change log was enabled, after which all changes are logged, or -1 if it is not enabled */
+    public long getRevocationChangeLogEnabledSince() {
+        final Object time = data.get(REVOCATION_CHANGE_LOG_ENABLED_SINCE_KEY);
+        return time == null ? -1L : (long) time;
+    }
+
+    /** Sets the time when the revocation change log was enabled, or -1 when it has been disabled. */
+    public void setRevocationChangeLogEnabledSince(final long enabledSince) {
+        data.put(REVOCATION_CHANGE_LOG_ENABLED_SINCE_KEY, enabledSince);
+    }
 }
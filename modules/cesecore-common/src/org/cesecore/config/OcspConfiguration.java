@@ -62,6 +62,19 @@ public class OcspConfiguration {
     public static final String REVOKED_MAX_AGE = "ocsp.revoked.maxAge";
     public static final String INCLUDE_SIGNING_CERT = "ocsp.includesignercert";
     public static final String INCLUDE_CERT_CHAIN = "ocsp.includecertchain";
+    public static final String RESPONSE_CACHE_MAX_SIZE = "ocsp.responsecache.maxsize";
+    public static final String PRESIGNING_BATCH_SIZE = "ocsp.presigning.batchsize";
+    public static final String PRESIGNING_THREADS = "ocsp.presigning.threads";
+    public static final String SIGNING_MAX_CONCURRENCY = "ocsp.signing.maxconcurrency";
+    public static final String SIGNING_QUEUE_SIZE = "ocsp.signing.queuesize";
+    public static final String REVOCATION_INDEX_DIR = "ocsp.revocationindex.dir";
+    public static final String ASYNC_ENABLED = "ocsp.async.enabled";
+    public static final String ASYNC_THREADS = "ocsp.async.threads";
+    public static final String ASYNC_QUEUE_SIZE = "ocsp.async.queuesize";
+    public static final String PRE_PRODUCED_STORE_DIR = "ocsp.preproducedstore.dir";
+    public static final String PRE_PRODUCED_STORE_REVALIDATE_TIME = "ocsp.preproducedstore.revalidatetime";
+    public static final String CLEANUP_BATCH_SIZE = "ocsp.cleanup.batchsize";
+    public static final String CLEANUP_THREADS = "ocsp.cleanup.threads";
     
     @Deprecated //Remove this value once upgrading to 6.7.0 has been dropped
     public static final String RESPONDER_ID_TYPE = "ocsp.responderidtype";
@@ -155,6 +168,177 @@ public class OcspConfiguration {
         return timeInSeconds;
     }
 
+    /**
+     * @return the maximum total size in bytes of signed OCSP responses kept in the in-memory response cache, or 0 if the cache is disabled
+     */
+    public static long getResponseCacheMaxSize() {
+        final String value = ConfigurationHolder.getString(RESPONSE_CACHE_MAX_SIZE);
+        if (StringUtils.isEmpty(value)) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            log.warn(RESPONSE_CACHE_MAX_SIZE + " is not a decimal long. OCSP response cache is disabled.");
+            return 0;
+        }
+    }
+
+    /**
+     * @return the number of certificates fetched, signed and stored together when pre-producing OCSP responses for a CA
+     */
+    public static int getPreSigningBatchSize() {
+        final int defaultBatchSize = 500;
+        try {
+            final int batchSize = Integer.parseInt(ConfigurationHolder.getString(PRESIGNING_BATCH_SIZE).trim());
+            return batchSize > 0 ? batchSize : defaultBatchSize;
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn(PRESIGNING_BATCH_SIZE + " is not a decimal integer. Using default " + defaultBatchSize + ".");
+            return defaultBatchSize;
+        }
+    }
+
+    /**
+     * @return the maximum number of concurrent signing operations when pre-producing OCSP responses for a CA. 0 (default) means
+     * one thread per available processor, which suits soft crypto tokens. For PKCS#11 tokens this should not exceed the number
+     * of sessions the HSM slot allows.
+     */
+    public static int getPreSigningThreads() {
+        int threads = 0;
+        try {
+            threads = Integer.parseInt(ConfigurationHolder.getString(PRESIGNING_THREADS).trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn(PRESIGNING_THREADS + " is not a decimal integer. Using one thread per processor.");
+        }
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the maximum number of concurrent signing operations per crypto token and key alias. 0 (default) means one per
+     * available processor. For PKCS#11 tokens this should not exceed the number of sessions the HSM slot allows.
+     */
+    public static int getSigningMaxConcurrency() {
+        int concurrency = 0;
+        try {
+            concurrency = Integer.parseInt(ConfigurationHolder.getString(SIGNING_MAX_CONCURRENCY).trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn(SIGNING_MAX_CONCURRENCY + " is not a decimal integer. Using one per processor.");
+        }
+        return concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the maximum number of OCSP responses waiting to be signed per crypto token and key alias. When the queue is full,
+     * new requests are answered with tryLater.
+     */
+    public static int getSigningQueueSize() {
+        final int defaultQueueSize = 1000;
+        try {
+            final int queueSize = Integer.parseInt(ConfigurationHolder.getString(SIGNING_QUEUE_SIZE).trim());
+            return queueSize > 0 ? queueSize : defaultQueueSize;
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn(SIGNING_QUEUE_SIZE + " is not a decimal integer. Using default " + defaultQueueSize + ".");
+            return defaultQueueSize;
+        }
+    }
+
+    /**
+     * @return the directory where memory-mapped revocation indexes are kept, or null if certificate status should always be
+     * read from the database.
+     */
+    public static String getRevocationIndexDirectory() {
+        final String value = ConfigurationHolder.getString(REVOCATION_INDEX_DIR);
+        return StringUtils.isBlank(value) ? null : value.trim();
+    }
+
+    /**
+     * @return the maximum number of old OCSP responses read and deleted in each transaction by the OCSP response clean up job
+     */
+    public static int getCleanupBatchSize() {
+        final int defaultBatchSize = 1000;
+        try {
+            final int batchSize = Integer.parseInt(ConfigurationHolder.getString(CLEANUP_BATCH_SIZE).trim());
+            return batchSize > 1 ? batchSize : defaultBatchSize;
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn(CLEANUP_BATCH_SIZE + " is not a decimal integer. Using default " + defaultBatchSize + ".");
+            return defaultBatchSize;
+        }
+    }
+
+    /**
+     * @return the maximum number of CAs whose old OCSP responses are cleaned up concurrently
+     */
+    public static int getCleanupThreads() {
+        final int defaultThreads = 4;
+        try {
+            final int threads = Integer.parseInt(ConfigurationHolder.getString(CLEANUP_THREADS).trim());
+            return threads > 0 ? threads : defaultThreads;
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn(CLEANUP_THREADS + " is not a decimal integer. Using default " + defaultThreads + ".");
+            return defaultThreads;
+        }
+    }
+
+    /**
+     * @return the directory where pre-produced OCSP responses are kept in local segment files, or null if pre-produced
+     * responses should always be read from the database.
+     */
+    public static String getPreProducedStoreDirectory() {
+        final String value = ConfigurationHolder.getString(PRE_PRODUCED_STORE_DIR);
+        return StringUtils.isBlank(value) ? null : value.trim();
+    }
+
+    /**
+     * @return time in milliseconds a pre-produced response in the local store is served before it is compared with the
+     * database again, so responses re-produced on another node are picked up.
+     */
+    public static long getPreProducedStoreRevalidateTime() {
+        final long defaultTime = 60000L;
+        try {
+            final long time = Long.parseLong(ConfigurationHolder.getString(PRE_PRODUCED_STORE_REVALIDATE_TIME).trim());
+            return time >= 0 ? time : defaultTime;
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn(PRE_PRODUCED_STORE_REVALIDATE_TIME + " is not a decimal long. Using default " + defaultTime + ".");
+            return defaultTime;
+        }
+    }
+
+    /**
+     * @return true if OCSP requests should be read, processed and written asynchronously, so HTTP worker threads are not
+     * held while the response is generated.
+     */
+    public static boolean isAsyncEnabled() {
+        return "true".equalsIgnoreCase(StringUtils.trim(ConfigurationHolder.getString(ASYNC_ENABLED)));
+    }
+
+    /**
+     * @return the number of threads generating OCSP responses when asynchronous processing is enabled
+     */
+    public static int getAsyncThreads() {
+        final int defaultThreads = 32;
+        try {
+            final int threads = Integer.parseInt(ConfigurationHolder.getString(ASYNC_THREADS).trim());
+            return threads > 0 ? threads : defaultThreads;
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn(ASYNC_THREADS + " is not a decimal integer. Using default " + defaultThreads + ".");
+            return defaultThreads;
+        }
+    }
+
+    /**
+     * @return the number of asynchronous OCSP requests that may wait for a free thread before requests are answered with tryLater
+     */
+    public static int getAsyncQueueSize() {
+        final int defaultQueueSize = 1000;
+        try {
+            final int queueSize = Integer.parseInt(ConfigurationHolder.getString(ASYNC_QUEUE_SIZE).trim());
+            return queueSize > 0 ? queueSize : defaultQueueSize;
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn(ASYNC_QUEUE_SIZE + " is not a decimal integer. Using default " + defaultQueueSize + ".");
+            return defaultQueueSize;
+        }
+    }
+
     /**
      * If set to true the responder will enforce OCSP request signing
      */
@@ -0,0 +1,37 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Writes and reads the elements of a {@link CompressedCollection} in a binary format, instead of with Java serialization.
+ * Implementations must be stateless, since the same instance is used by all iterators, and serializable, since it is
+ * serialized with the collection.
+ */
+public interface CompressedCollectionCodec<T> extends Serializable {
+
+    /** Writes an element. The element is never null. */
+    void write(DataOutput out, T element) throws IOException;
+
+    /**
+     * Reads an element written by {@link #write}.
+     *
+     * @throws EOFException if there are no more elements
+     */
+    T read(DataInput in) throws IOException;
+}
@@ -32,6 +32,13 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
     /** @return the found entity instance or null if the entity does not exist */
     CertificateData findByFingerprint(String fingerprint);
 
+    /**
+     * Finds several certificates with one query. The collection should be small enough for an IN clause, such as a chunk of the publisher queue.
+     *
+     * @return the certificates that were found, in no particular order
+     */
+    List<CertificateData> findByFingerprints(Collection<String> fingerprints);
+
     /** @return return the query results as a Set. */
     Set<String> findUsernamesBySubjectDNAndIssuerDN(String subjectDN, String issuerDN);
     
@@ -44,6 +51,16 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
     /** @return return the query results as a List. */
     List<CertificateData> findByIssuerDNSerialNumber(String issuerDN, String serialNumber);
 
+    /**
+     * Finds the certificates with the given serial numbers issued by the given issuer, using a single query.
+     *
+     * @param issuerDN the DN of the issuer, in the normalized format stored in the database.
+     * @param serialNumbers decimal serial numbers. Callers should keep the list reasonably short (e.g. a few hundred entries),
+     *     since some databases limit the number of elements in an IN-list.
+     * @return return the query results as a List.
+     */
+    List<CertificateData> findByIssuerDNSerialNumbers(String issuerDN, Collection<String> serialNumbers);
+
     /** @return the quantity of all the certificates saved within the CA lifecycle. */
     Long findQuantityOfAllCertificates();
 
@@ -96,9 +113,53 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
     List<String> findSerialNrByIssuerAndExpireDateWithLimitAndOffset(String issuerDN, 
                                                         long expireDate, int limit, int offset);
 
+    /**
+     * @param issuerDN of the issuing CA
+     * @return the number of certificates issued by the CA, regardless of status
+     */
+    long countByIssuerDN(String issuerDN);
+
+    /**
+     * Reads the status information needed for a revocation index, one page at a time. Pages are ordered by fingerprint, so
+     * the next page is fetched with the last fingerprint of the previous page.
+     *
+     * @param issuerDN of the issuing CA
+     * @param updatedSince only include certificates with an updateTime equal to or later than this, or -1 for all certificates
+     * @param afterFingerprint only include certificates with a fingerprint larger than this, or null to start from the beginning
+     * @param maxResults maximum number of rows to return
+     * @return rows of (fingerprint, serialNumber, status, revocationDate, revocationReason, certificateProfileId, invalidityDate, updateTime)
+     */
+    List<Object[]> findRevocationIndexData(String issuerDN, long updatedSince, String afterFingerprint, int maxResults);
+
     
     /** @return return the query results as a Collection<RevokedCertInfo>. */
     Collection<RevokedCertInfo> getRevokedCertInfos(String issuerDN, boolean deltaCrl, int crlPartitionIndex, long lastBaseCrlDate, boolean allowInvalidityDate);
+
+    /**
+     * Reads a page of the revoked certificates for a base CRL, with keyset pagination on (issuerDN, crlPartitionIndex, serialNumber).
+     * Unlike {@link #getRevokedCertInfos}, the position in the result is given by the last entry of the previous page, so
+     * each page is read with an index range scan regardless of how far into the result it is.
+     *
+     * @param issuerDN of the issuing CA
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION
+     * @param previous the previous page, or {@link RevokedCertInfoPage#first()}
+     * @param maxResults maximum number of entries to return
+     * @param allowInvalidityDate true to include the invalidity date
+     * @return the next page, ordered by the serialNumber column (which is a string)
+     */
+    RevokedCertInfoPage getRevokedCertInfoPage(String issuerDN, int crlPartitionIndex, RevokedCertInfoPage previous, int maxResults, boolean allowInvalidityDate);
+
+    /**
+     * Lists the certificates in a CRL partition whose updateTime is equal to or later than the given time, and that are revoked or
+     * have been revoked. Used to bring a previous listing of revoked certificates up to date.
+     *
+     * @param issuerDN of the issuing CA
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION
+     * @param updatedSince only include certificates with an updateTime equal to or later than this
+     * @param allowInvalidityDate true to include the invalidity date
+     * @return the changed certificates. Certificates that are not revoked have the reason {@link RevokedCertInfo#REVOCATION_REASON_REMOVEFROMCRL}.
+     */
+    Collection<RevokedCertInfo> getRevokedCertInfoChanges(String issuerDN, int crlPartitionIndex, long updatedSince, boolean allowInvalidityDate);
     
     /** @return return the query results as a List. */
     List<CertificateData> findByExpireDateWithLimit(long expireDate, int maxNumberOfResults);
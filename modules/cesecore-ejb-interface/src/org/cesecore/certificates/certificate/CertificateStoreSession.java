@@ -18,6 +18,7 @@ import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
@@ -372,6 +373,25 @@ public interface CertificateStoreSession {
      * @return a {@link CertificateStatusHolder} object containing the status and the sought certificate.
      */
     CertificateStatusHolder getCertificateAndStatus(String issuerDN, BigInteger serno);
+
+    /**
+     * Performs the same operation as getStatus for several certificates of the same issuer, using a single database query.
+     *
+     * @param issuerDN the issuer of the sought certificates
+     * @param sernos the serial numbers of the sought certificates
+     * @return a map with the status of each serial number, never null. CertificateStatus.NOT_AVAILABLE for certificates that are not found.
+     */
+    Map<BigInteger, CertificateStatus> getStatuses(String issuerDN, Collection<BigInteger> sernos);
+
+    /**
+     * Performs the same operation as getCertificateAndStatus for several certificates of the same issuer, using a single database query.
+     *
+     * @param issuerDN the issuer of the sought certificates
+     * @param sernos the serial numbers of the sought certificates
+     * @return a map with a {@link CertificateStatusHolder} for each serial number, never null. Certificates that are not found have a
+     *     holder with a null certificate and the status CertificateStatus.NOT_AVAILABLE.
+     */
+    Map<BigInteger, CertificateStatusHolder> getCertificatesAndStatuses(String issuerDN, Collection<BigInteger> sernos);
     
     /**
      * Update the status of a cert in the database.
@@ -16,6 +16,8 @@ import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.certificate.request.RequestMessage;
 import org.cesecore.certificates.crl.RevocationReasons;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.util.cert.StreamingCrlParser;
 
 import javax.ejb.Local;
 import java.math.BigInteger;
@@ -23,6 +25,7 @@ import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -41,6 +44,18 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      */
     CertificateInfo findFirstCertificateInfo(String issuerDN, BigInteger serno);
 
+    /**
+     * Lists the certificates from a certain issuer and CRL partition whose revocation status may have changed since the given time,
+     * based on the updateTime column. Used to bring an earlier result of {@link #listRevokedCertInfo} up to date.
+     *
+     * @param issuerDN the dn of the certificates issuer.
+     * @param crlPartitionIndex the CRL Partition Index, or CertificateConstants.NO_CRL_PARTITION if not using a partitioned CRL.
+     * @param updatedSince only certificates updated at or after this time (Date.getTime()) are listed
+     * @param allowInvalidityDate whether invalidity date for CRL generation is allowed in CA configuration
+     * @return Collection of RevokedCertInfo, where certificates that are not revoked have the reason REMOVEFROMCRL
+     */
+    Collection<RevokedCertInfo> listRevokedCertInfoChanges(String issuerDN, int crlPartitionIndex, long updatedSince, boolean allowInvalidityDate);
+
     /**
      * Stores a certificate.
      * 
@@ -128,6 +143,12 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
      */
     CertificateDataWrapper getCertificateData(final String fingerprint);
 
+    /**
+     * Retrieve the full wrapped CertificateData and Base64CertData objects of several certificates, with one query per table.
+     * @return map from fingerprint to certificate, without entries for fingerprints that do not exist
+     */
+    Map<String, CertificateDataWrapper> getCertificateDatas(Collection<String> fingerprints);
+
     /**
      * Update the base64cert column if the database row exists, but the column is empty.
      * @return true if the column was empty and is now populated.
@@ -236,6 +257,26 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
     void updateLimitedCertificateDataStatus(final AuthenticationToken admin, final int caId, final String issuerDn, final String subjectDn, final String username, final BigInteger serialNumber,
             final int status, final Date revocationDate, final int reasonCode, final String caFingerprint, Date invalidityDate) throws AuthorizationDeniedException;
     
+    /**
+     * Updates the CertificateData table with the entries of an imported CRL, in a new transaction. The current status of all
+     * certificates is read with one query, and only entries that differ from it are written, so importing the same entries
+     * again changes nothing.
+     * <p>
+     * Limited entries are created, updated or removed as by {@link #updateLimitedCertificateDataStatus(AuthenticationToken, int, String, BigInteger, Date, int, String, Date)}.
+     * Full entries are not changed, but returned if their status differs from the CRL entry, so they can be revoked with
+     * the normal revocation, which also handles publishing.
+     *
+     * @param admin an admin that is authorized to the CA that issued the certificates
+     * @param caId the CA identifier
+     * @param issuerDn the BC normalized version of the issuer DN
+     * @param crlEntries entries of the CRL
+     * @param caFingerprint the SHA-1 of the CA Certificate that issued the entries
+     * @return the entries of full CertificateData entries that need to be revoked, or unrevoked for REMOVEFROMCRL
+     * @throws AuthorizationDeniedException if admin is not authorized to the CA
+     */
+    List<StreamingCrlParser.Entry> updateLimitedCertificateDataStatus(AuthenticationToken admin, int caId, String issuerDn, Collection<StreamingCrlParser.Entry> crlEntries,
+            String caFingerprint) throws AuthorizationDeniedException;
+
     /** Reloads the cache containing CA certificates */
     void reloadCaCertificateCache();
     
@@ -245,6 +286,13 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
     /** Initialize all timers and related operations used by this bean. */
     void initTimers();
 
+    /**
+     * Invalidates the cached OCSP responses of certificates whose revocation status has been changed by other nodes, according to the
+     * revocation change log, and removes entries older than the retention time from the log. Does nothing unless the log is enabled
+     * with database.useRevocationChangeLog. Invoked periodically by a timer on each node.
+     */
+    void processRevocationChangeLog();
+
     /**
      * Set the status of certificate with given serno to revoked, or unrevoked (re-activation).
      *
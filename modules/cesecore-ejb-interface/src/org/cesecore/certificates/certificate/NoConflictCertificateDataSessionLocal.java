@@ -26,6 +26,9 @@ import org.cesecore.certificates.crl.RevokedCertInfo;
 public interface NoConflictCertificateDataSessionLocal extends NoConflictCertificateDataSession {
 
     List<NoConflictCertificateData> findByFingerprint(String fingerprint);
+
+    /** @return all rows of the given fingerprints, with one query */
+    List<NoConflictCertificateData> findByFingerprints(Collection<String> fingerprints);
     
     /** @return return the query results as a List. */
     List<NoConflictCertificateData> findBySerialNumber(String serialNumber);
@@ -39,5 +42,12 @@ public interface NoConflictCertificateDataSessionLocal extends NoConflictCertifi
      */
     Collection<RevokedCertInfo> getRevokedCertInfosWithDuplicates(String issuerDN, boolean deltaCrl, int crlPartitionIndex, long lastBaseCrlDate, boolean keepExpiredCertsOnCrl, 
             boolean allowInvalidityDate);
+
+    /**
+     * Reads a page of the entries for a base CRL with keyset pagination, like {@link CertificateDataSessionLocal#getRevokedCertInfoPage}.
+     * The result may contain duplicate entries, which are on the same or consecutive pages, since the entries are ordered by serial number.
+     */
+    RevokedCertInfoPage getRevokedCertInfoPageWithDuplicates(String issuerDN, int crlPartitionIndex, long lastBaseCrlDate, boolean keepExpiredCertsOnCrl,
+            RevokedCertInfoPage previous, int maxResults, boolean allowInvalidityDate);
     
 }
@@ -12,12 +12,16 @@
  *************************************************************************/
 package org.cesecore.certificates.certificate;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.ejb.Local;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 
 /**
  * Local interface for {@link NoConflictCertificateStoreSession}.
@@ -30,4 +34,29 @@ public interface NoConflictCertificateStoreSessionLocal extends NoConflictCertif
     
     /** @see CertificateStoreSessionLocal#getCertificateData(String) */
     public CertificateDataWrapper getCertificateData(final String fingerprint);
+
+    /** @see CertificateStoreSessionLocal#getCertificateDatas(Collection) */
+    Map<String, CertificateDataWrapper> getCertificateDatas(Collection<String> fingerprints);
+
+    /**
+     * Same as {@link #listRevokedCertInfo}, but with the entries from CertificateData given by the caller, for example from an earlier
+     * listing that has been brought up to date with {@link CertificateStoreSessionLocal#listRevokedCertInfoChanges}. Only
+     * NoConflictCertificateData is read.
+     *
+     * @param revokedInCertData the revoked certificates in CertificateData, without duplicates
+     * @return the given entries merged with the entries in NoConflictCertificateData
+     */
+    Collection<RevokedCertInfo> listRevokedCertInfo(String issuerDN, Collection<RevokedCertInfo> revokedInCertData, boolean deltaCrl, int crlPartitionIndex,
+            long lastBaseCrlDate, boolean keepExpiredCertsOnCrl, boolean allowInvalidityDate);
+
+    /**
+     * Lists the revoked certificates for a base CRL, like {@link #listRevokedCertInfo}, but hands the entries to a consumer as they
+     * are read instead of collecting them. CertificateData and NoConflictCertificateData are read in pages in serial number order,
+     * see {@link CertificateDataSessionLocal#getRevokedCertInfoPage}, and merged as they are read, so memory use does not grow with
+     * the number of revoked certificates.
+     *
+     * @param consumer receives the entries, in the order of the serialNumber column
+     */
+    void streamRevokedCertInfo(String issuerDN, int crlPartitionIndex, long lastBaseCrlDate, boolean keepExpiredCertsOnCrl, boolean allowInvalidityDate,
+            Consumer<RevokedCertInfo> consumer);
 }
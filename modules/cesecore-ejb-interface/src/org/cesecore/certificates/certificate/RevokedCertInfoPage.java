@@ -0,0 +1,69 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.cesecore.certificates.crl.RevokedCertInfo;
+
+/**
+ * A page of revoked certificates, read with keyset pagination in serial number order. The next page is read
+ * by passing the previous one, which continues after the serial number and row id of its last entry.
+ */
+public final class RevokedCertInfoPage {
+
+    private static final RevokedCertInfoPage FIRST = new RevokedCertInfoPage(Collections.emptyList(), null, null, false);
+
+    private final List<RevokedCertInfo> entries;
+    private final String lastSerialNumber;
+    private final String lastRowId;
+    private final boolean last;
+
+    /**
+     * @param entries the entries, ordered by serial number (as stored in the database) and row id
+     * @param lastSerialNumber the serial number column of the last entry
+     * @param lastRowId the primary key of the last entry
+     * @param last true if there are no more entries after this page
+     */
+    public RevokedCertInfoPage(final List<RevokedCertInfo> entries, final String lastSerialNumber, final String lastRowId, final boolean last) {
+        this.entries = entries;
+        this.lastSerialNumber = lastSerialNumber;
+        this.lastRowId = lastRowId;
+        this.last = last;
+    }
+
+    /** @return an empty page to pass when reading the first page */
+    public static RevokedCertInfoPage first() {
+        return FIRST;
+    }
+
+    public List<RevokedCertInfo> getEntries() {
+        return entries;
+    }
+
+    /** @return the serial number column of the last entry, or null if reading should start from the beginning */
+    public String getLastSerialNumber() {
+        return lastSerialNumber;
+    }
+
+    /** @return the primary key of the last entry, or null if reading should start from the beginning */
+    public String getLastRowId() {
+        return lastRowId;
+    }
+
+    /** @return true if there are no more entries after this page */
+    public boolean isLast() {
+        return last;
+    }
+}
@@ -162,5 +162,19 @@ public interface CrlStoreSession {
      */
     void storeCRL(AuthenticationToken admin, byte[] incrl, String cafp, int number, String issuerDN, int crlPartitionIndex, Date thisUpdate, Date nextUpdate, int deltaCRLIndicator)
     	throws CrlStoreException, AuthorizationDeniedException;
+
+    /**
+     * Moves stored CRLs of a CA between the base64Crl and binaryCrl columns, see the setting database.useBinaryCrlStorage.
+     * The CRLs themselves are not changed. At most maxRows CRLs are converted in one transaction, so this is called
+     * repeatedly until it returns 0.
+     *
+     * @param admin Administrator performing the operation
+     * @param issuerDN the issuer of the CRLs
+     * @param binaryStorage true to convert CRLs to binary storage, false to convert them to base64 storage
+     * @param maxRows maximum number of CRLs to convert
+     * @return the number of CRLs that were converted
+     * @throws AuthorizationDeniedException if admin was not authorized to the CA
+     */
+    int convertCrlStorage(AuthenticationToken admin, String issuerDN, boolean binaryStorage, int maxRows) throws AuthorizationDeniedException;
 	
 }
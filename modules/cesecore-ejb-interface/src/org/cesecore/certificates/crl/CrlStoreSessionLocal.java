@@ -20,4 +20,15 @@ import javax.ejb.Local;
  */
 @Local
 public interface CrlStoreSessionLocal extends CrlStoreSession {
+
+    /**
+     * Retrieves a specific CRL issued by a CA, as the entity, so the CRL can be written to a stream with {@link CRLData#writeCRL(java.io.OutputStream)}
+     * without decoding it into a byte array first.
+     *
+     * @param issuerDN the CRL issuers DN (CAs subject DN)
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION if partitioning is not used.
+     * @param crlNumber a crlNumber of a complete, or delta, CRL
+     * @return the CRL, or null if there is no such CRL
+     */
+    CRLData findByIssuerDNAndCRLNumber(String issuerDN, int crlPartitionIndex, int crlNumber);
 }
@@ -0,0 +1,159 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.GlobalCesecoreConfiguration;
+import org.cesecore.configuration.GlobalConfigurationSessionLocal;
+import org.easymock.EasyMockRunner;
+import org.easymock.Mock;
+import org.easymock.TestSubject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests how {@link CertificateStoreSessionBean} creates delta CRLs from the revocation change log.
+ */
+@RunWith(EasyMockRunner.class)
+public class CertificateStoreSessionBeanUnitTest {
+
+    private static final String USE_REVOCATION_CHANGE_LOG = "database.useRevocationChangeLog";
+    private static final String ISSUER_DN = "CN=Delta CRL Test CA";
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    @Mock
+    private EntityManager entityManager;
+    @Mock
+    private CertificateDataSessionLocal certificateDataSession;
+    @Mock
+    private GlobalConfigurationSessionLocal globalConfigurationSession;
+
+    @TestSubject
+    private final CertificateStoreSessionBean certificateStoreSession = new CertificateStoreSessionBean();
+
+    private final GlobalCesecoreConfiguration globalCesecoreConfiguration = new GlobalCesecoreConfiguration();
+    private String defaultConfigurationValue;
+
+    @Before
+    public void before() {
+        defaultConfigurationValue = ConfigurationHolder.getString(USE_REVOCATION_CHANGE_LOG);
+        ConfigurationHolder.updateConfiguration(USE_REVOCATION_CHANGE_LOG, "true");
+    }
+
+    @After
+    public void after() {
+        ConfigurationHolder.updateConfiguration(USE_REVOCATION_CHANGE_LOG, defaultConfigurationValue);
+    }
+
+    @Test
+    public void deltaCrlFromRevocationChangeLog() {
+        final long now = System.currentTimeMillis();
+        globalCesecoreConfiguration.setRevocationChangeLogEnabledSince(now - 10 * DAY);
+        expect(globalConfigurationSession.getCachedConfiguration(GlobalCesecoreConfiguration.CESECORE_CONFIGURATION_ID)).andReturn(globalCesecoreConfiguration);
+        // The first certificate was revoked and then reactivated, the second one was revoked
+        final CertificateData first = createCertificateData("aa01", BigInteger.ONE, CertificateConstants.CERT_REVOKED, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        final RevocationChangeData firstRevoked = new RevocationChangeData("node1", 1, now - 3000, first);
+        first.setStatus(CertificateConstants.CERT_ACTIVE);
+        first.setRevocationReason(RevokedCertInfo.NOT_REVOKED);
+        final RevocationChangeData firstReactivated = new RevocationChangeData("node2", 1, now - 2000, first);
+        final CertificateData second = createCertificateData("aa02", BigInteger.TEN, CertificateConstants.CERT_REVOKED, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        final RevocationChangeData secondRevoked = new RevocationChangeData("node1", 2, now - 1000, second);
+        // A third certificate was issued, which is logged with revocation date -1 for OCSP responders on other nodes
+        final CertificateData third = createCertificateData("aa03", BigInteger.valueOf(3), CertificateConstants.CERT_ACTIVE, RevokedCertInfo.NOT_REVOKED);
+        third.setRevocationDate(-1L);
+        final RevocationChangeData thirdIssued = new RevocationChangeData("node2", 2, now - 500, third);
+        final TypedQuery<RevocationChangeData> query = createQuery(Arrays.asList(firstRevoked, firstReactivated, secondRevoked, thirdIssued));
+        expect(entityManager.createQuery(anyString(), eq(RevocationChangeData.class))).andReturn(query);
+        replay(entityManager, certificateDataSession, globalConfigurationSession);
+        final List<RevokedCertInfo> revokedCertInfos = new ArrayList<>(
+                certificateStoreSession.listRevokedCertInfo(ISSUER_DN, true, CertificateConstants.NO_CRL_PARTITION, now - DAY, false));
+        assertEquals("Each certificate should be listed once with its last change", 2, revokedCertInfos.size());
+        assertEquals(BigInteger.ONE, revokedCertInfos.get(0).getUserCertificate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, revokedCertInfos.get(0).getReason());
+        assertEquals(BigInteger.TEN, revokedCertInfos.get(1).getUserCertificate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, revokedCertInfos.get(1).getReason());
+        verify(entityManager, certificateDataSession, globalConfigurationSession);
+    }
+
+    @Test
+    public void deltaCrlWithBaseCrlBeforeRevocationChangeLogWasEnabled() {
+        final long now = System.currentTimeMillis();
+        globalCesecoreConfiguration.setRevocationChangeLogEnabledSince(now - DAY);
+        expect(globalConfigurationSession.getCachedConfiguration(GlobalCesecoreConfiguration.CESECORE_CONFIGURATION_ID)).andReturn(globalCesecoreConfiguration);
+        final Collection<RevokedCertInfo> revokedCertInfos = Collections.emptyList();
+        expect(certificateDataSession.getRevokedCertInfos(ISSUER_DN, true, CertificateConstants.NO_CRL_PARTITION, now - 2 * DAY, false)).andReturn(revokedCertInfos);
+        replay(entityManager, certificateDataSession, globalConfigurationSession);
+        assertSame("Delta CRL should be created from CertificateData", revokedCertInfos,
+                certificateStoreSession.listRevokedCertInfo(ISSUER_DN, true, CertificateConstants.NO_CRL_PARTITION, now - 2 * DAY, false));
+        verify(entityManager, certificateDataSession, globalConfigurationSession);
+    }
+
+    @Test
+    public void deltaCrlWithRevocationChangeLogDisabled() {
+        ConfigurationHolder.updateConfiguration(USE_REVOCATION_CHANGE_LOG, "false");
+        final long now = System.currentTimeMillis();
+        final Collection<RevokedCertInfo> revokedCertInfos = Collections.emptyList();
+        expect(certificateDataSession.getRevokedCertInfos(ISSUER_DN, true, CertificateConstants.NO_CRL_PARTITION, now - DAY, false)).andReturn(revokedCertInfos);
+        replay(entityManager, certificateDataSession, globalConfigurationSession);
+        assertSame("Delta CRL should be created from CertificateData", revokedCertInfos,
+                certificateStoreSession.listRevokedCertInfo(ISSUER_DN, true, CertificateConstants.NO_CRL_PARTITION, now - DAY, false));
+        verify(entityManager, certificateDataSession, globalConfigurationSession);
+    }
+
+    private static TypedQuery<RevocationChangeData> createQuery(final List<RevocationChangeData> resultList) {
+        @SuppressWarnings("unchecked")
+        final TypedQuery<RevocationChangeData> query = createMock(TypedQuery.class);
+        expect(query.setParameter(anyString(), anyObject())).andReturn(query).anyTimes();
+        expect(query.setMaxResults(anyInt())).andReturn(query);
+        expect(query.setFirstResult(0)).andReturn(query);
+        expect(query.getResultList()).andReturn(resultList);
+        replay(query);
+        return query;
+    }
+
+    private static CertificateData createCertificateData(final String fingerprint, final BigInteger serialNumber, final int status, final int revocationReason) {
+        final CertificateData certificateData = new CertificateData();
+        certificateData.setFingerprint(fingerprint);
+        certificateData.setSerialNumber(serialNumber.toString());
+        certificateData.setIssuer(ISSUER_DN);
+        certificateData.setStatus(status);
+        certificateData.setRevocationReason(revocationReason);
+        certificateData.setRevocationDate(1000L);
+        certificateData.setExpireDate(Long.MAX_VALUE);
+        return certificateData;
+    }
+}
@@ -13,6 +13,7 @@
 package org.cesecore.certificates.certificate;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -21,6 +22,7 @@ import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCodec;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.ValueExtractor;
@@ -39,7 +41,7 @@ public abstract class BaseCertificateDataSessionBean {
         final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
         query.setMaxResults(maxResults);
         int firstResult = 0;
-        final CompressedCollection<RevokedCertInfo> revokedCertInfos = new CompressedCollection<>(RevokedCertInfo.class);
+        final CompressedCollection<RevokedCertInfo> revokedCertInfos = RevokedCertInfoCodec.createCompressedCollection();
         while (true) {
             query.setFirstResult(firstResult);
             @SuppressWarnings("unchecked")
@@ -51,29 +53,68 @@ public abstract class BaseCertificateDataSessionBean {
                 log.debug("Read batch of " + incompleteCertificateDatas.size() + " RevokedCertInfo.");
             }
             for (final Object[] current : incompleteCertificateDatas) {
-                // The order of the results are defined by the SqlResultSetMapping annotation
-                final byte[] fingerprint = ((String)current[0]).getBytes();
-                final byte[] serialNumber = new BigInteger((String)current[1]).toByteArray();
-                final long expireDate = ValueExtractor.extractLongValue(current[2]);
-                final long revocationDate = ValueExtractor.extractLongValue(current[3]);
-                int revocationReason = ValueExtractor.extractIntValue(current[4]);
-                if (revocationReason == -1) {
-                    revocationReason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
-                }
-                if (allowInvalidityDate) {
-                    Long invalidityDate = null;
-                    if (current[5] != null && ValueExtractor.extractLongValue(current[5]) != -1L){
-                        invalidityDate = ValueExtractor.extractLongValue(current[5]);
-                    }
-                    revokedCertInfos.add(new RevokedCertInfo(fingerprint, serialNumber, revocationDate, revocationReason, expireDate, invalidityDate));
-                } else {
-                    revokedCertInfos.add(new RevokedCertInfo(fingerprint, serialNumber, revocationDate, revocationReason, expireDate));
-                }
+                revokedCertInfos.add(toRevokedCertInfo(current, allowInvalidityDate));
             }
             firstResult += maxResults;
         }
         revokedCertInfos.closeForWrite();
         return revokedCertInfos;
     }
+
+    /**
+     * Reads a page of revoked certificates with keyset pagination. The query must select the columns of the RevokedCertInfoSubset
+     * mapping followed by the primary key, be ordered by serialNumber and primary key, and include the keyset expression built by
+     * the caller when the previous page has a last entry, with the parameters lastSerialNumber and lastRowId.
+     */
+    protected RevokedCertInfoPage getRevokedCertInfoPageInternal(final Query query, final RevokedCertInfoPage previous, final int maxResults,
+            final boolean allowInvalidityDate) {
+        if (previous.getLastSerialNumber() != null) {
+            query.setParameter("lastSerialNumber", previous.getLastSerialNumber());
+            query.setParameter("lastRowId", previous.getLastRowId());
+        }
+        query.setMaxResults(maxResults);
+        @SuppressWarnings("unchecked")
+        final List<Object[]> incompleteCertificateDatas = query.getResultList();
+        if (log.isDebugEnabled()) {
+            log.debug("Read page of " + incompleteCertificateDatas.size() + " RevokedCertInfo after serial number " + previous.getLastSerialNumber() + ".");
+        }
+        if (incompleteCertificateDatas.isEmpty()) {
+            return new RevokedCertInfoPage(new ArrayList<>(), previous.getLastSerialNumber(), previous.getLastRowId(), true);
+        }
+        final List<RevokedCertInfo> revokedCertInfos = new ArrayList<>(incompleteCertificateDatas.size());
+        for (final Object[] current : incompleteCertificateDatas) {
+            revokedCertInfos.add(toRevokedCertInfo(current, allowInvalidityDate));
+        }
+        final Object[] last = incompleteCertificateDatas.get(incompleteCertificateDatas.size() - 1);
+        return new RevokedCertInfoPage(revokedCertInfos, (String) last[1], (String) last[6], incompleteCertificateDatas.size() < maxResults);
+    }
+
+    /** @return the keyset expression for {@link #getRevokedCertInfoPageInternal}, or an empty string for the first page */
+    protected static String getKeysetExpression(final RevokedCertInfoPage previous, final String rowIdColumn) {
+        if (previous.getLastSerialNumber() == null) {
+            return "";
+        }
+        return " AND (a.serialNumber>:lastSerialNumber OR (a.serialNumber=:lastSerialNumber AND " + rowIdColumn + ">:lastRowId))";
+    }
+
+    private static RevokedCertInfo toRevokedCertInfo(final Object[] current, final boolean allowInvalidityDate) {
+        // The order of the results are defined by the SqlResultSetMapping annotation
+        final byte[] fingerprint = ((String)current[0]).getBytes();
+        final byte[] serialNumber = new BigInteger((String)current[1]).toByteArray();
+        final long expireDate = ValueExtractor.extractLongValue(current[2]);
+        final long revocationDate = ValueExtractor.extractLongValue(current[3]);
+        int revocationReason = ValueExtractor.extractIntValue(current[4]);
+        if (revocationReason == -1) {
+            revocationReason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
+        }
+        if (allowInvalidityDate) {
+            Long invalidityDate = null;
+            if (current[5] != null && ValueExtractor.extractLongValue(current[5]) != -1L){
+                invalidityDate = ValueExtractor.extractLongValue(current[5]);
+            }
+            return new RevokedCertInfo(fingerprint, serialNumber, revocationDate, revocationReason, expireDate, invalidityDate);
+        }
+        return new RevokedCertInfo(fingerprint, serialNumber, revocationDate, revocationReason, expireDate);
+    }
     
 }
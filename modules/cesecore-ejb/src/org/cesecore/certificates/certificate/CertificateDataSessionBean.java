@@ -32,6 +32,7 @@ import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import java.math.BigInteger;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
@@ -74,6 +75,16 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return entityManager.find(CertificateData.class, fingerprint);
     }
 
+    @Override
+    public List<CertificateData> findByFingerprints(final Collection<String> fingerprints) {
+        if (fingerprints.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final TypedQuery<CertificateData> query = entityManager.createQuery("SELECT a FROM CertificateData a WHERE a.fingerprint IN (:fingerprints)", CertificateData.class);
+        query.setParameter("fingerprints", fingerprints);
+        return query.getResultList();
+    }
+
     /** @return return the query results as a Set. */
     @Override
     public Set<String> findUsernamesBySubjectDNAndIssuerDN(final String subjectDN, final String issuerDN) {
@@ -99,6 +110,17 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return query.getResultList();
     }
 
+    @Override
+    public List<CertificateData> findByIssuerDNSerialNumbers(final String issuerDN, final Collection<String> serialNumbers) {
+        if (serialNumbers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final TypedQuery<CertificateData> query = entityManager.createQuery("SELECT a FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)", CertificateData.class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("serialNumbers", serialNumbers);
+        return query.getResultList();
+    }
+
     /** @return return the query results as a List. */
     @Override
     public List<CertificateData> findByIssuerDNSerialNumber(final String issuerDN, final String serialNumber) {
@@ -313,6 +335,54 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return getRevokedCertInfosInternal(query, allowInvalidityDate);
     }
 
+    @Override
+    public RevokedCertInfoPage getRevokedCertInfoPage(final String issuerDN, final int crlPartitionIndex, final RevokedCertInfoPage previous, final int maxResults,
+            final boolean allowInvalidityDate) {
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND a.crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (a.crlPartitionIndex = :crlPartitionIndex OR a.crlPartitionIndex IS NULL)";
+        }
+        // The fingerprint is the primary key, and breaks ties if serialNumber is not unique for the issuer
+        final Query query = getEntityManager().createNativeQuery(
+                "SELECT a.fingerprint, a.serialNumber, a.expireDate, a.revocationDate, a.revocationReason, a.invalidityDate, a.fingerprint FROM CertificateData a WHERE "
+                        + "a.issuerDN=:issuerDN AND a.status=:status" + crlPartitionExpression + getKeysetExpression(previous, "a.fingerprint")
+                        + " ORDER BY a.serialNumber, a.fingerprint");
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("status", CertificateConstants.CERT_REVOKED);
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        return getRevokedCertInfoPageInternal(query, previous, maxResults, allowInvalidityDate);
+    }
+
+    @Override
+    public Collection<RevokedCertInfo> getRevokedCertInfoChanges(final String issuerDN, final int crlPartitionIndex, final long updatedSince,
+            final boolean allowInvalidityDate) {
+        if (log.isDebugEnabled()) {
+            log.debug("Querying for changed revocation status. IssuerDN: '" + issuerDN + "'" +
+                    ", Updated since: " + FastDateFormat.getInstance(ValidityDate.ISO8601_DATE_FORMAT, TimeZone.getTimeZone("GMT")).format(updatedSince));
+        }
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
+        }
+        // Certificates that are not (or no longer) revoked get reason -1, which is returned as REMOVEFROMCRL.
+        // Certificates that have never been revoked have revocationDate -1, so newly issued certificates are not included.
+        final Query query = getEntityManager().createNativeQuery(
+                "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, "
+                        + "CASE WHEN a.status=:status THEN a.revocationReason ELSE -1 END as revocationReason, a.invalidityDate as invalidityDate FROM CertificateData a WHERE "
+                        + "a.issuerDN=:issuerDN AND a.updateTime>=:updatedSince AND (a.status=:status OR a.revocationDate>:revocationDate)" + crlPartitionExpression,
+                "RevokedCertInfoSubset");
+        query.setParameter("status", CertificateConstants.CERT_REVOKED);
+        query.setParameter("revocationDate", -1L);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("updatedSince", updatedSince);
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        return getRevokedCertInfosInternal(query, allowInvalidityDate);
+    }
+
     @Override
     public List<CertificateData> findByExpireDateWithLimit(final long expireDate, final int maxNumberOfResults) {
         final long now = System.currentTimeMillis();
@@ -348,6 +418,36 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return query.getResultList();
     }
     
+    @Override
+    public long countByIssuerDN(final String issuerDN) {
+        final Query query = entityManager.createQuery("SELECT COUNT(a) FROM CertificateData a WHERE a.issuerDN=:issuerDN");
+        query.setParameter("issuerDN", issuerDN);
+        return ((Long) query.getSingleResult()).longValue();
+    }
+
+    @Override
+    public List<Object[]> findRevocationIndexData(final String issuerDN, final long updatedSince, final String afterFingerprint, final int maxResults) {
+        final StringBuilder sb = new StringBuilder("SELECT a.fingerprint, a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.certificateProfileId, "
+                + "a.invalidityDate, a.updateTime FROM CertificateData a WHERE a.issuerDN=:issuerDN");
+        if (updatedSince >= 0) {
+            sb.append(" AND a.updateTime>=:updatedSince");
+        }
+        if (afterFingerprint != null) {
+            sb.append(" AND a.fingerprint>:afterFingerprint");
+        }
+        sb.append(" ORDER BY a.fingerprint ASC");
+        final TypedQuery<Object[]> query = entityManager.createQuery(sb.toString(), Object[].class);
+        query.setParameter("issuerDN", issuerDN);
+        if (updatedSince >= 0) {
+            query.setParameter("updatedSince", updatedSince);
+        }
+        if (afterFingerprint != null) {
+            query.setParameter("afterFingerprint", afterFingerprint);
+        }
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
     @Override
     public List<CertificateData> findByExpireDateWithLimitAndOffset(long expireDate, int maxNumberOfResults, int offset) {
         final long now = System.currentTimeMillis();
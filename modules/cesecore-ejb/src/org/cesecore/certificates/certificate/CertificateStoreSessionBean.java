@@ -44,6 +44,10 @@ import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLoc
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
 import org.cesecore.certificates.endentity.EndEntityConstants;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
+import org.cesecore.certificates.ocsp.cache.PreProducedResponseStore;
+import org.cesecore.certificates.ocsp.status.RevocationIndexStatusProvider;
+import org.cesecore.certificates.util.cert.StreamingCrlParser;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.config.GlobalCesecoreConfiguration;
 import org.cesecore.config.OcspConfiguration;
@@ -70,6 +74,10 @@ import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import java.math.BigInteger;
 import java.security.PublicKey;
 import java.security.cert.CertPathValidatorException;
@@ -83,6 +91,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -99,6 +108,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     /** Internal localization of logs and errors */
     private static final InternalResources INTRES = InternalResources.getInstance();
     private static final int TIMERID_CACERTIFICATECACHE = 1;
+    private static final int TIMERID_REVOCATIONCHANGELOG = 2;
+    /** Interval at which each node removes entries older than the retention time from the revocation change log */
+    private static final long REVOCATIONCHANGELOG_CLEANUP_INTERVAL = 3600000L;
 
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
@@ -118,6 +130,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     // Myself needs to be looked up in postConstruct
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
     private CertificateStoreSessionLocal certificateStoreSession;
     /* When the sessionContext is injected, the timerService should be looked up.
      * This is due to the Glassfish EJB verifier complaining.
@@ -144,6 +158,30 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         } else {
             log.info("Not initing CaCertificateCache reload timers, there are already some.");
         }
+        updateRevocationChangeLogEnabledSince();
+        if (getTimerCount(TIMERID_REVOCATIONCHANGELOG)==0) {
+            setRevocationChangeLogTimeout();
+        }
+    }
+
+    /**
+     * Records when the revocation change log was enabled, or that it has been disabled, so delta CRLs are only created from the log
+     * when it has all changes since the base CRL.
+     */
+    private void updateRevocationChangeLogEnabledSince() {
+        final GlobalCesecoreConfiguration globalCesecoreConfiguration = getGlobalCesecoreConfiguration();
+        final boolean enabled = CesecoreConfiguration.useRevocationChangeLog();
+        if (enabled == (globalCesecoreConfiguration.getRevocationChangeLogEnabledSince() != -1L)) {
+            return;
+        }
+        globalCesecoreConfiguration.setRevocationChangeLogEnabledSince(enabled ? System.currentTimeMillis() : -1L);
+        try {
+            globalConfigurationSession.saveConfiguration(new AlwaysAllowLocalAuthenticationToken(new UsernamePrincipal("Revocation change log")),
+                    globalCesecoreConfiguration);
+            log.info(enabled ? "The revocation change log has been enabled." : "The revocation change log has been disabled.");
+        } catch (AuthorizationDeniedException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     private GlobalCesecoreConfiguration getGlobalCesecoreConfiguration() {
@@ -265,6 +303,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             certificateData.setRevocationReason(revocationReason.getDatabaseValue());
         }
         entityManager.persist(certificateData);
+        // Issued certificates are logged as well, so OCSP responders on other nodes stop answering them as unknown. They are left out of delta CRLs.
+        logRevocationChange(certificateData, System.currentTimeMillis());
+        invalidateCachedOcspResponses(certificateData.getIssuerDN(), CertTools.getSerialNumber(incert));
         if (doAuditLog) {
             final String serialNo = CertTools.getSerialNumberAsString(incert);
             final String msg = INTRES.getLocalizedMessage("store.storecertwithaccountbindingid", username, certificateData.getFingerprint(), 
@@ -294,6 +335,31 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return new CertificateDataWrapper(certificateData, base64CertData);
     }
 
+    /** Local interface only */
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public Map<String, CertificateDataWrapper> getCertificateDatas(final Collection<String> fingerprints) {
+        final Map<String, CertificateDataWrapper> ret = new HashMap<>();
+        final List<CertificateData> certificateDatas = certificateDataSession.findByFingerprints(fingerprints);
+        if (certificateDatas.isEmpty()) {
+            return ret;
+        }
+        final Map<String, Base64CertData> base64CertDatas = new HashMap<>();
+        if (CesecoreConfiguration.useBase64CertTable()) {
+            final List<String> found = new ArrayList<>();
+            for (final CertificateData certificateData : certificateDatas) {
+                found.add(certificateData.getFingerprint());
+            }
+            for (final Base64CertData base64CertData : Base64CertData.findByFingerprints(entityManager, found)) {
+                base64CertDatas.put(base64CertData.getFingerprint(), base64CertData);
+            }
+        }
+        for (final CertificateData certificateData : certificateDatas) {
+            ret.put(certificateData.getFingerprint(), new CertificateDataWrapper(certificateData, base64CertDatas.get(certificateData.getFingerprint())));
+        }
+        return ret;
+    }
+
     /**
      * We need special handling here of CVC certificate with EC keys, because they lack EC parameters in all certs
      * except the Root certificate (CVCA)
@@ -411,9 +477,29 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         if (log.isTraceEnabled()) {
             log.trace(">listRevokedCertInfo()");
         }
+        if (deltaCrl && isRevocationChangeLogComplete(lastBaseCrlDate)) {
+            return listRevocationChanges(CertTools.stringToBCDNString(StringTools.strip(issuerDN)), crlPartitionIndex, lastBaseCrlDate, allowInvalidityDate);
+        }
         return certificateDataSession.getRevokedCertInfos(CertTools.stringToBCDNString(StringTools.strip(issuerDN)), deltaCrl, crlPartitionIndex, lastBaseCrlDate, allowInvalidityDate);
     }
 
+    /** @return true if the revocation change log is enabled and has all changes since the given time */
+    private boolean isRevocationChangeLogComplete(final long since) {
+        if (!CesecoreConfiguration.useRevocationChangeLog()) {
+            return false;
+        }
+        final long enabledSince = getGlobalCesecoreConfiguration().getRevocationChangeLogEnabledSince();
+        return enabledSince != -1L && since >= enabledSince && since > System.currentTimeMillis() - CesecoreConfiguration.getRevocationChangeLogRetention();
+    }
+
+    @Override
+    public Collection<RevokedCertInfo> listRevokedCertInfoChanges(String issuerDN, int crlPartitionIndex, long updatedSince, boolean allowInvalidityDate) {
+        if (log.isTraceEnabled()) {
+            log.trace(">listRevokedCertInfoChanges()");
+        }
+        return certificateDataSession.getRevokedCertInfoChanges(CertTools.stringToBCDNString(StringTools.strip(issuerDN)), crlPartitionIndex, updatedSince, allowInvalidityDate);
+    }
+
     @Override
     public List<Certificate> findCertificatesBySubjectAndIssuer(String subjectDN, String issuerDN) {
         return findCertificatesBySubjectAndIssuer(subjectDN, issuerDN, false);
@@ -1326,6 +1412,10 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             } else {
                 entityManager.merge(certificateData);
             }
+            logRevocationChange(certificateData, now.getTime());
+            if (isX509) {
+                invalidateCachedOcspResponses(certificateData.getIssuerDN(), new BigInteger(certificateData.getSerialNumber()));
+            }
         }
         if (log.isTraceEnabled()) {
             log.trace("<private setRevokeStatusNoAuth(), issuerdn=" + issuerDn + ", serno=" + serialNumber);
@@ -1351,14 +1441,23 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             while (list.size() > 0) {
             	for (int i = 0; i<list.size(); i++) {
                 	CertificateData d = list.get(i);
+                	final long now = System.currentTimeMillis();
                 	d.setStatus(CertificateConstants.CERT_REVOKED);
-                	d.setRevocationDate(System.currentTimeMillis());
+                	d.setRevocationDate(now);
                 	d.setRevocationReason(reason);
+                	// Incremental readers, such as the OCSP revocation index, find changed certificates by updateTime
+                	d.setUpdateTime(now);
+                	logRevocationChange(d, now);
                 	revoked++;
             	}
             	firstResult += maxRows;
             	list = findAllNonRevokedCertificates(bcdn, firstResult, maxRows);
             }
+            runAfterCommit(() -> {
+                OcspResponseCache.INSTANCE.flush();
+                PreProducedResponseStore.INSTANCE.invalidateAll(bcdn.hashCode());
+                RevocationIndexStatusProvider.INSTANCE.markIssuerChanged(bcdn);
+            });
             final String msg = INTRES.getLocalizedMessage("store.revokedallbyca", issuerdn, revoked, reason);
     		Map<String, Object> details = new LinkedHashMap<>();
     		details.put("msg", msg);
@@ -1489,6 +1588,53 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return new CertificateStatusHolder(null, CertificateStatus.NOT_AVAILABLE);
     }
 
+    @Override
+    public Map<BigInteger, CertificateStatus> getStatuses(final String issuerDN, final Collection<BigInteger> sernos) {
+        final Map<BigInteger, CertificateStatus> result = new HashMap<>();
+        for (final CertificateData data : findByIssuerDNSerialNumbers(issuerDN, sernos)) {
+            final CertificateStatus status = CertificateStatusHelper.getCertificateStatus(data);
+            status.setExpirationDate(data.getExpireDate());
+            result.put(new BigInteger(data.getSerialNumber()), status);
+        }
+        for (final BigInteger serno : sernos) {
+            result.putIfAbsent(serno, CertificateStatus.NOT_AVAILABLE);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<BigInteger, CertificateStatusHolder> getCertificatesAndStatuses(final String issuerDN, final Collection<BigInteger> sernos) {
+        final Map<BigInteger, CertificateStatusHolder> result = new HashMap<>();
+        for (final CertificateData data : findByIssuerDNSerialNumbers(issuerDN, sernos)) {
+            final CertificateStatus status = CertificateStatusHelper.getCertificateStatus(data);
+            status.setExpirationDate(data.getExpireDate());
+            result.put(new BigInteger(data.getSerialNumber()), new CertificateStatusHolder(data.getCertificate(entityManager), status));
+        }
+        for (final BigInteger serno : sernos) {
+            result.putIfAbsent(serno, new CertificateStatusHolder(null, CertificateStatus.NOT_AVAILABLE));
+        }
+        return result;
+    }
+
+    /** Looks up the certificates in chunks, since some databases limit the number of elements in an IN-list. */
+    private List<CertificateData> findByIssuerDNSerialNumbers(final String issuerDN, final Collection<BigInteger> sernos) {
+        final int maxInListSize = 100;
+        final String dn = CertTools.stringToBCDNString(issuerDN);
+        final List<String> serialNumbers = new ArrayList<>(sernos.size());
+        for (final BigInteger serno : sernos) {
+            serialNumbers.add(serno.toString());
+        }
+        final List<CertificateData> result = new ArrayList<>(sernos.size());
+        for (int i = 0; i < serialNumbers.size(); i += maxInListSize) {
+            result.addAll(certificateDataSession.findByIssuerDNSerialNumbers(dn,
+                    serialNumbers.subList(i, Math.min(i + maxInListSize, serialNumbers.size()))));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Found " + result.size() + " of " + sernos.size() + " certificates issued by '" + dn + "'.");
+        }
+        return result;
+    }
+
     @Override
     public List<Object[]> findExpirationInfo(Collection<String> cas, Collection<Integer> certificateProfiles, long activeNotifiedExpireDateMin,
             long activeNotifiedExpireDateMax, long activeExpireDateMin) {
@@ -1507,6 +1653,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         authorizedToCA(admin, caid);
 
         certificateData.setStatus(status);
+        logRevocationChange(certificateData, System.currentTimeMillis());
         final Certificate certificate = certificateData.getCertificate(this.entityManager);
         String serialNo;
         if (certificate==null) {
@@ -1762,6 +1909,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             throw new AuthorizationDeniedException(msg);
         }
         final String limitedFingerprint = getLimitedCertificateDataFingerprint(issuerDn, serialNumber);
+        invalidateCachedOcspResponses(issuerDn, serialNumber);
         final CertificateDataWrapper cdw = getCertificateDataByIssuerAndSerno(issuerDn, serialNumber);
         if (cdw==null) {
             if (reasonCode==RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
@@ -1783,10 +1931,13 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 limitedCertificateData.setCaFingerprint(caFingerprint);
                 log.info("Adding limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber=" + serialNumber.toString(16).toUpperCase()+", issuerDn='"+issuerDn+"'");
                 entityManager.persist(limitedCertificateData);
+                logRevocationChange(limitedCertificateData, limitedCertificateData.getUpdateTime());
             }
         } else if (limitedFingerprint.equals(cdw.getCertificateData().getFingerprint())) {
         	if (reasonCode==RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
-                deleteLimitedCertificateData(limitedFingerprint);
+                if (deleteLimitedCertificateData(limitedFingerprint)) {
+                    logRevocationRemoval(cdw.getCertificateData(), System.currentTimeMillis());
+                }
         	} else {
         	    final CertificateData limitedCertificateData = cdw.getCertificateData();
                 if (cdw.getCertificateData().getRevocationDate() != revocationDate.getTime() || cdw.getCertificateData().getRevocationReason() != reasonCode
@@ -1799,6 +1950,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                     limitedCertificateData.setInvalidityDate(invalidityDate);
                     limitedCertificateData.setUpdateTime(System.currentTimeMillis());
                     entityManager.merge(limitedCertificateData);
+                    logRevocationChange(limitedCertificateData, limitedCertificateData.getUpdateTime());
         	    } else {
         	        if (log.isDebugEnabled()) {
                         log.debug("Limited CertificateData entry with fingerprint=" + limitedFingerprint + ", serialNumber=" + serialNumber.toString(16).toUpperCase()+", issuerDn='"+issuerDn+"' was already up to date.");
@@ -1811,6 +1963,106 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<StreamingCrlParser.Entry> updateLimitedCertificateDataStatus(final AuthenticationToken admin, final int caId, final String issuerDn,
+            final Collection<StreamingCrlParser.Entry> crlEntries, final String caFingerprint) throws AuthorizationDeniedException {
+        if (!authorizationSession.isAuthorizedNoLogging(admin, StandardRules.CAACCESS.resource() + caId)) {
+            final String msg = INTRES.getLocalizedMessage("caadmin.notauthorizedtoca", admin.toString(), caId);
+            throw new AuthorizationDeniedException(msg);
+        }
+        // The last entry of a serial number wins, as it would if the entries were applied one by one
+        final Map<String, StreamingCrlParser.Entry> entriesBySerialNumber = new LinkedHashMap<>();
+        for (final StreamingCrlParser.Entry crlEntry : crlEntries) {
+            entriesBySerialNumber.put(crlEntry.getSerialNumber().toString(), crlEntry);
+        }
+        final Map<String, CertificateData> certificateDatas = new HashMap<>();
+        for (final CertificateData certificateData : certificateDataSession.findByIssuerDNSerialNumbers(issuerDn, entriesBySerialNumber.keySet())) {
+            final CertificateData previous = certificateDatas.put(certificateData.getSerialNumber(), certificateData);
+            if (previous != null && previous.getSubjectKeyId() != null) {
+                // Prefer a full entry, which is never updated here, over a limited one
+                certificateDatas.put(previous.getSerialNumber(), previous);
+            }
+        }
+        final List<StreamingCrlParser.Entry> fullEntriesToRevoke = new ArrayList<>();
+        final List<CertificateData> limitedEntriesToRemove = new ArrayList<>();
+        final List<BigInteger> changedSerialNumbers = new ArrayList<>();
+        int added = 0;
+        int updated = 0;
+        final long now = System.currentTimeMillis();
+        for (final StreamingCrlParser.Entry crlEntry : entriesBySerialNumber.values()) {
+            final BigInteger serialNumber = crlEntry.getSerialNumber();
+            final String limitedFingerprint = getLimitedCertificateDataFingerprint(issuerDn, serialNumber);
+            final boolean removeFromCrl = crlEntry.getReasonCode() == RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
+            final long invalidityDate = crlEntry.getInvalidityDate() == null ? -1L : crlEntry.getInvalidityDate().getTime();
+            final CertificateData certificateData = certificateDatas.get(serialNumber.toString());
+            if (certificateData == null) {
+                if (!removeFromCrl) {
+                    final CertificateData limitedCertificateData = new CertificateData();
+                    limitedCertificateData.setFingerprint(limitedFingerprint);
+                    limitedCertificateData.setSerialNumber(serialNumber.toString());
+                    limitedCertificateData.setIssuer(issuerDn);
+                    limitedCertificateData.setSubjectDN("CN=limited");
+                    limitedCertificateData.setCertificateProfileId(CertificateProfileConstants.CERTPROFILE_NO_PROFILE);
+                    limitedCertificateData.setStatus(CertificateConstants.CERT_REVOKED);
+                    limitedCertificateData.setRevocationReason(crlEntry.getReasonCode());
+                    limitedCertificateData.setRevocationDate(crlEntry.getRevocationDate());
+                    limitedCertificateData.setInvalidityDate(invalidityDate);
+                    limitedCertificateData.setUpdateTime(now);
+                    limitedCertificateData.setCaFingerprint(caFingerprint);
+                    entityManager.persist(limitedCertificateData);
+                    logRevocationChange(limitedCertificateData, now);
+                    changedSerialNumbers.add(serialNumber);
+                    added++;
+                }
+            } else if (limitedFingerprint.equals(certificateData.getFingerprint())) {
+                if (removeFromCrl) {
+                    limitedEntriesToRemove.add(certificateData);
+                    changedSerialNumbers.add(serialNumber);
+                } else if (certificateData.getRevocationDate() != crlEntry.getRevocationDate().getTime()
+                        || certificateData.getRevocationReason() != crlEntry.getReasonCode() || certificateData.getInvalidityDate() != invalidityDate) {
+                    // The entity is managed, so the changes are written when the transaction is committed
+                    certificateData.setStatus(CertificateConstants.CERT_REVOKED);
+                    certificateData.setRevocationReason(crlEntry.getReasonCode());
+                    certificateData.setRevocationDate(crlEntry.getRevocationDate());
+                    certificateData.setInvalidityDate(invalidityDate);
+                    certificateData.setUpdateTime(now);
+                    logRevocationChange(certificateData, now);
+                    changedSerialNumbers.add(serialNumber);
+                    updated++;
+                }
+            } else if (removeFromCrl ? certificateData.getStatus() == CertificateConstants.CERT_REVOKED
+                    : certificateData.getStatus() != CertificateConstants.CERT_REVOKED || certificateData.getRevocationReason() != crlEntry.getReasonCode()) {
+                fullEntriesToRevoke.add(crlEntry);
+            }
+        }
+        int removed = 0;
+        if (!limitedEntriesToRemove.isEmpty()) {
+            final List<String> fingerprints = new ArrayList<>();
+            for (final CertificateData limitedCertificateData : limitedEntriesToRemove) {
+                fingerprints.add(limitedCertificateData.getFingerprint());
+                logRevocationRemoval(limitedCertificateData, now);
+            }
+            final Query query = entityManager.createQuery("DELETE FROM CertificateData a WHERE a.fingerprint IN (:fingerprints) AND a.subjectKeyId IS NULL");
+            query.setParameter("fingerprints", fingerprints);
+            removed = query.executeUpdate();
+        }
+        if (!changedSerialNumbers.isEmpty()) {
+            runAfterCommit(() -> {
+                for (final BigInteger serialNumber : changedSerialNumbers) {
+                    OcspResponseCache.INSTANCE.invalidate(serialNumber);
+                    PreProducedResponseStore.INSTANCE.remove(issuerDn.hashCode(), serialNumber);
+                    RevocationIndexStatusProvider.INSTANCE.markChanged(issuerDn, serialNumber);
+                }
+            });
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Processed " + entriesBySerialNumber.size() + " CRL entries of '" + issuerDn + "': added " + added + ", updated " + updated
+                    + " and removed " + removed + " limited CertificateData entries. " + fullEntriesToRevoke.size() + " full entries need to be revoked.");
+        }
+        return fullEntriesToRevoke;
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.SUPPORTS)
     public void reloadCaCertificateCache() {
@@ -1842,6 +2094,14 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             final int currentTimerId = ((Integer)timer.getInfo()).intValue();
             if (currentTimerId==TIMERID_CACERTIFICATECACHE) {
             	reloadCaCertificateCacheAndSetTimeout();
+            } else if (currentTimerId==TIMERID_REVOCATIONCHANGELOG) {
+                try {
+                    certificateStoreSession.processRevocationChangeLog();
+                } catch (RuntimeException e) {
+                    log.info("Failed to read the revocation change log: " + e.getMessage());
+                } finally {
+                    setRevocationChangeLogTimeout();
+                }
             }
         }
         if (log.isTraceEnabled()) {
@@ -1897,6 +2157,165 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return count;
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public void processRevocationChangeLog() {
+        if (!CesecoreConfiguration.useRevocationChangeLog()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long lastReadTime = RevocationChangeLogHolder.INSTANCE.getLastReadTime();
+        if (lastReadTime != -1) {
+            // Read back far enough that entries that were committed after the last read, but with an earlier change time, are not missed.
+            // A change can be committed as late as the transaction timeout after its change time. Invalidating a cached response twice does no harm.
+            final long since = lastReadTime - Math.max(CesecoreConfiguration.getRevocationChangeLogReadOverlap(), CesecoreConfiguration.getRevocationChangeLogPollInterval());
+            final TypedQuery<Object[]> query = entityManager.createQuery(
+                    "SELECT a.issuerDN, a.serialNumber FROM RevocationChangeData a WHERE a.changeTime>=:since AND a.nodeId<>:nodeId", Object[].class);
+            query.setParameter("since", since);
+            query.setParameter("nodeId", CesecoreConfiguration.getNodeIdentifier());
+            final List<Object[]> changes = query.getResultList();
+            for (final Object[] change : changes) {
+                final BigInteger serialNumber = new BigInteger((String) change[1]);
+                OcspResponseCache.INSTANCE.invalidate(serialNumber);
+                PreProducedResponseStore.INSTANCE.remove(((String) change[0]).hashCode(), serialNumber);
+                RevocationIndexStatusProvider.INSTANCE.markChanged((String) change[0], serialNumber);
+            }
+            if (log.isDebugEnabled() && !changes.isEmpty()) {
+                log.debug("Invalidated cached OCSP responses of " + changes.size() + " certificates from the revocation change log.");
+            }
+        }
+        // Cached responses produced before startup have already been dropped, so there is nothing to read before now.
+        // Revocation indexes are only used once they have been refreshed after this first read.
+        RevocationChangeLogHolder.INSTANCE.setLastReadTime(now);
+        RevocationIndexStatusProvider.INSTANCE.changeLogRead(now);
+        if (now - RevocationChangeLogHolder.INSTANCE.getLastCleanupTime() > REVOCATIONCHANGELOG_CLEANUP_INTERVAL) {
+            RevocationChangeLogHolder.INSTANCE.setLastCleanupTime(now);
+            final Query query = entityManager.createQuery("DELETE FROM RevocationChangeData a WHERE a.changeTime<:changeTime");
+            query.setParameter("changeTime", now - CesecoreConfiguration.getRevocationChangeLogRetention());
+            final int deletedRows = query.executeUpdate();
+            if (log.isDebugEnabled()) {
+                log.debug("Removed " + deletedRows + " old entries from the revocation change log.");
+            }
+        }
+    }
+
+    /** Schedules the next read of the revocation change log on this node, if enabled */
+    private void setRevocationChangeLogTimeout() {
+        final long interval = CesecoreConfiguration.getRevocationChangeLogPollInterval();
+        if (CesecoreConfiguration.useRevocationChangeLog() && interval > 0) {
+            timerService.createSingleActionTimer(interval, new TimerConfig(TIMERID_REVOCATIONCHANGELOG, false));
+        }
+    }
+
+    /**
+     * Removes the cached OCSP responses of a certificate once the current transaction has committed, so a concurrent OCSP request
+     * can not cache a response with the old status again before the new status is visible in the database. The locally stored
+     * pre-produced response is removed at the same time, since the response in the database is replaced in the same transaction.
+     * The certificate is also looked up in the database instead of the OCSP revocation index until the index has been refreshed.
+     */
+    private void invalidateCachedOcspResponses(final String issuerDn, final BigInteger serialNumber) {
+        runAfterCommit(() -> {
+            OcspResponseCache.INSTANCE.invalidate(serialNumber);
+            // CA IDs are the hash code of the subject DN of the CA, as when responses are pre-produced upon revocation
+            PreProducedResponseStore.INSTANCE.remove(issuerDn.hashCode(), serialNumber);
+            RevocationIndexStatusProvider.INSTANCE.markChanged(issuerDn, serialNumber);
+        });
+    }
+
+    /** Runs the action when the current transaction has committed, or directly if there is no transaction. */
+    private void runAfterCommit(final Runnable action) {
+        if (transactionSynchronizationRegistry == null || transactionSynchronizationRegistry.getTransactionStatus() == Status.STATUS_NO_TRANSACTION) {
+            action.run();
+            return;
+        }
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {}
+
+            @Override
+            public void afterCompletion(final int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends the current revocation status of a certificate to the revocation change log, in the current transaction.
+     *
+     * @param certificateData the certificate after the change
+     * @param changeTime the time of the change
+     */
+    private void logRevocationChange(final BaseCertificateData certificateData, final long changeTime) {
+        if (CesecoreConfiguration.useRevocationChangeLog()) {
+            final long sequenceNumber = RevocationChangeLogHolder.INSTANCE.getNext(CesecoreConfiguration.getNodeIdentifier(), this::getMaxRevocationChangeSequenceNumber);
+            entityManager.persist(new RevocationChangeData(RevocationChangeLogHolder.INSTANCE.getNodeId(), sequenceNumber, changeTime, certificateData));
+        }
+    }
+
+    /** Appends the removal of a limited CertificateData entry to the revocation change log, as a certificate that is no longer revoked */
+    private void logRevocationRemoval(final BaseCertificateData certificateData, final long changeTime) {
+        if (CesecoreConfiguration.useRevocationChangeLog()) {
+            final long sequenceNumber = RevocationChangeLogHolder.INSTANCE.getNext(CesecoreConfiguration.getNodeIdentifier(), this::getMaxRevocationChangeSequenceNumber);
+            final RevocationChangeData revocationChangeData = new RevocationChangeData(RevocationChangeLogHolder.INSTANCE.getNodeId(), sequenceNumber, changeTime,
+                    certificateData);
+            revocationChangeData.setStatus(CertificateConstants.CERT_ACTIVE);
+            revocationChangeData.setRevocationReason(RevokedCertInfo.NOT_REVOKED);
+            revocationChangeData.setRevocationDate(changeTime);
+            entityManager.persist(revocationChangeData);
+        }
+    }
+
+    /** @return the highest sequence number written to the revocation change log by a node, or -1 if there is none */
+    private long getMaxRevocationChangeSequenceNumber(final String nodeId) {
+        final TypedQuery<Long> query = entityManager.createQuery("SELECT MAX(a.sequenceNumber) FROM RevocationChangeData a WHERE a.nodeId=:nodeId", Long.class);
+        query.setParameter("nodeId", nodeId);
+        final Long max = query.getSingleResult();
+        return max == null ? -1L : max;
+    }
+
+    /**
+     * Lists the certificates whose revocation status has changed since a base CRL from the revocation change log, with the last change of
+     * each certificate. Certificates that are no longer revoked are listed with reason REMOVEFROMCRL, as by
+     * {@link CertificateDataSessionLocal#getRevokedCertInfos}, and changes that do not affect a CRL, such as archiving, are left out.
+     */
+    private Collection<RevokedCertInfo> listRevocationChanges(final String issuerDN, final int crlPartitionIndex, final long lastBaseCrlDate,
+            final boolean allowInvalidityDate) {
+        final TypedQuery<RevocationChangeData> query = entityManager.createQuery("SELECT a FROM RevocationChangeData a WHERE a.issuerDN=:issuerDN"
+                + " AND a.changeTime>:lastBaseCrlDate AND a.crlPartitionIndex=:crlPartitionIndex ORDER BY a.changeTime, a.sequenceNumber", RevocationChangeData.class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("lastBaseCrlDate", lastBaseCrlDate);
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
+        query.setMaxResults(maxResults);
+        // Later changes replace earlier ones
+        final Map<String, RevocationChangeData> lastChanges = new LinkedHashMap<>();
+        for (int firstResult = 0;; firstResult += maxResults) {
+            query.setFirstResult(firstResult);
+            final List<RevocationChangeData> changes = query.getResultList();
+            for (final RevocationChangeData change : changes) {
+                lastChanges.remove(change.getFingerprint());
+                lastChanges.put(change.getFingerprint(), change);
+            }
+            if (changes.size() < maxResults) {
+                break;
+            }
+        }
+        final List<RevokedCertInfo> revokedCertInfos = new ArrayList<>();
+        for (final RevocationChangeData change : lastChanges.values()) {
+            final int status = change.getStatus();
+            if (change.getRevocationDate() != -1L && (status == CertificateConstants.CERT_REVOKED || status == CertificateConstants.CERT_ACTIVE
+                    || status == CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION)) {
+                revokedCertInfos.add(change.toRevokedCertInfo(allowInvalidityDate));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Read " + revokedCertInfos.size() + " changed certificates of '" + issuerDN + "' since the last base CRL from the revocation change log.");
+        }
+        return revokedCertInfos;
+    }
+
     /** @return something that looks like a normal certificate fingerprint and is unique for each certificate entry */
     private String getLimitedCertificateDataFingerprint(final String issuerDn, final BigInteger serialNumber) {
         return CertTools.getFingerprintAsString((issuerDn+";"+serialNumber).getBytes());
@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.cesecore.certificates.certificate;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.TimeZone;
@@ -60,6 +61,20 @@ public class NoConflictCertificateDataSessionBean extends BaseCertificateDataSes
         }
         return result;
     }
+
+    @Override
+    public List<NoConflictCertificateData> findByFingerprints(final Collection<String> fingerprints) {
+        if (fingerprints.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final TypedQuery<NoConflictCertificateData> query = entityManager.createQuery("SELECT a FROM NoConflictCertificateData a WHERE a.fingerprint IN (:fingerprints)", NoConflictCertificateData.class);
+        query.setParameter("fingerprints", fingerprints);
+        final List<NoConflictCertificateData> result = query.getResultList();
+        if (log.isTraceEnabled()) {
+            log.trace("findByFingerprints(" + fingerprints.size() + " fingerprints) yielded " + result.size() + " results.");
+        }
+        return result;
+    }
     
     @Override
     public List<NoConflictCertificateData> findBySerialNumber(final String serialNumber) {
@@ -139,5 +154,31 @@ public class NoConflictCertificateDataSessionBean extends BaseCertificateDataSes
         query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
         return getRevokedCertInfosInternal(query, allowInvalidityDate);
     }
-    
+
+    @Override
+    public RevokedCertInfoPage getRevokedCertInfoPageWithDuplicates(final String issuerDN, final int crlPartitionIndex, final long lastBaseCrlDate,
+            final boolean keepExpiredCertsOnCrl, final RevokedCertInfoPage previous, final int maxResults, final boolean allowInvalidityDate) {
+        final String crlPartitionExpression;
+        if (crlPartitionIndex != 0) {
+            crlPartitionExpression = " AND a.crlPartitionIndex = :crlPartitionIndex";
+        } else {
+            crlPartitionExpression = " AND (a.crlPartitionIndex = :crlPartitionIndex OR a.crlPartitionIndex IS NULL)";
+        }
+        final String excludeExpiredExpression = keepExpiredCertsOnCrl ? "" : " AND a.expireDate >= :expiredAfter";
+        // The table is append-only, so the same fingerprint can occur many times, and the id is used to break ties
+        final Query query = getEntityManager().createNativeQuery(
+                "SELECT a.fingerprint, a.serialNumber, a.expireDate, a.revocationDate, a.revocationReason, a.invalidityDate, a.id FROM NoConflictCertificateData a WHERE "
+                        + "a.issuerDN=:issuerDN AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)" + crlPartitionExpression
+                        + excludeExpiredExpression + getKeysetExpression(previous, "a.id") + " ORDER BY a.serialNumber, a.id");
+        if (!keepExpiredCertsOnCrl) {
+            query.setParameter("expiredAfter", lastBaseCrlDate);
+        }
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        query.setParameter("status1", CertificateConstants.CERT_REVOKED);
+        query.setParameter("status2", CertificateConstants.CERT_ACTIVE); // in case the certificate has been changed from on hold, it should not be on the CRL
+        query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION);
+        return getRevokedCertInfoPageInternal(query, previous, maxResults, allowInvalidityDate);
+    }
+
 }
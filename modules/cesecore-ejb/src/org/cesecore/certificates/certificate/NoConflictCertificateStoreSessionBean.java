@@ -14,12 +14,15 @@ package org.cesecore.certificates.certificate;
 
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
@@ -83,6 +86,8 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
     @EJB
     private CertificateProfileSessionLocal certificateProfileSession;
     @EJB
+    private CertificateDataSessionLocal certificateDataSession;
+    @EJB
     private CertificateStoreSessionLocal certificateStoreSession;
     @EJB
     private SecurityEventsLoggerSessionLocal logSession;
@@ -200,6 +205,30 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
         }
         return new CertificateDataWrapper(mostRecent);
     }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRED)
+    public Map<String, CertificateDataWrapper> getCertificateDatas(final Collection<String> fingerprints) {
+        final Map<String, CertificateDataWrapper> ret = certificateStoreSession.getCertificateDatas(fingerprints);
+        if (ret.size() == fingerprints.size()) {
+            return ret;
+        }
+        // Take the most recent certificate from NoConflictCertificateData for those that were not found
+        final List<String> missing = new ArrayList<>();
+        for (final String fingerprint : fingerprints) {
+            if (!ret.containsKey(fingerprint)) {
+                missing.add(fingerprint);
+            }
+        }
+        final Map<String, List<NoConflictCertificateData>> certDatasByFingerprint = new LinkedHashMap<>();
+        for (final NoConflictCertificateData certData : noConflictCertificateDataSession.findByFingerprints(missing)) {
+            certDatasByFingerprint.computeIfAbsent(certData.getFingerprint(), fingerprint -> new ArrayList<>()).add(certData);
+        }
+        for (final Map.Entry<String, List<NoConflictCertificateData>> entry : certDatasByFingerprint.entrySet()) {
+            ret.put(entry.getKey(), new CertificateDataWrapper(filterMostRecentCertData(entry.getValue())));
+        }
+        return ret;
+    }
     
     @Override
     public Collection<RevokedCertInfo> listRevokedCertInfo(String issuerDN, boolean deltaCrl, int crlPartitionIndex, long lastBaseCrlDate, boolean keepExpiredCertsOnCrl, 
@@ -209,6 +238,12 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
                     + allowInvalidityDate + ")");
         }
         final Collection<RevokedCertInfo> revokedInCertData = certificateStoreSession.listRevokedCertInfo(issuerDN, deltaCrl, crlPartitionIndex, lastBaseCrlDate, allowInvalidityDate);
+        return listRevokedCertInfo(issuerDN, revokedInCertData, deltaCrl, crlPartitionIndex, lastBaseCrlDate, keepExpiredCertsOnCrl, allowInvalidityDate);
+    }
+
+    @Override
+    public Collection<RevokedCertInfo> listRevokedCertInfo(final String issuerDN, final Collection<RevokedCertInfo> revokedInCertData, final boolean deltaCrl,
+            final int crlPartitionIndex, final long lastBaseCrlDate, final boolean keepExpiredCertsOnCrl, final boolean allowInvalidityDate) {
         final Collection<RevokedCertInfo> revokedInNoConflictData = noConflictCertificateDataSession.getRevokedCertInfosWithDuplicates(issuerDN, deltaCrl, crlPartitionIndex, 
                 lastBaseCrlDate, keepExpiredCertsOnCrl, allowInvalidityDate);
         if (log.isDebugEnabled()) {
@@ -217,6 +252,79 @@ public class NoConflictCertificateStoreSessionBean implements NoConflictCertific
         return RevokedCertInfo.mergeByDateAndStatus(revokedInCertData, revokedInNoConflictData, lastBaseCrlDate);
     }
     
+    @Override
+    public void streamRevokedCertInfo(final String issuerDN, final int crlPartitionIndex, final long lastBaseCrlDate, final boolean keepExpiredCertsOnCrl,
+            final boolean allowInvalidityDate, final Consumer<RevokedCertInfo> consumer) {
+        if (log.isTraceEnabled()) {
+            log.trace(">streamRevokedCertInfo('" + issuerDN + "', " + crlPartitionIndex + ", " + lastBaseCrlDate + ", " + keepExpiredCertsOnCrl + ", "
+                    + allowInvalidityDate + ")");
+        }
+        final int fetchSize = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
+        final String certDataIssuerDN = CertTools.stringToBCDNString(StringTools.strip(issuerDN));
+        final RevokedCertInfoPageReader inCertData = new RevokedCertInfoPageReader(previous -> certificateDataSession.getRevokedCertInfoPage(certDataIssuerDN,
+                crlPartitionIndex, previous, fetchSize, allowInvalidityDate));
+        final RevokedCertInfoPageReader inNoConflictData = new RevokedCertInfoPageReader(previous -> noConflictCertificateDataSession
+                .getRevokedCertInfoPageWithDuplicates(issuerDN, crlPartitionIndex, lastBaseCrlDate, keepExpiredCertsOnCrl, previous, fetchSize, allowInvalidityDate));
+        long count = 0;
+        if (!inNoConflictData.hasNext()) {
+            // As in RevokedCertInfo.mergeByDateAndStatus, the entries in CertificateData are used as they are
+            while (inCertData.hasNext()) {
+                consumer.accept(inCertData.next());
+                count++;
+            }
+        } else {
+            // Both tables are read in the order of the serialNumber column, so all entries for a serial number are merged at the same time
+            final List<RevokedCertInfo> duplicates = new ArrayList<>();
+            while (inCertData.hasNext() || inNoConflictData.hasNext()) {
+                final String serialNumber = inCertData.hasNext() && (!inNoConflictData.hasNext()
+                        || inCertData.peekSerialNumber().compareTo(inNoConflictData.peekSerialNumber()) <= 0) ? inCertData.peekSerialNumber()
+                                : inNoConflictData.peekSerialNumber();
+                final RevokedCertInfo revokedInCertData = inCertData.hasNext() && serialNumber.equals(inCertData.peekSerialNumber()) ? inCertData.next() : null;
+                duplicates.clear();
+                while (inNoConflictData.hasNext() && serialNumber.equals(inNoConflictData.peekSerialNumber())) {
+                    duplicates.add(inNoConflictData.next());
+                }
+                final RevokedCertInfo merged = RevokedCertInfo.mergeEntriesByDateAndStatus(revokedInCertData, duplicates, lastBaseCrlDate);
+                if (merged != null) {
+                    consumer.accept(merged);
+                    count++;
+                }
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<streamRevokedCertInfo(): " + count + " entries");
+        }
+    }
+
+    /** Reads revoked certificates one at a time from consecutive pages */
+    private static class RevokedCertInfoPageReader {
+        private final UnaryOperator<RevokedCertInfoPage> nextPage;
+        private RevokedCertInfoPage page;
+        private int index = 0;
+
+        private RevokedCertInfoPageReader(final UnaryOperator<RevokedCertInfoPage> nextPage) {
+            this.nextPage = nextPage;
+            this.page = nextPage.apply(RevokedCertInfoPage.first());
+        }
+
+        private boolean hasNext() {
+            while (index == page.getEntries().size() && !page.isLast()) {
+                page = nextPage.apply(page);
+                index = 0;
+            }
+            return index < page.getEntries().size();
+        }
+
+        /** @return the serial number of the next entry, as in the serialNumber column */
+        private String peekSerialNumber() {
+            return page.getEntries().get(index).getUserCertificate().toString();
+        }
+
+        private RevokedCertInfo next() {
+            return page.getEntries().get(index++);
+        }
+    }
+
     /**
      * Locates the most recent entry in NoConflictCertificateData for a given issuerdn/serial number combination.
      * @param issuerdn Issuer DN
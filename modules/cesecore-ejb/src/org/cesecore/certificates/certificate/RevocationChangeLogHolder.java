@@ -0,0 +1,85 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * State of this node's use of the revocation change log: the next sequence number of the entries it writes, and how far
+ * it has read the entries written by other nodes.
+ * <p>
+ * The sequence number is unique as long as the node identifier read on first access is unique among the nodes sharing
+ * the database, as for the audit log.
+ */
+public enum RevocationChangeLogHolder {
+    INSTANCE;
+
+    private final AtomicLong lastSequenceNumber = new AtomicLong(-1);
+    private final ReentrantLock lockDataBaseUpdate = new ReentrantLock();
+    private volatile String nodeId = null;
+    private volatile long lastReadTime = -1;
+    private volatile long lastCleanupTime = 0;
+
+    /**
+     * @param configuredNodeId the node identifier to use, if this is the first access
+     * @param maxSequenceNumberForNode returns the highest sequence number in the database for a node identifier, or -1 if there is none
+     * @return the node's next sequence number
+     */
+    public long getNext(final String configuredNodeId, final ToLongFunction<String> maxSequenceNumberForNode) {
+        if (lastSequenceNumber.get() == -1L) {
+            lockDataBaseUpdate.lock();
+            try {
+                // Only one thread needs to look up the value in the database
+                if (lastSequenceNumber.get() == -1L) {
+                    // The node identifier is cached to avoid gaps in the sequence if the configuration changes
+                    nodeId = configuredNodeId;
+                    lastSequenceNumber.set(Math.max(0, maxSequenceNumberForNode.applyAsLong(nodeId)));
+                }
+            } finally {
+                lockDataBaseUpdate.unlock();
+            }
+        }
+        return lastSequenceNumber.incrementAndGet();
+    }
+
+    /** @return the node identifier the sequence numbers apply to, or null before the first call to {@link #getNext} */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /** @return the time up to which the entries of other nodes have been read, or -1 if they have not been read since startup */
+    public long getLastReadTime() {
+        return lastReadTime;
+    }
+
+    public void setLastReadTime(final long lastReadTime) {
+        this.lastReadTime = lastReadTime;
+    }
+
+    /** @return the time when this node last removed old entries from the log */
+    public long getLastCleanupTime() {
+        return lastCleanupTime;
+    }
+
+    public void setLastCleanupTime(final long lastCleanupTime) {
+        this.lastCleanupTime = lastCleanupTime;
+    }
+
+    /** Makes the next call to {@link #getNext} read the last sequence number from the database again. Only for use in tests. */
+    public void reset() {
+        lastSequenceNumber.set(-1L);
+        lastReadTime = -1;
+    }
+}
@@ -94,7 +94,8 @@ public class CrlStoreSessionBean implements CrlStoreSessionLocal, CrlStoreSessio
                 final String msg = intres.getLocalizedMessage("store.errorstorecrlwrongnumber", Integer.valueOf(number), Integer.valueOf(lastNo), issuerDN);
                 throw new CrlStoreException(msg);
             }
-            CRLData data = new CRLData(incrl, number, crlPartitionIndex, issuerDN, thisUpdate, nextUpdate, cafp, deltaCRLIndicator);
+            CRLData data = new CRLData(incrl, number, crlPartitionIndex, issuerDN, thisUpdate, nextUpdate, cafp, deltaCRLIndicator,
+                    CesecoreConfiguration.useBinaryCrlStorage());
             this.entityManager.persist(data);
             String msg = intres.getLocalizedMessage("store.storecrl", Integer.valueOf(number), data.getFingerprint(), data.getIssuerDN());
             Map<String, Object> details = new LinkedHashMap<>();
@@ -350,6 +351,25 @@ public class CrlStoreSessionBean implements CrlStoreSessionLocal, CrlStoreSessio
         return null;
     }
     
+    @Override
+    public int convertCrlStorage(final AuthenticationToken admin, final String issuerDN, final boolean binaryStorage, final int maxRows)
+            throws AuthorizationDeniedException {
+        final String bcdn = CertTools.stringToBCDNString(issuerDN);
+        authorizedToCA(admin, bcdn.hashCode());
+        final TypedQuery<CRLData> query = entityManager.createQuery("SELECT a FROM CRLData a WHERE a.issuerDN=:issuerDN AND a.binaryCrl IS "
+                + (binaryStorage ? "NULL" : "NOT NULL"), CRLData.class);
+        query.setParameter("issuerDN", bcdn);
+        query.setMaxResults(maxRows);
+        final List<CRLData> crls = query.getResultList();
+        for (final CRLData crlData : crls) {
+            crlData.setBinaryStorage(binaryStorage);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Converted " + crls.size() + " CRLs of '" + bcdn + "' to " + (binaryStorage ? "binary" : "base64") + " storage.");
+        }
+        return crls.size();
+    }
+
     @Override
     public void removeByIssuerDN(final String issuerDN) {
         List<CRLData> crls = findByIssuerDN(issuerDN);
@@ -444,7 +464,9 @@ public class CrlStoreSessionBean implements CrlStoreSessionLocal, CrlStoreSessio
      * @param crlNumber the CRL number.
      * @return the found entity instance or null if the entity does not exist.
      */
-    private CRLData findByIssuerDNAndCRLNumber(final String issuerDN, final int crlPartitionIndex,
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public CRLData findByIssuerDNAndCRLNumber(final String issuerDN, final int crlPartitionIndex,
             final int crlNumber) {
         final Query query = entityManager.createQuery("SELECT a FROM CRLData a WHERE a.issuerDN=:issuerDN AND a.crlNumber=:crlNumber AND "
                 + getCrlPartitionIndexCondition(crlPartitionIndex), CRLData.class);
@@ -0,0 +1,76 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigInteger;
+
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.junit.Test;
+
+/**
+ * Tests how entries of the revocation change log are listed on delta CRLs.
+ */
+public class RevocationChangeDataUnitTest {
+
+    private static final String NODE_ID = "node1";
+    private static final BigInteger SERIAL_NUMBER = new BigInteger("1234567890123456789");
+
+    @Test
+    public void testRevoked() {
+        final CertificateData certificateData = createCertificateData(CertificateConstants.CERT_REVOKED, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        certificateData.setInvalidityDate(500L);
+        final RevocationChangeData change = new RevocationChangeData(NODE_ID, 1, 2000L, certificateData);
+        assertEquals(NODE_ID, change.getNodeId());
+        assertEquals(2000L, change.getChangeTime());
+        assertEquals(CertificateConstants.NO_CRL_PARTITION, change.getCrlPartitionIndex());
+        final RevokedCertInfo revokedCertInfo = change.toRevokedCertInfo(true);
+        assertEquals(SERIAL_NUMBER, revokedCertInfo.getUserCertificate());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, revokedCertInfo.getReason());
+        assertEquals(1000L, revokedCertInfo.getRevocationDate().getTime());
+        assertEquals(500L, revokedCertInfo.getInvalidityDate().getTime());
+        assertNull("Invalidity date should only be included when allowed", change.toRevokedCertInfo(false).getInvalidityDate());
+    }
+
+    @Test
+    public void testUnrevoked() {
+        final CertificateData certificateData = createCertificateData(CertificateConstants.CERT_ACTIVE, RevokedCertInfo.NOT_REVOKED);
+        final RevocationChangeData change = new RevocationChangeData(NODE_ID, 2, 2000L, certificateData);
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, change.toRevokedCertInfo(false).getReason());
+        assertNull(change.toRevokedCertInfo(true).getInvalidityDate());
+    }
+
+    @Test
+    public void testProtectString() {
+        final CertificateData certificateData = createCertificateData(CertificateConstants.CERT_REVOKED, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD);
+        final RevocationChangeData change = new RevocationChangeData(NODE_ID, 3, 2000L, certificateData);
+        final String protectString = change.getProtectString(1);
+        change.setRevocationReason(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE);
+        assertNotEquals("Revocation reason must be protected", protectString, change.getProtectString(1));
+    }
+
+    private static CertificateData createCertificateData(final int status, final int revocationReason) {
+        final CertificateData certificateData = new CertificateData();
+        certificateData.setFingerprint("abcdef0123456789");
+        certificateData.setSerialNumber(SERIAL_NUMBER.toString());
+        certificateData.setIssuer("CN=Revocation Change Test CA");
+        certificateData.setStatus(status);
+        certificateData.setRevocationReason(revocationReason);
+        certificateData.setRevocationDate(1000L);
+        certificateData.setExpireDate(3000L);
+        return certificateData;
+    }
+}
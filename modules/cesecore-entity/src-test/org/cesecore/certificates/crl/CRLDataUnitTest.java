@@ -0,0 +1,95 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.junit.Test;
+
+/**
+ * Unit tests of the base64 and binary storage formats of {@link CRLData}.
+ */
+public class CRLDataUnitTest {
+
+    private static final String ISSUER_DN = "CN=CRLData Test CA";
+    /** Larger than the copy buffer, and base64 encoded into several lines */
+    private static final byte[] CRL = new byte[200000];
+    static {
+        new Random(1).nextBytes(CRL);
+    }
+
+    @Test
+    public void testBase64Storage() throws IOException {
+        final CRLData crlData = createCrlData(false);
+        assertFalse(crlData.isBinaryStorage());
+        assertNull(crlData.getBinaryCrl());
+        assertArrayEquals(CRL, crlData.getCRLBytes());
+        assertEquals(-1, crlData.getCRLLength());
+        assertArrayEquals(CRL, writeCrl(crlData));
+    }
+
+    @Test
+    public void testBinaryStorage() throws IOException {
+        final CRLData crlData = createCrlData(true);
+        assertTrue(crlData.isBinaryStorage());
+        assertNull(crlData.getBase64Crl());
+        assertArrayEquals(CRL, crlData.getCRLBytes());
+        assertEquals(CRL.length, crlData.getCRLLength());
+        assertArrayEquals(CRL, writeCrl(crlData));
+        assertEquals("Fingerprint should not depend on the storage format", createCrlData(false).getFingerprint(), crlData.getFingerprint());
+    }
+
+    @Test
+    public void testConvertStorage() throws IOException {
+        final CRLData crlData = createCrlData(false);
+        crlData.setBinaryStorage(true);
+        assertNull(crlData.getBase64Crl());
+        assertArrayEquals(CRL, crlData.getBinaryCrl());
+        crlData.setBinaryStorage(false);
+        assertNull(crlData.getBinaryCrl());
+        assertEquals(createCrlData(false).getBase64Crl(), crlData.getBase64Crl());
+        assertArrayEquals(CRL, writeCrl(crlData));
+    }
+
+    @Test
+    public void testProtectString() {
+        final CRLData base64 = createCrlData(false);
+        final CRLData binary = createCrlData(true);
+        assertEquals("Protect string of existing rows must not change", base64.getProtectString(2) + "<sep/>", base64.getProtectString(3));
+        assertNotEquals("Binary CRL must be protected", base64.getProtectString(3), binary.getProtectString(3));
+        final CRLData otherCrl = createCrlData(true);
+        otherCrl.setBinaryCrl(new byte[] { 1, 2, 3 });
+        assertNotEquals("Binary CRL must be protected", binary.getProtectString(3), otherCrl.getProtectString(3));
+    }
+
+    private static CRLData createCrlData(final boolean binaryStorage) {
+        return new CRLData(CRL, 1, CertificateConstants.NO_CRL_PARTITION, ISSUER_DN, new Date(1000), new Date(2000), "cafingerprint", -1, binaryStorage);
+    }
+
+    private static byte[] writeCrl(final CRLData crlData) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        crlData.writeCRL(out);
+        return out.toByteArray();
+    }
+}
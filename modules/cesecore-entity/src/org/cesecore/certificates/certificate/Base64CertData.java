@@ -15,6 +15,9 @@ package org.cesecore.certificates.certificate;
 import java.io.Serializable;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import javax.persistence.Entity;
 import javax.persistence.EntityManager;
@@ -209,6 +212,17 @@ public class Base64CertData extends ProtectedData implements Serializable {
         return entityManager.find(Base64CertData.class, fingerprint);
     }
 
+    /** @return the entities that were found for the given fingerprints, in no particular order */
+    @SuppressWarnings("unchecked")
+    public static List<Base64CertData> findByFingerprints(EntityManager entityManager, Collection<String> fingerprints) {
+        if (fingerprints.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final Query query = entityManager.createQuery("SELECT a FROM Base64CertData a WHERE a.fingerprint IN (:fingerprints)");
+        query.setParameter("fingerprints", fingerprints);
+        return query.getResultList();
+    }
+
     /** @return the number of entries with the given parameter */
     public static long getCount(EntityManager entityManager) {
         final Query countQuery = entityManager.createQuery("SELECT COUNT(a) FROM Base64CertData a");
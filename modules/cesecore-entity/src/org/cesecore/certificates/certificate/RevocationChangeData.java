@@ -0,0 +1,270 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.certificate;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+
+import javax.persistence.Entity;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.dbprotection.DatabaseProtectionException;
+import org.cesecore.dbprotection.ProtectedData;
+import org.cesecore.dbprotection.ProtectionStringBuilder;
+import org.cesecore.util.GUIDGenerator;
+
+/**
+ * Append-only log of changes to the revocation status of certificates. A row is written in the same transaction as the change in
+ * CertificateData (or NoConflictCertificateData), with the status after the change, so the certificates whose status has changed since
+ * a point in time can be read without scanning the certificate table. Issued certificates are logged as well, with revocation date -1.
+ * <p>
+ * Rows are ordered by the sequence number of the node that wrote them, like AuditRecordData, and by changeTime across nodes.
+ */
+@Entity
+@Table(name = "RevocationChangeData")
+public class RevocationChangeData extends ProtectedData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int LATEST_PROTECT_VERSON = 1;
+
+    private String pk;
+    private String nodeId;
+    private long sequenceNumber;
+    private long changeTime;
+    private String issuerDN;
+    private String serialNumber;
+    private String fingerprint;
+    private int crlPartitionIndex;
+    private long expireDate;
+    private int status;
+    private int revocationReason;
+    private long revocationDate;
+    private long invalidityDate;
+    private int rowVersion = 0;
+    private String rowProtection;
+
+    public RevocationChangeData() {}
+
+    /**
+     * Creates a log entry with the current revocation status of a certificate.
+     *
+     * @param nodeId the node identifier of this node
+     * @param sequenceNumber the next sequence number of this node
+     * @param changeTime time of the change
+     * @param certificateData the certificate after the change
+     */
+    public RevocationChangeData(final String nodeId, final long sequenceNumber, final long changeTime, final BaseCertificateData certificateData) {
+        this.pk = GUIDGenerator.generateGUID(this);
+        this.nodeId = nodeId;
+        this.sequenceNumber = sequenceNumber;
+        this.changeTime = changeTime;
+        this.issuerDN = certificateData.getIssuerDN();
+        this.serialNumber = certificateData.getSerialNumber();
+        this.fingerprint = certificateData.getFingerprint();
+        this.crlPartitionIndex = certificateData.getCrlPartitionIndex() == null ? CertificateConstants.NO_CRL_PARTITION : certificateData.getCrlPartitionIndex();
+        this.expireDate = certificateData.getExpireDate();
+        this.status = certificateData.getStatus();
+        this.revocationReason = certificateData.getRevocationReason();
+        this.revocationDate = certificateData.getRevocationDate();
+        this.invalidityDate = certificateData.getInvalidityDate() == null ? -1L : certificateData.getInvalidityDate();
+    }
+
+    /** @return the primary key */
+    public String getPk() {
+        return pk;
+    }
+
+    public void setPk(final String pk) {
+        this.pk = pk;
+    }
+
+    /** @return the node identifier of the node that wrote the entry */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(final String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /** @return the sequence number, which is unique and increasing for each node */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public void setSequenceNumber(final long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /** @return the time of the change, in milliseconds since epoch */
+    public long getChangeTime() {
+        return changeTime;
+    }
+
+    public void setChangeTime(final long changeTime) {
+        this.changeTime = changeTime;
+    }
+
+    public String getIssuerDN() {
+        return issuerDN;
+    }
+
+    public void setIssuerDN(final String issuerDN) {
+        this.issuerDN = issuerDN;
+    }
+
+    /** @return the serial number in decimal, as in CertificateData */
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public void setSerialNumber(final String serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(final String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public int getCrlPartitionIndex() {
+        return crlPartitionIndex;
+    }
+
+    public void setCrlPartitionIndex(final int crlPartitionIndex) {
+        this.crlPartitionIndex = crlPartitionIndex;
+    }
+
+    public long getExpireDate() {
+        return expireDate;
+    }
+
+    public void setExpireDate(final long expireDate) {
+        this.expireDate = expireDate;
+    }
+
+    /** @return the certificate status after the change, one of the CertificateConstants.CERT_ constants */
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(final int status) {
+        this.status = status;
+    }
+
+    public int getRevocationReason() {
+        return revocationReason;
+    }
+
+    public void setRevocationReason(final int revocationReason) {
+        this.revocationReason = revocationReason;
+    }
+
+    public long getRevocationDate() {
+        return revocationDate;
+    }
+
+    public void setRevocationDate(final long revocationDate) {
+        this.revocationDate = revocationDate;
+    }
+
+    /** @return the invalidity date, or -1 if not set */
+    public long getInvalidityDate() {
+        return invalidityDate;
+    }
+
+    public void setInvalidityDate(final long invalidityDate) {
+        this.invalidityDate = invalidityDate;
+    }
+
+    public int getRowVersion() {
+        return rowVersion;
+    }
+
+    public void setRowVersion(final int rowVersion) {
+        this.rowVersion = rowVersion;
+    }
+
+    @Override
+    public String getRowProtection() {
+        return rowProtection;
+    }
+
+    @Override
+    public void setRowProtection(final String rowProtection) {
+        this.rowProtection = rowProtection;
+    }
+
+    /**
+     * @param allowInvalidityDate true if the invalidity date should be included
+     * @return the entry as it would be listed on a delta CRL. Certificates that are no longer revoked are returned with reason REMOVEFROMCRL.
+     */
+    @Transient
+    public RevokedCertInfo toRevokedCertInfo(final boolean allowInvalidityDate) {
+        final int reason = getStatus() == CertificateConstants.CERT_REVOKED && getRevocationReason() != RevokedCertInfo.NOT_REVOKED ? getRevocationReason()
+                : RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
+        final Long invalidityDate = allowInvalidityDate && getInvalidityDate() != -1L ? getInvalidityDate() : null;
+        return new RevokedCertInfo(getFingerprint().getBytes(), new BigInteger(getSerialNumber()).toByteArray(), getRevocationDate(), reason, getExpireDate(),
+                invalidityDate);
+    }
+
+    //
+    // Start Database integrity protection methods
+    //
+
+    @Transient
+    @Override
+    protected String getProtectString(final int version) {
+        // rowVersion is automatically updated by JPA, so it's not important, it is only used for optimistic locking
+        return new ProtectionStringBuilder().append(getPk()).append(getNodeId()).append(getSequenceNumber()).append(getChangeTime())
+                .append(getIssuerDN()).append(getSerialNumber()).append(getFingerprint()).append(getCrlPartitionIndex()).append(getExpireDate())
+                .append(getStatus()).append(getRevocationReason()).append(getRevocationDate()).append(getInvalidityDate()).toString();
+    }
+
+    @Transient
+    @Override
+    protected int getProtectVersion() {
+        return LATEST_PROTECT_VERSON;
+    }
+
+    @PrePersist
+    @PreUpdate
+    @Override
+    protected void protectData() throws DatabaseProtectionException {
+        super.protectData();
+    }
+
+    @PostLoad
+    @Override
+    protected void verifyData() throws DatabaseProtectionException {
+        super.verifyData();
+    }
+
+    @Override
+    @Transient
+    protected String getRowId() {
+        return getPk();
+    }
+
+    //
+    // End Database integrity protection methods
+    //
+}
@@ -13,6 +13,7 @@
 package org.cesecore.certificates.crl;
 
 import org.apache.log4j.Logger;
+import org.bouncycastle.util.encoders.Hex;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.dbprotection.DatabaseProtectionException;
 import org.cesecore.dbprotection.ProtectedData;
@@ -30,13 +31,21 @@ import javax.persistence.SqlResultSetMapping;
 import javax.persistence.SqlResultSetMappings;
 import javax.persistence.Table;
 import javax.persistence.Transient;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.CRLException;
 import java.security.cert.X509CRL;
 import java.util.Date;
 
 /**
  * Representation of a CRL.
+ * <p>
+ * The CRL is stored either base64 encoded in base64Crl, or DER encoded in binaryCrl (since EJBCA 8.3.0), depending on the
+ * setting database.useBinaryCrlStorage when the CRL was stored. Exactly one of the columns is set, and both formats can be read.
  */
 @Entity
 @Table(name = "CRLData")
@@ -50,7 +59,8 @@ public class CRLData extends ProtectedData implements Serializable {
 
     private static final Logger log = Logger.getLogger(CRLData.class);
 
-    private static final int LATEST_PROTECT_VERSION = 2;
+    private static final int LATEST_PROTECT_VERSION = 3;
+    private static final int COPY_BUFFER_SIZE = 65536;
 
     private int cRLNumber;
     private int deltaCRLIndicator;
@@ -61,6 +71,7 @@ public class CRLData extends ProtectedData implements Serializable {
     private long thisUpdate;
     private long nextUpdate;
     private String base64Crl; 
+    private byte[] binaryCrl; // Since EJBCA 8.3.0
     private int rowVersion = 0;
     private String rowProtection;
 
@@ -77,8 +88,21 @@ public class CRLData extends ProtectedData implements Serializable {
      *            -1 for a normal CRL and 1 for a deltaCRL
      */
     public CRLData(byte[] incrl, int number, int crlPartitionIndex, String issuerDN, Date thisUpdate, Date nextUpdate, String cafingerprint, int deltaCRLIndicator) {
-        String b64Crl = new String(Base64.encode(incrl));
-        setBase64Crl(b64Crl);
+        this(incrl, number, crlPartitionIndex, issuerDN, thisUpdate, nextUpdate, cafingerprint, deltaCRLIndicator, false);
+    }
+
+    /**
+     * Entity holding info about a CRL, see {@link #CRLData(byte[], int, int, String, Date, Date, String, int)}.
+     *
+     * @param binaryStorage true to store the DER encoded CRL in the binaryCrl column, false to store it base64 encoded in the base64Crl column.
+     */
+    public CRLData(byte[] incrl, int number, int crlPartitionIndex, String issuerDN, Date thisUpdate, Date nextUpdate, String cafingerprint,
+            int deltaCRLIndicator, boolean binaryStorage) {
+        if (binaryStorage) {
+            setBinaryCrl(incrl);
+        } else {
+            setBase64Crl(new String(Base64.encode(incrl)));
+        }
         String fp = CertTools.getFingerprintAsString(incrl);
         setFingerprint(fp);
         // Make sure names are always looking the same
@@ -210,6 +234,19 @@ public class CRLData extends ProtectedData implements Serializable {
         this.base64Crl = base64Crl;
     }
 
+    /**
+     * @since EJBCA 8.3.0
+     * @return the DER encoded CRL, or null if the CRL is stored base64 encoded
+     */
+    // @Column @Lob
+    public byte[] getBinaryCrl() {
+        return binaryCrl;
+    }
+
+    public void setBinaryCrl(byte[] binaryCrl) {
+        this.binaryCrl = binaryCrl;
+    }
+
     // @Version @Column
     public int getRowVersion() {
         return rowVersion;
@@ -236,27 +273,84 @@ public class CRLData extends ProtectedData implements Serializable {
     @Transient
     public X509CRL getCRL() {
         try {
-            return CertTools.getCRLfromByteArray(Base64.decode(this.base64Crl.getBytes()));
+            return CertTools.getCRLfromByteArray(getCRLBytes());
         } catch (CRLException ce) {
             log.error("Can't decode CRL.", ce);
         }
         return null;
     }
 
+    /** Replaces the CRL, keeping the storage format of this row. */
     public void setCRL(X509CRL incrl) {
         try {
-            String b64Crl = new String(Base64.encode((incrl).getEncoded()));
-            setBase64Crl(b64Crl);
+            if (this.binaryCrl != null) {
+                setBinaryCrl(incrl.getEncoded());
+            } else {
+                String b64Crl = new String(Base64.encode((incrl).getEncoded()));
+                setBase64Crl(b64Crl);
+            }
         } catch (CRLException ce) {
             log.error("Can't extract DER encoded CRL.", ce);
         }
     }
 
+    /** @return the DER encoded CRL, from whichever column it is stored in */
     @Transient
     public byte[] getCRLBytes() {
+        if (this.binaryCrl != null) {
+            return this.binaryCrl;
+        }
         return Base64.decode(this.base64Crl.getBytes());
     }
 
+    /** @return true if the CRL is stored DER encoded in the binaryCrl column */
+    @Transient
+    public boolean isBinaryStorage() {
+        return this.binaryCrl != null;
+    }
+
+    /**
+     * Moves the CRL from the base64Crl to the binaryCrl column, or back. The CRL itself is not changed.
+     *
+     * @param binaryStorage true to store the CRL in the binaryCrl column
+     */
+    public void setBinaryStorage(final boolean binaryStorage) {
+        if (binaryStorage && this.binaryCrl == null) {
+            setBinaryCrl(getCRLBytes());
+            setBase64Crl(null);
+        } else if (!binaryStorage && this.binaryCrl != null) {
+            setBase64Crl(new String(Base64.encode(this.binaryCrl)));
+            setBinaryCrl(null);
+        }
+    }
+
+    /** @return the length of the DER encoded CRL, or -1 if it is stored base64 encoded, so the length is not known without decoding it */
+    @Transient
+    public int getCRLLength() {
+        return this.binaryCrl != null ? this.binaryCrl.length : -1;
+    }
+
+    /**
+     * Writes the DER encoded CRL to a stream. A CRL stored in the binaryCrl column is written as it is, and a base64 encoded CRL is decoded
+     * while it is written, so the decoded CRL is never held in memory.
+     *
+     * @param out the stream to write to, which is not closed
+     * @throws IOException if the CRL could not be written
+     */
+    public void writeCRL(final OutputStream out) throws IOException {
+        if (this.binaryCrl != null) {
+            out.write(this.binaryCrl);
+            return;
+        }
+        try (final InputStream in = java.util.Base64.getMimeDecoder().wrap(new ByteArrayInputStream(this.base64Crl.getBytes(StandardCharsets.US_ASCII)))) {
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
     public void setIssuer(String dn) {
         setIssuerDN(CertTools.stringToBCDNString(dn));
     }
@@ -293,6 +387,10 @@ public class CRLData extends ProtectedData implements Serializable {
             // Build the database protection string using CertificateConstants.NO_CRL_PARTITION instead of -1.
             build.append(getCrlPartitionIndex() == -1 ? 0 : getCrlPartitionIndex());
         }
+        if (version >= 3) {
+            // Binary CRL storage added in EJBCA 8.3.0. The CRL is protected by its hash, to not have to encode it into the string.
+            build.append(getBinaryCrl() == null ? null : Hex.toHexString(CertTools.generateSHA256Fingerprint(getBinaryCrl())));
+        }
         return build.toString();
     }
 
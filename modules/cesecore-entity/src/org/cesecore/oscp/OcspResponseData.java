@@ -43,7 +43,8 @@ import org.cesecore.dbprotection.ProtectionStringBuilder;
 @Table(name = "OcspResponseData", indexes = { 
         @Index(columnList = "caId", name = "ocspresponsedata_idx1"),
         @Index(columnList = "serialNumber", name = "ocspresponsedata_idx2"),
-        @Index(columnList = "producedAt", name = "ocspresponsedata_idx3")})
+        @Index(columnList = "producedAt", name = "ocspresponsedata_idx3"),
+        @Index(columnList = "caId, serialNumber, producedAt", name = "ocspresponsedata_idx4")})
 @NamedQueries({ 
         @NamedQuery(name = "findOcspDataByCaId", query = "SELECT a FROM OcspResponseData a WHERE a.caId = :caId"),
         @NamedQuery(name = "findOcspDataById", query = "SELECT a FROM OcspResponseData a WHERE a.id = :id"),
@@ -51,7 +52,13 @@ import org.cesecore.dbprotection.ProtectionStringBuilder;
         @NamedQuery(name = "findOcspDataByCaIdSerialNumber", query = "SELECT a FROM OcspResponseData a WHERE a.caId = :caId AND a.serialNumber = :serialNumber ORDER BY a.producedAt DESC"),
         @NamedQuery(name = "deleteOcspDataByCaId", query = "DELETE FROM OcspResponseData a WHERE a.caId = :caId"),
         @NamedQuery(name = "deleteOcspDataBySerialNumber", query = "DELETE FROM OcspResponseData a WHERE a.serialNumber = :serialNumber"),
-        @NamedQuery(name = "deleteOcspDataByCaIdSerialNumber", query = "DELETE FROM OcspResponseData a WHERE a.caId = :caId AND a.serialNumber = :serialNumber"), })
+        @NamedQuery(name = "deleteOcspDataByCaIdSerialNumber", query = "DELETE FROM OcspResponseData a WHERE a.caId = :caId AND a.serialNumber = :serialNumber"),
+        @NamedQuery(name = "findOcspDataCaIds", query = "SELECT DISTINCT a.caId FROM OcspResponseData a"),
+        @NamedQuery(name = "findFirstOcspDataForCleanup", query = "SELECT a.id, a.serialNumber, a.producedAt FROM OcspResponseData a WHERE a.caId = :caId "
+                + "AND a.producedAt < :cutoffTime ORDER BY a.serialNumber ASC, a.producedAt DESC"),
+        @NamedQuery(name = "findOcspDataForCleanup", query = "SELECT a.id, a.serialNumber, a.producedAt FROM OcspResponseData a WHERE a.caId = :caId "
+                + "AND a.producedAt < :cutoffTime AND a.serialNumber > :afterSerialNumber ORDER BY a.serialNumber ASC, a.producedAt DESC"),
+        @NamedQuery(name = "deleteOcspDataByIds", query = "DELETE FROM OcspResponseData a WHERE a.id IN (:ids)"), })
 @NamedNativeQueries({
         // See comments below for the limitations due to different supported database engines and JPQL.
         // JPQL doesn't support inner joins that uses subqueries.
@@ -0,0 +1,303 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ca;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.cert.CertException;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+
+/**
+ * Builds a DER encoded X.509 CRL without holding the ASN.1 structure of the revoked certificates in memory, as
+ * {@link org.bouncycastle.cert.X509v2CRLBuilder} does. Each CRL entry is encoded when it is added and appended to a buffer,
+ * which is moved to a temporary file when it grows beyond {@link #MEMORY_THRESHOLD} bytes. When the CRL is built, the
+ * TBSCertList is streamed from the buffer into the signer and then into the output.
+ * <p>
+ * The encoding is byte for byte the same as the one produced by X509v2CRLBuilder for the same entries and extensions.
+ * The builder must be closed to remove the temporary file.
+ */
+final class StreamingCrlBuilder implements Closeable {
+
+    private static final Logger log = Logger.getLogger(StreamingCrlBuilder.class);
+
+    /** Size of the encoded CRL entries that are kept in memory before moving them to a temporary file */
+    static final int MEMORY_THRESHOLD = 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 65536;
+    private static final int TAG_SEQUENCE = 0x30;
+
+    private final X500Name issuer;
+    private final Time thisUpdate;
+    private Time nextUpdate;
+    private final ExtensionsGenerator extGenerator = new ExtensionsGenerator();
+
+    private ByteArrayOutputStream entriesBuffer = new ByteArrayOutputStream();
+    private Path entriesFile;
+    private OutputStream entriesOut = entriesBuffer;
+    private long entriesLength = 0;
+    private long entryCount = 0;
+
+    /** Set when the CRL has been built */
+    private byte[] tbsHeader;
+    private byte[] tbsTrailer;
+    private AlgorithmIdentifier signatureAlgorithm;
+    private byte[] signature;
+
+    StreamingCrlBuilder(final X500Name issuer, final Date thisUpdate) {
+        this.issuer = issuer;
+        this.thisUpdate = new Time(thisUpdate);
+    }
+
+    void setNextUpdate(final Date date) {
+        this.nextUpdate = new Time(date);
+    }
+
+    /**
+     * Adds a CRL entry, encoded as by X509v2CRLBuilder, with a reasonCode extension unless the reason is unspecified (0)
+     * and an invalidityDate extension if the invalidity date is given.
+     *
+     * @param userCertificateSerial serial number of the revoked certificate
+     * @param revocationDate date of revocation
+     * @param reason revocation reason code
+     * @param invalidityDate invalidity date, or null
+     * @throws IOException if the entry could not be written to the temporary file
+     */
+    void addCRLEntry(final BigInteger userCertificateSerial, final Date revocationDate, final int reason, final Date invalidityDate) throws IOException {
+        checkNotBuilt();
+        final ASN1EncodableVector entry = new ASN1EncodableVector(3);
+        entry.add(new ASN1Integer(userCertificateSerial));
+        entry.add(new Time(revocationDate));
+        final ExtensionsGenerator entryExtensions = new ExtensionsGenerator();
+        if (reason != 0) {
+            entryExtensions.addExtension(Extension.reasonCode, false, CRLReason.lookup(reason));
+        }
+        if (invalidityDate != null) {
+            entryExtensions.addExtension(Extension.invalidityDate, false, new ASN1GeneralizedTime(invalidityDate));
+        }
+        if (!entryExtensions.isEmpty()) {
+            entry.add(entryExtensions.generate());
+        }
+        final byte[] encoded = new DERSequence(entry).getEncoded(ASN1Encoding.DER);
+        if (entriesFile == null && entriesLength + encoded.length > MEMORY_THRESHOLD) {
+            moveEntriesToFile();
+        }
+        entriesOut.write(encoded);
+        entriesLength += encoded.length;
+        entryCount++;
+    }
+
+    /** @see #addCRLEntry(BigInteger, Date, int, Date) */
+    void addCRLEntry(final BigInteger userCertificateSerial, final Date revocationDate, final int reason) throws IOException {
+        addCRLEntry(userCertificateSerial, revocationDate, reason, null);
+    }
+
+    /** Adds a CRL extension. Extensions are encoded in the order they are added. */
+    void addExtension(final ASN1ObjectIdentifier oid, final boolean isCritical, final ASN1Encodable value) throws IOException {
+        checkNotBuilt();
+        extGenerator.addExtension(oid, isCritical, value);
+    }
+
+    long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Signs the CRL and writes the DER encoded CertificateList to the stream.
+     *
+     * @param signer signer of the CRL
+     * @param out stream to write the CRL to, which is not closed
+     * @throws IOException if the CRL could not be written
+     */
+    void build(final ContentSigner signer, final OutputStream out) throws IOException {
+        sign(signer);
+        final byte[] signatureAlgorithmEncoded = signatureAlgorithm.getEncoded(ASN1Encoding.DER);
+        final byte[] signatureEncoded = new DERBitString(signature).getEncoded(ASN1Encoding.DER);
+        final long tbsLength = getTbsLength();
+        writeHeader(out, TAG_SEQUENCE, tbsLength + signatureAlgorithmEncoded.length + signatureEncoded.length);
+        writeTbs(out);
+        out.write(signatureAlgorithmEncoded);
+        out.write(signatureEncoded);
+    }
+
+    /**
+     * Signs the CRL and returns it. The CRL is held in memory once, as its encoding, which is parsed lazily.
+     *
+     * @param signer signer of the CRL
+     * @return the signed CRL
+     * @throws IOException if the CRL could not be encoded
+     */
+    X509CRLHolder build(final ContentSigner signer) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(entriesLength + 4096, Integer.MAX_VALUE - 8));
+        build(signer, out);
+        if (log.isDebugEnabled()) {
+            log.debug("Built CRL with " + entryCount + " entries, " + out.size() + " bytes.");
+        }
+        return new X509CRLHolder(out.toByteArray());
+    }
+
+    /**
+     * Verifies the signature of the built CRL by streaming the TBSCertList into the verifier again. Unlike
+     * {@link X509CRLHolder#isSignatureValid(ContentVerifierProvider)}, this does not parse the CRL entries.
+     *
+     * @param verifierProvider provider of the verifier for the public key of the CA
+     * @return true if the signature is valid
+     * @throws CertException if the signature could not be verified
+     */
+    boolean isSignatureValid(final ContentVerifierProvider verifierProvider) throws CertException {
+        if (signature == null) {
+            throw new IllegalStateException("The CRL has not been built.");
+        }
+        try {
+            final ContentVerifier verifier = verifierProvider.get(signatureAlgorithm);
+            try (final OutputStream out = verifier.getOutputStream()) {
+                writeTbs(out);
+            }
+            return verifier.verify(signature);
+        } catch (OperatorCreationException | IOException e) {
+            throw new CertException("unable to process signature: " + e.getMessage(), e);
+        }
+    }
+
+    /** Deletes the temporary file, if any. */
+    @Override
+    public void close() throws IOException {
+        entriesBuffer = null;
+        if (entriesFile != null) {
+            try {
+                entriesOut.close();
+            } finally {
+                Files.deleteIfExists(entriesFile);
+                entriesFile = null;
+            }
+        }
+    }
+
+    private void sign(final ContentSigner signer) throws IOException {
+        checkNotBuilt();
+        entriesOut.flush();
+        signatureAlgorithm = signer.getAlgorithmIdentifier();
+        final ASN1EncodableVector header = new ASN1EncodableVector(5);
+        header.add(new ASN1Integer(1));
+        header.add(signatureAlgorithm);
+        header.add(issuer);
+        header.add(thisUpdate);
+        if (nextUpdate != null) {
+            header.add(nextUpdate);
+        }
+        final ByteArrayOutputStream headerOut = new ByteArrayOutputStream();
+        for (int i = 0; i < header.size(); i++) {
+            headerOut.write(header.get(i).toASN1Primitive().getEncoded(ASN1Encoding.DER));
+        }
+        if (entryCount > 0) {
+            writeHeader(headerOut, TAG_SEQUENCE, entriesLength);
+        }
+        tbsHeader = headerOut.toByteArray();
+        tbsTrailer = extGenerator.isEmpty() ? new byte[0] : new DERTaggedObject(0, extGenerator.generate()).getEncoded(ASN1Encoding.DER);
+        try (final OutputStream out = signer.getOutputStream()) {
+            writeTbs(out);
+        }
+        signature = signer.getSignature();
+    }
+
+    private long getTbsLength() {
+        final long contentLength = tbsHeader.length + entriesLength + tbsTrailer.length;
+        return 1 + getLengthOfLength(contentLength) + contentLength;
+    }
+
+    private void writeTbs(final OutputStream out) throws IOException {
+        writeHeader(out, TAG_SEQUENCE, tbsHeader.length + entriesLength + tbsTrailer.length);
+        out.write(tbsHeader);
+        if (entriesFile == null) {
+            entriesBuffer.writeTo(out);
+        } else {
+            try (final InputStream in = Files.newInputStream(entriesFile)) {
+                final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+        out.write(tbsTrailer);
+    }
+
+    private void moveEntriesToFile() throws IOException {
+        entriesFile = Files.createTempFile("crlentries", ".der");
+        if (log.isDebugEnabled()) {
+            log.debug("Writing CRL entries to temporary file " + entriesFile + " after " + entryCount + " entries.");
+        }
+        entriesOut = new BufferedOutputStream(Files.newOutputStream(entriesFile), COPY_BUFFER_SIZE);
+        entriesBuffer.writeTo(entriesOut);
+        entriesBuffer = null;
+    }
+
+    private void checkNotBuilt() {
+        if (signature != null) {
+            throw new IllegalStateException("The CRL has already been built.");
+        }
+    }
+
+    /** Writes the identifier and DER definite length octets of an ASN.1 element */
+    private static void writeHeader(final OutputStream out, final int tag, final long length) throws IOException {
+        out.write(tag);
+        if (length < 0x80) {
+            out.write((int) length);
+            return;
+        }
+        final int lengthOfLength = getLengthOfLength(length) - 1;
+        out.write(0x80 | lengthOfLength);
+        for (int shift = (lengthOfLength - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (length >>> shift));
+        }
+    }
+
+    /** @return the number of length octets of a DER encoded element with the given content length */
+    private static int getLengthOfLength(final long length) {
+        if (length < 0x80) {
+            return 1;
+        }
+        int octets = 1;
+        for (long remaining = length; remaining > 0; remaining >>>= 8) {
+            octets++;
+        }
+        return octets;
+    }
+}
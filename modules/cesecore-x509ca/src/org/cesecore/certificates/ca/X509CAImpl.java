@@ -88,7 +88,6 @@ import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
 import org.bouncycastle.cert.CertException;
 import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.X509v2CRLBuilder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
@@ -2096,194 +2095,197 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
             }
         }
 
-        final X509v2CRLBuilder crlgen = new X509v2CRLBuilder(issuer, thisUpdate);
-        crlgen.setNextUpdate(nextUpdate);
-        if (certs != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
-            }
-            for (final RevokedCertInfo certinfo : certs) {
-                if (certinfo.getInvalidityDate() != null) {
-                    crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason(), certinfo.getInvalidityDate());
-                } else {
-                    crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason());
+        // The CRL entries are encoded one at a time and buffered in a temporary file for large CRLs, so the size of the
+        // CRL only affects the memory needed for its final encoding
+        try (final StreamingCrlBuilder crlgen = new StreamingCrlBuilder(issuer, thisUpdate)) {
+            crlgen.setNextUpdate(nextUpdate);
+            if (certs != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
+                }
+                for (final RevokedCertInfo certinfo : certs) {
+                    if (certinfo.getInvalidityDate() != null) {
+                        crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason(), certinfo.getInvalidityDate());
+                    } else {
+                        crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason());
+                    }
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Finished adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
                 }
             }
-            if (log.isDebugEnabled()) {
-                log.debug("Finished adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
-            }
-        }
-
 
-        // Authority key identifier
-        if (getUseAuthorityKeyIdentifier()) {
-            byte[] caSkid = (cacert != null ? CertTools.getSubjectKeyId(cacert) : null);
-            if (caSkid != null) {
-                // Use subject key id from CA certificate
-                AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(caSkid);
-                crlgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
-            } else {
-                // SHA1 used here, but it's not security relevant here as this is the RFC5280 Key Identifier
-                JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils(SHA1DigestCalculator.buildSha1Instance());
-                AuthorityKeyIdentifier aki = extensionUtils.createAuthorityKeyIdentifier(cryptoToken.getPublicKey(getCAToken().getAliasFromPurpose(
-                        CATokenConstants.CAKEYPURPOSE_CRLSIGN)));
-                crlgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
-            }
-        }
 
-        // Authority Information Access
-        final ASN1EncodableVector accessList = new ASN1EncodableVector();
-        if (getAuthorityInformationAccess() != null) {
-            for(String url :  getAuthorityInformationAccess()) {
-                if(StringUtils.isNotEmpty(url)) {
-                    GeneralName accessLocation = new GeneralName(GeneralName.uniformResourceIdentifier, new DERIA5String(url));
-                    accessList.add(new AccessDescription(AccessDescription.id_ad_caIssuers, accessLocation));
+            // Authority key identifier
+            if (getUseAuthorityKeyIdentifier()) {
+                byte[] caSkid = (cacert != null ? CertTools.getSubjectKeyId(cacert) : null);
+                if (caSkid != null) {
+                    // Use subject key id from CA certificate
+                    AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(caSkid);
+                    crlgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
+                } else {
+                    // SHA1 used here, but it's not security relevant here as this is the RFC5280 Key Identifier
+                    JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils(SHA1DigestCalculator.buildSha1Instance());
+                    AuthorityKeyIdentifier aki = extensionUtils.createAuthorityKeyIdentifier(cryptoToken.getPublicKey(getCAToken().getAliasFromPurpose(
+                            CATokenConstants.CAKEYPURPOSE_CRLSIGN)));
+                    crlgen.addExtension(Extension.authorityKeyIdentifier, getAuthorityKeyIdentifierCritical(), aki);
                 }
             }
-        }
-        if(accessList.size() > 0) {
-            AuthorityInformationAccess authorityInformationAccess = AuthorityInformationAccess.getInstance(new DERSequence(accessList));
-            // "This CRL extension MUST NOT be marked critical." according to rfc4325
-            crlgen.addExtension(Extension.authorityInfoAccess, false, authorityInformationAccess);
-        }
-
-        // CRLNumber extension
-        if (getUseCRLNumber()) {
-            CRLNumber crlnum = new CRLNumber(BigInteger.valueOf(crlnumber));
-            crlgen.addExtension(Extension.cRLNumber, this.getCRLNumberCritical(), crlnum);
-        }
 
-        // ExpiredCertsOnCRL extension (is always specified as not critical)
-        // Date format to be used is: yyyyMMddHHmmss
-        // https://www.itu.int/ITU-T/formal-language/itu-t/x/x509/2005/CertificateExtensions.html
-        //
-        // expiredCertsOnCRL EXTENSION ::= {
-        //   SYNTAX         ExpiredCertsOnCRL
-        //   IDENTIFIED BY  id-ce-expiredCertsOnCRL
-        // }
-        // ExpiredCertsOnCRL ::= GeneralizedTime
-        // The ExpiredCertsOnCRL CRL extension is not specified by IETF-PKIX. It is defined by the ITU-T Recommendation X.509 and
-        // indicates that a CRL containing this extension will include revocation status information for certificates that have
-        // been already expired. When used, the ExpiredCertsOnCRL contains the date on which the CRL starts to keep revocation
-        // status information for expired certificates (i.e. revocation entries are not removed from the CRL for any certificates
-        // that expire at or after the date contained in the ExpiredCertsOnCRL extension).
-        final ASN1ObjectIdentifier ExpiredCertsOnCRL = new ASN1ObjectIdentifier("2.5.29.60");
-        boolean keepexpiredcertsoncrl = getKeepExpiredCertsOnCRL();
-        if(keepexpiredcertsoncrl) {
-            // For now force parameter with date equals NotBefore of CA certificate, or now
-            final DERGeneralizedTime keepDate;
-            if (cacert != null) {
-                keepDate = new DERGeneralizedTime(cacert.getNotBefore());
-            } else {
-                // Copied from org.bouncycastle.asn1.x509.Time to get right format of GeneralizedTime (no fractional seconds)
-                SimpleDateFormat dateF = new SimpleDateFormat("yyyyMMddHHmmss");
-                dateF.setTimeZone(new SimpleTimeZone(0, "Z"));
-                String d = dateF.format(new Date()) + "Z";
-                keepDate = new DERGeneralizedTime(d);
+            // Authority Information Access
+            final ASN1EncodableVector accessList = new ASN1EncodableVector();
+            if (getAuthorityInformationAccess() != null) {
+                for(String url :  getAuthorityInformationAccess()) {
+                    if(StringUtils.isNotEmpty(url)) {
+                        GeneralName accessLocation = new GeneralName(GeneralName.uniformResourceIdentifier, new DERIA5String(url));
+                        accessList.add(new AccessDescription(AccessDescription.id_ad_caIssuers, accessLocation));
+                    }
+                }
             }
-            crlgen.addExtension(ExpiredCertsOnCRL, false, keepDate);
-            if (log.isDebugEnabled()) {
-                log.debug("ExpiredCertsOnCRL extension added to CRL. Keep date: " + keepDate.getTime());
+            if(accessList.size() > 0) {
+                AuthorityInformationAccess authorityInformationAccess = AuthorityInformationAccess.getInstance(new DERSequence(accessList));
+                // "This CRL extension MUST NOT be marked critical." according to rfc4325
+                crlgen.addExtension(Extension.authorityInfoAccess, false, authorityInformationAccess);
+            }
+
+            // CRLNumber extension
+            if (getUseCRLNumber()) {
+                CRLNumber crlnum = new CRLNumber(BigInteger.valueOf(crlnumber));
+                crlgen.addExtension(Extension.cRLNumber, this.getCRLNumberCritical(), crlnum);
+            }
+
+            // ExpiredCertsOnCRL extension (is always specified as not critical)
+            // Date format to be used is: yyyyMMddHHmmss
+            // https://www.itu.int/ITU-T/formal-language/itu-t/x/x509/2005/CertificateExtensions.html
+            //
+            // expiredCertsOnCRL EXTENSION ::= {
+            //   SYNTAX         ExpiredCertsOnCRL
+            //   IDENTIFIED BY  id-ce-expiredCertsOnCRL
+            // }
+            // ExpiredCertsOnCRL ::= GeneralizedTime
+            // The ExpiredCertsOnCRL CRL extension is not specified by IETF-PKIX. It is defined by the ITU-T Recommendation X.509 and
+            // indicates that a CRL containing this extension will include revocation status information for certificates that have
+            // been already expired. When used, the ExpiredCertsOnCRL contains the date on which the CRL starts to keep revocation
+            // status information for expired certificates (i.e. revocation entries are not removed from the CRL for any certificates
+            // that expire at or after the date contained in the ExpiredCertsOnCRL extension).
+            final ASN1ObjectIdentifier ExpiredCertsOnCRL = new ASN1ObjectIdentifier("2.5.29.60");
+            boolean keepexpiredcertsoncrl = getKeepExpiredCertsOnCRL();
+            if(keepexpiredcertsoncrl) {
+                // For now force parameter with date equals NotBefore of CA certificate, or now
+                final DERGeneralizedTime keepDate;
+                if (cacert != null) {
+                    keepDate = new DERGeneralizedTime(cacert.getNotBefore());
+                } else {
+                    // Copied from org.bouncycastle.asn1.x509.Time to get right format of GeneralizedTime (no fractional seconds)
+                    SimpleDateFormat dateF = new SimpleDateFormat("yyyyMMddHHmmss");
+                    dateF.setTimeZone(new SimpleTimeZone(0, "Z"));
+                    String d = dateF.format(new Date()) + "Z";
+                    keepDate = new DERGeneralizedTime(d);
+                }
+                crlgen.addExtension(ExpiredCertsOnCRL, false, keepDate);
+                if (log.isDebugEnabled()) {
+                    log.debug("ExpiredCertsOnCRL extension added to CRL. Keep date: " + keepDate.getTime());
+                }
             }
-        }
-
-        if (isDeltaCRL) {
-            // DeltaCRLIndicator extension
-            CRLNumber basecrlnum = new CRLNumber(BigInteger.valueOf(basecrlnumber));
-            crlgen.addExtension(Extension.deltaCRLIndicator, true, basecrlnum);
-        }
-        // CRL Distribution point URI and Freshest CRL DP
-        if (getUseCrlDistributionPointOnCrl()) {
-            String crldistpoint = getDefaultCRLDistPoint();
-            List<DistributionPoint> distpoints = generateDistributionPoints(crldistpoint, crlPartitionIndex);
-
-            if (!distpoints.isEmpty()) {
-                IssuingDistributionPoint idp = new IssuingDistributionPoint(distpoints.get(0).getDistributionPoint(), false, false, null, false,
-                        false);
 
-                // According to the RFC, IDP must be a critical extension.
-                // Nonetheless, at the moment, Mozilla is not able to correctly
-                // handle the IDP extension and discards the CRL if it is critical.
-                crlgen.addExtension(Extension.issuingDistributionPoint, getCrlDistributionPointOnCrlCritical(), idp);
+            if (isDeltaCRL) {
+                // DeltaCRLIndicator extension
+                CRLNumber basecrlnum = new CRLNumber(BigInteger.valueOf(basecrlnumber));
+                crlgen.addExtension(Extension.deltaCRLIndicator, true, basecrlnum);
             }
+            // CRL Distribution point URI and Freshest CRL DP
+            if (getUseCrlDistributionPointOnCrl()) {
+                String crldistpoint = getDefaultCRLDistPoint();
+                List<DistributionPoint> distpoints = generateDistributionPoints(crldistpoint, crlPartitionIndex);
 
-            if (!isDeltaCRL) {
-                String crlFreshestDP = getCADefinedFreshestCRL();
-                List<DistributionPoint> freshestDistPoints = generateDistributionPoints(crlFreshestDP, crlPartitionIndex);
-                if (!freshestDistPoints.isEmpty()) {
-                    CRLDistPoint ext = new CRLDistPoint(freshestDistPoints.toArray(new DistributionPoint[freshestDistPoints.size()]));
+                if (!distpoints.isEmpty()) {
+                    IssuingDistributionPoint idp = new IssuingDistributionPoint(distpoints.get(0).getDistributionPoint(), false, false, null, false,
+                            false);
 
-                    // According to the RFC, the Freshest CRL extension on a
-                    // CRL must not be marked as critical. Therefore it is
-                    // hardcoded as not critical and is independent of
-                    // getCrlDistributionPointOnCrlCritical().
-                    crlgen.addExtension(Extension.freshestCRL, false, ext);
+                    // According to the RFC, IDP must be a critical extension.
+                    // Nonetheless, at the moment, Mozilla is not able to correctly
+                    // handle the IDP extension and discards the CRL if it is critical.
+                    crlgen.addExtension(Extension.issuingDistributionPoint, getCrlDistributionPointOnCrlCritical(), idp);
                 }
 
-            }
-        }
+                if (!isDeltaCRL) {
+                    String crlFreshestDP = getCADefinedFreshestCRL();
+                    List<DistributionPoint> freshestDistPoints = generateDistributionPoints(crlFreshestDP, crlPartitionIndex);
+                    if (!freshestDistPoints.isEmpty()) {
+                        CRLDistPoint ext = new CRLDistPoint(freshestDistPoints.toArray(new DistributionPoint[freshestDistPoints.size()]));
+
+                        // According to the RFC, the Freshest CRL extension on a
+                        // CRL must not be marked as critical. Therefore it is
+                        // hardcoded as not critical and is independent of
+                        // getCrlDistributionPointOnCrlCritical().
+                        crlgen.addExtension(Extension.freshestCRL, false, ext);
+                    }
 
-        final X509CRLHolder crl;
-        if (log.isDebugEnabled()) {
-            log.debug("Signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
-        }
-        String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
-        if (isMsCaCompatible() && partitionCaCert != null) {
-            alias = getSignKeyAliasFromSubjectKeyId(cryptoToken, CertTools.getSubjectKeyId(partitionCaCert));
-        }
-        
-        try {
-            String prov = cryptoToken.getSignProviderName();
-            if (BouncyCastleProvider.PROVIDER_NAME.equals(prov)) {
-                prov = CryptoProviderTools.getProviderNameFromAlg(sigAlg);
+                }
             }
-            final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(prov).build(cryptoToken.getPrivateKey(alias)), X509CAImpl.SIGN_BUFFER_SIZE);
-            crl = crlgen.build(signer);
-        } catch (OperatorCreationException e) {
-            // Very fatal error
-            throw new RuntimeException("Can not create Jca content signer: ", e);
-        }
-        if (log.isDebugEnabled()) {
-            log.debug("Finished signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
-        }
 
-        // Verify using the CA certificate before returning
-        // If we can not verify the issued CRL using the CA certificate we don't want to issue this CRL
-        // because something is wrong...
-        final PublicKey verifyKey;
-        if (cacert != null) {
-            verifyKey = cacert.getPublicKey();
-            if (log.isTraceEnabled()) {
-                log.trace("Got the verify key from the CA certificate.");
+            final X509CRLHolder crl;
+            if (log.isDebugEnabled()) {
+                log.debug("Signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
             }
-        } else {
-            verifyKey = cryptoToken.getPublicKey(alias);
-            if (log.isTraceEnabled()) {
-                log.trace("Got the verify key from the CA token.");
+            String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
+            if (isMsCaCompatible() && partitionCaCert != null) {
+                alias = getSignKeyAliasFromSubjectKeyId(cryptoToken, CertTools.getSubjectKeyId(partitionCaCert));
             }
-        }
-        try {
-            final ContentVerifierProvider verifier = CertTools.genContentVerifierProvider(verifyKey);
-            if (!crl.isSignatureValid(verifier)) {
+        
+            try {
+                String prov = cryptoToken.getSignProviderName();
+                if (BouncyCastleProvider.PROVIDER_NAME.equals(prov)) {
+                    prov = CryptoProviderTools.getProviderNameFromAlg(sigAlg);
+                }
+                final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(sigAlg).setProvider(prov).build(cryptoToken.getPrivateKey(alias)), X509CAImpl.SIGN_BUFFER_SIZE);
+                crl = crlgen.build(signer);
+            } catch (OperatorCreationException e) {
+                // Very fatal error
+                throw new RuntimeException("Can not create Jca content signer: ", e);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Finished signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
+            }
+
+            // Verify using the CA certificate before returning
+            // If we can not verify the issued CRL using the CA certificate we don't want to issue this CRL
+            // because something is wrong...
+            final PublicKey verifyKey;
+            if (cacert != null) {
+                verifyKey = cacert.getPublicKey();
+                if (log.isTraceEnabled()) {
+                    log.trace("Got the verify key from the CA certificate.");
+                }
+            } else {
+                verifyKey = cryptoToken.getPublicKey(alias);
                 if (log.isTraceEnabled()) {
-                    log.trace("The public key used to verify the CRL:" + System.lineSeparator() + KeyTools.getAsPem(verifyKey));
-                    log.trace("The CRL whose signature could not be verified:" + System.lineSeparator() + KeyTools.getAsPem(crl));
+                    log.trace("Got the verify key from the CA token.");
                 }
-                throw new SignatureException("Cannot verify the signature of the CRL for issuer " + "'" + issuer
-                        + "' using the public key with SHA-1 fingerprint " + CertTools.createPublicKeyFingerprint(verifyKey, "SHA-1")
-                        + ". The CRL signature was created with a private key stored in the token " + cryptoToken.getTokenName()
-                        + ". The most likely reason for this error is that the private key stored on the token does not correspond to the public key found in the issuer certificate.");
             }
-        } catch (OperatorCreationException e) {
-            // Very fatal error
-            throw new RuntimeException("Can not create Jca content signer: ", e);
-        } catch (CertException e) {
-            throw new SignatureException(e.getMessage(), e);
-        }
-        if (log.isDebugEnabled()) {
-            log.debug("Returning CRL. Free memory="+Runtime.getRuntime().freeMemory());
+            try {
+                final ContentVerifierProvider verifier = CertTools.genContentVerifierProvider(verifyKey);
+                if (!crlgen.isSignatureValid(verifier)) {
+                    if (log.isTraceEnabled()) {
+                        log.trace("The public key used to verify the CRL:" + System.lineSeparator() + KeyTools.getAsPem(verifyKey));
+                        log.trace("The CRL whose signature could not be verified:" + System.lineSeparator() + KeyTools.getAsPem(crl));
+                    }
+                    throw new SignatureException("Cannot verify the signature of the CRL for issuer " + "'" + issuer
+                            + "' using the public key with SHA-1 fingerprint " + CertTools.createPublicKeyFingerprint(verifyKey, "SHA-1")
+                            + ". The CRL signature was created with a private key stored in the token " + cryptoToken.getTokenName()
+                            + ". The most likely reason for this error is that the private key stored on the token does not correspond to the public key found in the issuer certificate.");
+                }
+            } catch (OperatorCreationException e) {
+                // Very fatal error
+                throw new RuntimeException("Can not create Jca content signer: ", e);
+            } catch (CertException e) {
+                throw new SignatureException(e.getMessage(), e);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Returning CRL. Free memory="+Runtime.getRuntime().freeMemory());
+            }
+            return crl;
         }
-        return crl;
     }
 
     private String getSignKeyAliasFromSubjectKeyId(CryptoToken cryptoToken, byte[] crlSubjectKeyIdentifier) throws CryptoTokenOfflineException {
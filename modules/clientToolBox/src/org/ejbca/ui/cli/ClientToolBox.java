@@ -67,6 +67,7 @@ public abstract class ClientToolBox {
                 new RESTTest(),
                 new SerObjectAnalyzer(),
                 new SerObjectMerger(),
+                new CrlBenchmark(),
         };
         for ( int i=0; args.length>0 && i<toolBox.length; i++) {
             if ( toolBox[i].executeIfSelected(args) ) {
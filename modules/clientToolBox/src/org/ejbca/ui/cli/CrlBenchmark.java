@@ -0,0 +1,380 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.cli;
+
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigInteger;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.jce.X509KeyUsage;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CAFactory;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.ca.catoken.CAToken;
+import org.cesecore.certificates.ca.catoken.CATokenConstants;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCodec;
+import org.cesecore.config.CesecoreConfiguration;
+import org.cesecore.keys.token.CryptoTokenFactory;
+import org.cesecore.keys.token.SoftCryptoToken;
+import org.cesecore.util.CompressedCollection;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.StringTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.token.CryptoToken;
+
+/**
+ * <p><b>CrlBenchmark Module</b>
+ * <p>Generates a CRL from a synthetic population of revoked certificates with an X509CA and a soft crypto token, without any
+ * database or application server, and reports the time and heap needed by each phase and the size of the CRL. Used to size CAs
+ * with many revoked certificates, and as a regression benchmark for changes to CRL generation.
+ * <p>
+ * The phases are:
+ * <ul>
+ * <li>fetch: storing the entries in a CompressedCollection, as when they are read from the database. The time of adding
+ * the entries to the collection is also reported on its own, without the time to create the synthetic entries</li>
+ * <li>iterate: reading the entries from the collection once, as when the CRL is built</li>
+ * <li>generate: X509CA.generateCRL, which builds, signs and verifies the CRL</li>
+ * <li>sign and verify: signing the TBSCertList and verifying the CRL again on their own, to tell them apart from building</li>
+ * <li>encode: DER encoding of the generated CRL</li>
+ * </ul>
+ */
+public class CrlBenchmark extends ClientToolBox {
+
+    private static final String CADN = "CN=CRL Benchmark CA";
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    /** Whether the entries are stored with Java serialization, as before RevokedCertInfoCodec, instead of with the codec */
+    private boolean javaSerialization;
+    private int compressionLevel;
+    /** Time spent adding entries to the collection in the last fetch phase */
+    private long addTime;
+
+    /** Mix of revocation reasons as reason code and weight */
+    private static final String DEFAULT_REASONS = RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED + ":40," + RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE
+            + ":10," + RevokedCertInfo.REVOCATION_REASON_SUPERSEDED + ":30," + RevokedCertInfo.REVOCATION_REASON_CESSATIONOFOPERATION + ":10,"
+            + RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD + ":10";
+
+    @Override
+    protected void execute(final String[] args) {
+        final List<String> argsList = new ArrayList<>(Arrays.asList(args));
+        argsList.remove(getName());
+        if (argsList.isEmpty() || argsList.contains("help")) {
+            printUsage();
+            return;
+        }
+        try {
+            final int entries = Integer.parseInt(argsList.remove(0));
+            final int serialNumberBytes = Integer.parseInt(getOption(argsList, "-serialbytes", "20"));
+            final String reasons = getOption(argsList, "-reasons", DEFAULT_REASONS);
+            final int[] reasonMix = parseReasonMix(reasons);
+            final int invalidityDatePercent = Integer.parseInt(getOption(argsList, "-invalidity", "0"));
+            final String sigAlg = getOption(argsList, "-sigalg", AlgorithmConstants.SIGALG_SHA256_WITH_RSA);
+            final String keySpec = getOption(argsList, "-keyspec", "2048");
+            final int runs = Integer.parseInt(getOption(argsList, "-runs", "1"));
+            final long seed = Long.parseLong(getOption(argsList, "-seed", "1"));
+            final String outFile = getOption(argsList, "-out", null);
+            final String codec = getOption(argsList, "-codec", "binary");
+            compressionLevel = Integer.parseInt(getOption(argsList, "-compression", String.valueOf(CesecoreConfiguration.getDatabaseRevokedCertInfoCompressionLevel())));
+            final boolean delta = argsList.remove("-delta");
+            if (!"binary".equals(codec) && !"java".equals(codec)) {
+                System.err.println("Unknown codec: " + codec);
+                printUsage();
+                return;
+            }
+            javaSerialization = "java".equals(codec);
+            if (!argsList.isEmpty()) {
+                System.err.println("Unknown arguments: " + argsList);
+                printUsage();
+                return;
+            }
+            if (entries < 0 || serialNumberBytes < 1 || serialNumberBytes > 20 || runs < 1 || invalidityDatePercent < 0 || invalidityDatePercent > 100
+                    || compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+                System.err.println("Invalid argument value.");
+                printUsage();
+                return;
+            }
+            CryptoProviderTools.installBCProviderIfNotAvailable();
+            final CryptoToken cryptoToken = createCryptoToken();
+            final X509CA ca = createCa(cryptoToken, sigAlg, keySpec);
+            System.out.println("CRL benchmark: " + entries + " entries, " + serialNumberBytes + " byte serial numbers, reasons " + reasons
+                    + ", " + invalidityDatePercent + "% with invalidity date, " + sigAlg + " " + keySpec + (delta ? ", delta CRL" : "")
+                    + (javaSerialization ? ", Java serialization" : ", binary codec with compression level " + compressionLevel) + ". Max heap "
+                    + toMiB(Runtime.getRuntime().maxMemory()) + " MiB.");
+            byte[] encoded = null;
+            for (int run = 1; run <= runs; run++) {
+                encoded = runOnce(run, ca, cryptoToken, entries, serialNumberBytes, reasonMix, invalidityDatePercent, seed, delta);
+            }
+            if (outFile != null) {
+                try (final OutputStream out = new FileOutputStream(outFile)) {
+                    out.write(encoded);
+                }
+                System.out.println("Wrote CRL to " + outFile);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            printUsage();
+        } catch (Exception e) {
+            System.err.println("CRL benchmark failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private byte[] runOnce(final int run, final X509CA ca, final CryptoToken cryptoToken, final int entries, final int serialNumberBytes, final int[] reasonMix,
+            final int invalidityDatePercent, final long seed, final boolean delta) throws Exception {
+        final HeapTracker heap = new HeapTracker();
+        // Fetch
+        heap.start();
+        long start = System.nanoTime();
+        final Collection<RevokedCertInfo> revokedCertInfos = createRevokedCertInfos(entries, serialNumberBytes, reasonMix, invalidityDatePercent, seed);
+        final long fetchTime = System.nanoTime() - start;
+        final long fetchPeak = heap.peak();
+        // Iterate
+        start = System.nanoTime();
+        int iterated = 0;
+        for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+            if (revokedCertInfo.getReason() != RevokedCertInfo.NOT_REVOKED) {
+                iterated++;
+            }
+        }
+        final long iterateTime = System.nanoTime() - start;
+        // Generate (build, sign and verify)
+        heap.start();
+        start = System.nanoTime();
+        final X509CRLHolder crl;
+        if (delta) {
+            crl = ca.generateDeltaCRL(cryptoToken, CertificateConstants.NO_CRL_PARTITION, revokedCertInfos, 2, 1, null);
+        } else {
+            crl = ca.generateCRL(cryptoToken, CertificateConstants.NO_CRL_PARTITION, revokedCertInfos, 1, null);
+        }
+        final long generateTime = System.nanoTime() - start;
+        final long generatePeak = heap.peak();
+        // Encode
+        heap.start();
+        start = System.nanoTime();
+        final byte[] encoded = crl.getEncoded();
+        final long encodeTime = System.nanoTime() - start;
+        final long encodePeak = heap.peak();
+        // Sign and verify on their own
+        final byte[] tbsCertList = crl.toASN1Structure().getTBSCertList().getEncoded();
+        final PrivateKey privateKey = cryptoToken.getPrivateKey(ca.getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN));
+        start = System.nanoTime();
+        final Signature signature = Signature.getInstance(ca.getCAToken().getSignatureAlgorithm(), BouncyCastleProvider.PROVIDER_NAME);
+        signature.initSign(privateKey);
+        signature.update(tbsCertList);
+        signature.sign();
+        final long signTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        final PublicKey publicKey = ca.getCACertificate().getPublicKey();
+        if (!crl.isSignatureValid(new JcaContentVerifierProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(publicKey))) {
+            throw new IllegalStateException("Generated CRL could not be verified.");
+        }
+        final long verifyTime = System.nanoTime() - start;
+        final long buildTime = Math.max(0, generateTime - signTime - verifyTime);
+
+        System.out.println("Run " + run + ":");
+        System.out.println(String.format("  fetch     %10.1f ms   peak heap %8d MiB   (%d entries)", toMillis(fetchTime), toMiB(fetchPeak), revokedCertInfos.size()));
+        System.out.println(String.format("    add     %10.1f ms   %10.0f entries/s", toMillis(addTime), perSecond(revokedCertInfos.size(), addTime)));
+        System.out.println(String.format("  iterate   %10.1f ms   %10.0f entries/s", toMillis(iterateTime), perSecond(iterated, iterateTime)));
+        System.out.println(String.format("  generate  %10.1f ms   peak heap %8d MiB", toMillis(generateTime), toMiB(generatePeak)));
+        System.out.println(String.format("    build   %10.1f ms   (generate - sign - verify)", toMillis(buildTime)));
+        System.out.println(String.format("    sign    %10.1f ms", toMillis(signTime)));
+        System.out.println(String.format("    verify  %10.1f ms", toMillis(verifyTime)));
+        System.out.println(String.format("  encode    %10.1f ms   peak heap %8d MiB", toMillis(encodeTime), toMiB(encodePeak)));
+        System.out.println(String.format("  total     %10.1f ms   CRL size %d bytes (%d KiB)", toMillis(fetchTime + generateTime + encodeTime), encoded.length,
+                encoded.length / 1024));
+        return encoded;
+    }
+
+    /** @return a collection of synthetic revoked certificates, stored as when they are read from the database */
+    private Collection<RevokedCertInfo> createRevokedCertInfos(final int entries, final int serialNumberBytes, final int[] reasonMix,
+            final int invalidityDatePercent, final long seed) {
+        final Random random = new Random(seed);
+        final long now = System.currentTimeMillis();
+        final CompressedCollection<RevokedCertInfo> revokedCertInfos = javaSerialization ? new CompressedCollection<>(RevokedCertInfo.class)
+                : new CompressedCollection<>(RevokedCertInfoCodec.INSTANCE, compressionLevel);
+        addTime = 0;
+        final byte[] serialNumber = new byte[serialNumberBytes];
+        for (int i = 0; i < entries; i++) {
+            random.nextBytes(serialNumber);
+            // Positive with the full length, as generated by a CA
+            serialNumber[0] = (byte) ((serialNumber[0] & 0x7f) | 0x40);
+            final byte[] fingerprint = String.format("%040x", new BigInteger(1, serialNumber)).substring(0, 40).getBytes();
+            final long revocationDate = now - (long) (random.nextDouble() * 365 * DAY);
+            final long expireDate = now + (long) (random.nextDouble() * 365 * DAY);
+            final int reason = reasonMix[random.nextInt(reasonMix.length)];
+            final Long invalidityDate = random.nextInt(100) < invalidityDatePercent ? Long.valueOf(revocationDate - DAY) : null;
+            final RevokedCertInfo revokedCertInfo = new RevokedCertInfo(fingerprint, serialNumber.clone(), revocationDate, reason, expireDate, invalidityDate);
+            final long start = System.nanoTime();
+            revokedCertInfos.add(revokedCertInfo);
+            addTime += System.nanoTime() - start;
+        }
+        final long start = System.nanoTime();
+        revokedCertInfos.closeForWrite();
+        addTime += System.nanoTime() - start;
+        return revokedCertInfos;
+    }
+
+    /** @return reason codes repeated by their weight, so a random element follows the mix */
+    private static int[] parseReasonMix(final String reasons) {
+        final List<Integer> mix = new ArrayList<>();
+        for (final String reasonAndWeight : reasons.split(",")) {
+            final String[] parts = reasonAndWeight.trim().split(":");
+            final int reason = Integer.parseInt(parts[0].trim());
+            final int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            mix.addAll(Collections.nCopies(weight, reason));
+        }
+        if (mix.isEmpty()) {
+            throw new NumberFormatException("No revocation reasons in '" + reasons + "'");
+        }
+        return mix.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static CryptoToken createCryptoToken() throws Exception {
+        final Properties cryptoTokenProperties = new Properties();
+        cryptoTokenProperties.setProperty(CryptoToken.AUTOACTIVATE_PIN_PROPERTY, "foo123");
+        return CryptoTokenFactory.createCryptoToken(SoftCryptoToken.class.getName(), cryptoTokenProperties, null, 1, "CRL Benchmark");
+    }
+
+    private static X509CA createCa(final CryptoToken cryptoToken, final String sigAlg, final String keySpec) throws Exception {
+        cryptoToken.generateKeyPair(keySpec, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final Properties caTokenProperties = new Properties();
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_CERTSIGN_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_CRLSIGN_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_DEFAULT_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final CAToken caToken = new CAToken(cryptoToken.getId(), caTokenProperties);
+        caToken.setKeySequenceFormat(StringTools.KEY_SEQUENCE_FORMAT_NUMERIC);
+        caToken.setSignatureAlgorithm(sigAlg);
+        caToken.setEncryptionAlgorithm(sigAlg);
+        final X509CAInfo caInfo = X509CAInfo.getDefaultX509CAInfo(CADN, "CrlBenchmark", CAConstants.CA_ACTIVE, CertificateProfileConstants.CERTPROFILE_FIXED_ROOTCA,
+                "3650d", CAInfo.SELFSIGNED, null, caToken);
+        final X509CA ca = (X509CA) CAFactory.INSTANCE.getX509CAImpl(caInfo);
+        if (ca == null) {
+            throw new IllegalStateException("No X509CA implementation found. cesecore-x509ca.jar must be on the class path.");
+        }
+        ca.setCAToken(caToken);
+        final PublicKey publicKey = cryptoToken.getPublicKey(CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final PrivateKey privateKey = cryptoToken.getPrivateKey(CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final X509Certificate caCertificate = CertTools.genSelfCertForPurpose(CADN, 3650L, null, privateKey, publicKey, sigAlg, true,
+                X509KeyUsage.keyCertSign + X509KeyUsage.cRLSign, null, null, BouncyCastleProvider.PROVIDER_NAME);
+        final List<Certificate> caChain = new ArrayList<>();
+        caChain.add(caCertificate);
+        ca.setCertificateChain(caChain);
+        return ca;
+    }
+
+    /**
+     * Tracks the peak heap usage of a phase, from the peak usage of all heap memory pools. This includes the eden and survivor spaces,
+     * which do not support usage thresholds but hold most of the short lived objects of a phase.
+     */
+    private static class HeapTracker {
+        private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+
+        private HeapTracker() {
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    heapPools.add(pool);
+                }
+            }
+        }
+
+        /** Collects garbage and resets the peak usage, so the peak only includes the next phase and what is still referenced */
+        private void start() {
+            System.gc();
+            for (final MemoryPoolMXBean pool : heapPools) {
+                pool.resetPeakUsage();
+            }
+        }
+
+        /** @return the sum of the peak usage of the heap pools since {@link #start()} */
+        private long peak() {
+            long peak = 0;
+            for (final MemoryPoolMXBean pool : heapPools) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+            return peak;
+        }
+    }
+
+    private static String getOption(final List<String> args, final String flag, final String defaultValue) {
+        final int index = args.indexOf(flag);
+        if (index == -1 || index + 1 >= args.size()) {
+            return defaultValue;
+        }
+        final String value = args.remove(index + 1);
+        args.remove(index);
+        return value;
+    }
+
+    private static double toMillis(final long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static double perSecond(final long count, final long nanos) {
+        return nanos == 0 ? 0 : count * 1000000000.0 / nanos;
+    }
+
+    private static long toMiB(final long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    private void printUsage() {
+        System.out.println("Usage: " + getName() + " <number of revoked certificates> [options]");
+        System.out.println("Generates a CRL from synthetic revoked certificates with a soft crypto token, and reports time and peak heap per phase.");
+        System.out.println("Options:");
+        System.out.println("  -serialbytes <n>   Length of the serial numbers in bytes, 1-20. Default: 20");
+        System.out.println("  -reasons <mix>     Revocation reasons and their weights, as reason:weight,... Default: " + DEFAULT_REASONS);
+        System.out.println("  -invalidity <pct>  Percentage of the entries with an invalidity date. Default: 0");
+        System.out.println("  -sigalg <alg>      Signature algorithm of the CA. Default: " + AlgorithmConstants.SIGALG_SHA256_WITH_RSA);
+        System.out.println("  -keyspec <spec>    Key specification of the CA, for example 2048, 4096 or prime256v1. Default: 2048");
+        System.out.println("  -delta             Generate a delta CRL instead of a base CRL");
+        System.out.println("  -codec <codec>     How the entries are stored in memory: binary (RevokedCertInfoCodec) or java (Java serialization). Default: binary");
+        System.out.println("  -compression <n>   Compression level 0-9 of the binary codec. Default: database.crlgencompressionlevel, or 1");
+        System.out.println("  -runs <n>          Number of times to generate the CRL, the first runs warm up the JVM. Default: 1");
+        System.out.println("  -seed <n>          Seed of the synthetic population, for repeatable runs. Default: 1");
+        System.out.println("  -out <file>        Write the (last) generated CRL to a file");
+        System.out.println("Example: " + getName() + " 1000000 -reasons 1:20,4:80 -runs 3");
+        System.out.println("Peak heap is measured per phase, after garbage collection, and includes the entries that are still referenced.");
+        System.out.println("Use -Xmx to find the heap needed for a number of entries.");
+    }
+
+    @Override
+    protected String getName() {
+        return "CrlBenchmark";
+    }
+}
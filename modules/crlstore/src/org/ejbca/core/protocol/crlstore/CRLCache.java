@@ -13,72 +13,149 @@
 
 package org.ejbca.core.protocol.crlstore;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.ca.internal.CaCertificateCache;
 import org.cesecore.certificates.certificate.HashID;
+import org.cesecore.certificates.crl.CRLData;
 import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.ejbca.config.EjbcaConfiguration;
 
 import com.keyfactor.util.CertTools;
 
 /**
- * An implementation of this is managing a cache of CRLs. The implementation should be optimized for quick lookups of CRLs that the 
+ * An implementation of this is managing a cache of CRLs. The implementation should be optimized for quick lookups of CRLs that the
  * VA responder needs to fetch.
- *
+ * <p>
+ * The latest CRL of each CA, CRL partition and type (base or delta) is kept as an immutable {@link CachedCrl}, which is returned
+ * without any database access for {@link EjbcaConfiguration#getCacheCrlStoreTime()} milliseconds. After that, one request checks
+ * the CRL number in the database and reads the CRL again only if it has changed, while concurrent requests for the same CRL are
+ * served the cached one.
+ * <p>
+ * CRLs with a specific CRL number are not cached. They are written from the database entity with {@link CachedCrl#writeTo(OutputStream)},
+ * without being decoded into a byte array first.
  */
 public class CRLCache {
 	private static final Logger log = Logger.getLogger(CRLCache.class);
-	
-    private static CRLCache instance = null;
+
+    private static volatile CRLCache instance = null;
     private static final Lock lock = new ReentrantLock();
-	
+
 	private final CrlStoreSessionLocal crlStoreSession;
 	private final CaCertificateCache certCache;
-	private final Map<Integer, CRLEntity> crls = new HashMap<>();
-	private final Map<Integer, CRLEntity> deltaCrls = new HashMap<>();
-	private class CRLEntity {
-		final CRLInfo crlInfo;
-		final byte[] encoded;
-		/**
-		 * @param crlInfo
-		 * @param encoded
-		 */
-		CRLEntity(CRLInfo crlInfo, byte[] encoded) {
-			super();
-			this.crlInfo = crlInfo;
-			this.encoded = encoded;
-		}
+	/** The latest CRLs. CRLs with a specific CRL number are not cached, since only the latest ones are accessed regularly. */
+	private final ConcurrentMap<CrlKey, CachedCrl> crls = new ConcurrentHashMap<>();
+	/** Reloads in progress, so only one request at a time checks the database for a newer CRL */
+	private final ConcurrentMap<CrlKey, FutureTask<CachedCrl>> reloads = new ConcurrentHashMap<>();
 
-		@Override
-		public boolean equals(Object o) {
-			if (o == this)
-				return true;
-			if (!(o instanceof CRLEntity)) {
-				return false;
-			}
-			CRLEntity crlEntity = (CRLEntity) o;
-			return Objects.equals(crlInfo.getSubjectDN(), crlEntity.crlInfo.getSubjectDN()) && crlInfo.getCrlPartitionIndex() == crlEntity.crlInfo.getCrlPartitionIndex();
-		}
+	/** A CRL, with the CRL number and thisUpdate that identify it in conditional HTTP requests. */
+	public static final class CachedCrl {
+	    private final byte[] encoded;
+	    /** The entity of a CRL that is not cached, or null */
+	    private final CRLData crlData;
+	    private final int crlNumber;
+	    private final long thisUpdate;
+	    /** When the database was last checked for a newer CRL */
+	    private final long lastChecked;
 
-		@Override
-		public int hashCode() {
-			// Ignore CRL number. Always overwrite cache with latest CRL for the partition.
-			return Objects.hash(crlInfo.getSubjectDN(), crlInfo.getCrlPartitionIndex());
-		}
+	    CachedCrl(final byte[] encoded, final int crlNumber, final long thisUpdate, final long lastChecked) {
+	        this.encoded = encoded;
+	        this.crlData = null;
+	        this.crlNumber = crlNumber;
+	        this.thisUpdate = thisUpdate;
+	        this.lastChecked = lastChecked;
+	    }
+
+	    CachedCrl(final CRLData crlData) {
+	        this.encoded = null;
+	        this.crlData = crlData;
+	        this.crlNumber = crlData.getCrlNumber();
+	        this.thisUpdate = crlData.getThisUpdate();
+	        this.lastChecked = System.currentTimeMillis();
+	    }
+
+	    /** @return the DER encoded CRL, which must not be modified */
+	    public byte[] getEncoded() {
+	        return crlData != null ? crlData.getCRLBytes() : encoded;
+	    }
+
+	    /** @return the length of the DER encoded CRL, or -1 if it is not known without decoding the CRL */
+	    public int getLength() {
+	        if (crlData != null) {
+	            return crlData.getCRLLength();
+	        }
+	        return encoded == null ? 0 : encoded.length;
+	    }
+
+	    /**
+	     * Writes the DER encoded CRL to a stream.
+	     *
+	     * @param out the stream to write to, which is not closed
+	     * @throws IOException if the CRL could not be written
+	     */
+	    public void writeTo(final OutputStream out) throws IOException {
+	        if (crlData != null) {
+	            crlData.writeCRL(out);
+	        } else {
+	            out.write(encoded);
+	        }
+	    }
+
+	    public int getCrlNumber() {
+	        return crlNumber;
+	    }
 
+	    /** @return thisUpdate of the CRL in milliseconds since epoch, or -1 if it is not known */
+	    public long getThisUpdate() {
+	        return thisUpdate;
+	    }
+
+	    /** @return true if there is a CRL */
+	    public boolean exists() {
+	        return crlData != null || (encoded != null && encoded.length > 0);
+	    }
+	}
+
+	/** Identifies the latest CRL of a CA and CRL partition. The CRL number is not part of the key, the latest CRL always replaces older ones. */
+	private static final class CrlKey {
+	    private final String issuerDN;
+	    private final int crlPartitionIndex;
+	    private final boolean isDelta;
+
+	    CrlKey(final String issuerDN, final int crlPartitionIndex, final boolean isDelta) {
+	        this.issuerDN = issuerDN;
+	        this.crlPartitionIndex = crlPartitionIndex;
+	        this.isDelta = isDelta;
+	    }
+
+	    @Override
+	    public boolean equals(final Object o) {
+	        if (o == this) {
+	            return true;
+	        }
+	        if (!(o instanceof CrlKey)) {
+	            return false;
+	        }
+	        final CrlKey other = (CrlKey) o;
+	        return issuerDN.equals(other.issuerDN) && crlPartitionIndex == other.crlPartitionIndex && isDelta == other.isDelta;
+	    }
+
+	    @Override
+	    public int hashCode() {
+	        return Objects.hash(issuerDN, crlPartitionIndex, isDelta);
+	    }
 	}
-	/** We need an object to synchronize around when rebuilding and reading the cache. When rebuilding the cache no thread
-	 * can be allowed to read the cache, since the cache will be in an inconsistent state. In the normal case we want to use
-	 * as fast objects as possible (HashMap) for reading fast.
-	 */
-	private final Lock rebuildlock = new ReentrantLock();
 
 	 /**
      * @return  {@link CRLCache} for the CA.
@@ -97,7 +174,7 @@ public class CRLCache {
              lock.unlock();
          }
      }
-	
+
 	/**
 	 * @param crlSession reference to CRLStoreSession
 	 * @param certStore references to needed CA certificates.
@@ -115,7 +192,7 @@ public class CRLCache {
      * @return CRL or null if the CRL does not exist in the cache.
      */
 	public byte[] findBySubjectKeyIdentifier(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
-		return findCRL(certCache.findBySubjectKeyIdentifier(id), crlPartitionIndex, isDelta, crlNumber);
+		return getEncoded(findCrlBySubjectKeyIdentifier(id, crlPartitionIndex, isDelta, crlNumber));
 	}
 
 	/**
@@ -125,55 +202,121 @@ public class CRLCache {
      * @return CRL or null if the CRL does not exist in the cache.
      */
 	public byte[] findByIssuerDN(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
-		return findCRL(certCache.findLatestBySubjectDN(id), crlPartitionIndex, isDelta, crlNumber);
+		return getEncoded(findCrlByIssuerDN(id, crlPartitionIndex, isDelta, crlNumber));
 	}
 
-	private byte[] findCRL(final X509Certificate caCert, final int crlPartitionIndex, final boolean isDelta, final int crlNumber) {
+	/**
+	 * @param id The ID of the subject key identifier.
+	 * @param isDelta true if delta CRL
+	 * @param crlNumber specific crlNumber of the CRL to be retrieved, when not the latest, or -1 for the latest
+	 * @return the CRL, or null if there is no such CRL
+	 */
+	public CachedCrl findCrlBySubjectKeyIdentifier(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
+	    return findCRL(certCache.findBySubjectKeyIdentifier(id), crlPartitionIndex, isDelta, crlNumber);
+	}
+
+	/**
+	 * @param id The ID of the issuer DN.
+	 * @param isDelta true if delta CRL
+	 * @param crlNumber specific crlNumber of the CRL to be retrieved, when not the latest, or -1 for the latest
+	 * @return the CRL, or null if there is no such CRL
+	 */
+	public CachedCrl findCrlByIssuerDN(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
+	    return findCRL(certCache.findLatestBySubjectDN(id), crlPartitionIndex, isDelta, crlNumber);
+	}
+
+	private static byte[] getEncoded(final CachedCrl crl) {
+	    return crl == null ? new byte[0] : crl.getEncoded();
+	}
+
+	private CachedCrl findCRL(final X509Certificate caCert, final int crlPartitionIndex, final boolean isDelta, final int crlNumber) {
 		if ( caCert==null ) {
 			if (log.isDebugEnabled()) {
 				log.debug("No CA certificate, returning null.");
 			}
-			return new byte[0];
+			return null;
 		}
 		final String issuerDN = CertTools.getSubjectDN(caCert);
-		this.rebuildlock.lock();
-		try {
-			final CRLInfo crlInfo = this.crlStoreSession.getLastCRLInfo(issuerDN, crlPartitionIndex, isDelta);
-			if ( crlInfo==null ) {
-				if (log.isDebugEnabled()) {
-					log.debug("No CRL found with issuerDN '"+issuerDN+"', returning null.");
-				}
-				return new byte[0];
-			}
-			final Integer cacheId = new CRLEntity(crlInfo, null).hashCode();
-            final Map<Integer, CRLEntity> usedCrls = isDelta ? this.deltaCrls : this.crls;
-			// If we have not specified a crlNumber we can try to find the latest CRL in the cache
-			if (crlNumber == -1) {
-			    final CRLEntity cachedCRL = usedCrls.get(cacheId);
-			    if ( cachedCRL!=null && !crlInfo.getCreateDate().after(cachedCRL.crlInfo.getCreateDate()) ) {
-			        if (log.isDebugEnabled()) {
-			            log.debug("Retrieved CRL (from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
-			        }
-			        return cachedCRL.encoded;
-			    }
-			}
-			final CRLEntity entry;
-			if (crlNumber > -1) {
-			    if (log.isDebugEnabled()) {
-			        log.debug("Getting CRL with CRL number "+crlNumber);
-			    }
-			    entry = new CRLEntity( crlInfo, this.crlStoreSession.getCRL(issuerDN, crlPartitionIndex, crlNumber) );
-			} else {
-			    entry = new CRLEntity( crlInfo, this.crlStoreSession.getLastCRL(issuerDN, crlPartitionIndex, isDelta) );
-			    // Only cache latest CRLs, these should be the ones accessed regularly, and we don't want to fill the cache with old CRLs
-	            usedCrls.put(cacheId, entry);
-			}
-			if (log.isDebugEnabled()) {
-				log.debug("Retrieved CRL (not from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
-			}
-			return entry.encoded;
-		} finally {
-			this.rebuildlock.unlock();
+		if (crlNumber > -1) {
+		    if (log.isDebugEnabled()) {
+		        log.debug("Getting CRL with CRL number "+crlNumber);
+		    }
+		    final CRLData crlData = crlStoreSession.findByIssuerDNAndCRLNumber(issuerDN, crlPartitionIndex, crlNumber);
+		    return crlData == null ? null : new CachedCrl(crlData);
 		}
+		final CachedCrl crl = getLatestCrl(new CrlKey(issuerDN, crlPartitionIndex, isDelta));
+		if (!crl.exists()) {
+		    if (log.isDebugEnabled()) {
+		        log.debug("No CRL found with issuerDN '"+issuerDN+"', returning null.");
+		    }
+		    return null;
+		}
+		return crl;
+	}
+
+	private CachedCrl getLatestCrl(final CrlKey key) {
+	    final CachedCrl cached = crls.get(key);
+	    if (cached != null && System.currentTimeMillis() - cached.lastChecked < EjbcaConfiguration.getCacheCrlStoreTime()) {
+	        if (log.isDebugEnabled()) {
+	            log.debug("Retrieved CRL (from cache) with issuerDN '" + key.issuerDN + "', with CRL number " + cached.crlNumber + " and partition " + key.crlPartitionIndex);
+	        }
+	        return cached;
+	    }
+	    final FutureTask<CachedCrl> reload = new FutureTask<>(() -> reload(key, cached));
+	    final FutureTask<CachedCrl> ongoingReload = reloads.putIfAbsent(key, reload);
+	    if (ongoingReload == null) {
+	        try {
+	            reload.run();
+	        } finally {
+	            reloads.remove(key, reload);
+	        }
+	        return getReloadResult(reload, cached);
+	    }
+	    if (cached != null) {
+	        // Another request is checking for a newer CRL, use the cached one in the meantime
+	        return cached;
+	    }
+	    return getReloadResult(ongoingReload, null);
+	}
+
+	private CachedCrl getReloadResult(final FutureTask<CachedCrl> reload, final CachedCrl cached) {
+	    try {
+	        return reload.get();
+	    } catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	        if (cached == null) {
+	            throw new IllegalStateException("Interrupted while waiting for CRL.", e);
+	        }
+	        return cached;
+	    } catch (ExecutionException e) {
+	        if (e.getCause() instanceof RuntimeException) {
+	            throw (RuntimeException) e.getCause();
+	        }
+	        throw new IllegalStateException(e.getCause());
+	    }
+	}
+
+	/** Checks the CRL number of the latest CRL in the database, and reads the CRL if it is not the cached one. */
+	private CachedCrl reload(final CrlKey key, final CachedCrl cached) {
+	    final CRLInfo crlInfo = crlStoreSession.getLastCRLInfoLightWeight(key.issuerDN, key.crlPartitionIndex, key.isDelta);
+	    final long now = System.currentTimeMillis();
+	    final CachedCrl crl;
+	    if (crlInfo == null) {
+	        crl = new CachedCrl(null, 0, -1, now);
+	    } else if (cached != null && cached.exists() && cached.crlNumber == crlInfo.getLastCRLNumber()
+	            && cached.thisUpdate == crlInfo.getCreateDate().getTime()) {
+	        crl = new CachedCrl(cached.encoded, cached.crlNumber, cached.thisUpdate, now);
+	        if (log.isDebugEnabled()) {
+	            log.debug("Retrieved CRL (from cache) with issuerDN '" + key.issuerDN + "', with CRL number " + crl.crlNumber + " and partition " + key.crlPartitionIndex);
+	        }
+	    } else {
+	        final byte[] encoded = crlStoreSession.getCRL(key.issuerDN, key.crlPartitionIndex, crlInfo.getLastCRLNumber());
+	        crl = new CachedCrl(encoded, crlInfo.getLastCRLNumber(), crlInfo.getCreateDate().getTime(), now);
+	        if (log.isDebugEnabled()) {
+	            log.debug("Retrieved CRL (not from cache) with issuerDN '" + key.issuerDN + "', with CRL number " + crl.crlNumber + " and partition " + key.crlPartitionIndex);
+	        }
+	    }
+	    crls.put(key, crl);
+	    return crl;
 	}
 }
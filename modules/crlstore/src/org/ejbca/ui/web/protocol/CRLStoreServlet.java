@@ -23,13 +23,13 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.HashID;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
 import org.ejbca.core.protocol.crlstore.CRLCache;
+import org.ejbca.core.protocol.crlstore.CRLCache.CachedCrl;
 import org.ejbca.util.HTMLTools;
 
 import com.keyfactor.util.StringTools;
@@ -40,6 +40,8 @@ import com.keyfactor.util.StringTools;
  * Addition to RFC 4387 is the ability to specify delta CRL with the parameter "delta="
  * Addition to RFC 4387 is the ability to specify download of a specific CRL by crlNumber with the parameter "crlnumber=<number>"
  * Addition to RFC 4387 is the ability to specify a CRL partition number with the parameter "partition=<number>"
+ * Responses have an ETag, derived from the CRL number, and a Last-Modified header with thisUpdate of the CRL, so clients can
+ * use If-None-Match and If-Modified-Since to only download a CRL when there is a new one.
  * 
  * 
  */
@@ -52,6 +54,10 @@ public class CRLStoreServlet extends StoreServletBase {
 	private static final String PARAM_DELTACRL = "delta";
 	private static final String PARAM_CRLNUMBER = "crlnumber";
 	private static final String PARAM_PARTITION = "partition";
+	private static final String HEADER_ETAG = "ETag";
+	private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
 
 	@EJB
 	private CrlStoreSessionLocal crlStoreSession;
@@ -72,8 +78,13 @@ public class CRLStoreServlet extends StoreServletBase {
 	@Override
 	public void iHash(String iHash, HttpServletResponse resp, HttpServletRequest req) throws IOException, ServletException {
 	    final int crlPartitionIndex = getCrlPartitionIndex(req);
-	    final byte[] crlBytes = crlCache.findByIssuerDN(HashID.getFromB64(iHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
-		returnCrl(crlBytes, resp, iHash, crlPartitionIndex, isDelta(req));
+	    final int crlNumber = getCrlNumber(req);
+	    if (isNotModified(req, crlNumber, -1)) {
+	        sendNotModified(resp, crlNumber, -1);
+	        return;
+	    }
+	    final CachedCrl crl = crlCache.findCrlByIssuerDN(HashID.getFromB64(iHash), crlPartitionIndex, isDelta(req), crlNumber);
+		returnCrl(crl, req, resp, iHash, crlPartitionIndex, isDelta(req));
 	}
 
 	@Override
@@ -84,8 +95,13 @@ public class CRLStoreServlet extends StoreServletBase {
 	@Override
 	public void sKIDHash(String sKIDHash, HttpServletResponse resp, HttpServletRequest req, String name) throws IOException, ServletException {
 	    final int crlPartitionIndex = getCrlPartitionIndex(req);
-	    final byte[] crlBytes = crlCache.findBySubjectKeyIdentifier(HashID.getFromB64(sKIDHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
-		returnCrl(crlBytes, resp, name, crlPartitionIndex, isDelta(req));
+	    final int crlNumber = getCrlNumber(req);
+	    if (isNotModified(req, crlNumber, -1)) {
+	        sendNotModified(resp, crlNumber, -1);
+	        return;
+	    }
+	    final CachedCrl crl = crlCache.findCrlBySubjectKeyIdentifier(HashID.getFromB64(sKIDHash), crlPartitionIndex, isDelta(req), crlNumber);
+		returnCrl(crl, req, resp, name, crlPartitionIndex, isDelta(req));
 	}
 
 	@Override
@@ -123,21 +139,84 @@ public class CRLStoreServlet extends StoreServletBase {
         return CertificateConstants.NO_CRL_PARTITION;
     }
 
-	private void returnCrl(final byte[] crl, HttpServletResponse resp, String name, final int crlPartitionIndex, boolean isDelta) throws IOException {
-		if (ArrayUtils.isEmpty(crl)) {
+	/**
+	 * Checks the conditional request headers against a CRL. If-None-Match is compared with the entity tag, which is derived from
+	 * the CRL number since a CRL number identifies one CRL of a CA and CRL partition. If-Modified-Since is compared with thisUpdate,
+	 * and only used if there is no If-None-Match header.
+	 *
+	 * @param crlNumber the CRL number, or -1 if not known
+	 * @param thisUpdate thisUpdate of the CRL in milliseconds since epoch, or -1 if not known
+	 * @return true if the client already has the CRL
+	 */
+	private boolean isNotModified(final HttpServletRequest req, final int crlNumber, final long thisUpdate) {
+	    if (crlNumber < 0) {
+	        return false;
+	    }
+	    final String ifNoneMatch = req.getHeader(HEADER_IF_NONE_MATCH);
+	    if (ifNoneMatch != null) {
+	        final String eTag = getETag(crlNumber);
+	        for (final String entityTag : StringUtils.split(ifNoneMatch, ',')) {
+	            final String trimmed = StringUtils.removeStart(entityTag.trim(), "W/");
+	            if (trimmed.equals("*") || trimmed.equals(eTag)) {
+	                return true;
+	            }
+	        }
+	        return false;
+	    }
+	    if (thisUpdate < 0) {
+	        return false;
+	    }
+	    final long ifModifiedSince;
+	    try {
+	        ifModifiedSince = req.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+	    } catch (IllegalArgumentException e) {
+	        return false;
+	    }
+	    // HTTP dates have a precision of seconds
+	    return ifModifiedSince >= 0 && thisUpdate / 1000 <= ifModifiedSince / 1000;
+	}
+
+	private void sendNotModified(final HttpServletResponse resp, final int crlNumber, final long thisUpdate) {
+	    if (log.isDebugEnabled()) {
+	        log.debug("CRL with CRL number " + crlNumber + " has not been modified.");
+	    }
+	    setValidatorHeaders(resp, crlNumber, thisUpdate);
+	    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+	}
+
+	private void setValidatorHeaders(final HttpServletResponse resp, final int crlNumber, final long thisUpdate) {
+	    resp.setHeader(HEADER_ETAG, getETag(crlNumber));
+	    if (thisUpdate >= 0) {
+	        resp.setDateHeader(HEADER_LAST_MODIFIED, thisUpdate);
+	    }
+	}
+
+	private static String getETag(final int crlNumber) {
+	    return "\"" + crlNumber + "\"";
+	}
+
+	private void returnCrl(final CachedCrl cachedCrl, HttpServletRequest req, HttpServletResponse resp, String name, final int crlPartitionIndex, boolean isDelta) throws IOException {
+		if (cachedCrl == null || !cachedCrl.exists()) {
 		    if (log.isDebugEnabled()) {
 		        log.debug("CRL was not found. Hash=" + name + ", DeltaCRL=" + isDelta + ", Partition=" + crlPartitionIndex);
 		    }
 			resp.sendError(HttpServletResponse.SC_NO_CONTENT, "No CRL with hash: "+HTMLTools.htmlescape(name));
 			return;
 		}
+		if (isNotModified(req, cachedCrl.getCrlNumber(), cachedCrl.getThisUpdate())) {
+		    sendNotModified(resp, cachedCrl.getCrlNumber(), cachedCrl.getThisUpdate());
+		    return;
+		}
+		setValidatorHeaders(resp, cachedCrl.getCrlNumber(), cachedCrl.getThisUpdate());
 		resp.setContentType("application/pkix-crl");
 		resp.setHeader("Content-disposition", "attachment; filename=\"" + 
 		        (isDelta?"delta":"") +
 		        StringTools.stripFilename(name) +
 		        (crlPartitionIndex != CertificateConstants.NO_CRL_PARTITION ? "_partition" + crlPartitionIndex : "") +
 		        ".crl\"");
-		resp.setContentLength(crl.length);
-		resp.getOutputStream().write(crl);
+		if (cachedCrl.getLength() >= 0) {
+		    resp.setContentLength(cachedCrl.getLength());
+		}
+		cachedCrl.writeTo(resp.getOutputStream());
 	}
 }
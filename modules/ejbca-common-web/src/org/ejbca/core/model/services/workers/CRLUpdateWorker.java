@@ -19,7 +19,9 @@ import org.cesecore.certificates.ca.CAConstants;
 import org.cesecore.certificates.ca.CAInfo;
 import org.cesecore.certificates.ca.CaSessionLocal;
 import org.cesecore.certificates.ca.catoken.CATokenConstants;
+import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.keys.token.CryptoTokenManagementSessionLocal;
+import org.ejbca.core.ejb.crl.CrlGenerationResult;
 import org.ejbca.core.ejb.crl.PublishingCrlSessionLocal;
 import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.core.model.services.BaseWorker;
@@ -105,23 +107,28 @@ public class CRLUpdateWorker extends BaseWorker {
         Set<Integer> updatedCas = new HashSet<>();
         Set<Integer> updatedCasDelta = new HashSet<>();
         Set<Integer> caids = new HashSet<>(getAllCAIdsToCheck(caSession, true));
+        final List<CrlGenerationResult> crlResults = new ArrayList<>();
         if (lock(caids)) {
             try {
                 long polltime = getNextInterval();
                 // Use true here so the service works the same as before upgrade from 3.9.0 when this function of
                 // selecting CAs did not exist, no CA = Any CA.
-                updatedCas.addAll(publishingCrlSession.createCRLs(getAdmin(), caids, polltime*1000));
-                updatedCasDelta.addAll(publishingCrlSession.createDeltaCRLs(getAdmin(), caids, polltime*1000));
+                crlResults.addAll(publishingCrlSession.createDueCrls(getAdmin(), caids, polltime*1000, false));
+                updatedCas.addAll(CrlGenerationResult.getCaIdsWithAllCrlsCreated(crlResults));
+                final List<CrlGenerationResult> deltaCrlResults = publishingCrlSession.createDueCrls(getAdmin(), caids, polltime*1000, true);
+                updatedCasDelta.addAll(CrlGenerationResult.getCaIdsWithAllCrlsCreated(deltaCrlResults));
+                crlResults.addAll(deltaCrlResults);
             } catch (AuthorizationDeniedException e) {
                 log.error("Internal authentication token was denied access to importing CRLs or revoking certificates.", e);
             } finally {
                 releaseLock(caids);
             }
+            Map<Integer, String> caNameMap = caSession.getCAIdToNameMap();
             if (updatedCas.isEmpty() && updatedCasDelta.isEmpty()) {
-                return new ServiceExecutionResult(Result.NO_ACTION, "CRL Update Worker " + serviceName + " ran, but no CAs needed updating.");
+                return new ServiceExecutionResult(Result.NO_ACTION, "CRL Update Worker " + serviceName + " ran, but no CAs needed updating."
+                        + constructTimings(crlResults, caNameMap));
             } else {
                 StringBuilder stringBuilder = new StringBuilder("CRL Update Worker " + serviceName + " ran.");
-                Map<Integer, String> caNameMap = caSession.getCAIdToNameMap();
                 if (!updatedCas.isEmpty()) {
                     List<String> caNames = new ArrayList<>();
                     for (int caid : updatedCas) {
@@ -136,6 +143,7 @@ public class CRLUpdateWorker extends BaseWorker {
                     }
                     stringBuilder.append(" The following CA generated new delta CRLs: " + constructNameList(deltaCaNames) + ".");
                 }
+                stringBuilder.append(constructTimings(crlResults, caNameMap));
                 return new ServiceExecutionResult(Result.SUCCESS, stringBuilder.toString());
 
             }
@@ -146,6 +154,34 @@ public class CRLUpdateWorker extends BaseWorker {
         }
 	}
 
+    /**
+     * Describes how long each CRL that needed to be updated took to create, in the order the CRLs were checked.
+     *
+     * @param crlResults results of CRL and delta CRL generation
+     * @param caNameMap map from CA id to CA name
+     * @return a sentence starting with a space, or an empty string if no CRL needed to be updated
+     */
+    private static String constructTimings(final List<CrlGenerationResult> crlResults, final Map<Integer, String> caNameMap) {
+        final List<String> timings = new ArrayList<>();
+        for (final CrlGenerationResult result : crlResults) {
+            if (result.isScheduled()) {
+                final StringBuilder timing = new StringBuilder(result.isDeltaCrl() ? "delta CRL of " : "CRL of ");
+                timing.append(caNameMap.get(result.getCaId()));
+                if (result.getCrlPartitionIndex() != CertificateConstants.NO_CRL_PARTITION) {
+                    timing.append(" partition ").append(result.getCrlPartitionIndex());
+                }
+                timing.append(' ').append(result.getDurationMillis()).append(" ms");
+                if (result.getErrorMessage() != null) {
+                    timing.append(" (failed: ").append(result.getErrorMessage()).append(')');
+                } else if (!result.isCreated()) {
+                    timing.append(" (not created)");
+                }
+                timings.add(timing.toString());
+            }
+        }
+        return timings.isEmpty() ? "" : " CRL generation times: " + String.join(", ", timings) + ".";
+    }
+
     /**
      * Mark a set of CAs for CRL generation.
      *
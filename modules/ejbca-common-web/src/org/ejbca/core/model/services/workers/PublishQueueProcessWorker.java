@@ -30,8 +30,10 @@ import org.ejbca.core.model.services.ServiceExecutionResult.Result;
 import java.util.Map;
 
 /**
- * Class processing the publisher queue. Can only run on instance in one VM on
- * one node. See method docs below for information about algorithms used.
+ * Class processing the publisher queue. Only one instance of each service runs at a time in one VM,
+ * but entries are claimed before they are published, so the service can run on all nodes of a cluster
+ * and on several threads on each node, see publisherqueue.threads in ejbca.properties.
+ * See method docs below for information about algorithms used.
  * 
  */
 public class PublishQueueProcessWorker extends EmailSendingWorker {
@@ -107,7 +109,7 @@ public class PublishQueueProcessWorker extends EmailSendingWorker {
                         int publisherId = Integer.valueOf(ids[i]);
                         // Get everything from the queue for this publisher id
                         BasePublisher publisher = publisherSession.getPublisher(publisherId);
-                        publishingResult.append(publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(getAdmin(), publisher, maxNumberOfEntriesToCheck));
+                        publishingResult.append(publisherQueueSession.publishClaimedChunks(getAdmin(), publisher, maxNumberOfEntriesToCheck));
                     }
                 } else {
                     log.debug("No publisher IDs configured for worker.");
@@ -0,0 +1,190 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.ca.publisher;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.ejbca.config.EjbcaConfiguration;
+import org.ejbca.config.EjbcaConfigurationHolder;
+import org.ejbca.core.model.ca.publisher.LdapPublisher.ConnectionSecurity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPSearchConstraints;
+
+/**
+ * Unit tests for {@link LdapConnectionPool}
+ */
+public class LdapConnectionPoolUnitTest {
+
+    private static final String IDLE_TIMEOUT = "publisher.ldap.pool.idletimeout";
+    private static final LDAPSearchConstraints CONSTRAINTS = new LDAPSearchConstraints();
+
+    private String defaultIdleTimeout;
+
+    @Before
+    public void before() {
+        defaultIdleTimeout = EjbcaConfigurationHolder.getString(IDLE_TIMEOUT);
+    }
+
+    @After
+    public void after() {
+        EjbcaConfigurationHolder.updateConfiguration(IDLE_TIMEOUT, defaultIdleTimeout);
+    }
+
+    @Test
+    public void emptyPool() {
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("empty.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN);
+        assertNull("Empty pool should not return a connection", pool.takeConnection(CONSTRAINTS));
+        assertEquals("empty.example.com:389 (PLAIN, cn=admin): 0 in use, 0 idle, 0 opened, 0 reused, 0 failed health checks, 0 expired", pool.getStatistics());
+    }
+
+    @Test
+    public void samePoolForSameServerAndLogin() {
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("same.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN);
+        assertSame(pool, LdapConnectionPool.getPool("same.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN));
+        assertNotSame("Other login should not share connections", pool,
+                LdapConnectionPool.getPool("same.example.com", 389, "cn=other", "foo123", ConnectionSecurity.PLAIN));
+        assertNotSame("Other password should not share connections", pool,
+                LdapConnectionPool.getPool("same.example.com", 389, "cn=admin", "bar123", ConnectionSecurity.PLAIN));
+    }
+
+    @Test
+    public void reuseReturnedConnection() {
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("reuse.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN);
+        final LDAPConnection connection = createMock(LDAPConnection.class);
+        expect(connection.isConnectionAlive()).andReturn(true).times(2);
+        expect(connection.isBound()).andReturn(true).times(2);
+        replay(connection);
+        pool.connectionOpened();
+        pool.returnConnection(connection);
+        assertSame("Returned connection should be reused", connection, pool.takeConnection(CONSTRAINTS));
+        assertNull("Connection should only be handed out once", pool.takeConnection(CONSTRAINTS));
+        assertEquals("reuse.example.com:389 (PLAIN, cn=admin): 1 in use, 0 idle, 1 opened, 1 reused, 0 failed health checks, 0 expired", pool.getStatistics());
+        verify(connection);
+    }
+
+    @Test
+    public void closeBrokenConnection() throws LDAPException {
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("broken.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN);
+        final LDAPConnection connection = createMock(LDAPConnection.class);
+        expect(connection.isConnectionAlive()).andReturn(false);
+        connection.disconnect();
+        replay(connection);
+        pool.connectionOpened();
+        pool.returnConnection(connection);
+        assertNull("Broken connection should not be kept", pool.takeConnection(CONSTRAINTS));
+        assertEquals("broken.example.com:389 (PLAIN, cn=admin): 0 in use, 0 idle, 1 opened, 0 reused, 0 failed health checks, 0 expired", pool.getStatistics());
+        verify(connection);
+    }
+
+    @Test
+    public void closeConnectionsAboveMaxIdle() throws LDAPException {
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("full.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN);
+        final int maxIdle = EjbcaConfiguration.getLdapPublisherPoolMaxIdle();
+        for (int i = 0; i < maxIdle; i++) {
+            final LDAPConnection connection = createMock(LDAPConnection.class);
+            expect(connection.isConnectionAlive()).andReturn(true);
+            expect(connection.isBound()).andReturn(true);
+            // Idle connections may be closed as expired when other tests create pools
+            connection.disconnect();
+            expectLastCall().anyTimes();
+            replay(connection);
+            pool.connectionOpened();
+            pool.returnConnection(connection);
+        }
+        final LDAPConnection extra = createMock(LDAPConnection.class);
+        expect(extra.isConnectionAlive()).andReturn(true);
+        expect(extra.isBound()).andReturn(true);
+        extra.disconnect();
+        replay(extra);
+        pool.connectionOpened();
+        pool.returnConnection(extra);
+        verify(extra);
+        assertEquals("full.example.com:389 (PLAIN, cn=admin): 0 in use, " + maxIdle + " idle, " + (maxIdle + 1) + " opened, 0 reused, 0 failed health checks, 0 expired",
+                pool.getStatistics());
+    }
+
+    @Test
+    public void closeExpiredConnectionsOnReturn() throws LDAPException {
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("expiry.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN);
+        final LDAPConnection expiring = createMock(LDAPConnection.class);
+        expect(expiring.isConnectionAlive()).andReturn(true);
+        expect(expiring.isBound()).andReturn(true);
+        expiring.disconnect();
+        replay(expiring);
+        pool.connectionOpened();
+        pool.returnConnection(expiring);
+        // Idle connections expire immediately
+        EjbcaConfigurationHolder.updateConfiguration(IDLE_TIMEOUT, "-1");
+        final LDAPConnection returned = createMock(LDAPConnection.class);
+        expect(returned.isConnectionAlive()).andReturn(true);
+        expect(returned.isBound()).andReturn(true);
+        returned.disconnect();
+        expectLastCall().anyTimes();
+        replay(returned);
+        pool.connectionOpened();
+        pool.returnConnection(returned);
+        verify(expiring);
+        assertEquals("expiry.example.com:389 (PLAIN, cn=admin): 0 in use, 1 idle, 2 opened, 0 reused, 0 failed health checks, 1 expired", pool.getStatistics());
+    }
+
+    @Test
+    public void newPoolClosesIdleConnectionsOfSameServer() throws LDAPException {
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("changed.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN);
+        final LDAPConnection connection = createMock(LDAPConnection.class);
+        expect(connection.isConnectionAlive()).andReturn(true);
+        expect(connection.isBound()).andReturn(true);
+        connection.disconnect();
+        replay(connection);
+        pool.connectionOpened();
+        pool.returnConnection(connection);
+        // The password of the publisher was changed
+        LdapConnectionPool.getPool("changed.example.com", 389, "cn=admin", "bar123", ConnectionSecurity.PLAIN);
+        verify(connection);
+        assertEquals("changed.example.com:389 (PLAIN, cn=admin): 0 in use, 0 idle, 1 opened, 0 reused, 0 failed health checks, 0 expired", pool.getStatistics());
+        assertSame("Recently used pool should not be removed", pool,
+                LdapConnectionPool.getPool("changed.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN));
+    }
+
+    @Test
+    public void removeUnusedPool() throws LDAPException {
+        final LdapConnectionPool pool = LdapConnectionPool.getPool("unused.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN);
+        // Pools expire immediately
+        EjbcaConfigurationHolder.updateConfiguration(IDLE_TIMEOUT, "-1");
+        LdapConnectionPool.getPool("new.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN);
+        assertNotSame("Unused pool should have been removed", pool,
+                LdapConnectionPool.getPool("unused.example.com", 389, "cn=admin", "foo123", ConnectionSecurity.PLAIN));
+        final LDAPConnection connection = createMock(LDAPConnection.class);
+        expect(connection.isConnectionAlive()).andReturn(true);
+        expect(connection.isBound()).andReturn(true);
+        connection.disconnect();
+        replay(connection);
+        pool.connectionOpened();
+        pool.returnConnection(connection);
+        verify(connection);
+        assertEquals("Connection returned to a removed pool should be closed",
+                "unused.example.com:389 (PLAIN, cn=admin): 0 in use, 0 idle, 1 opened, 0 reused, 0 failed health checks, 0 expired", pool.getStatistics());
+    }
+}
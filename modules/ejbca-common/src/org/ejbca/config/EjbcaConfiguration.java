@@ -225,6 +225,14 @@ public final class EjbcaConfiguration {
         return time;
     }
     
+    /**
+     * @return how long, in milliseconds, the CRL Store uses the latest CRL of a CA without checking in the database if there is a newer
+     *      one, or 0 or less to check on every request
+     */
+    public static long getCacheCrlStoreTime() {
+        return getLongProperty("crlstore.cachetime", 1000L);
+    }
+
     /**
      * Parameter to specify if retrieving Publishers from PublisherSession should be cached, and in that case for how long.
      */
@@ -302,6 +310,65 @@ public final class EjbcaConfiguration {
         return getBooleanProperty("publish.parallel.enabled", true);
     }
 
+    /** @return the number of threads on each node that publish entries from the queue of a publisher, when the Publish Queue Process Service runs. */
+    public static int getPublisherQueueThreads() {
+        return Math.max(1, getIntProperty("publisherqueue.threads", 1));
+    }
+
+    /** @return the time in milliseconds that a queue worker keeps its claim on a chunk of publisher queue entries, before other workers may take it over. */
+    public static long getPublisherQueueLeaseTime() {
+        return getLongProperty("publisherqueue.leasetime", 600000L);
+    }
+
+    /** @return the time in milliseconds that publishing a chunk of publisher queue entries in one transaction should take, which decides the size of the chunks */
+    public static long getPublisherQueueChunkTime() {
+        return Math.max(1L, getLongProperty("publisherqueue.chunktime", 10000L));
+    }
+
+    /** @return the number of consecutive failures after which certificates are only stored in the queue of a publisher, 0 to always try the publisher */
+    public static int getPublisherCircuitBreakerFailures() {
+        return Math.max(0, getIntProperty("publisher.circuitbreaker.failures", 5));
+    }
+
+    /** @return the time in milliseconds after which a publisher with an open circuit is tried again when a certificate is issued */
+    public static long getPublisherCircuitBreakerRetryTime() {
+        return Math.max(0L, getLongProperty("publisher.circuitbreaker.retrytime", 60000L));
+    }
+
+    /** @return the number of idle connections that are kept for each LDAP server, port, bind DN and connection security used by LDAP publishers, 0 to not keep connections */
+    public static int getLdapPublisherPoolMaxIdle() {
+        return Math.max(0, getIntProperty("publisher.ldap.pool.maxidle", 4));
+    }
+
+    /** @return the time in milliseconds that an idle connection of an LDAP publisher is kept before it is closed */
+    public static long getLdapPublisherPoolIdleTimeout() {
+        return getLongProperty("publisher.ldap.pool.idletimeout", 60000L);
+    }
+
+    /** @return the maximum number of CRLs, of different CAs or CRL partitions, that the CRL Update Worker creates in parallel. */
+    public static int getCrlGenerationThreads() {
+        return getIntProperty("crl.generation.threads", 4);
+    }
+
+    /**
+     * @return the directory where the revoked certificates of the last base CRL of each CA and CRL partition are kept, so the next
+     *      base CRL only needs to read the certificates that have changed since, or null if base CRLs are created from a full listing
+     */
+    public static String getCrlIncrementalDirectory() {
+        final String value = EjbcaConfigurationHolder.getString("crl.incremental.dir");
+        return StringUtils.isBlank(value) ? null : value.trim();
+    }
+
+    /** @return the age in milliseconds after which the revoked certificates of a CA are listed in full again when a base CRL is created */
+    public static long getCrlIncrementalMaxAge() {
+        return getLongProperty("crl.incremental.maxage", 86400000L);
+    }
+
+    /** @return the number of CRL entries that are looked up and stored in each transaction when a CRL is imported */
+    public static int getCrlImportBatchSize() {
+        return getIntProperty("crl.import.batchsize", 1000);
+    }
+
     /** @return true if TCP keep alive should be used for outgoing peer connections. */
     @Deprecated // EJBCA 6.3.0 safety for the new PeerConnector feature. Remove when default is considered stable.
     public static boolean isPeerSoKeepAlive() {
@@ -15,11 +15,15 @@ package org.ejbca.core.model.ca.publisher;
 
 import java.io.Serializable;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.certificates.certificate.Base64CertData;
+import org.cesecore.certificates.certificate.BaseCertificateData;
 import org.cesecore.certificates.certificate.CertificateData;
+import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.endentity.ExtendedInformation;
 import org.cesecore.internal.UpgradeableDataHashMap;
 import org.cesecore.oscp.OcspResponseData;
@@ -33,11 +37,15 @@ import org.cesecore.util.ExternalScriptsAllowlist;
  *
  * @version $Id$
  */
-public abstract class BasePublisher extends UpgradeableDataHashMap implements Serializable, Cloneable, FullEntityPublisher {    
+public abstract class BasePublisher extends UpgradeableDataHashMap implements Serializable, Cloneable, FullEntityPublisher, BatchPublisher {    
 
     private static final long serialVersionUID = -735659148394853025L;
     public static final String TRUE  = "true";
     public static final String FALSE = "false";
+
+    /** Number of failures without any success after which the default {@link #storeCertificates} gives up on the rest of the items */
+    private static final int MAX_FAILURES_WITHOUT_SUCCESS = 10;
+    private static final String TIMEOUT_MESSAGE_INDICATOR = "timed out";
     
     public static final int PUBLISHER_BASE_VERSION = 1;
     public static final int CERTDATA_CAPABLE_PUBLISHER = 2; //Since 6.3.0
@@ -252,6 +260,70 @@ public abstract class BasePublisher extends UpgradeableDataHashMap implements Se
         return false;
     }
 
+    /**
+     * Publishes a certificate with the full database objects if {@link #isFullEntityPublishingSupported()}, and with the
+     * legacy storeCertificate method otherwise.
+     *
+     * @return true if storage was successful.
+     * @throws PublisherException if a communication or other error occurs.
+     */
+    public boolean storeCertificate(final AuthenticationToken authenticationToken, final CertificatePublishingItem item) throws PublisherException {
+        final CertificateDataWrapper certWrapper = item.getCertificateDataWrapper();
+        if (isFullEntityPublishingSupported()) {
+            return storeCertificate(authenticationToken, certWrapper.getCertificateDataOrCopy(), certWrapper.getBase64CertData(), item.getPassword(),
+                    item.getUserDN(), item.getExtendedInformation());
+        } else {
+            final BaseCertificateData certificateData = certWrapper.getBaseCertificateData();
+            final ExtendedInformation extendedinformation = item.getExtendedInformation();
+            // ECA-9491 Tmp. until refactored.
+            if (extendedinformation != null) {
+                extendedinformation.setAccountBindingId(certificateData.getAccountBindingId());
+            }
+            return storeCertificate(authenticationToken, certWrapper.getCertificate(), certificateData.getUsername(), item.getPassword(), item.getUserDN(),
+                    certificateData.getCaFingerprint(), certificateData.getStatus(), certificateData.getType(), certificateData.getRevocationDate(),
+                    certificateData.getRevocationReason(), certificateData.getTag(), certificateData.getCertificateProfileId(),
+                    certificateData.getUpdateTime(), extendedinformation);
+        }
+    }
+
+    /**
+     * Publishes the certificates one at a time with {@link #storeCertificate(AuthenticationToken, CertificatePublishingItem)}. The remaining
+     * items are not attempted after a connection timeout, or if the first ten items fail.
+     */
+    @Override
+    public List<Object> storeCertificates(final AuthenticationToken authenticationToken, final List<CertificatePublishingItem> items) {
+        final List<Object> results = new ArrayList<>(items.size());
+        int successes = 0;
+        int failures = 0;
+        boolean giveUp = false;
+        for (final CertificatePublishingItem item : items) {
+            if (giveUp) {
+                results.add(null);
+                continue;
+            }
+            try {
+                if (storeCertificate(authenticationToken, item)) {
+                    results.add(Boolean.TRUE);
+                    successes++;
+                } else {
+                    results.add(new PublisherException("Return code from publisher is false."));
+                    failures++;
+                }
+            } catch (PublisherException e) {
+                results.add(e);
+                failures++;
+                giveUp = e.getMessage() != null && e.getMessage().contains(TIMEOUT_MESSAGE_INDICATOR);
+            }
+            giveUp |= successes == 0 && failures >= MAX_FAILURES_WITHOUT_SUCCESS;
+        }
+        return results;
+    }
+
+    @Override
+    public boolean isBatchPublishingSupported() {
+        return false;
+    }
+
     /**
      * Returns true if the publisher calls external scripts, in which case setScriptWhiteList will be called to set a whitelist of allowed scripts.
      * 
@@ -0,0 +1,38 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.ca.publisher;
+
+import java.util.List;
+
+import org.cesecore.authentication.tokens.AuthenticationToken;
+
+/**
+ * Publishers that implements this interface can publish several certificates in one call, for example over one connection,
+ * when the publisher queue is processed. Custom publishers implement it to be called with a chunk of the queue at a time.
+ */
+public interface BatchPublisher {
+
+    /**
+     * Publishes several certificates. A failure to publish one certificate should not stop the others from being published,
+     * unless the publisher can tell that the rest will fail too.
+     *
+     * @param authenticationToken the administrator publishing the certificates, it's up to the publisher to decide if authorization is needed or not
+     * @param items the certificates to publish
+     * @return one result for each item, in the same order. Each result is either Boolean.TRUE if the certificate was published,
+     *      a PublisherException if publishing failed, or null if the certificate was not attempted and should be published later.
+     */
+    List<Object> storeCertificates(AuthenticationToken authenticationToken, List<CertificatePublishingItem> items);
+
+    /** @return true if this publisher implements {@link #storeCertificates} better than by publishing one certificate at a time */
+    boolean isBatchPublishingSupported();
+}
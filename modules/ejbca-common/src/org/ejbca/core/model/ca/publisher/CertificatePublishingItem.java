@@ -0,0 +1,58 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.ca.publisher;
+
+import org.cesecore.certificates.certificate.CertificateDataWrapper;
+import org.cesecore.certificates.endentity.ExtendedInformation;
+
+/**
+ * A certificate to publish with {@link BatchPublisher#storeCertificates}, together with the end entity data that is only
+ * available when the certificate is issued or kept in the publisher queue.
+ */
+public final class CertificatePublishingItem {
+
+    private final CertificateDataWrapper certificateDataWrapper;
+    private final String password;
+    private final String userDN;
+    private final ExtendedInformation extendedInformation;
+
+    /**
+     * @param certificateDataWrapper the certificate and its database row
+     * @param password password given to the user, may be null
+     * @param userDN DN to use if it can not be found in the certificate, may be null
+     * @param extendedInformation extended information about the user, may be null
+     */
+    public CertificatePublishingItem(final CertificateDataWrapper certificateDataWrapper, final String password, final String userDN,
+            final ExtendedInformation extendedInformation) {
+        this.certificateDataWrapper = certificateDataWrapper;
+        this.password = password;
+        this.userDN = userDN;
+        this.extendedInformation = extendedInformation;
+    }
+
+    public CertificateDataWrapper getCertificateDataWrapper() {
+        return certificateDataWrapper;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getUserDN() {
+        return userDN;
+    }
+
+    public ExtendedInformation getExtendedInformation() {
+        return extendedInformation;
+    }
+}
@@ -278,6 +278,21 @@ public class CustomPublisherContainer extends BasePublisher {
         }
     }
 
+    @Override
+    public boolean isBatchPublishingSupported() {
+        return getCustomPublisher() instanceof BatchPublisher
+                && ((BatchPublisher) getCustomPublisher()).isBatchPublishingSupported();
+    }
+
+    @Override
+    public List<Object> storeCertificates(final AuthenticationToken authenticationToken, final List<CertificatePublishingItem> items) {
+        if (isBatchPublishingSupported()) {
+            return ((BatchPublisher) getCustomPublisher()).storeCertificates(authenticationToken, items);
+        } else {
+            return super.storeCertificates(authenticationToken, items);
+        }
+    }
+
 	/**
 	 * @see org.ejbca.core.model.ca.publisher.BasePublisher
 	 */
@@ -0,0 +1,318 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.ca.publisher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.ejbca.config.EjbcaConfiguration;
+import org.ejbca.core.model.ca.publisher.LdapPublisher.ConnectionSecurity;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPSearchConstraints;
+
+/**
+ * Connected and bound LDAP connections that the LDAP publishers keep between operations, so that each certificate or CRL does not
+ * need a new TCP connection, TLS handshake and bind. There is one pool for each server, port, bind DN and connection security,
+ * which is shared by all publishers with the same settings, since publisher objects are created again each time they are read
+ * from the database.
+ * <p>
+ * Idle connections are closed when they have not been used for the time configured with publisher.ldap.pool.idletimeout, and
+ * are checked before they are used again. The number of idle connections of a pool is limited by publisher.ldap.pool.maxidle.
+ * Expired connections are closed when a connection is taken from or returned to the pool, and in all pools when a new pool is
+ * created. A new pool also closes the idle connections of the other pools of the same server, since it usually means that the
+ * login of a publisher has been changed, and removes the pools that have not been used for the idle timeout.
+ */
+public final class LdapConnectionPool {
+
+    private static final Logger log = Logger.getLogger(LdapConnectionPool.class);
+
+    /** Connections that have been idle for longer than this are checked with a read of the root DSE before they are used again */
+    private static final long HEALTH_CHECK_IDLE_TIME = 10000L;
+
+    private static final ConcurrentMap<PoolKey, LdapConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private final String name;
+    /** Idle connections, the most recently used last. Access synchronized on the deque. */
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    /** Set when the pool has been removed, after which returned connections are closed. Access synchronized on idleConnections. */
+    private boolean removed = false;
+    private volatile long lastUsed = System.currentTimeMillis();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong failedHealthChecks = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private LdapConnectionPool(final String name) {
+        this.name = name;
+    }
+
+    /** @return the pool of connections with the given settings, which is created if it does not exist */
+    public static LdapConnectionPool getPool(final String server, final int port, final String loginDN, final String loginPassword,
+            final ConnectionSecurity connectionSecurity) {
+        final PoolKey key = new PoolKey(server, port, loginDN, loginPassword, connectionSecurity);
+        final LdapConnectionPool pool = pools.get(key);
+        if (pool != null) {
+            return pool;
+        }
+        final LdapConnectionPool newPool = new LdapConnectionPool(server + ":" + port + " (" + connectionSecurity + ", " + loginDN + ")");
+        final LdapConnectionPool existingPool = pools.putIfAbsent(key, newPool);
+        if (existingPool != null) {
+            return existingPool;
+        }
+        removeUnusedPools(key);
+        return newPool;
+    }
+
+    /** @return the pools that have been used with the given settings, in the order of the servers */
+    public static List<LdapConnectionPool> getPools(final List<String> servers, final int port, final String loginDN, final String loginPassword,
+            final ConnectionSecurity connectionSecurity) {
+        final List<LdapConnectionPool> ret = new ArrayList<>();
+        for (final String server : servers) {
+            final LdapConnectionPool pool = pools.get(new PoolKey(server, port, loginDN, loginPassword, connectionSecurity));
+            if (pool != null) {
+                ret.add(pool);
+            }
+        }
+        return ret;
+    }
+
+    /** Closes the idle connections of all pools. Connections in use are closed when they are returned. */
+    public static void closeIdleConnections() {
+        for (final LdapConnectionPool pool : pools.values()) {
+            for (final IdleConnection idleConnection : pool.removeIdleConnections(Long.MAX_VALUE)) {
+                disconnect(idleConnection.connection);
+            }
+        }
+    }
+
+    /**
+     * Closes the expired idle connections of all pools, and the idle connections of the other pools of the same server as a new pool.
+     * Pools without connections that have not been used for the idle timeout are removed.
+     */
+    private static void removeUnusedPools(final PoolKey newKey) {
+        final long now = System.currentTimeMillis();
+        final long lastUsedBefore = now - EjbcaConfiguration.getLdapPublisherPoolIdleTimeout();
+        for (final Iterator<Map.Entry<PoolKey, LdapConnectionPool>> iterator = pools.entrySet().iterator(); iterator.hasNext();) {
+            final Map.Entry<PoolKey, LdapConnectionPool> entry = iterator.next();
+            final LdapConnectionPool pool = entry.getValue();
+            if (entry.getKey().equals(newKey)) {
+                continue;
+            }
+            if (entry.getKey().isSameServer(newKey)) {
+                for (final IdleConnection idleConnection : pool.removeIdleConnections(Long.MAX_VALUE)) {
+                    disconnect(idleConnection.connection);
+                }
+            } else {
+                pool.closeExpiredConnections(now);
+            }
+            if (pool.markRemovedIfUnused(lastUsedBefore)) {
+                iterator.remove();
+                if (log.isDebugEnabled()) {
+                    log.debug("Removed unused LDAP connection pool " + pool.getStatistics());
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes an idle connection from the pool. Connections that have expired, have been closed by the server or fail the health check
+     * are closed instead of returned.
+     *
+     * @param healthCheckConstraints constraints for the read of the root DSE that checks connections that have been idle for a while
+     * @return a connected and bound connection, or null if there is no usable idle connection and a new one must be opened
+     */
+    public LDAPConnection takeConnection(final LDAPSearchConstraints healthCheckConstraints) {
+        final long now = System.currentTimeMillis();
+        lastUsed = now;
+        closeExpiredConnections(now);
+        while (true) {
+            final IdleConnection idleConnection;
+            synchronized (idleConnections) {
+                idleConnection = idleConnections.pollLast();
+            }
+            if (idleConnection == null) {
+                return null;
+            }
+            if (isHealthy(idleConnection, now, healthCheckConstraints)) {
+                reused.incrementAndGet();
+                inUse.incrementAndGet();
+                return idleConnection.connection;
+            }
+            failedHealthChecks.incrementAndGet();
+            disconnect(idleConnection.connection);
+        }
+    }
+
+    /** Counts a connection that has been opened and bound by the caller, and will be returned with {@link #returnConnection}. */
+    public void connectionOpened() {
+        lastUsed = System.currentTimeMillis();
+        opened.incrementAndGet();
+        inUse.incrementAndGet();
+    }
+
+    /**
+     * Returns a connection after use. It is kept for the next operation if it is still connected and bound, and the pool is not full,
+     * and closed otherwise. Idle connections that have expired are closed.
+     */
+    public void returnConnection(final LDAPConnection connection) {
+        final long now = System.currentTimeMillis();
+        lastUsed = now;
+        inUse.decrementAndGet();
+        closeExpiredConnections(now);
+        if (connection.isConnectionAlive() && connection.isBound()) {
+            synchronized (idleConnections) {
+                if (!removed && idleConnections.size() < EjbcaConfiguration.getLdapPublisherPoolMaxIdle()) {
+                    idleConnections.addLast(new IdleConnection(connection, now));
+                    return;
+                }
+            }
+        }
+        disconnect(connection);
+    }
+
+    /** @return a one line summary of the connections of this pool, for example for the admin GUI */
+    public String getStatistics() {
+        final int idle;
+        synchronized (idleConnections) {
+            idle = idleConnections.size();
+        }
+        return name + ": " + inUse.get() + " in use, " + idle + " idle, " + opened.get() + " opened, " + reused.get() + " reused, "
+                + failedHealthChecks.get() + " failed health checks, " + expired.get() + " expired";
+    }
+
+    @Override
+    public String toString() {
+        return getStatistics();
+    }
+
+    /** Closes the idle connections that have not been used for the idle timeout. */
+    private void closeExpiredConnections(final long now) {
+        for (final IdleConnection idleConnection : removeIdleConnections(now - EjbcaConfiguration.getLdapPublisherPoolIdleTimeout())) {
+            expired.incrementAndGet();
+            disconnect(idleConnection.connection);
+        }
+    }
+
+    /** @return true if the pool has no connections and was last used before the given time, in which case it is marked as removed */
+    private boolean markRemovedIfUnused(final long lastUsedBefore) {
+        synchronized (idleConnections) {
+            if (inUse.get() <= 0 && idleConnections.isEmpty() && lastUsed < lastUsedBefore) {
+                removed = true;
+            }
+            return removed;
+        }
+    }
+
+    /** Removes the idle connections that were last used before the given time. */
+    private List<IdleConnection> removeIdleConnections(final long lastUsedBefore) {
+        final List<IdleConnection> ret = new ArrayList<>();
+        synchronized (idleConnections) {
+            for (final Iterator<IdleConnection> iterator = idleConnections.iterator(); iterator.hasNext();) {
+                final IdleConnection idleConnection = iterator.next();
+                if (idleConnection.lastUsed < lastUsedBefore) {
+                    iterator.remove();
+                    ret.add(idleConnection);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private boolean isHealthy(final IdleConnection idleConnection, final long now, final LDAPSearchConstraints healthCheckConstraints) {
+        final LDAPConnection connection = idleConnection.connection;
+        if (!connection.isConnectionAlive() || !connection.isBound()) {
+            return false;
+        }
+        if (now - idleConnection.lastUsed > HEALTH_CHECK_IDLE_TIME) {
+            try {
+                connection.read("", new String[] { LDAPConnection.NO_ATTRS }, healthCheckConstraints);
+            } catch (LDAPException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Idle connection to " + name + " failed health check: " + e.getMessage());
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void disconnect(final LDAPConnection connection) {
+        try {
+            connection.disconnect();
+        } catch (LDAPException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to disconnect from LDAP server: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class IdleConnection {
+        private final LDAPConnection connection;
+        private final long lastUsed;
+
+        private IdleConnection(final LDAPConnection connection, final long lastUsed) {
+            this.connection = connection;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static final class PoolKey {
+        private final String server;
+        private final int port;
+        private final String loginDN;
+        private final String loginPassword;
+        private final ConnectionSecurity connectionSecurity;
+
+        private PoolKey(final String server, final int port, final String loginDN, final String loginPassword, final ConnectionSecurity connectionSecurity) {
+            this.server = server;
+            this.port = port;
+            this.loginDN = loginDN;
+            // Connections bound with an old password are not reused after the password of the publisher has been changed
+            this.loginPassword = loginPassword;
+            this.connectionSecurity = connectionSecurity;
+        }
+
+        /** @return true if the other key is for the same server, port and connection security, but possibly another login */
+        private boolean isSameServer(final PoolKey other) {
+            return port == other.port && Objects.equals(server, other.server) && connectionSecurity == other.connectionSecurity;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof PoolKey)) {
+                return false;
+            }
+            final PoolKey other = (PoolKey) o;
+            return port == other.port && Objects.equals(server, other.server) && Objects.equals(loginDN, other.loginDN)
+                    && Objects.equals(loginPassword, other.loginPassword) && connectionSecurity == other.connectionSecurity;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(server, port, loginDN, connectionSecurity);
+        }
+    }
+}
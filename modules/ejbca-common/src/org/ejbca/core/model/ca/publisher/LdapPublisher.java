@@ -196,7 +196,6 @@ public class LdapPublisher extends BasePublisher {
         } else if (status == CertificateConstants.CERT_ACTIVE) {
             // Don't publish non-active certificates
     		int ldapVersion = LDAPConnection.LDAP_V3;
-    		LDAPConnection lc = createLdapConnection();
 
     		final String dn;
     		final String certdn;
@@ -223,7 +222,7 @@ public class LdapPublisher extends BasePublisher {
     		// To work well with the LdapSearchPublisher we need to pass the full certificate DN to the 
     		// search function, and not only the LDAP DN. The regular publisher should only use the LDAP DN though, 
     		// but the searchOldEntity function will take care of that.
-    		LDAPEntry oldEntry = searchOldEntity(username, ldapVersion, lc, certdn, userDN, email);
+    		LDAPEntry oldEntry = searchOldEntity(username, ldapVersion, certdn, userDN, email);
 
     		// PART 2: Create LDAP entry
     		LDAPEntry newEntry = null;
@@ -316,18 +315,9 @@ public class LdapPublisher extends BasePublisher {
     		do {
     			connectionFailed = false;
     			String currentServer = servers.next();
+    			LDAPConnection lc = null;
     			try {
-    				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-    				lc.connect(currentServer, Integer.parseInt(getPort()));
-    				// Execute a STARTTLS handshake if it was requested.
-    				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("STARTTLS to LDAP server "+currentServer);
-                        }
-    				    lc.startTLS();
-    				}
-    				// authenticate to the server
-    				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);            
+    				lc = getConnection(currentServer, ldapVersion);
     				// Add or modify the entry
     				if (oldEntry != null && getModifyExistingUsers()) {
     					LDAPModification[] mods = new LDAPModification[modSet.size()]; 
@@ -387,13 +377,7 @@ public class LdapPublisher extends BasePublisher {
     				log.error(msg, e);
     				throw new PublisherException(msg);            
     			} finally {
-    				// disconnect with the server
-    				try {
-    					lc.disconnect(ldapDisconnectConstraints);
-    				} catch (LDAPException e) {
-    					String msg = intres.getLocalizedMessage("publisher.errordisconnect", getLoginPassword());
-    					log.error(msg, e);
-    				}
+    				releaseConnection(currentServer, lc);
     			}
     		} while (connectionFailed && servers.hasNext()) ;
         } else {
@@ -498,10 +482,8 @@ public class LdapPublisher extends BasePublisher {
 			throw new PublisherException(msg);            
 		}
 
-		LDAPConnection lc = createLdapConnection();
-
 		// Check if the entry is already present, we will update it with the new CRL.
-		LDAPEntry oldEntry = searchOldEntity(null, ldapVersion, lc, crldn, userDN, null);
+		LDAPEntry oldEntry = searchOldEntity(null, ldapVersion, crldn, userDN, null);
 
 		LDAPEntry newEntry = null;
 		ArrayList<LDAPModification> modSet = new ArrayList<LDAPModification>();
@@ -542,19 +524,9 @@ public class LdapPublisher extends BasePublisher {
 		do {
 			connectionFailed = false;
 			String currentServer = servers.next();
+			LDAPConnection lc = null;
 			try {
-				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-				// connect to the server
-				lc.connect(currentServer, Integer.parseInt(getPort()));
-				// Execute a STARTTLS handshake if it was requested.
-				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("STARTTLS to LDAP server "+currentServer);
-                    }
-					lc.startTLS();
-				}
-				// authenticate to the server
-				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);
+				lc = getConnection(currentServer, ldapVersion);
 				// Add or modify the entry
 				if (oldEntry != null) {
 					LDAPModification[] mods = new LDAPModification[modSet.size()]; 
@@ -583,13 +555,7 @@ public class LdapPublisher extends BasePublisher {
 				log.error(msg, e);
 				throw new PublisherException(msg);            
 			} finally {
-				// disconnect with the server
-				try {
-					lc.disconnect(ldapDisconnectConstraints);
-				} catch (LDAPException e) {
-					String msg = intres.getLocalizedMessage("publisher.errordisconnect");
-					log.error(msg, e);
-				}
+				releaseConnection(currentServer, lc);
 			}
 		} while (connectionFailed && servers.hasNext()) ;
 		if (log.isTraceEnabled()) {
@@ -631,7 +597,6 @@ public class LdapPublisher extends BasePublisher {
 		}
 
 		int ldapVersion = LDAPConnection.LDAP_V3;
-		LDAPConnection lc = createLdapConnection();
 
 		final String dn;
 		final String certdn;
@@ -654,7 +619,7 @@ public class LdapPublisher extends BasePublisher {
 		ArrayList<LDAPModification> modSet = null;
 
 		if (!CertTools.isCA(cert)) {
-			oldEntry = searchOldEntity(username, ldapVersion, lc, certdn, userDN, email);
+			oldEntry = searchOldEntity(username, ldapVersion, certdn, userDN, email);
 			if (log.isDebugEnabled()) {
 				log.debug("Removing end user certificate from first available server of " + getHostnames());
 			}
@@ -692,21 +657,12 @@ public class LdapPublisher extends BasePublisher {
 		while ( oldEntry!=null && isConnectionNotDone && servers.hasNext()) {
 			isConnectionNotDone = false;
 			String currentServer = servers.next(); 
+			LDAPConnection lc = null;
 			if (log.isDebugEnabled()) {
 				log.debug("currentServer: "+currentServer);
 			}
 			try {
-				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-				lc.connect(currentServer, Integer.parseInt(getPort()));
-				// Execute a STARTTLS handshake if it was requested.
-				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("STARTTLS to LDAP server "+currentServer);
-                    }
-					lc.startTLS();
-				}
-				// authenticate to the server
-				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);            
+				lc = getConnection(currentServer, ldapVersion);
 				// Add or modify the entry
 				if (modSet != null && getModifyExistingUsers()) {
 					if (removecert) {
@@ -743,13 +699,7 @@ public class LdapPublisher extends BasePublisher {
 				log.error(msg, e);
 				throw new PublisherException(msg);            
 			} finally {
-				// disconnect with the server
-				try {
-					lc.disconnect(ldapDisconnectConstraints);
-				} catch (LDAPException e) {
-					String msg = intres.getLocalizedMessage("publisher.errordisconnect");
-					log.error(msg, e);
-				}
+				releaseConnection(currentServer, lc);
 			}
 		}
 		if (log.isTraceEnabled()) {
@@ -762,7 +712,7 @@ public class LdapPublisher extends BasePublisher {
 	 *  
 	 *  @param dn the DN from the certificate, can be used to extract search information or a LDAP DN
 	 */
-	protected LDAPEntry searchOldEntity(String username, int ldapVersion, LDAPConnection lc, String certDN, String userDN, String email) throws PublisherException {
+	protected LDAPEntry searchOldEntity(String username, int ldapVersion, String certDN, String userDN, String email) throws PublisherException {
 		LDAPEntry oldEntry = null; // return value
 		// Try all the listed servers
 		final Iterator<String> servers = getHostnameList().iterator();
@@ -770,23 +720,13 @@ public class LdapPublisher extends BasePublisher {
 		do {
 			connectionFailed = false;
 			final String currentServer = servers.next();
+			LDAPConnection lc = null;
 			if (log.isDebugEnabled()) {
 				log.debug("Current server is: "+currentServer);
 			}
 			final String ldapdn = constructLDAPDN(certDN, userDN);
 			try {
-				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-				// connect to the server
-				lc.connect(currentServer, Integer.parseInt(getPort()));
-				// Execute a STARTTLS handshake if it was requested.
-				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("STARTTLS to LDAP server "+currentServer);
-                    }
-					lc.startTLS();
-				}
-				// authenticate to the server
-				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);
+				lc = getConnection(currentServer, ldapVersion);
 				// try to read the old object
 				if (log.isDebugEnabled()) {
 					log.debug("Searching for old entry with DN '" + LogRedactionUtils.getSubjectDnLogSafe(ldapdn) +"'");
@@ -818,13 +758,7 @@ public class LdapPublisher extends BasePublisher {
 				String msg = intres.getLocalizedMessage("publisher.errorpassword", getLoginPassword());
 				throw new PublisherException(msg);            
 			} finally {
-				// disconnect with the server
-				try {
-					lc.disconnect(ldapDisconnectConstraints);
-				} catch (LDAPException e) {
-					String msg = intres.getLocalizedMessage("publisher.errordisconnect");
-					log.error(msg, e);
-				}
+				releaseConnection(currentServer, lc);
 			}
 		} while (connectionFailed && servers.hasNext()) ;
 		return oldEntry;
@@ -835,27 +769,16 @@ public class LdapPublisher extends BasePublisher {
 	 */    
 	public void testConnection() throws PublisherConnectionException {
 		int ldapVersion = LDAPConnection.LDAP_V3;
-		LDAPConnection lc = createLdapConnection();
 		// Try all the listed servers
 		Iterator<String> servers = getHostnameList().iterator();
 		boolean connectionFailed;
 		do {
 			connectionFailed = false;
 			String currentServer = servers.next();
+			LDAPConnection lc = null;
 			LDAPEntry entry = null;
 			try {
-				TCPTool.probeConnectionLDAP(currentServer, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
-				// connect to the server
-				lc.connect(currentServer, Integer.parseInt(getPort()));
-				// Execute a STARTTLS handshake if it was requested.
-				if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("STARTTLS to LDAP server "+currentServer);
-                    }
-					lc.startTLS();
-				}
-				// authenticate to the server
-				lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);
+				lc = openConnection(currentServer, ldapVersion);
 				// try to read the base object
 				String baseDN = getBaseDN();
 				if (log.isDebugEnabled()) {
@@ -883,25 +806,96 @@ public class LdapPublisher extends BasePublisher {
 				log.error(msg, e);
 				throw new PublisherConnectionException(msg);            
 			} finally {
-				// disconnect with the server
-				try {
-					lc.disconnect(ldapDisconnectConstraints);
-				} catch (LDAPException e) {
-					String msg = intres.getLocalizedMessage("publisher.errordisconnect");
-					log.error(msg, e);
-				}
+				releaseConnection(currentServer, lc);
 			}
 		} while (connectionFailed && servers.hasNext()) ;
+		for (final String statistics : getConnectionPoolStatistics()) {
+			log.info("LDAP connection pool " + statistics);
+		}
 	} 
 
-	protected LDAPConnection createLdapConnection() {
-		// Set timeouts
+	/**
+	 * Gets a connected and bound connection to a server. An idle connection from the connection pool is used if there is one
+	 * that passes the health check, and a new connection is opened otherwise. The connection must be given back with
+	 * {@link #releaseConnection(String, LDAPConnection)}.
+	 */
+	protected LDAPConnection getConnection(final String server, final int ldapVersion) throws LDAPException, UnsupportedEncodingException {
+		setConstraintTimeLimits();
+		final LDAPConnection lc = getConnectionPool(server).takeConnection(ldapSearchConstraints);
+		if (lc != null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Reusing connection to LDAP server " + server);
+			}
+			return lc;
+		}
+		return openConnection(server, ldapVersion);
+	}
+
+	/** Opens and binds a new connection to a server, which is kept in the connection pool when it is released. */
+	protected LDAPConnection openConnection(final String server, final int ldapVersion) throws LDAPException, UnsupportedEncodingException {
+		TCPTool.probeConnectionLDAP(server, Integer.parseInt(getPort()), getConnectionTimeOut());	// Avoid waiting for halfdead-servers
+		final LDAPConnection lc = createLdapConnection();
+		try {
+			// connect to the server
+			lc.connect(server, Integer.parseInt(getPort()));
+			// Execute a STARTTLS handshake if it was requested.
+			if (getConnectionSecurity() == ConnectionSecurity.STARTTLS) {
+				if (log.isDebugEnabled()) {
+					log.debug("STARTTLS to LDAP server "+server);
+				}
+				lc.startTLS();
+			}
+			// authenticate to the server
+			lc.bind(ldapVersion, getLoginDN(), getLoginPassword().getBytes("UTF8"), ldapBindConstraints);
+		} catch (LDAPException | UnsupportedEncodingException e) {
+			disconnect(lc);
+			throw e;
+		}
+		getConnectionPool(server).connectionOpened();
+		return lc;
+	}
+
+	/** Gives back a connection from {@link #getConnection(String, int)}, which is kept for the next operation if it is still usable. */
+	protected void releaseConnection(final String server, final LDAPConnection lc) {
+		if (lc != null) {
+			getConnectionPool(server).returnConnection(lc);
+		}
+	}
+
+	/** @return a summary of the connection pool of each server that this publisher has connected to */
+	public List<String> getConnectionPoolStatistics() {
+		final List<String> ret = new ArrayList<>();
+		for (final LdapConnectionPool pool : LdapConnectionPool.getPools(getHostnameList(), Integer.parseInt(getPort()), getLoginDN(), getLoginPassword(),
+				getConnectionSecurity())) {
+			ret.add(pool.getStatistics());
+		}
+		return ret;
+	}
+
+	private LdapConnectionPool getConnectionPool(final String server) {
+		return LdapConnectionPool.getPool(server, Integer.parseInt(getPort()), getLoginDN(), getLoginPassword(), getConnectionSecurity());
+	}
+
+	private void disconnect(final LDAPConnection lc) {
+		try {
+			lc.disconnect(ldapDisconnectConstraints);
+		} catch (LDAPException e) {
+			String msg = intres.getLocalizedMessage("publisher.errordisconnect");
+			log.error(msg, e);
+		}
+	}
+
+	private void setConstraintTimeLimits() {
 		int connectiontimeout = getConnectionTimeOut();
 		ldapBindConstraints.setTimeLimit(connectiontimeout); 
 		ldapDisconnectConstraints.setTimeLimit(connectiontimeout);
 		ldapConnectionConstraints.setTimeLimit(connectiontimeout);
 		ldapSearchConstraints.setTimeLimit(getReadTimeOut());
 		ldapStoreConstraints.setTimeLimit(getStoreTimeOut());
+	}
+
+	protected LDAPConnection createLdapConnection() {
+		setConstraintTimeLimits();
 		if (log.isDebugEnabled()) {
 			log.debug("connecttimeout: "+ldapConnectionConstraints.getTimeLimit());
 			log.debug("bindtimeout: "+ldapBindConstraints.getTimeLimit());
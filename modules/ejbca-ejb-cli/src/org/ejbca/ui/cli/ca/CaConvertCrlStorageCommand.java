@@ -0,0 +1,95 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.cli.ca;
+
+import org.apache.log4j.Logger;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.crl.CrlStoreSessionRemote;
+import org.cesecore.util.EjbRemoteHelper;
+import org.ejbca.ui.cli.infrastructure.command.CommandResult;
+import org.ejbca.ui.cli.infrastructure.parameter.Parameter;
+import org.ejbca.ui.cli.infrastructure.parameter.ParameterContainer;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.MandatoryMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.ParameterMode;
+import org.ejbca.ui.cli.infrastructure.parameter.enums.StandaloneMode;
+
+/**
+ * Moves the stored CRLs of a CA between the base64 and binary storage formats of the CRLData table.
+ */
+public class CaConvertCrlStorageCommand extends BaseCaAdminCommand {
+
+    private static final Logger log = Logger.getLogger(CaConvertCrlStorageCommand.class);
+
+    private static final String CA_NAME_KEY = "--caname";
+    private static final String BASE64_KEY = "-base64";
+    /** Number of CRLs converted in each transaction */
+    private static final int BATCH_SIZE = 100;
+
+    {
+        registerParameter(new Parameter(CA_NAME_KEY, "CA Name", MandatoryMode.MANDATORY, StandaloneMode.ALLOW, ParameterMode.ARGUMENT,
+                "The CA whose CRLs are converted."));
+        registerParameter(new Parameter(BASE64_KEY, "", MandatoryMode.OPTIONAL, StandaloneMode.FORBID, ParameterMode.FLAG,
+                "Convert the CRLs to base64 storage. Default is to convert them to binary storage."));
+    }
+
+    @Override
+    public String getMainCommand() {
+        return "convertcrlstorage";
+    }
+
+    @Override
+    public CommandResult execute(ParameterContainer parameters) {
+        final String caName = parameters.get(CA_NAME_KEY);
+        final boolean binaryStorage = parameters.get(BASE64_KEY) == null;
+        final CAInfo caInfo = getCAInfo(getAuthenticationToken(), caName);
+        if (caInfo == null) {
+            log.error("CA '" + caName + "' does not exist.");
+            return CommandResult.FUNCTIONAL_FAILURE;
+        }
+        final CrlStoreSessionRemote crlStoreSession = EjbRemoteHelper.INSTANCE.getRemoteSession(CrlStoreSessionRemote.class);
+        int total = 0;
+        try {
+            int converted;
+            do {
+                converted = crlStoreSession.convertCrlStorage(getAuthenticationToken(), caInfo.getSubjectDN(), binaryStorage, BATCH_SIZE);
+                total += converted;
+                if (converted > 0) {
+                    log.info("Converted " + total + " CRLs...");
+                }
+            } while (converted > 0);
+        } catch (AuthorizationDeniedException e) {
+            log.error("CLI user not authorized to CA '" + caName + "'.");
+            return CommandResult.AUTHORIZATION_FAILURE;
+        }
+        log.info("Converted " + total + " CRLs of CA '" + caName + "' to " + (binaryStorage ? "binary" : "base64") + " storage.");
+        return CommandResult.SUCCESS;
+    }
+
+    @Override
+    public String getCommandDescription() {
+        return "Moves the stored CRLs of a CA to binary or base64 storage.";
+    }
+
+    @Override
+    public String getFullHelpText() {
+        return getCommandDescription() + " CRLs are stored base64 encoded, or DER encoded if database.useBinaryCrlStorage is enabled. "
+                + "Both formats can be read, so existing CRLs only need to be converted to save space, or before going back to an earlier version. "
+                + "The database must have the binaryCrl column, see conf/database.properties.sample.";
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return log;
+    }
+}
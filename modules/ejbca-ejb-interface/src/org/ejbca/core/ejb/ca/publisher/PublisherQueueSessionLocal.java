@@ -23,6 +23,7 @@ import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.endentity.ExtendedInformation;
 import org.cesecore.oscp.OcspResponseData;
 import org.ejbca.core.model.ca.publisher.BasePublisher;
+import org.ejbca.core.model.ca.publisher.CertificatePublishingItem;
 import org.ejbca.core.model.ca.publisher.CustomPublisherContainer;
 import org.ejbca.core.model.ca.publisher.PublisherException;
 import org.ejbca.core.model.ca.publisher.PublisherQueueData;
@@ -88,8 +89,8 @@ public interface PublisherQueueSessionLocal {
 
     /**
      * Finds all entries with status {@link PublisherQueueData.STATUS_PENDING} for a
-     * specific <code>publisherId</code>. The results are ordered in descending order
-     * by time created.
+     * specific <code>publisherId</code>. The results are ordered in ascending order
+     * by time created, i.e. in the order they are published by the queue worker.
      * 
      * @param publisherId the id of a publisher to fetch pending entries for.
      * @param limit if <offset>limit > 0</offset>, limits the number of results.
@@ -117,9 +118,11 @@ public interface PublisherQueueSessionLocal {
     /**
      * Intended for use from PublishQueueProcessWorker.
      * 
-     * Publishing algorithm that is a plain fifo queue, but limited to selecting entries to republish at 100 records at a time. It will select from the database for this particular publisher id, and process 
-     * the record that is returned one by one. The records are ordered by date, descending so the oldest record is returned first. 
-     * Publishing is tried every time for every record returned, with no limit.
+     * Publishing algorithm that is a plain fifo queue, but limited to selecting entries to republish in chunks of 10 to 1000 records at a time,
+     * depending on how long earlier entries took to publish (see publisherqueue.chunktime). Only one entry is tried if the publisher has failed
+     * too many times in a row (see publisher.circuitbreaker.failures). It will select from the database for this particular publisher id, and process 
+     * the record that is returned one by one. The records are ordered by date, ascending so the oldest record is returned first. 
+     * Each chunk continues after the last record of the previous chunk, so a record is tried at most once each time this method is invoked.
      * Repeat this process as long as we actually manage to publish something this is because when publishing starts to work we want to publish everything in one go, if possible.
      * However we don't want to publish more than 20000 certificates each time, because we want to commit to the database some time as well.
      * Now, the OCSP publisher uses a non-transactional data source so it commits every time so...
@@ -131,11 +134,60 @@ public interface PublisherQueueSessionLocal {
      */
     PublishingResult plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(AuthenticationToken admin, BasePublisher publisher, final long maxNumberOfJobs);
 
-    
+    /**
+     * Intended for use from PublishQueueProcessWorker.
+     *
+     * Publishing algorithm that lets several threads and cluster nodes process the queue of the same publisher. Each thread claims a chunk of
+     * the oldest pending entries that are not claimed by anyone else, sized like the chunks of {@link #plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated}, publishes them in a new transaction and releases the claim of the
+     * entries that remain in the queue. Claims of a node that stops while publishing expire after the time configured with publisherqueue.leasetime.
+     * The number of threads on this node is configured with publisherqueue.threads. A thread stops when the queue is empty, when a chunk has no
+     * successful publishing operation, or when maxNumberOfJobs entries have been published successfully by all threads.
+     *
+     * @param admin the administrator that must be authorized for publishing
+     * @param publisher the publisher to publish to
+     * @param maxNumberOfJobs a long value describing how many jobs to do as max. Hard capped at 200 000.
+     * @return how many publishing operations that succeeded and failed
+     */
+    PublishingResult publishClaimedChunks(AuthenticationToken admin, BasePublisher publisher, long maxNumberOfJobs);
+
+    /**
+     * Claims the oldest pending entries of a publisher that are not claimed by another worker, in a new transaction. Fewer entries than
+     * available may be claimed if another worker claims some of them at the same time.
+     *
+     * @param publisherId the publisher whose entries should be claimed
+     * @param leaseOwner an identifier of the claim, that must be unique for each invocation
+     * @param maxEntries the maximum number of entries to claim
+     * @param leaseTime the time in milliseconds until the claim expires
+     * @param afterTimeCreated the creation time of the entry to continue after, from {@link PublishingResult#getLastTimeCreated()}
+     * @param afterPk the primary key of the entry to continue after, from {@link PublishingResult#getLastPk()}, or null to start with the oldest entry
+     * @return the number of entries that were claimed
+     */
+    int claimChunk(int publisherId, String leaseOwner, int maxEntries, long leaseTime, long afterTimeCreated, String afterPk);
+
+    /**
+     * Publishes the entries of a claim made with {@link #claimChunk(int, String, int, long, long, String)}, and releases the claim of the entries that
+     * remain in the queue, in a new transaction.
+     *
+     * @param admin the administrator that must be authorized for publishing
+     * @param publisher the publisher to publish to
+     * @param leaseOwner the identifier of the claim
+     * @return how many publishing operations that succeeded and failed, and the last entry of the claim
+     */
+    PublishingResult doClaimedChunk(AuthenticationToken admin, BasePublisher publisher, String leaseOwner);
+
+
     /** Publishers do not run a part of regular transactions and expect to run in auto-commit mode. */
 	boolean publishCertificateNonTransactional(BasePublisher publisher, AuthenticationToken admin, CertificateDataWrapper cert,
 	        String password, String userDN, ExtendedInformation extendedinformation) throws PublisherException;
 
+    /**
+     * Publishes several certificates with {@link BasePublisher#storeCertificates}, outside of any transaction like
+     * {@link #publishCertificateNonTransactional}.
+     *
+     * @return one result for each item, in the same order, either Boolean.TRUE, a PublisherException or null if the item was not attempted
+     */
+    List<Object> publishCertificatesNonTransactional(BasePublisher publisher, AuthenticationToken admin, List<CertificatePublishingItem> items);
+
     /** Publishers do not run as part of regular transactions and expect to run in auto-commit mode. 
 	 * 
 	 * @param publisher the publisher to store the CRL to
@@ -167,6 +219,8 @@ public interface PublisherQueueSessionLocal {
      * 
      * The implementing method returns the result in the same order as the publishers are provided.
      * Each result Object is either a PublisherException (if the publishing failed) or a Boolean.TRUE (if the publishing succeeded).
+     * Publishers that use the queue for certificates, and have failed publisher.circuitbreaker.failures times in a row, are not tried
+     * until the Publish Queue Process Service has published to them, and a PublisherException is returned for them right away.
      */
     List<Object> publishCertificateNonTransactionalInternal(List<BasePublisher> publishers, AuthenticationToken admin, CertificateDataWrapper certWrapper,
             String password, String userDN, ExtendedInformation extendedinformation);
@@ -174,9 +228,12 @@ public interface PublisherQueueSessionLocal {
     /** Publishers digest queues in transaction-based "chunks". 
      * @param admin the administrator that must be authorized for publishing
      * @param publisher the publisher to publish to
-     * @return how many publishing operations that succeeded and failed 
+     * @param maxEntries the maximum number of entries to publish in the chunk
+     * @param afterTimeCreated the creation time of the entry to continue after, from {@link PublishingResult#getLastTimeCreated()}
+     * @param afterPk the primary key of the entry to continue after, from {@link PublishingResult#getLastPk()}, or null to start with the oldest entry
+     * @return how many publishing operations that succeeded and failed, and the last entry of the chunk
      */
-    PublishingResult doChunk(AuthenticationToken admin, BasePublisher publisher);
+    PublishingResult doChunk(AuthenticationToken admin, BasePublisher publisher, int maxEntries, long afterTimeCreated, String afterPk);
 
     PublishingResult doPublish(AuthenticationToken admin, BasePublisher publisher, PublisherQueueData publisherQueueData);
 }
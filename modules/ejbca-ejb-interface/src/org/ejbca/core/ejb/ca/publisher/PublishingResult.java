@@ -32,6 +32,10 @@ public class PublishingResult implements Serializable {
     private Set<String> successes;
     private Set<String> failures;
     private Map<String, String> messages;
+    private long lastTimeCreated;
+    private String lastPk;
+    private int availableCount;
+    private int unavailableCount;
     
     public PublishingResult() {
         successes = new HashSet<>();
@@ -88,9 +92,58 @@ public class PublishingResult implements Serializable {
         this.messages.put(fingerprint, messasge);
     }
     
+    /**
+     * Sets the last queue entry that was read, where the next chunk of the queue continues.
+     *
+     * @param timeCreated the creation time of the entry
+     * @param pk the primary key of the entry
+     */
+    public void setLastEntry(final long timeCreated, final String pk) {
+        this.lastTimeCreated = timeCreated;
+        this.lastPk = pk;
+    }
+
+    /** @return the creation time of the last queue entry that was read */
+    public long getLastTimeCreated() {
+        return lastTimeCreated;
+    }
+
+    /** @return the primary key of the last queue entry that was read, or null if no entry was read */
+    public String getLastPk() {
+        return lastPk;
+    }
+
+    /**
+     * Records whether an attempt to publish a certificate showed that the publisher could be reached, for the circuit breaker of the publisher.
+     *
+     * @param available true if the publisher could be reached, whether or not it accepted the certificate
+     */
+    public void addAvailability(final boolean available) {
+        if (available) {
+            availableCount++;
+        } else {
+            unavailableCount++;
+        }
+    }
+
+    /** @return the number of attempts that reached the publisher */
+    public int getAvailableCount() {
+        return availableCount;
+    }
+
+    /** @return the number of attempts that failed because the publisher could not be reached */
+    public int getUnavailableCount() {
+        return unavailableCount;
+    }
+
     public void append(PublishingResult result) {
         this.successes.addAll(result.successes);
         this.failures.addAll(result.failures);
+        this.availableCount += result.availableCount;
+        this.unavailableCount += result.unavailableCount;
+        if (result.lastPk != null) {
+            setLastEntry(result.lastTimeCreated, result.lastPk);
+        }
     }
 
 }
@@ -0,0 +1,102 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Result of checking, and possibly creating, the CRL or delta CRL of one CA and CRL partition.
+ *
+ * @see PublishingCrlSessionLocal#createDueCrls(org.cesecore.authentication.tokens.AuthenticationToken, Collection, long, boolean)
+ */
+public class CrlGenerationResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int caId;
+    private final int crlPartitionIndex;
+    private final boolean deltaCrl;
+    private final boolean scheduled;
+    private final boolean created;
+    private final long durationMillis;
+    private final String errorMessage;
+
+    /**
+     * @param caId the CA
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION
+     * @param deltaCrl true for a delta CRL
+     * @param scheduled true if the CRL needed to be updated, so a job was run to create it
+     * @param created true if a CRL was created
+     * @param durationMillis time it took to create the CRL, including time spent on publishing
+     * @param errorMessage reason why the CRL could not be created, or null
+     */
+    public CrlGenerationResult(final int caId, final int crlPartitionIndex, final boolean deltaCrl, final boolean scheduled, final boolean created,
+            final long durationMillis, final String errorMessage) {
+        this.caId = caId;
+        this.crlPartitionIndex = crlPartitionIndex;
+        this.deltaCrl = deltaCrl;
+        this.scheduled = scheduled;
+        this.created = created;
+        this.durationMillis = durationMillis;
+        this.errorMessage = errorMessage;
+    }
+
+    public int getCaId() {
+        return caId;
+    }
+
+    public int getCrlPartitionIndex() {
+        return crlPartitionIndex;
+    }
+
+    public boolean isDeltaCrl() {
+        return deltaCrl;
+    }
+
+    public boolean isScheduled() {
+        return scheduled;
+    }
+
+    public boolean isCreated() {
+        return created;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @param results results of CRL generation
+     * @return the CAs for which a CRL was created for every CRL partition, which is what {@link PublishingCrlSessionLocal#createCRLs} returns
+     */
+    public static Set<Integer> getCaIdsWithAllCrlsCreated(final Collection<CrlGenerationResult> results) {
+        final Set<Integer> caIds = new HashSet<>();
+        final Set<Integer> incompleteCaIds = new HashSet<>();
+        for (final CrlGenerationResult result : results) {
+            if (result.isCreated()) {
+                caIds.add(result.getCaId());
+            } else {
+                incompleteCaIds.add(result.getCaId());
+            }
+        }
+        caIds.removeAll(incompleteCaIds);
+        return caIds;
+    }
+}
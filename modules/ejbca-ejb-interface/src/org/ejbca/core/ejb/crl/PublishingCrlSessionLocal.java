@@ -14,6 +14,7 @@ package org.ejbca.core.ejb.crl;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import javax.ejb.Local;
@@ -66,6 +67,21 @@ public interface PublishingCrlSessionLocal extends PublishingCrlSession {
      * @return a set of all CAs that had CRLs created.               
      */
      Set<Integer> createDeltaCRLs(AuthenticationToken admin, Collection<Integer> caids, long crloverlaptime) throws AuthorizationDeniedException;
+
+    /**
+     * Checks which CRLs or delta CRLs of the CAs and their CRL partitions need to be updated, as {@link #createCRLs(AuthenticationToken, Collection, long)}
+     * and {@link #createDeltaCRLs(AuthenticationToken, Collection, long)} do, and creates them concurrently using the number of threads configured with
+     * crl.generation.threads. The most urgent CRLs, with the earliest nextUpdate minus overlap time, are started first. Each CRL is created in a
+     * separate transaction, and failing to create one CRL does not stop the others.
+     *
+     * @param admin administrator performing the task
+     * @param caids list of CA ids (Integer) that will be checked, or null in which case ALL CAs will be checked
+     * @param addToCrlOverlapTime given in milliseconds and added to the CRL overlap time, see {@link #createCRLs(AuthenticationToken, Collection, long)}
+     * @param deltaCrl true to create delta CRLs, false to create full CRLs
+     * @return the result of every CRL partition that was checked
+     */
+    List<CrlGenerationResult> createDueCrls(AuthenticationToken admin, Collection<Integer> caids, long addToCrlOverlapTime, boolean deltaCrl)
+            throws AuthorizationDeniedException;
     
     /**
      * Method that checks if the delta CRL needs to be updated and then creates
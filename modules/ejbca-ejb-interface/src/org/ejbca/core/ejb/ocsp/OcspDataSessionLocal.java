@@ -12,6 +12,8 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ocsp;
 
+import java.util.List;
+
 import javax.ejb.Local;
 
 import org.cesecore.oscp.OcspResponseData;
@@ -36,6 +38,13 @@ public interface OcspDataSessionLocal extends OcspDataSession {
      * @param ocspResponseData
      */
     void storeOcspData(final OcspResponseData ocspResponseData);
+
+    /**
+     * Saves a batch of OCSP data in the table in a single transaction. The persistence context is flushed and cleared
+     * periodically, so the inserts can be batched by the JDBC driver and the managed entities do not accumulate.
+     * @param ocspResponseDataList OCSP data to store
+     */
+    void storeOcspDataBatch(final List<OcspResponseData> ocspResponseDataList);
     
     /**
      * Deletes all the OCSP data from table corresponding to serialNumber.
@@ -63,4 +72,29 @@ public interface OcspDataSessionLocal extends OcspDataSession {
      * for each serial number.
      */
     int deleteOldOcspData();
+
+    /**
+     * @return the ids of all certificate authorities with OCSP data in the table
+     */
+    List<Integer> findOcspDataCaIds();
+
+    /**
+     * Finds OCSP data produced before the cutoff time, for cleaning up old responses of a certificate authority in batches.
+     * The rows are ordered by serial number, with the latest response of each serial number first.
+     *
+     * @param caId of the certificate authority
+     * @param cutoffTime only responses produced before this time are included
+     * @param afterSerialNumber only responses with a serial number larger than this are included, or null to start from the beginning
+     * @param maxResults maximum number of rows to return
+     * @return list of (id, serialNumber, producedAt)
+     */
+    List<Object[]> findOcspDataForCleanup(final Integer caId, final long cutoffTime, final String afterSerialNumber, final int maxResults);
+
+    /**
+     * Deletes OCSP data by primary key.
+     *
+     * @param ids of the rows to delete
+     * @return the number of rows deleted
+     */
+    int deleteOcspDataByIds(final List<String> ids);
 }
@@ -14,9 +14,13 @@ package org.ejbca.core.ejb.ocsp;
 
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
+import java.util.List;
 
 import javax.ejb.Local;
 
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.oscp.OcspResponseData;
+
 
 /**
  * Local interface for OcspResponseGeneratorSession
@@ -62,9 +66,35 @@ public interface OcspResponseGeneratorSessionLocal extends OcspResponseGenerator
      *
      * @param cacert of the CA which signs the OCSP response
      * @param serialNr of the certificate to produce a response for.
-     * @param issueFinalResponse TODO
+     * @param issueFinalResponse to issue a final OCSP response (EN 319 411-2), with nextUpdate set to 99991231235959Z
      * @param includeExpiredCertificates to include expired certificates in presigned OCSP responses
      * @param certIDHashAlgorithm of the certId
      */
     void preSignOcspResponse(X509Certificate cacert, BigInteger serialNr, boolean issueFinalResponse, boolean includeExpiredCertificates, String certIDHashAlgorithm);
+
+    /**
+     * Pre-produces an OCSP response like {@link #preSignOcspResponse(X509Certificate, BigInteger, boolean, boolean, String)}, but
+     * returns the response instead of storing and publishing it, so it can be stored together with other responses using
+     * {@link #storePreProducedOcspResponses(int, List)}.
+     *
+     * @param cacert of the CA which signs the OCSP response
+     * @param serialNr of the certificate to produce a response for.
+     * @param status of the certificate if it has already been looked up, for example for a batch of certificates with
+     *      {@link org.cesecore.certificates.certificate.CertificateStoreSession#getStatuses(String, java.util.Collection)}, or null to look it up.
+     *      The certificate is looked up anyway if the OCSP key binding has OCSP extensions that need it.
+     * @param issueFinalResponse to issue a final OCSP response (EN 319 411-2), with nextUpdate set to 99991231235959Z
+     * @param includeExpiredCertificates to include expired certificates in presigned OCSP responses
+     * @param certIDHashAlgorithm of the certId
+     * @return the response to persist, or null if no response should be persisted for the certificate
+     */
+    OcspResponseData preProduceOcspResponse(X509Certificate cacert, BigInteger serialNr, CertificateStatus status, boolean issueFinalResponse,
+            boolean includeExpiredCertificates, String certIDHashAlgorithm);
+
+    /**
+     * Stores pre-produced OCSP responses in a single batch, and publishes them to the CRL publishers of the CA.
+     *
+     * @param caId of the CA which signed the OCSP responses
+     * @param responses responses returned by {@link #preProduceOcspResponse(X509Certificate, BigInteger, CertificateStatus, boolean, boolean, String)}
+     */
+    void storePreProducedOcspResponses(int caId, List<OcspResponseData> responses);
 }
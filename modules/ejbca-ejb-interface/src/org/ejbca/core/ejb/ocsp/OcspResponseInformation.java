@@ -104,6 +104,34 @@ public class OcspResponseInformation implements Serializable {
         }
     }
 
+    /**
+     * Creates the information for a successful, pre-produced single response without nonce, without parsing the response.
+     *
+     * @param encodedResponse DER encoded OCSPResp
+     * @param maxAge duration in milliseconds how long the response should be cacheable
+     * @param signerCert certificate used to sign the response, or null
+     * @param thisUpdate thisUpdate of the single response in milliseconds since epoch
+     * @param nextUpdate nextUpdate of the single response in milliseconds since epoch
+     * @param unknownStatus true if the status of the single response is unknown
+     */
+    public OcspResponseInformation(final byte[] encodedResponse, final long maxAge, final X509Certificate signerCert, final long thisUpdate,
+            final long nextUpdate, final boolean unknownStatus) {
+        this.ocspResponse = encodedResponse;
+        this.maxAge = maxAge;
+        this.signerCert = signerCert;
+        this.status = OCSPResp.SUCCESSFUL;
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+        this.explicitNoCache = unknownStatus;
+        try {
+            responseHeader = new String(Hex.encode(MessageDigest.getInstance("SHA-1", BouncyCastleProvider.PROVIDER_NAME).digest(encodedResponse)));
+        } catch (NoSuchProviderException e) {
+            throw new OcspFailureException("Bouncycastle was not available as a provider", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new OcspFailureException("SHA-1 was not an available algorithm for MessageDigester", e);
+        }
+    }
+
     public byte[] getOcspResponse() {
         return ocspResponse;
     }
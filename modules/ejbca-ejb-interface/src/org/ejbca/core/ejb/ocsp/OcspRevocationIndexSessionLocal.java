@@ -0,0 +1,33 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import javax.ejb.Local;
+
+/**
+ * Maintains the memory-mapped revocation indexes used by the OCSP responder instead of the database.
+ *
+ * @see org.cesecore.certificates.ocsp.status.RevocationIndexStatusProvider
+ */
+@Local
+public interface OcspRevocationIndexSessionLocal {
+
+    /**
+     * Refreshes the revocation index of every CA in the OCSP signing cache from the database. An index is built from
+     * scratch if it does not exist, otherwise only certificates updated since the last refresh, and certificates marked as
+     * changed, are read. Does nothing if no revocation index directory is configured.
+     *
+     * @return the number of indexes that were written
+     */
+    int refreshRevocationIndexes();
+}
@@ -15,6 +15,8 @@ package org.ejbca.core.ejb.ocsp;
 import org.cesecore.certificates.ca.CA;
 import org.cesecore.certificates.certificate.BaseCertificateData;
 
+import java.util.concurrent.Future;
+
 import javax.ejb.Local;
 
 @Local
@@ -45,4 +47,17 @@ public interface PreSigningOcspResponseSessionLocal {
 	 */
 	void preSignOcspResponse(CA ca, BaseCertificateData certData);
 
+	/**
+	 * Pre-signs OCSP responses for all certificates issued by a CA that expire after the given date, in the background.
+	 * Serial numbers are fetched in batches of ocsp.presigning.batchsize, the status of each batch is looked up in one
+	 * query, the responses are signed in parallel by at most ocsp.presigning.threads threads, and each batch is stored in a
+	 * single transaction. Does nothing unless pre-production of OCSP responses is enabled for the CA. Used when all
+	 * certificates of a CA are revoked.
+	 *
+	 * @param ca the Certificate Authority.
+	 * @param expireDate only certificates expiring after this time (in UTC milliseconds) are processed.
+	 * @return the number of OCSP responses stored.
+	 */
+	Future<Integer> preSignOcspResponses(CA ca, long expireDate);
+
 }
@@ -84,6 +84,8 @@ public interface UpgradeSessionLocal  extends UpgradeSession{
     void fixPartitionedCrls(final int limit, final boolean isMSSQL) throws UpgradeFailedException;
     /** For internal user from UpgradeSessionBean only */
     IndexUpgradeResult upgradeIndex(final String oldIndexName, final String tableName, final String createIndexQuery);
+    /** For internal user from UpgradeSessionBean only */
+    boolean createIndex(final String indexName, final String tableName, final String createIndexQuery);
     
     /** Persist the time when the post-upgrade starts or 0L when it is no longer running. */
     boolean setPostUpgradeStarted(long startTimeMs);
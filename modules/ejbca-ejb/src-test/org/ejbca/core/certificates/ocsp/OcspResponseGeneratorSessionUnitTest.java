@@ -22,8 +22,13 @@ import java.security.SecureRandom;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.ejb.Timer;
@@ -569,6 +574,29 @@ public class OcspResponseGeneratorSessionUnitTest {
         log.trace("<badNonceEncodingTooLarge");
     }
 
+    @Test
+    public void multipleCertIdsStatusLookedUpInSingleQuery() throws Exception {
+        log.trace(">multipleCertIdsStatusLookedUpInSingleQuery");
+        final BigInteger otherSerial = REQUEST_SERIAL.add(BigInteger.ONE);
+        final byte[] req = makeOcspRequest(getIssuerCert(), Arrays.asList(REQUEST_SERIAL, otherSerial), OIWObjectIdentifiers.idSHA1,
+                new DEROctetString("123456789".getBytes()).getEncoded());
+        expectLoggerChecks();
+        final Map<BigInteger, CertificateStatus> statuses = new HashMap<>();
+        statuses.put(REQUEST_SERIAL, status);
+        statuses.put(otherSerial, CertificateStatus.NOT_AVAILABLE);
+        // One query for both certificates, and no single lookups
+        expect(certificateStoreSessionMock.getStatuses(ISSUER_CERT_DN, new HashSet<>(Arrays.asList(REQUEST_SERIAL, otherSerial)))).andReturn(statuses).once();
+        replay(caSessionMock, auditLogger, transactionLogger, globalConfigurationSessionMock, certificateStoreSessionMock, ocspDataSessionMock);
+        prepareOcspCache();
+        final OcspResponseInformation respInfo = ocspResponseGeneratorSession.getOcspResponse(req, null, REQUEST_IP, null, null, auditLogger, transactionLogger, false, false, false);
+        assertEquals(OCSPResp.SUCCESSFUL, respInfo.getStatus());
+        final SingleResp[] singleResps = ((BasicOCSPResp) new OCSPResp(respInfo.getOcspResponse()).getResponseObject()).getResponses();
+        assertEquals(2, singleResps.length);
+        assertNull("Status was not GOOD (=null). ", singleResps[0].getCertStatus());
+        verify(certificateStoreSessionMock);
+        log.trace("<multipleCertIdsStatusLookedUpInSingleQuery");
+    }
+
     // Helper methods
 
     private void expectLoggerChecks() {
@@ -641,12 +669,17 @@ public class OcspResponseGeneratorSessionUnitTest {
     }
 
     private byte[] makeOcspRequest(final X509Certificate issuerCert, final BigInteger serialNumber, final ASN1ObjectIdentifier digestAlgo, byte[] nonce) {
+        return makeOcspRequest(issuerCert, Collections.singletonList(serialNumber), digestAlgo, nonce);
+    }
+
+    private byte[] makeOcspRequest(final X509Certificate issuerCert, final List<BigInteger> serialNumbers, final ASN1ObjectIdentifier digestAlgo, byte[] nonce) {
         try {
             final X509CertificateHolder issuerCertHolder = new X509CertificateHolder(issuerCert.getEncoded());
             final DigestCalculator digestCalc = new BcDigestCalculatorProvider().get(new AlgorithmIdentifier(digestAlgo));
-            final CertificateID certId = new CertificateID(digestCalc, issuerCertHolder, serialNumber);
             final OCSPReqBuilder gen = new OCSPReqBuilder();
-            gen.addRequest(certId).build();
+            for (final BigInteger serialNumber : serialNumbers) {
+                gen.addRequest(new CertificateID(digestCalc, issuerCertHolder, serialNumber));
+            }
             if (nonce != null) {
                 Extension[] extensions = new Extension[1];
                 // Max size of nonce is 32 bytes
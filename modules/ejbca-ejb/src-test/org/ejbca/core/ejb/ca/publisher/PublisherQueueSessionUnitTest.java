@@ -12,21 +12,44 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ca.publisher;
 
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.same;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import javax.persistence.EntityManager;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.certificate.NoConflictCertificateStoreSessionLocal;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.ejbca.config.EjbcaConfiguration;
+import org.ejbca.config.EjbcaConfigurationHolder;
 import org.ejbca.core.ejb.ocsp.OcspDataSessionLocal;
 import org.ejbca.core.model.ca.publisher.BasePublisher;
+import org.ejbca.core.model.ca.publisher.CertificatePublishingItem;
+import org.ejbca.core.model.ca.publisher.PublisherConst;
+import org.ejbca.core.model.ca.publisher.PublisherException;
+import org.ejbca.core.model.ca.publisher.PublisherQueueData;
 import org.ejbca.core.model.services.workers.PublishQueueProcessWorker;
 import org.junit.Before;
 import org.junit.Test;
@@ -36,6 +59,7 @@ import org.junit.Test;
  */
 public class PublisherQueueSessionUnitTest {
     
+    private static final int PUBLISHER_ID = 4711;
     private final EntityManager entityManagerMock = EasyMock.createStrictMock(EntityManager.class);
     private final NoConflictCertificateStoreSessionLocal noConflictCertificateStoreSessionMock = EasyMock.createStrictMock(NoConflictCertificateStoreSessionLocal.class);
     private final OcspDataSessionLocal ocspDataSessionMock = EasyMock.createStrictMock(OcspDataSessionLocal.class);
@@ -48,6 +72,8 @@ public class PublisherQueueSessionUnitTest {
     @Before
     public void before() {
         reset(entityManagerMock, noConflictCertificateStoreSessionMock, ocspDataSessionMock, publisherQueueSessionMock, adminMock, publisherMock);
+        PublisherCircuitBreaker.INSTANCE.flush();
+        PublisherQueueChunkSizer.INSTANCE.flush();
     }
     
     /** Creates a PublishingResult with the given ranges of fingerprints for successes and failures. */
@@ -64,27 +90,46 @@ public class PublisherQueueSessionUnitTest {
 
     @Test
     public void publishNothing() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 0, 0, 0));
-        replay(publisherQueueSessionMock);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(100), anyLong(), anyObject())).andReturn(makePublishingResult(0, 0, 0, 0));
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        replay(publisherQueueSessionMock, publisherMock);
         assertResult(0, 0, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
         verify(publisherQueueSessionMock);
     }
 
     @Test
     public void publishOneChunk() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 0, 0, 0));
-        replay(publisherQueueSessionMock);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(100), anyLong(), anyObject())).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1000), anyLong(), anyObject())).andReturn(makePublishingResult(0, 0, 0, 0));
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        replay(publisherQueueSessionMock, publisherMock);
         assertResult(5, 2, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
         verify(publisherQueueSessionMock);
     }
 
     @Test
     public void publishTwoChunks() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(5, 7, 0, 0)); // 2 successes
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 0, 0, 0));
-        replay(publisherQueueSessionMock);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(100), anyLong(), anyObject())).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1000), anyLong(), anyObject())).andReturn(makePublishingResult(5, 7, 0, 0)); // 2 successes
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1000), anyLong(), anyObject())).andReturn(makePublishingResult(0, 0, 0, 0));
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        replay(publisherQueueSessionMock, publisherMock);
+        assertResult(7, 2, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+        verify(publisherQueueSessionMock);
+    }
+
+    /** Tests that each chunk continues after the last entry of the previous chunk, so that entries that failed are not tried again. */
+    @Test
+    public void publishChunksAfterLastEntry() {
+        final PublishingResult firstChunk = makePublishingResult(0, 5, 0, 2); // 5 successes, 2 failures
+        firstChunk.setLastEntry(1000L, "pk7");
+        final PublishingResult secondChunk = makePublishingResult(5, 7, 0, 0); // 2 successes
+        secondChunk.setLastEntry(2000L, "pk9");
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(100), eq(0L), isNull())).andReturn(firstChunk);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1000), eq(1000L), eq("pk7"))).andReturn(secondChunk);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1000), eq(2000L), eq("pk9"))).andReturn(makePublishingResult(0, 0, 0, 0));
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        replay(publisherQueueSessionMock, publisherMock);
         assertResult(7, 2, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
         verify(publisherQueueSessionMock);
     }
@@ -92,10 +137,11 @@ public class PublisherQueueSessionUnitTest {
     /** Tests that publishing only continues when there is at least one result is successful. */
     @Test
     public void publishWithFailureAtEnd() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(5, 7, 0, 0)); // 2 successes
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 0, 2, 3)); // 1 failure
-        replay(publisherQueueSessionMock);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(100), anyLong(), anyObject())).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1000), anyLong(), anyObject())).andReturn(makePublishingResult(5, 7, 0, 0)); // 2 successes
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1000), anyLong(), anyObject())).andReturn(makePublishingResult(0, 0, 2, 3)); // 1 failure
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        replay(publisherQueueSessionMock, publisherMock);
         assertResult(7, 3, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
         verify(publisherQueueSessionMock);
     }
@@ -103,12 +149,275 @@ public class PublisherQueueSessionUnitTest {
     /** Tests that publishing aborts after more than 20 000 successful publishings */
     @Test
     public void tooMuchToPublish() {
-        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock))).andReturn(makePublishingResult(0, 35_000, 0, 0)); // 35 000 successes
-        replay(publisherQueueSessionMock);
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(100), anyLong(), anyObject())).andReturn(makePublishingResult(0, 35_000, 0, 0)); // 35 000 successes
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        replay(publisherQueueSessionMock, publisherMock);
         assertResult(35_000, 0, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
         verify(publisherQueueSessionMock);
     }
 
+    @Test
+    public void publishClaimedNothing() {
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), anyString(), eq(100), anyLong(), anyLong(), anyObject())).andReturn(0).times(3);
+        replay(publisherQueueSessionMock, publisherMock);
+        assertResult(0, 0, publisherQueueSession.publishClaimedChunks(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+        verify(publisherQueueSessionMock);
+    }
+
+    /** Tests that each chunk is published with the claim it was claimed with, and that claiming continues until the queue is empty. */
+    @Test
+    public void publishClaimedTwoChunks() {
+        final Capture<String> firstClaim = Capture.newInstance();
+        final Capture<String> secondClaim = Capture.newInstance();
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), capture(firstClaim), eq(100), anyLong(), anyLong(), anyObject())).andReturn(7);
+        expect(publisherQueueSessionMock.doClaimedChunk(same(adminMock), same(publisherMock), anyString())).andReturn(makePublishingResult(0, 5, 0, 2)); // 5 successes, 2 failures
+        expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), capture(secondClaim), eq(1000), anyLong(), anyLong(), anyObject())).andReturn(2);
+        expect(publisherQueueSessionMock.doClaimedChunk(same(adminMock), same(publisherMock), anyString())).andReturn(makePublishingResult(5, 7, 0, 0)); // 2 successes
+        expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), anyString(), eq(1000), anyLong(), anyLong(), anyObject())).andReturn(0).times(3);
+        replay(publisherQueueSessionMock, publisherMock);
+        assertResult(7, 2, publisherQueueSession.publishClaimedChunks(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+        verify(publisherQueueSessionMock);
+        assertNotEquals("Each chunk should be claimed with a new identifier", firstClaim.getValue(), secondClaim.getValue());
+    }
+
+    /** Tests that each of the publishing threads claims chunks, one of them in the calling thread. */
+    @Test
+    public void publishClaimedNothingWithThreads() {
+        final String defaultThreads = EjbcaConfigurationHolder.getString("publisherqueue.threads");
+        EjbcaConfigurationHolder.updateConfiguration("publisherqueue.threads", "3");
+        try {
+            expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+            expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), anyString(), eq(100), anyLong(), anyLong(), anyObject())).andReturn(0).times(9);
+            replay(publisherQueueSessionMock, publisherMock);
+            assertResult(0, 0, publisherQueueSession.publishClaimedChunks(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+            verify(publisherQueueSessionMock);
+        } finally {
+            EjbcaConfigurationHolder.updateConfiguration("publisherqueue.threads", defaultThreads);
+        }
+    }
+
+    /** Tests that claiming is tried again when other workers claimed the same entries first. */
+    @Test
+    public void publishClaimedAfterLostClaim() {
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), anyString(), eq(100), anyLong(), anyLong(), anyObject())).andReturn(0).times(2);
+        expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), anyString(), eq(100), anyLong(), anyLong(), anyObject())).andReturn(5);
+        expect(publisherQueueSessionMock.doClaimedChunk(same(adminMock), same(publisherMock), anyString())).andReturn(makePublishingResult(0, 5, 0, 0)); // 5 successes
+        expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), anyString(), eq(1000), anyLong(), anyLong(), anyObject())).andReturn(0).times(3);
+        replay(publisherQueueSessionMock, publisherMock);
+        assertResult(5, 0, publisherQueueSession.publishClaimedChunks(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+        verify(publisherQueueSessionMock);
+    }
+
+    /** Tests that publishing stops when a claimed chunk has no successful publishing operation. */
+    @Test
+    public void publishClaimedWithFailure() {
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), anyString(), eq(100), anyLong(), anyLong(), anyObject())).andReturn(3);
+        expect(publisherQueueSessionMock.doClaimedChunk(same(adminMock), same(publisherMock), anyString())).andReturn(makePublishingResult(0, 0, 0, 3)); // 3 failures
+        replay(publisherQueueSessionMock, publisherMock);
+        assertResult(0, 3, publisherQueueSession.publishClaimedChunks(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+        verify(publisherQueueSessionMock);
+    }
+
+    /** Tests that the certificates of queue entries are read with one query and published with one call to a batch publisher. */
+    @Test
+    public void publishCertificatesInBatch() {
+        final CertificateDataWrapper certificateDataWrapper = new CertificateDataWrapper(null, null, null);
+        final PublisherQueueData queueEntry = new PublisherQueueData("pk1", new Date(), new Date(), PublisherConst.STATUS_PENDING, 0,
+                PublisherConst.PUBLISH_TYPE_CERT, "aaaa1", PUBLISHER_ID, null);
+        final org.ejbca.core.ejb.ca.publisher.PublisherQueueData queueEntity = new org.ejbca.core.ejb.ca.publisher.PublisherQueueData();
+        final Capture<List<CertificatePublishingItem>> items = Capture.newInstance();
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherMock.isBatchPublishingSupported()).andReturn(true);
+        expect(publisherMock.getKeepPublishedInQueue()).andReturn(false);
+        expect(publisherMock.getUseQueueForCertificates()).andReturn(true);
+        expect(noConflictCertificateStoreSessionMock.getCertificateDatas(Collections.singleton("aaaa1"))).andReturn(Collections.singletonMap("aaaa1", certificateDataWrapper));
+        expect(publisherQueueSessionMock.publishCertificatesNonTransactional(same(publisherMock), same(adminMock), capture(items))).andReturn(Arrays.asList(Boolean.TRUE));
+        expect(entityManagerMock.find(org.ejbca.core.ejb.ca.publisher.PublisherQueueData.class, "pk1")).andReturn(queueEntity);
+        entityManagerMock.remove(queueEntity);
+        replay(entityManagerMock, noConflictCertificateStoreSessionMock, publisherQueueSessionMock, publisherMock);
+        final PublishingResult result = publisherQueueSession.doPublish(adminMock, publisherMock, queueEntry);
+        assertResult(1, 0, result);
+        assertEquals("Publisher should have been reached", 1, result.getAvailableCount());
+        verify(entityManagerMock, noConflictCertificateStoreSessionMock, publisherQueueSessionMock, publisherMock);
+        assertEquals("Wrong number of certificates in batch", 1, items.getValue().size());
+        assertSame("Prefetched certificate should be published", certificateDataWrapper, items.getValue().get(0).getCertificateDataWrapper());
+    }
+
+    /** Tests that queue entries that a batch publisher did not attempt to publish are left as they are. */
+    @Test
+    public void publishCertificatesInBatchNotAttempted() {
+        final PublisherQueueData queueEntry = new PublisherQueueData("pk1", new Date(), new Date(), PublisherConst.STATUS_PENDING, 0,
+                PublisherConst.PUBLISH_TYPE_CERT, "aaaa1", PUBLISHER_ID, null);
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherMock.isBatchPublishingSupported()).andReturn(true);
+        expect(noConflictCertificateStoreSessionMock.getCertificateDatas(Collections.singleton("aaaa1")))
+                .andReturn(Collections.singletonMap("aaaa1", new CertificateDataWrapper(null, null, null)));
+        expect(publisherQueueSessionMock.publishCertificatesNonTransactional(same(publisherMock), same(adminMock), EasyMock.anyObject()))
+                .andReturn(Collections.singletonList(null));
+        replay(entityManagerMock, noConflictCertificateStoreSessionMock, publisherQueueSessionMock, publisherMock);
+        assertResult(0, 0, publisherQueueSession.doPublish(adminMock, publisherMock, queueEntry));
+        verify(entityManagerMock, noConflictCertificateStoreSessionMock, publisherQueueSessionMock, publisherMock);
+    }
+
+    /** Tests that the chunks of a slow publisher are smaller than the initial chunk size. */
+    @Test
+    public void publishSlowPublisherInSmallChunks() {
+        // One second per entry, and chunks should take ten seconds
+        PublisherQueueChunkSizer.INSTANCE.recordChunk(PUBLISHER_ID, 10, 10_000L);
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(PublisherQueueChunkSizer.MIN_CHUNK_SIZE), anyLong(), anyObject())).andReturn(makePublishingResult(0, 0, 0, 0));
+        replay(publisherQueueSessionMock, publisherMock);
+        assertResult(0, 0, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+        verify(publisherQueueSessionMock);
+    }
+
+    /** Tests that certificates are not published directly after too many failures in a row, and that the failures are returned instead. */
+    @Test
+    public void publishDirectWithOpenCircuit() throws PublisherException {
+        final int maxFailures = EjbcaConfiguration.getPublisherCircuitBreakerFailures();
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherMock.getName()).andReturn("TestPublisher").anyTimes();
+        expect(publisherMock.getUseQueueForCertificates()).andReturn(true).anyTimes();
+        expect(publisherMock.isCallingExternalScript()).andReturn(false).anyTimes();
+        expect(publisherMock.storeCertificate(same(adminMock), EasyMock.<CertificatePublishingItem>anyObject())).andThrow(new PublisherException("Connection timed out")).times(maxFailures);
+        replay(publisherMock);
+        for (int i = 0; i < maxFailures; i++) {
+            final List<Object> results = publisherQueueSession.publishCertificateNonTransactionalInternal(Collections.singletonList(publisherMock), adminMock, null, null, null, null);
+            assertEquals("Publisher should have been tried", "Connection timed out", ((PublisherException) results.get(0)).getMessage());
+        }
+        final List<Object> results = publisherQueueSession.publishCertificateNonTransactionalInternal(Collections.singletonList(publisherMock), adminMock, null, null, null, null);
+        assertTrue("Failure should be returned without trying the publisher", results.get(0) instanceof PublisherException);
+        assertFalse(PublisherCircuitBreaker.INSTANCE.isClosed(publisherMock));
+        verify(publisherMock);
+    }
+
+    /** Creates a PublishingResult for one probed entry, which showed whether the publisher could be reached. */
+    private PublishingResult makeProbeResult(final boolean published, final boolean available) {
+        final PublishingResult result = published ? makePublishingResult(0, 1, 0, 0) : makePublishingResult(0, 0, 0, 1);
+        result.addAvailability(available);
+        return result;
+    }
+
+    /** Tests that the queue worker probes a publisher with an open circuit with one entry, and closes the circuit if it is published. */
+    @Test
+    public void publishProbeClosesCircuit() {
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherMock.getName()).andReturn("TestPublisher").anyTimes();
+        replay(publisherMock);
+        openCircuit();
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1), anyLong(), anyObject())).andReturn(makeProbeResult(true, true)); // 1 success
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(100), anyLong(), anyObject())).andReturn(makePublishingResult(1, 3, 0, 0)); // 2 successes
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1000), anyLong(), anyObject())).andReturn(makePublishingResult(0, 0, 0, 0));
+        replay(publisherQueueSessionMock);
+        assertResult(3, 0, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+        verify(publisherQueueSessionMock);
+        assertTrue("Circuit should be closed after a successful probe", PublisherCircuitBreaker.INSTANCE.isClosed(publisherMock));
+    }
+
+    /** Tests that the circuit stays open if the probe of the queue worker fails. */
+    @Test
+    public void publishClaimedProbeFails() {
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherMock.getName()).andReturn("TestPublisher").anyTimes();
+        replay(publisherMock);
+        openCircuit();
+        expect(publisherQueueSessionMock.claimChunk(eq(PUBLISHER_ID), anyString(), eq(1), anyLong(), anyLong(), anyObject())).andReturn(1);
+        expect(publisherQueueSessionMock.doClaimedChunk(same(adminMock), same(publisherMock), anyString())).andReturn(makeProbeResult(false, false)); // 1 failure
+        replay(publisherQueueSessionMock);
+        assertResult(0, 1, publisherQueueSession.publishClaimedChunks(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+        verify(publisherQueueSessionMock);
+        assertFalse("Circuit should be open after a failed probe", PublisherCircuitBreaker.INSTANCE.isClosed(publisherMock));
+        assertTrue("Next run of the queue worker should probe again", PublisherCircuitBreaker.INSTANCE.startProbe(publisherMock));
+    }
+
+    /** Tests that a probed entry that does not show whether the publisher can be reached is passed, and the next entry is probed. */
+    @Test
+    public void publishProbeMovesPastInconclusiveEntry() {
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherMock.getName()).andReturn("TestPublisher").anyTimes();
+        replay(publisherMock);
+        openCircuit();
+        final PublishingResult inconclusive = new PublishingResult();
+        inconclusive.addFailure("ffff1"); // for example a certificate that was not found
+        inconclusive.setLastEntry(1000L, "pk1");
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1), eq(0L), isNull())).andReturn(inconclusive);
+        final PublishingResult rejected = new PublishingResult();
+        rejected.addFailure("ffff2"); // rejected by the publisher, which could be reached
+        rejected.addAvailability(true);
+        rejected.setLastEntry(2000L, "pk2");
+        expect(publisherQueueSessionMock.doChunk(same(adminMock), same(publisherMock), eq(1), eq(1000L), eq("pk1"))).andReturn(rejected);
+        replay(publisherQueueSessionMock);
+        assertResult(0, 2, publisherQueueSession.plainFifoTryAlwaysLimit100EntriesOrderByTimeCreated(adminMock, publisherMock, PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS));
+        verify(publisherQueueSessionMock);
+        assertTrue("Circuit should be closed when the publisher could be reached", PublisherCircuitBreaker.INSTANCE.isClosed(publisherMock));
+    }
+
+    /** Tests that failures that do not show that the publisher is unavailable do not open the circuit. */
+    @Test
+    public void publishDirectRejectedDoesNotOpenCircuit() throws PublisherException {
+        final int maxFailures = EjbcaConfiguration.getPublisherCircuitBreakerFailures();
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherMock.getName()).andReturn("TestPublisher").anyTimes();
+        expect(publisherMock.getUseQueueForCertificates()).andReturn(true).anyTimes();
+        expect(publisherMock.isCallingExternalScript()).andReturn(false).anyTimes();
+        expect(publisherMock.storeCertificate(same(adminMock), EasyMock.<CertificatePublishingItem>anyObject())).andThrow(new PublisherException("Object class violation")).times(maxFailures + 1);
+        replay(publisherMock);
+        for (int i = 0; i <= maxFailures; i++) {
+            final List<Object> results = publisherQueueSession.publishCertificateNonTransactionalInternal(Collections.singletonList(publisherMock), adminMock, null, null, null, null);
+            assertEquals("Publisher should have been tried", "Object class violation", ((PublisherException) results.get(0)).getMessage());
+        }
+        assertTrue("Circuit should be closed", PublisherCircuitBreaker.INSTANCE.isClosed(publisherMock));
+        verify(publisherMock);
+    }
+
+    /** Tests that issuance tries a publisher again when the circuit has been open for the retry time, and closes the circuit if it succeeds. */
+    @Test
+    public void publishDirectRetriesAfterRetryTime() throws PublisherException {
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherMock.getName()).andReturn("TestPublisher").anyTimes();
+        expect(publisherMock.getUseQueueForCertificates()).andReturn(true).anyTimes();
+        expect(publisherMock.isCallingExternalScript()).andReturn(false).anyTimes();
+        expect(publisherMock.storeCertificate(same(adminMock), EasyMock.<CertificatePublishingItem>anyObject())).andReturn(true);
+        replay(publisherMock);
+        openCircuit();
+        EjbcaConfigurationHolder.updateConfiguration("publisher.circuitbreaker.retrytime", "0");
+        try {
+            final List<Object> results = publisherQueueSession.publishCertificateNonTransactionalInternal(Collections.singletonList(publisherMock), adminMock, null, null, null, null);
+            assertEquals("Publisher should have been tried", Boolean.TRUE, results.get(0));
+        } finally {
+            EjbcaConfigurationHolder.updateConfiguration("publisher.circuitbreaker.retrytime", "60000");
+        }
+        assertTrue("Circuit should be closed after a successful retry", PublisherCircuitBreaker.INSTANCE.isClosed(publisherMock));
+        verify(publisherMock);
+    }
+
+    /** Tests that only one caller at a time tries a publisher with an open circuit. */
+    @Test
+    public void halfOpenCircuitAllowsOneCaller() {
+        expect(publisherMock.getPublisherId()).andReturn(PUBLISHER_ID).anyTimes();
+        expect(publisherMock.getName()).andReturn("TestPublisher").anyTimes();
+        replay(publisherMock);
+        openCircuit();
+        assertTrue("Queue worker should probe", PublisherCircuitBreaker.INSTANCE.startProbe(publisherMock));
+        assertFalse("Another queue worker should not probe", PublisherCircuitBreaker.INSTANCE.startProbe(publisherMock));
+        assertFalse("Issuance should not try the publisher during the probe", PublisherCircuitBreaker.INSTANCE.isDirectPublishingAllowed(publisherMock));
+        assertFalse("Probe without entries should not close the circuit", PublisherCircuitBreaker.INSTANCE.endProbe(publisherMock, new PublishingResult()));
+        assertFalse("Circuit should be open", PublisherCircuitBreaker.INSTANCE.isClosed(publisherMock));
+        assertEquals("Probe without entries should not count as a failure", EjbcaConfiguration.getPublisherCircuitBreakerFailures(),
+                PublisherCircuitBreaker.INSTANCE.getFailures(publisherMock));
+    }
+
+    private void openCircuit() {
+        for (int i = 0; i < EjbcaConfiguration.getPublisherCircuitBreakerFailures(); i++) {
+            PublisherCircuitBreaker.INSTANCE.recordFailure(publisherMock);
+        }
+        assertFalse("Circuit should be open", PublisherCircuitBreaker.INSTANCE.isClosed(publisherMock));
+    }
+
     private void assertResult(int numSuccesses, int numFailures, final PublishingResult actualResult) {
         assertNotNull("Should have a result object", actualResult);
         assertEquals("Wrong number of successful fingerprints", numSuccesses, actualResult.getSuccesses());
@@ -0,0 +1,165 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests of the snapshot of revoked certificates used for incremental base CRL generation.
+ */
+public class RevokedCertInfoSnapshotUnitTest {
+
+    private static final String ISSUER_DN = "CN=Snapshot Test CA,O=PrimeKey";
+    private static final int PARTITION = 2;
+    private static final long EXPIRE_DATE = 4102444800000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() {
+        file = temporaryFolder.getRoot().toPath().resolve("revokedcerts-1-" + PARTITION + ".snap");
+    }
+
+    @Test
+    public void testWriteAndApplyChanges() throws IOException {
+        final List<RevokedCertInfo> revoked = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            revoked.add(revokedCertInfo(i, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, i % 2 == 0 ? Long.valueOf(i) : null));
+        }
+        writeSnapshot(100, revoked);
+        final RevokedCertInfoSnapshot snapshot = RevokedCertInfoSnapshot.open(file, ISSUER_DN, PARTITION, true);
+        assertNotNull("Snapshot was not read", snapshot);
+        assertEquals(1000, snapshot.getEntryCount());
+        assertEquals(100, snapshot.getListedAt());
+        // Certificate 1 is reactivated, 2 gets another reason and 5000 is revoked
+        final Collection<RevokedCertInfo> changes = Arrays.asList(
+                revokedCertInfo(1, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL, null),
+                revokedCertInfo(2, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, null),
+                revokedCertInfo(5000, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, 42L));
+        final Map<BigInteger, RevokedCertInfo> result = new HashMap<>();
+        try (final RevokedCertInfoSnapshot.Writer writer = RevokedCertInfoSnapshot.createWriter(file, ISSUER_DN, PARTITION, true, 200, 100, Long.MIN_VALUE)) {
+            for (final RevokedCertInfo revokedCertInfo : snapshot.applyChanges(changes, writer)) {
+                assertNull("Duplicate entry for " + revokedCertInfo, result.put(revokedCertInfo.getUserCertificate(), revokedCertInfo));
+            }
+            assertEquals(1000, writer.getEntryCount());
+            writer.commit();
+        }
+        assertEquals(1000, result.size());
+        assertFalse("Reactivated certificate should be removed", result.containsKey(BigInteger.valueOf(1)));
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, result.get(BigInteger.valueOf(2)).getReason());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, result.get(BigInteger.valueOf(5000)).getReason());
+        assertEquals(42L, result.get(BigInteger.valueOf(5000)).getInvalidityDate().getTime());
+        final RevokedCertInfo unchanged = result.get(BigInteger.valueOf(4));
+        assertEquals("fingerprint4", unchanged.getCertificateFingerprint());
+        assertEquals(4000, unchanged.getRevocationDate().getTime());
+        assertEquals(EXPIRE_DATE, unchanged.getExpireDate().getTime());
+        assertEquals(4L, unchanged.getInvalidityDate().getTime());
+        assertFalse(result.get(BigInteger.valueOf(3)).isInvalidityDateSet());
+        // The new snapshot replaces the old one, but keeps the time of the full listing
+        final RevokedCertInfoSnapshot newSnapshot = RevokedCertInfoSnapshot.open(file, ISSUER_DN, PARTITION, true);
+        assertEquals(200, newSnapshot.getListedAt());
+        assertEquals(100, newSnapshot.getFullyListedAt());
+        assertEquals(1000, newSnapshot.getEntryCount());
+        assertEquals("Only the snapshot should remain in the directory", 1, temporaryFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testOtherSettingsAreIgnored() throws IOException {
+        assertNull("Missing file should be ignored", RevokedCertInfoSnapshot.open(file, ISSUER_DN, PARTITION, true));
+        writeSnapshot(100, Arrays.asList(revokedCertInfo(1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, null)));
+        assertNull(RevokedCertInfoSnapshot.open(file, "CN=Other CA", PARTITION, true));
+        assertNull(RevokedCertInfoSnapshot.open(file, ISSUER_DN, PARTITION + 1, true));
+        assertNull(RevokedCertInfoSnapshot.open(file, ISSUER_DN, PARTITION, false));
+        Files.write(file, new byte[] { 1, 2, 3 });
+        assertNull("Invalid file should be ignored", RevokedCertInfoSnapshot.open(file, ISSUER_DN, PARTITION, true));
+    }
+
+    @Test
+    public void testExpiredEntriesAreNotWritten() throws IOException {
+        try (final RevokedCertInfoSnapshot.Writer writer = RevokedCertInfoSnapshot.createWriter(file, ISSUER_DN, PARTITION, true, 100, 100, EXPIRE_DATE)) {
+            writer.add(revokedCertInfo(1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, null));
+            writer.add(new RevokedCertInfo("expired".getBytes(), BigInteger.TEN.toByteArray(), 1000, 0, EXPIRE_DATE - 1, null));
+            writer.commit();
+        }
+        assertEquals(1, RevokedCertInfoSnapshot.open(file, ISSUER_DN, PARTITION, true).getEntryCount());
+    }
+
+    @Test
+    public void testUncommittedSnapshotIsDiscarded() throws IOException {
+        writeSnapshot(100, Arrays.asList(revokedCertInfo(1, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, null)));
+        try (final RevokedCertInfoSnapshot.Writer writer = RevokedCertInfoSnapshot.createWriter(file, ISSUER_DN, PARTITION, true, 200, 200, Long.MIN_VALUE)) {
+            writer.add(revokedCertInfo(2, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, null));
+        }
+        assertEquals(100, RevokedCertInfoSnapshot.open(file, ISSUER_DN, PARTITION, true).getListedAt());
+        assertEquals(1, temporaryFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testTruncatedSnapshot() throws IOException {
+        final List<RevokedCertInfo> revoked = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            revoked.add(revokedCertInfo(i, RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED, null));
+        }
+        writeSnapshot(100, revoked);
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        final RevokedCertInfoSnapshot snapshot = RevokedCertInfoSnapshot.open(file, ISSUER_DN, PARTITION, true);
+        try (final RevokedCertInfoSnapshot.Writer writer = RevokedCertInfoSnapshot.createWriter(file, ISSUER_DN, PARTITION, true, 200, 100, Long.MIN_VALUE)) {
+            snapshot.applyChanges(new ArrayList<>(), writer);
+            fail("Truncated snapshot should not be used");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+        }
+    }
+
+    private void writeSnapshot(final long listedAt, final Collection<RevokedCertInfo> revoked) throws IOException {
+        try (final RevokedCertInfoSnapshot.Writer writer = RevokedCertInfoSnapshot.createWriter(file, ISSUER_DN, PARTITION, true, listedAt, listedAt, Long.MIN_VALUE)) {
+            for (final RevokedCertInfo revokedCertInfo : revoked) {
+                writer.add(revokedCertInfo);
+            }
+            writer.commit();
+        }
+    }
+
+    private static RevokedCertInfo revokedCertInfo(final int i, final int reason, final Long invalidityDate) {
+        return new RevokedCertInfo(("fingerprint" + i).getBytes(), BigInteger.valueOf(i).toByteArray(), i * 1000L, reason, EXPIRE_DATE, invalidityDate);
+    }
+}
@@ -0,0 +1,87 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.bc.BcDigestCalculatorProvider;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.keybind.impl.OcspKeyBinding.ResponderIdType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.keyfactor.util.CertTools;
+import com.keyfactor.util.CryptoProviderTools;
+import com.keyfactor.util.crypto.algorithm.AlgorithmConstants;
+import com.keyfactor.util.keys.KeyTools;
+
+/**
+ * Test of signing OCSP responses with the pre-encoded data of an OCSP signing cache entry.
+ */
+public class HsmResponseThreadUnitTest {
+
+    private static X509Certificate caCertificate;
+    private static OcspSigningCacheEntry ocspSigningCacheEntry;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPair keyPair = KeyTools.genKeys("1024", AlgorithmConstants.KEYALGORITHM_RSA);
+        caCertificate = CertTools.genSelfCert("CN=HsmResponseThreadUnitTest", 1, null, keyPair.getPrivate(), keyPair.getPublic(),
+                AlgorithmConstants.SIGALG_SHA256_WITH_RSA, true);
+        ocspSigningCacheEntry = new OcspSigningCacheEntry(caCertificate, org.cesecore.certificates.certificate.CertificateStatus.OK,
+                Collections.singletonList(caCertificate), null, keyPair.getPrivate(), BouncyCastleProvider.PROVIDER_NAME, null, ResponderIdType.KEYHASH);
+    }
+
+    @Test
+    public void testCertificateChainIsEncodedOnce() throws Exception {
+        assertNotNull(ocspSigningCacheEntry.getResponseCertChainHolders());
+        assertSame("The pre-encoded chain should be reused.", ocspSigningCacheEntry.getResponseCertChainHolders(),
+                ocspSigningCacheEntry.getResponseCertChainHolders());
+        assertEquals(new JcaX509CertificateHolder(caCertificate), ocspSigningCacheEntry.getResponseCertChainHolders()[0]);
+    }
+
+    @Test
+    public void testSignResponse() throws Exception {
+        final CertificateID certId = new CertificateID(new BcDigestCalculatorProvider().get(new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256)),
+                new JcaX509CertificateHolder(caCertificate), BigInteger.valueOf(4711));
+        final Date producedAt = new Date((System.currentTimeMillis() / 1000) * 1000);
+        for (int i = 0; i < 2; i++) {
+            final BasicOCSPRespBuilder basicRes = new BasicOCSPRespBuilder(ocspSigningCacheEntry.getRespId());
+            basicRes.addResponse(certId, CertificateStatus.GOOD);
+            final BasicOCSPResp response = new HsmResponseThread(basicRes, AlgorithmConstants.SIGALG_SHA256_WITH_RSA, ocspSigningCacheEntry, producedAt).call();
+            assertTrue("Response signature should verify.", response.isSignatureValid(CertTools.genContentVerifierProvider(caCertificate.getPublicKey())));
+            assertEquals(ocspSigningCacheEntry.getRespId(), response.getResponderId());
+            assertEquals(producedAt, response.getProducedAt());
+            assertArrayEquals(ocspSigningCacheEntry.getResponseCertChainHolders(), response.getCerts());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA: The OpenSource Certificate Authority                          *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+/**
+ * Unit test of the batched clean up in {@link OcspResponseCleanupSessionBean}
+ */
+public class OcspResponseCleanupSessionUnitTest {
+
+    private static final int CA_ID = 4711;
+    private static final long CUTOFF_TIME = 100000L;
+
+    private final OcspDataSessionLocal ocspDataSessionMock = EasyMock.createStrictMock(OcspDataSessionLocal.class);
+    private final OcspResponseCleanupSessionBean cleanupSession = new OcspResponseCleanupSessionBean(ocspDataSessionMock);
+
+    private static Object[] row(final String id, final String serialNumber, final long producedAt) {
+        return new Object[] { id, serialNumber, producedAt };
+    }
+
+    /** Tests that the first batch is read without a serial number condition, and that the following batches continue after the last complete serial number. */
+    @Test
+    public void cleanUpSeveralBatches() {
+        // The last serial number of a full batch may continue in the next batch, so it is left for the next batch
+        expect(ocspDataSessionMock.findOcspDataForCleanup(eq(CA_ID), eq(CUTOFF_TIME), isNull(), eq(4))).andReturn(Arrays.asList(
+                row("id1", "01", 300L), row("id2", "01", 200L), row("id3", "02", 300L), row("id4", "03", 300L)));
+        expect(ocspDataSessionMock.deleteOcspDataByIds(Collections.singletonList("id2"))).andReturn(1);
+        expect(ocspDataSessionMock.findOcspDataForCleanup(eq(CA_ID), eq(CUTOFF_TIME), eq("02"), eq(4))).andReturn(Arrays.asList(
+                row("id4", "03", 300L), row("id5", "03", 200L), row("id6", "03", 100L), row("id7", "04", 300L)));
+        expect(ocspDataSessionMock.deleteOcspDataByIds(Arrays.asList("id5", "id6"))).andReturn(2);
+        expect(ocspDataSessionMock.findOcspDataForCleanup(eq(CA_ID), eq(CUTOFF_TIME), eq("03"), eq(4))).andReturn(Arrays.asList(
+                row("id7", "04", 300L), row("id8", "04", 200L)));
+        expect(ocspDataSessionMock.deleteOcspDataByIds(Collections.singletonList("id8"))).andReturn(1);
+        replay(ocspDataSessionMock);
+        final OcspResponseCleanupSessionBean.CleanupProgress progress = new OcspResponseCleanupSessionBean.CleanupProgress(1);
+        assertEquals("Wrong number of deleted rows.", 4, cleanupSession.cleanUpOcspResponses(CA_ID, CUTOFF_TIME, 4, progress));
+        assertEquals("Wrong number of deleted rows in progress.", 4, progress.getRowsDeleted());
+        verify(ocspDataSessionMock);
+    }
+
+    /** Tests that a batch with a single serial number is read again, also when it is the first batch. */
+    @Test
+    public void cleanUpSingleSerialNumberInFirstBatch() {
+        expect(ocspDataSessionMock.findOcspDataForCleanup(eq(CA_ID), eq(CUTOFF_TIME), isNull(), eq(3))).andReturn(Arrays.asList(
+                row("id1", "01", 500L), row("id2", "01", 400L), row("id3", "01", 300L)));
+        expect(ocspDataSessionMock.deleteOcspDataByIds(Arrays.asList("id2", "id3"))).andReturn(2);
+        expect(ocspDataSessionMock.findOcspDataForCleanup(eq(CA_ID), eq(CUTOFF_TIME), isNull(), eq(3))).andReturn(Arrays.asList(
+                row("id1", "01", 500L), row("id4", "01", 200L), row("id5", "02", 500L)));
+        expect(ocspDataSessionMock.deleteOcspDataByIds(Collections.singletonList("id4"))).andReturn(1);
+        expect(ocspDataSessionMock.findOcspDataForCleanup(eq(CA_ID), eq(CUTOFF_TIME), eq("01"), eq(3))).andReturn(Collections.singletonList(
+                row("id5", "02", 500L)));
+        expect(ocspDataSessionMock.deleteOcspDataByIds(new ArrayList<>())).andReturn(0);
+        replay(ocspDataSessionMock);
+        assertEquals("Wrong number of deleted rows.", 3, cleanupSession.cleanUpOcspResponses(CA_ID, CUTOFF_TIME, 3, new OcspResponseCleanupSessionBean.CleanupProgress(1)));
+        verify(ocspDataSessionMock);
+    }
+
+    /** Tests that nothing is deleted when there are no old responses */
+    @Test
+    public void cleanUpNothing() {
+        expect(ocspDataSessionMock.findOcspDataForCleanup(eq(CA_ID), eq(CUTOFF_TIME), isNull(), eq(10))).andReturn(new ArrayList<>());
+        replay(ocspDataSessionMock);
+        assertEquals("Wrong number of deleted rows.", 0, cleanupSession.cleanUpOcspResponses(CA_ID, CUTOFF_TIME, 10, new OcspResponseCleanupSessionBean.CleanupProgress(1)));
+        verify(ocspDataSessionMock);
+    }
+}
@@ -0,0 +1,86 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.cesecore.certificates.ocsp.exception.OcspSigningQueueFullException;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.OcspConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link OcspSigningScheduler}
+ */
+public class OcspSigningSchedulerUnitTest {
+
+    private static final String SLOW_KEY = OcspSigningScheduler.getKey(1, "slowKey");
+    private static final String FAST_KEY = OcspSigningScheduler.getKey(2, "fastKey");
+
+    private String defaultConcurrency;
+    private String defaultQueueSize;
+
+    @Before
+    public void before() {
+        defaultConcurrency = ConfigurationHolder.getString(OcspConfiguration.SIGNING_MAX_CONCURRENCY);
+        defaultQueueSize = ConfigurationHolder.getString(OcspConfiguration.SIGNING_QUEUE_SIZE);
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_MAX_CONCURRENCY, "1");
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_QUEUE_SIZE, "2");
+        OcspSigningScheduler.INSTANCE.reset();
+    }
+
+    @After
+    public void after() {
+        OcspSigningScheduler.INSTANCE.reset();
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_MAX_CONCURRENCY, defaultConcurrency);
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_QUEUE_SIZE, defaultQueueSize);
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<String> blocked = OcspSigningScheduler.INSTANCE.submit(SLOW_KEY, () -> {
+            started.countDown();
+            release.await();
+            return "blocked";
+        });
+        assertTrue("Signing thread did not start.", started.await(10, TimeUnit.SECONDS));
+        final Future<String> queued1 = OcspSigningScheduler.INSTANCE.submit(SLOW_KEY, () -> "queued1");
+        final Future<String> queued2 = OcspSigningScheduler.INSTANCE.submit(SLOW_KEY, () -> "queued2");
+        assertEquals(2, OcspSigningScheduler.INSTANCE.getQueueDepth(SLOW_KEY));
+        try {
+            OcspSigningScheduler.INSTANCE.submit(SLOW_KEY, () -> "rejected");
+            fail("Should be rejected when the queue is full.");
+        } catch (OcspSigningQueueFullException e) {
+            // Expected
+        }
+        assertEquals(1, OcspSigningScheduler.INSTANCE.getRejectedCount(SLOW_KEY));
+        // Other keys should not be affected by the slow key
+        assertEquals("fast", OcspSigningScheduler.INSTANCE.submit(FAST_KEY, () -> "fast").get(10, TimeUnit.SECONDS));
+        release.countDown();
+        assertEquals("blocked", blocked.get(10, TimeUnit.SECONDS));
+        assertEquals("queued1", queued1.get(10, TimeUnit.SECONDS));
+        assertEquals("queued2", queued2.get(10, TimeUnit.SECONDS));
+        assertEquals(0, OcspSigningScheduler.INSTANCE.getQueueDepth(SLOW_KEY));
+        assertTrue(OcspSigningScheduler.INSTANCE.getStatistics().contains("completed=3, rejected=1"));
+    }
+}
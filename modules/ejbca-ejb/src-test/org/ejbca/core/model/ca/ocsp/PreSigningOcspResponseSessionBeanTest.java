@@ -15,6 +15,11 @@ package org.ejbca.core.model.ca.ocsp;
 import org.cesecore.certificates.ca.X509CA;
 import org.cesecore.certificates.certificate.BaseCertificateData;
 import org.cesecore.certificates.certificate.CertificateData;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.oscp.OcspResponseData;
 import org.easymock.EasyMockRunner;
 import org.easymock.Mock;
 import org.easymock.TestSubject;
@@ -25,9 +30,14 @@ import org.junit.runner.RunWith;
 
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.cesecore.certificates.certificate.CertificateConstants.DEFAULT_CERTID_HASH_ALGORITHM;
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
@@ -35,6 +45,7 @@ import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.mock;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 
 /**
  * Unit test for {@link PreSigningOcspResponseSessionBean}
@@ -47,6 +58,9 @@ public class PreSigningOcspResponseSessionBeanTest {
 	@Mock
 	private OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession;
 
+	@Mock
+	private CertificateStoreSessionLocal certificateStoreSession;
+
 	@TestSubject
 	private final PreSigningOcspResponseSessionBean testInstance = new PreSigningOcspResponseSessionBean();
 
@@ -149,4 +163,52 @@ public class PreSigningOcspResponseSessionBeanTest {
 		//then
 		verify(ocspResponseGeneratorSession);
 	}
+
+	@Test
+	public void shouldPreSignAllCertificatesOfCaInBatches() throws Exception {
+		//given
+		final String batchSize = ConfigurationHolder.getString(OcspConfiguration.PRESIGNING_BATCH_SIZE);
+		ConfigurationHolder.updateConfiguration(OcspConfiguration.PRESIGNING_BATCH_SIZE, "2");
+		try {
+			X509Certificate certificate = mock(X509Certificate.class);
+			X509CA ca = createMock(X509CA.class);
+			expect(ca.isDoPreProduceOcspResponses()).andReturn(true);
+			expect(ca.getCertificateChain()).andReturn(Collections.singletonList(certificate));
+			expect(ca.getSubjectDN()).andReturn("CN=CA").anyTimes();
+			expect(ca.getCAId()).andReturn(4711).anyTimes();
+			expect(ca.getName()).andReturn("CA").anyTimes();
+			replay(ca);
+
+			// The status of each batch is looked up with a single query
+			final Map<BigInteger, CertificateStatus> statuses = new HashMap<>();
+			statuses.put(BigInteger.ONE, CertificateStatus.OK);
+			statuses.put(BigInteger.valueOf(2), CertificateStatus.OK);
+			expect(certificateStoreSession.findSerialNrByIssuerAndExpireDateWithLimitAndOffset("CN=CA", 0L, 2, 0)).andReturn(Arrays.asList("1", "2"));
+			expect(certificateStoreSession.getStatuses("CN=CA", Arrays.asList(BigInteger.ONE, BigInteger.valueOf(2)))).andReturn(statuses);
+			expect(certificateStoreSession.findSerialNrByIssuerAndExpireDateWithLimitAndOffset("CN=CA", 0L, 2, 2)).andReturn(Collections.singletonList("3"));
+			expect(certificateStoreSession.getStatuses("CN=CA", Collections.singletonList(BigInteger.valueOf(3))))
+					.andReturn(Collections.singletonMap(BigInteger.valueOf(3), CertificateStatus.REVOKED));
+			replay(certificateStoreSession);
+
+			for (final String serialNumber : Arrays.asList("1", "2", "3")) {
+				// No response is persisted for the second certificate, e.g. because it has expired
+				expect(ocspResponseGeneratorSession.preProduceOcspResponse(eq(certificate), eq(new BigInteger(serialNumber)),
+						eq("3".equals(serialNumber) ? CertificateStatus.REVOKED : CertificateStatus.OK), eq(true), eq(true),
+						eq(DEFAULT_CERTID_HASH_ALGORITHM))).andReturn("2".equals(serialNumber) ? null : new OcspResponseData());
+			}
+			ocspResponseGeneratorSession.storePreProducedOcspResponses(anyInt(), anyObject());
+			expectLastCall().times(2);
+			replay(ocspResponseGeneratorSession);
+
+			//when
+			final int stored = testInstance.preSignOcspResponses(ca, 0L).get();
+
+			//then
+			assertEquals(2, stored);
+			verify(certificateStoreSession);
+			verify(ocspResponseGeneratorSession);
+		} finally {
+			ConfigurationHolder.updateConfiguration(OcspConfiguration.PRESIGNING_BATCH_SIZE, batchSize);
+		}
+	}
 }
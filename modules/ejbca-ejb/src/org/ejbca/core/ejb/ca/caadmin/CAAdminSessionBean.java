@@ -60,6 +60,9 @@ import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.xml.bind.DatatypeConverter;
 
 import org.apache.commons.collections4.CollectionUtils;
@@ -182,6 +185,7 @@ import org.ejbca.core.ejb.audit.enums.EjbcaServiceTypes;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
 import org.ejbca.core.ejb.ca.revoke.RevocationSessionLocal;
 import org.ejbca.core.ejb.crl.PublishingCrlSessionLocal;
+import org.ejbca.core.ejb.ocsp.PreSigningOcspResponseSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityAccessSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
 import org.ejbca.core.ejb.ra.NoSuchEndEntityException;
@@ -208,6 +212,7 @@ import org.ejbca.core.model.ra.userdatasource.BaseUserDataSource;
 import org.ejbca.core.model.services.ServiceConfiguration;
 import org.ejbca.cvc.CardVerifiableCertificate;
 import org.ejbca.util.CAIdTools;
+import org.ejbca.util.CAUtils;
 
 import com.keyfactor.CesecoreException;
 import com.keyfactor.ErrorCode;
@@ -267,6 +272,8 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
     @EJB
     private InternalKeyBindingMgmtSessionLocal keyBindMgmtSession;
     @EJB
+    private PreSigningOcspResponseSessionLocal preSigningOcspResponseSession;
+    @EJB
     private PublisherSessionLocal publisherSession;
     @EJB
     private PublishingCrlSessionLocal publishingCrlSession;
@@ -285,6 +292,8 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
 
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
     // Myself needs to be looked up in postConstruct
     private CAAdminSessionLocal caAdminSession;
 
@@ -2551,6 +2560,7 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
             if (ca.getStatus() != CAConstants.CA_EXTERNAL) {
                 certificateStoreSession.revokeAllCertByCA(admin, ca.getSubjectDN(), reason);
                 publishingCrlSession.forceCRL(admin, ca.getCAId());
+                preSignOcspResponsesAfterCommit(ca, now.getTime());
             }
             ca.setRevocationReason(reason);
             ca.setRevocationDate(new Date());
@@ -2574,6 +2584,27 @@ public class CAAdminSessionBean implements CAAdminSessionLocal, CAAdminSessionRe
         }
     }
 
+    /**
+     * Pre-produces new OCSP responses for all unexpired certificates of a CA in the background, once the revocation of all its
+     * certificates has been committed, if the CA pre-produces OCSP responses upon revocation.
+     */
+    private void preSignOcspResponsesAfterCommit(final CACommon ca, final long expireDate) {
+        if (!(ca instanceof CA) || !CAUtils.isDoPreProduceOcspResponses((CA) ca) || !CAUtils.isDoPreProduceOcspResponsesUponIssuanceAndRevocation((CA) ca)) {
+            return;
+        }
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {}
+
+            @Override
+            public void afterCompletion(final int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    preSigningOcspResponseSession.preSignOcspResponses((CA) ca, expireDate);
+                }
+            }
+        });
+    }
+
     @Override
     public void importCAFromKeyStore(AuthenticationToken admin, String caname, byte[] p12file, String keystorepass, String privkeypass,
                                      String privateSignatureKeyAlias, String privateEncryptionKeyAlias) {
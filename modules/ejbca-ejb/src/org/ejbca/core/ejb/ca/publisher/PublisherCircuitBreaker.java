@@ -0,0 +1,224 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ca.publisher;
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.ejbca.config.EjbcaConfiguration;
+import org.ejbca.core.model.InternalEjbcaResources;
+import org.ejbca.core.model.ca.publisher.BasePublisher;
+
+/**
+ * Keeps track of consecutive failures to reach each publisher on this node. When a publisher could not be reached
+ * publisher.circuitbreaker.failures times in a row, the circuit is open and certificates are stored in the publisher queue without
+ * trying the publisher first, so that issuance does not wait for the timeouts of a publisher that is down. Only failures that show that
+ * the publisher is unavailable are counted (see {@link #isUnavailable(Throwable)}). A publisher that rejects a certificate has been reached.
+ * <p>
+ * The circuit is half open while a single caller tries the publisher. This happens when the Publish Queue Process Service probes the
+ * publisher with an entry from the queue, and on issuance when the circuit has been open for publisher.circuitbreaker.retrytime milliseconds.
+ * The circuit is closed if the publisher could be reached, and opened again otherwise. Each node has its own circuits.
+ */
+public enum PublisherCircuitBreaker {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(PublisherCircuitBreaker.class);
+    private static final InternalEjbcaResources intres = InternalEjbcaResources.getInstance();
+
+    /** Parts of exception messages that show that a publisher could not be reached, as opposed to having rejected a certificate. */
+    private static final String[] UNAVAILABLE_MESSAGE_INDICATORS = { "timed out", "timeout", "connect", "can't contact", "unavailable" };
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final class Circuit {
+        private State state = State.CLOSED;
+        private int failures = 0;
+        /** Time of the last change to OPEN or HALF_OPEN */
+        private long stateChanged = 0;
+    }
+
+    private final ConcurrentMap<Integer, Circuit> circuits = new ConcurrentHashMap<>();
+
+    /**
+     * Checks if a certificate should be published directly. When the circuit has been open, or half open, for longer than the retry time,
+     * the circuit is made half open and the caller may try the publisher. The outcome must then be recorded with {@link #recordSuccess} or
+     * {@link #recordFailure}.
+     *
+     * @return true if certificates should be published directly, false if they should only be stored in the queue
+     */
+    public boolean isDirectPublishingAllowed(final BasePublisher publisher) {
+        final Circuit circuit = circuits.get(publisher.getPublisherId());
+        if (circuit == null) {
+            return true;
+        }
+        synchronized (circuit) {
+            if (circuit.state == State.CLOSED) {
+                return true;
+            }
+            final long now = System.currentTimeMillis();
+            if (now - circuit.stateChanged < EjbcaConfiguration.getPublisherCircuitBreakerRetryTime()) {
+                return false;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Trying publisher " + publisher.getPublisherId() + " after " + (now - circuit.stateChanged) + " ms with an open circuit.");
+            }
+            circuit.state = State.HALF_OPEN;
+            circuit.stateChanged = now;
+            return true;
+        }
+    }
+
+    /** @return true if the circuit is closed, without making an open circuit half open */
+    public boolean isClosed(final BasePublisher publisher) {
+        final Circuit circuit = circuits.get(publisher.getPublisherId());
+        if (circuit == null) {
+            return true;
+        }
+        synchronized (circuit) {
+            return circuit.state == State.CLOSED;
+        }
+    }
+
+    /** @return the number of consecutive failures of a publisher */
+    public int getFailures(final BasePublisher publisher) {
+        final Circuit circuit = circuits.get(publisher.getPublisherId());
+        if (circuit == null) {
+            return 0;
+        }
+        synchronized (circuit) {
+            return circuit.failures;
+        }
+    }
+
+    /** Records that a publisher could be reached, whether or not it accepted the certificate, which closes the circuit. */
+    public void recordSuccess(final BasePublisher publisher) {
+        final Circuit circuit = circuits.get(publisher.getPublisherId());
+        if (circuit == null) {
+            return;
+        }
+        synchronized (circuit) {
+            if (circuit.state != State.CLOSED) {
+                log.info(intres.getLocalizedMessage("publisher.circuitclosed", publisher.getName()));
+            }
+            circuit.state = State.CLOSED;
+            circuit.failures = 0;
+        }
+    }
+
+    /** Records that a publisher could not be reached, which opens the circuit after too many failures in a row, or when it is half open. */
+    public void recordFailure(final BasePublisher publisher) {
+        final int maxFailures = EjbcaConfiguration.getPublisherCircuitBreakerFailures();
+        if (maxFailures == 0) {
+            return;
+        }
+        final Circuit circuit = circuits.computeIfAbsent(publisher.getPublisherId(), id -> new Circuit());
+        synchronized (circuit) {
+            circuit.failures++;
+            if (circuit.state == State.HALF_OPEN || (circuit.state == State.CLOSED && circuit.failures >= maxFailures)) {
+                if (circuit.state == State.CLOSED) {
+                    log.warn(intres.getLocalizedMessage("publisher.circuitopened", publisher.getName(), circuit.failures));
+                }
+                circuit.state = State.OPEN;
+                circuit.stateChanged = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Makes an open circuit half open, so that the caller can probe the publisher. The probe must be ended with {@link #endProbe}.
+     *
+     * @return true if the caller should probe the publisher, false if the circuit is closed or another caller is trying the publisher
+     */
+    public boolean startProbe(final BasePublisher publisher) {
+        final Circuit circuit = circuits.get(publisher.getPublisherId());
+        if (circuit == null) {
+            return false;
+        }
+        synchronized (circuit) {
+            if (circuit.state != State.OPEN) {
+                return false;
+            }
+            circuit.state = State.HALF_OPEN;
+            circuit.stateChanged = System.currentTimeMillis();
+            return true;
+        }
+    }
+
+    /**
+     * Ends a probe started with {@link #startProbe}, and records the outcome unless it has been recorded already. If the probed entries
+     * did not show whether the publisher can be reached, for example because they were CRLs or their certificates were not found,
+     * the circuit is opened again without counting a failure.
+     *
+     * @param result the result of publishing the probed entries
+     * @return true if the outcome is known, false if the next entry in the queue should be probed
+     */
+    public boolean endProbe(final BasePublisher publisher, final PublishingResult result) {
+        final Circuit circuit = circuits.get(publisher.getPublisherId());
+        if (circuit == null) {
+            return true;
+        }
+        synchronized (circuit) {
+            if (circuit.state != State.HALF_OPEN) {
+                return true;
+            }
+            if (result.getUnavailableCount() == 0 && result.getAvailableCount() == 0) {
+                circuit.state = State.OPEN;
+                return false;
+            }
+        }
+        if (result.getUnavailableCount() > 0) {
+            recordFailure(publisher);
+        } else {
+            recordSuccess(publisher);
+        }
+        return true;
+    }
+
+    /**
+     * @param throwable the exception thrown when publishing
+     * @return true if the exception, or one of its causes, shows that the publisher could not be reached
+     */
+    public static boolean isUnavailable(final Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof SocketException || t instanceof InterruptedIOException || t instanceof UnknownHostException) {
+                return true;
+            }
+            if (t.getMessage() != null) {
+                final String message = t.getMessage().toLowerCase(Locale.ROOT);
+                for (final String indicator : UNAVAILABLE_MESSAGE_INDICATORS) {
+                    if (message.contains(indicator)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Forgets the failures of a publisher, for example when it has been edited. */
+    public void removeEntry(final int publisherId) {
+        circuits.remove(publisherId);
+    }
+
+    /** Forgets the failures of all publishers. */
+    public void flush() {
+        circuits.clear();
+    }
+}
@@ -0,0 +1,67 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ca.publisher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ejbca.config.EjbcaConfiguration;
+
+/**
+ * Chooses how many publisher queue entries are published in each transaction, from the time it has taken to publish earlier entries
+ * of the same publisher on this node. Chunks of a fast publisher are large, to save transactions, and chunks of a slow publisher are
+ * small, so that each transaction takes about publisherqueue.chunktime milliseconds and entries are committed regularly.
+ */
+public enum PublisherQueueChunkSizer {
+    INSTANCE;
+
+    /** Chunk size of a publisher that has not published anything yet, which was the fixed chunk size in earlier versions */
+    static final int INITIAL_CHUNK_SIZE = 100;
+    static final int MIN_CHUNK_SIZE = 10;
+    static final int MAX_CHUNK_SIZE = 1000;
+    /** Weight of the latest chunk in the average time per entry */
+    private static final double SMOOTHING = 0.3;
+
+    /** Exponential moving average of the time in milliseconds it takes to publish one entry, by publisher id */
+    private final ConcurrentMap<Integer, Double> entryTimes = new ConcurrentHashMap<>();
+
+    /** @return the number of entries to publish in the next chunk of a publisher */
+    public int getChunkSize(final int publisherId) {
+        final Double entryTime = entryTimes.get(publisherId);
+        if (entryTime == null) {
+            return INITIAL_CHUNK_SIZE;
+        }
+        final double chunkSize = EjbcaConfiguration.getPublisherQueueChunkTime() / Math.max(entryTime, 0.1);
+        return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+    }
+
+    /**
+     * Records the time it took to publish a chunk.
+     *
+     * @param publisherId the publisher of the chunk
+     * @param entries the number of entries that were published, or failed to be published
+     * @param time the time in milliseconds it took to publish the chunk
+     */
+    public void recordChunk(final int publisherId, final int entries, final long time) {
+        if (entries <= 0) {
+            return;
+        }
+        final double entryTime = (double) time / entries;
+        entryTimes.merge(publisherId, entryTime, (average, latest) -> average + SMOOTHING * (latest - average));
+    }
+
+    /** Forgets the times of all publishers. */
+    public void flush() {
+        entryTimes.clear();
+    }
+}
@@ -18,14 +18,20 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.PostConstruct;
@@ -44,12 +50,12 @@ import javax.persistence.PersistenceContext;
 
 import org.apache.log4j.Logger;
 import org.cesecore.authentication.tokens.AuthenticationToken;
-import org.cesecore.certificates.certificate.BaseCertificateData;
 import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.certificate.NoConflictCertificateStoreSessionLocal;
 import org.cesecore.certificates.crl.CRLData;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
 import org.cesecore.certificates.endentity.ExtendedInformation;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.config.ExternalScriptsConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.jndi.JndiConstants;
@@ -60,6 +66,7 @@ import org.ejbca.config.GlobalConfiguration;
 import org.ejbca.core.ejb.ocsp.OcspDataSessionLocal;
 import org.ejbca.core.model.InternalEjbcaResources;
 import org.ejbca.core.model.ca.publisher.BasePublisher;
+import org.ejbca.core.model.ca.publisher.CertificatePublishingItem;
 import org.ejbca.core.model.ca.publisher.CustomPublisherContainer;
 import org.ejbca.core.model.ca.publisher.PublisherConst;
 import org.ejbca.core.model.ca.publisher.PublisherException;
@@ -82,6 +89,14 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
     private static final String TIMEOUT_MESSAGE_INDICATOR = "timed out";
     
     private static final long MAX_JOBS_PER_QUEUE_WORKER = 200000L;
+    /** Number of entries that are published to probe a publisher whose circuit is open. Regular chunks are larger. */
+    private static final int PROBE_CHUNK_SIZE = 1;
+    /** Number of entries that are probed in a row, when they do not show whether the publisher can be reached */
+    private static final int MAX_PROBE_ENTRIES = 10;
+    /** Number of times a thread tries to claim a chunk, when other workers claimed the same entries first */
+    private static final int MAX_CLAIM_ATTEMPTS = 3;
+    /** Maximum number of threads that publish from the queue of a publisher, whatever publisherqueue.threads is set to */
+    private static final int MAX_PUBLISHER_QUEUE_THREADS = 32;
 
     @PersistenceContext(unitName = "ejbca")
     private EntityManager entityManager;
@@ -236,7 +251,23 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
 
     @Override
     public Collection<PublisherQueueData> getPendingEntriesForPublisherWithLimit(int publisherId, int limit) {
-        return getPendingEntriesForPublisherWithLimitAndOffset(publisherId, limit, 0);
+        return getPendingEntriesForPublisherAfter(publisherId, limit, 0, null);
+    }
+
+    /** @return pending entries that come after the given entry, oldest first, see {@link org.ejbca.core.ejb.ca.publisher.PublisherQueueData#findDataByPublisherIdAndStatusAfter} */
+    private List<PublisherQueueData> getPendingEntriesForPublisherAfter(final int publisherId, final int limit, final long afterTimeCreated,
+            final String afterPk) {
+        final List<org.ejbca.core.ejb.ca.publisher.PublisherQueueData> publisherQueueDataList = org.ejbca.core.ejb.ca.publisher.PublisherQueueData
+                .findDataByPublisherIdAndStatusAfter(entityManager, publisherId, PublisherConst.STATUS_PENDING, afterTimeCreated, afterPk, limit);
+        final List<PublisherQueueData> ret = new ArrayList<>(publisherQueueDataList.size());
+        for (final org.ejbca.core.ejb.ca.publisher.PublisherQueueData d : publisherQueueDataList) {
+            ret.add(new PublisherQueueData(d.getPk(), new Date(d.getTimeCreated()), new Date(d.getLastUpdate()), PublisherConst.STATUS_PENDING,
+                    d.getTryCounter(), d.getPublishType(), d.getFingerprint(), publisherId, d.getPublisherQueueVolatileData()));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Found " + ret.size() + " pending entries for publisher " + publisherId + (afterPk == null ? "" : " after entry " + afterPk));
+        }
+        return ret;
     }
 
     @Override
@@ -321,19 +352,194 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
         // this is because when publishing starts to work we want to publish everything in one go, if possible.
         // However, we don't want to publish more than 20000 certificates each time, because we want to commit to the database some time as well.
         int totalCount = 0;
+        int probedEntries = 0;
+        boolean probeNext;
         do {
-            intermediateResult = publisherQueueSession.doChunk(admin, publisher);
+            final boolean probe = PublisherCircuitBreaker.INSTANCE.startProbe(publisher);
+            final int chunkSize = getNextChunkSize(publisher, probe);
+            if (chunkSize == 0) {
+                break;
+            }
+            final long startTime = System.currentTimeMillis();
+            // Continue after the last entry of the previous chunk, so entries that failed are not tried again
+            intermediateResult = publisherQueueSession.doChunk(admin, publisher, chunkSize, result.getLastTimeCreated(), result.getLastPk());
+            probeNext = endChunk(publisher, probe, intermediateResult, startTime) && ++probedEntries < MAX_PROBE_ENTRIES;
             result.append(intermediateResult);
             totalCount += intermediateResult.getSuccesses();
-        } while ((intermediateResult.getSuccesses() > 0) && (totalCount < maxNumberOfJobs));
+        } while ((intermediateResult.getSuccesses() > 0 || probeNext) && (totalCount < maxNumberOfJobs));
+        return result;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    @Override
+    public PublishingResult doChunk(AuthenticationToken admin, BasePublisher publisher, int maxEntries, long afterTimeCreated, String afterPk) {
+        final List<PublisherQueueData> publisherQueueDatas = getPendingEntriesForPublisherAfter(publisher.getPublisherId(), maxEntries,
+                afterTimeCreated, afterPk);
+        final PublishingResult result = doPublish(admin, publisher, publisherQueueDatas);
+        setLastEntry(result, publisherQueueDatas);
+        return result;
+    }
+
+    /** Sets the last of the entries as the position where the next chunk continues. */
+    private static void setLastEntry(final PublishingResult result, final List<PublisherQueueData> publisherQueueDatas) {
+        if (!publisherQueueDatas.isEmpty()) {
+            final PublisherQueueData last = publisherQueueDatas.get(publisherQueueDatas.size() - 1);
+            result.setLastEntry(last.getTimeCreated().getTime(), last.getPk());
+        }
+    }
+
+    /**
+     * @param probe true if the caller has started a probe of a publisher whose circuit is open
+     * @return the number of entries to publish in the next chunk, {@link #PROBE_CHUNK_SIZE} for a probe, or 0 if another caller is trying the
+     *      publisher
+     */
+    private int getNextChunkSize(final BasePublisher publisher, final boolean probe) {
+        if (probe) {
+            if (log.isDebugEnabled()) {
+                log.debug("Probing publisher " + publisher.getPublisherId() + " with " + PROBE_CHUNK_SIZE + " entry from the queue.");
+            }
+            return PROBE_CHUNK_SIZE;
+        }
+        if (!PublisherCircuitBreaker.INSTANCE.isClosed(publisher)) {
+            return 0;
+        }
+        return PublisherQueueChunkSizer.INSTANCE.getChunkSize(publisher.getPublisherId());
+    }
+
+    /**
+     * Records the outcome of a probe, or the time it took to publish a regular chunk, which decides the size of the next chunk.
+     *
+     * @return true if the chunk was a probe that did not show whether the publisher can be reached, and the next entry should be probed
+     */
+    private boolean endChunk(final BasePublisher publisher, final boolean probe, final PublishingResult chunkResult, final long startTime) {
+        if (probe) {
+            return !PublisherCircuitBreaker.INSTANCE.endProbe(publisher, chunkResult) && chunkResult.getSuccesses() + chunkResult.getFailures() > 0;
+        }
+        PublisherQueueChunkSizer.INSTANCE.recordChunk(publisher.getPublisherId(), chunkResult.getSuccesses() + chunkResult.getFailures(),
+                System.currentTimeMillis() - startTime);
+        return false;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    @Override
+    public PublishingResult publishClaimedChunks(final AuthenticationToken admin, final BasePublisher publisher, final long maxNumberOfJobs) {
+        final long maxJobs;
+        if (maxNumberOfJobs > MAX_JOBS_PER_QUEUE_WORKER || maxNumberOfJobs <= 0) {
+            log.warn("Number of maxmimum jobs for the queue worker must be between 1 and " + MAX_JOBS_PER_QUEUE_WORKER + ". Using the default of "
+                    + PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS + " instead.");
+            maxJobs = PublishQueueProcessWorker.DEFAULT_QUEUE_WORKER_JOBS;
+        } else {
+            maxJobs = maxNumberOfJobs;
+        }
+        final int threads = Math.min(EjbcaConfiguration.getPublisherQueueThreads(), MAX_PUBLISHER_QUEUE_THREADS);
+        final long leaseTime = EjbcaConfiguration.getPublisherQueueLeaseTime();
+        // Successes of all threads, so the threads stop together when maxJobs is reached
+        final AtomicLong totalSuccesses = new AtomicLong();
+        if (threads == 1) {
+            return publishClaimedChunks(admin, publisher, maxJobs, leaseTime, totalSuccesses);
+        }
+        final PublishingResult result = new PublishingResult();
+        // The calling thread is one of the threads, the others run in the shared thread pool of this bean
+        final List<Future<PublishingResult>> futures = new ArrayList<>(threads - 1);
+        try {
+            for (int i = 1; i < threads; i++) {
+                futures.add(getExecutorService().submit(() -> publishClaimedChunks(admin, publisher, maxJobs, leaseTime, totalSuccesses)));
+            }
+            result.append(publishClaimedChunks(admin, publisher, maxJobs, leaseTime, totalSuccesses));
+            for (final Future<PublishingResult> future : futures) {
+                result.append(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EJBException("Interrupted while publishing from the queue of publisher " + publisher.getPublisherId() + ".", e);
+        } catch (ExecutionException e) {
+            throw new EJBException("Failed to publish from the queue of publisher " + publisher.getPublisherId() + ".", e);
+        } finally {
+            // Only has an effect if publishing failed or was interrupted
+            for (final Future<PublishingResult> future : futures) {
+                future.cancel(true);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Published " + result.getSuccesses() + " entries from the queue of publisher " + publisher.getPublisherId() + " using " + threads
+                    + " threads, " + result.getFailures() + " failed.");
+        }
+        return result;
+    }
+
+    /**
+     * Claims and publishes chunks until the queue is empty, a chunk has no successes or maxJobs entries have been published by all threads.
+     * Each chunk is claimed after the last entry of the previous chunk of this thread, so entries that failed are not tried again.
+     */
+    private PublishingResult publishClaimedChunks(final AuthenticationToken admin, final BasePublisher publisher, final long maxJobs,
+            final long leaseTime, final AtomicLong totalSuccesses) {
+        final PublishingResult result = new PublishingResult();
+        int probedEntries = 0;
+        while (totalSuccesses.get() < maxJobs) {
+            final boolean probe = PublisherCircuitBreaker.INSTANCE.startProbe(publisher);
+            final int chunkSize = getNextChunkSize(publisher, probe);
+            if (chunkSize == 0) {
+                break;
+            }
+            final long startTime = System.currentTimeMillis();
+            final String leaseOwner = CesecoreConfiguration.getNodeIdentifier() + ";" + UUID.randomUUID().toString();
+            int claimed = 0;
+            for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS && claimed == 0; attempt++) {
+                claimed = publisherQueueSession.claimChunk(publisher.getPublisherId(), leaseOwner, chunkSize, leaseTime, result.getLastTimeCreated(),
+                        result.getLastPk());
+            }
+            final PublishingResult chunkResult = claimed == 0 ? new PublishingResult() : publisherQueueSession.doClaimedChunk(admin, publisher, leaseOwner);
+            final boolean probeNext = endChunk(publisher, probe, chunkResult, startTime) && ++probedEntries < MAX_PROBE_ENTRIES;
+            if (claimed == 0) {
+                break;
+            }
+            result.append(chunkResult);
+            if (chunkResult.getSuccesses() == 0 && !probeNext) {
+                break;
+            }
+            totalSuccesses.addAndGet(chunkResult.getSuccesses());
+        }
         return result;
     }
 
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     @Override
-    public PublishingResult doChunk(AuthenticationToken admin, BasePublisher publisher) {
-        final Collection<PublisherQueueData> publisherQueueDatas = getPendingEntriesForPublisherWithLimit(publisher.getPublisherId(), 100);
-        return doPublish(admin, publisher, publisherQueueDatas);
+    public int claimChunk(final int publisherId, final String leaseOwner, final int maxEntries, final long leaseTime, final long afterTimeCreated,
+            final String afterPk) {
+        final long now = System.currentTimeMillis();
+        final List<String> pks = org.ejbca.core.ejb.ca.publisher.PublisherQueueData.findUnclaimedPendingPks(entityManager, publisherId, now,
+                afterTimeCreated, afterPk, maxEntries);
+        if (pks.isEmpty()) {
+            return 0;
+        }
+        // Entries claimed by another worker since they were listed are skipped by the update
+        final int claimed = org.ejbca.core.ejb.ca.publisher.PublisherQueueData.claimPendingEntries(entityManager, pks, leaseOwner, now, now + leaseTime);
+        if (log.isDebugEnabled()) {
+            log.debug("Claimed " + claimed + " of " + pks.size() + " queue entries of publisher " + publisherId + " as " + leaseOwner);
+        }
+        return claimed;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    @Override
+    public PublishingResult doClaimedChunk(final AuthenticationToken admin, final BasePublisher publisher, final String leaseOwner) {
+        final List<org.ejbca.core.ejb.ca.publisher.PublisherQueueData> claimedEntries = org.ejbca.core.ejb.ca.publisher.PublisherQueueData
+                .findByLeaseOwner(entityManager, leaseOwner);
+        final List<PublisherQueueData> publisherQueueDatas = new ArrayList<>(claimedEntries.size());
+        for (final org.ejbca.core.ejb.ca.publisher.PublisherQueueData d : claimedEntries) {
+            publisherQueueDatas.add(new PublisherQueueData(d.getPk(), new Date(d.getTimeCreated()), new Date(d.getLastUpdate()), d.getPublishStatus(),
+                    d.getTryCounter(), d.getPublishType(), d.getFingerprint(), d.getPublisherId(), d.getPublisherQueueVolatileData()));
+        }
+        final PublishingResult result = doPublish(admin, publisher, publisherQueueDatas);
+        setLastEntry(result, publisherQueueDatas);
+        // Entries that could not be published, or were not tried, can be claimed by any worker again
+        for (final org.ejbca.core.ejb.ca.publisher.PublisherQueueData d : claimedEntries) {
+            if (entityManager.contains(d)) {
+                d.setLeaseOwner(null);
+                d.setLeaseExpireTime(null);
+            }
+        }
+        return result;
     }
 
     @Override
@@ -359,7 +565,24 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
             log.debug("Found " + publisherQueueData.size() + " certificates to republish for publisher " + publisherId);
         }
         final PublishingResult result = new PublishingResult();
-        for (PublisherQueueData pqd : publisherQueueData) {
+        // Read the certificates of all entries with one query
+        final Map<String, CertificateDataWrapper> certificateDatas;
+        if (publisher != null) {
+            final Set<String> fingerprints = new HashSet<>();
+            for (final PublisherQueueData pqd : publisherQueueData) {
+                if (pqd.getPublishType() == PublisherConst.PUBLISH_TYPE_CERT) {
+                    fingerprints.add(pqd.getFingerprint());
+                }
+            }
+            certificateDatas = fingerprints.isEmpty() ? Collections.emptyMap() : noConflictCertificateStoreSession.getCertificateDatas(fingerprints);
+        } else {
+            certificateDatas = Collections.emptyMap();
+        }
+        Collection<PublisherQueueData> remainingData = publisherQueueData;
+        if (publisher != null && publisher.isBatchPublishingSupported()) {
+            remainingData = publishCertificatesInBatch(admin, publisher, publisherQueueData, certificateDatas, result);
+        }
+        for (PublisherQueueData pqd : remainingData) {
             String fingerprint = pqd.getFingerprint();
             int publishType = pqd.getPublishType();
             if (log.isDebugEnabled()) {
@@ -377,6 +600,8 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
             }
             boolean published = false;
             boolean connectionTimedOut = false;
+            // Whether the publisher could not be reached, for certificates only. Null if the attempt says nothing about the publisher.
+            Boolean unavailable = null;
 
             try {
                 if (publishType == PublisherConst.PUBLISH_TYPE_CERT) {
@@ -384,14 +609,14 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
                         log.debug("Publishing Certificate");
                     }
                     if (publisher != null) {
-                        // Read the actual certificate and try to publish it again
-                        // TODO: we might need change fetch-type for all but the actual cert or a native query w SqlResultSetMapping..
-                        final CertificateDataWrapper certificateDataWrapper = noConflictCertificateStoreSession.getCertificateData(fingerprint);
+                        // Try to publish the actual certificate again
+                        final CertificateDataWrapper certificateDataWrapper = certificateDatas.get(fingerprint);
                         if (certificateDataWrapper==null) {
                             throw new FinderException();
                         }
                         try {
                             published = publisherQueueSession.publishCertificateNonTransactional(publisher, admin, certificateDataWrapper, password, userDataDN, ei);
+                            unavailable = false;
                         } catch (EJBException e) {
                             final Throwable t = e.getCause();
                             if (t instanceof PublisherException) {
@@ -453,26 +678,18 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
                 log.debug(e.getMessage());
                 // We failed to publish, update failcount, so we can break early if nothing succeeds but everything fails.
                 result.addFailure(fingerprint, e.getMessage());
+                if (publishType == PublisherConst.PUBLISH_TYPE_CERT) {
+                    unavailable = PublisherCircuitBreaker.isUnavailable(e);
+                }
                 // We will want to break out early on timeout exceptions, to avoid delaying
                 // Publish Queue Process Service from moving on to the next publisher.
                 if (e.getMessage() != null && e.getMessage().contains(TIMEOUT_MESSAGE_INDICATOR)){
                     connectionTimedOut = true;
                 }
             }
-            if (published) {
-                if (publisher.getKeepPublishedInQueue()) {
-                    // Update with information that publishing was successful
-                    updateData(pqd.getPk(), PublisherConst.STATUS_SUCCESS, pqd.getTryCounter());
-                } else {
-                    // We are done with this one.. nuke it!
-                    removeQueueData(pqd.getPk());
-                }
-                result.addSuccess(fingerprint); // jipeee update success counter
-            } else {
-                // Update with new tryCounter, but same status as before
-                int tryCount = pqd.getTryCounter() + 1;
-                updateData(pqd.getPk(), pqd.getPublishStatus(), tryCount);
-                result.addFailure(fingerprint);
+            updateQueueEntry(publisher, pqd, published, result);
+            if (unavailable != null) {
+                recordAvailability(publisher, !unavailable, result);
             }
             // Break out of the loop immediately if a connection timed out.
             // Publisher is not available for now, so we don't want to get stuck here for up to 99 timeouts.
@@ -499,10 +716,109 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
         return result;
     }
 
+    /**
+     * Publishes the certificates of the entries with one call to {@link BasePublisher#storeCertificates}, and updates the entries
+     * in the current transaction. Entries that the publisher did not attempt are left as they are.
+     *
+     * @return the entries that are not certificates, or whose certificates were not found, and have to be published one by one
+     */
+    private Collection<PublisherQueueData> publishCertificatesInBatch(final AuthenticationToken admin, final BasePublisher publisher,
+            final Collection<PublisherQueueData> publisherQueueData, final Map<String, CertificateDataWrapper> certificateDatas,
+            final PublishingResult result) {
+        final List<PublisherQueueData> batchData = new ArrayList<>();
+        final List<CertificatePublishingItem> items = new ArrayList<>();
+        final List<PublisherQueueData> remainingData = new ArrayList<>();
+        for (final PublisherQueueData pqd : publisherQueueData) {
+            final CertificateDataWrapper certificateDataWrapper = certificateDatas.get(pqd.getFingerprint());
+            if (pqd.getPublishType() != PublisherConst.PUBLISH_TYPE_CERT || certificateDataWrapper == null) {
+                remainingData.add(pqd);
+                continue;
+            }
+            final PublisherQueueVolatileInformation voldata = pqd.getVolatileData();
+            if (voldata != null) {
+                items.add(new CertificatePublishingItem(certificateDataWrapper, voldata.getPassword(), voldata.getUserDN(), voldata.getExtendedInformation()));
+            } else {
+                items.add(new CertificatePublishingItem(certificateDataWrapper, null, null, null));
+            }
+            batchData.add(pqd);
+        }
+        if (items.isEmpty()) {
+            return remainingData;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Publishing " + items.size() + " certificates from queue to publisher " + publisher.getPublisherId() + " in one batch");
+        }
+        final List<Object> results = publisherQueueSession.publishCertificatesNonTransactional(publisher, admin, items);
+        for (int i = 0; i < batchData.size(); i++) {
+            final PublisherQueueData pqd = batchData.get(i);
+            final Object publisherResult = i < results.size() ? results.get(i) : null;
+            if (publisherResult == null) {
+                continue;
+            }
+            if (publisherResult instanceof PublisherException) {
+                final String message = ((PublisherException) publisherResult).getMessage();
+                log.debug(message);
+                result.addFailure(pqd.getFingerprint(), message);
+            }
+            updateQueueEntry(publisher, pqd, Boolean.TRUE.equals(publisherResult), result);
+            final boolean unavailable = publisherResult instanceof PublisherException && PublisherCircuitBreaker.isUnavailable((PublisherException) publisherResult);
+            recordAvailability(publisher, !unavailable, result);
+        }
+        return remainingData;
+    }
+
+    /** Removes or updates a queue entry after an attempt to publish it, and counts the attempt in the result. */
+    private void updateQueueEntry(final BasePublisher publisher, final PublisherQueueData pqd, final boolean published, final PublishingResult result) {
+        if (published) {
+            if (publisher.getKeepPublishedInQueue()) {
+                // Update with information that publishing was successful
+                updateData(pqd.getPk(), PublisherConst.STATUS_SUCCESS, pqd.getTryCounter());
+            } else {
+                // We are done with this one.. nuke it!
+                removeQueueData(pqd.getPk());
+            }
+            result.addSuccess(pqd.getFingerprint()); // jipeee update success counter
+        } else {
+            // Update with new tryCounter, but same status as before
+            int tryCount = pqd.getTryCounter() + 1;
+            updateData(pqd.getPk(), pqd.getPublishStatus(), tryCount);
+            result.addFailure(pqd.getFingerprint());
+        }
+    }
+
+    /**
+     * Records whether a publisher that uses the queue for certificates could be reached when publishing a certificate from the queue,
+     * in the result and in the {@link PublisherCircuitBreaker}. CRLs, OCSP responses and certificates that were not found are not recorded.
+     */
+    private void recordAvailability(final BasePublisher publisher, final boolean available, final PublishingResult result) {
+        if (!publisher.getUseQueueForCertificates()) {
+            return;
+        }
+        result.addAvailability(available);
+        if (available) {
+            PublisherCircuitBreaker.INSTANCE.recordSuccess(publisher);
+        } else {
+            PublisherCircuitBreaker.INSTANCE.recordFailure(publisher);
+        }
+    }
+
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     @Override
     public boolean publishCertificateNonTransactional(BasePublisher publisher, AuthenticationToken admin, CertificateDataWrapper certWrapper,
             String password, String userDN, ExtendedInformation extendedinformation) throws PublisherException {
+        setExternalScriptsAllowlist(publisher);
+        return publisher.storeCertificate(admin, new CertificatePublishingItem(certWrapper, password, userDN, extendedinformation));
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    @Override
+    public List<Object> publishCertificatesNonTransactional(final BasePublisher publisher, final AuthenticationToken admin,
+            final List<CertificatePublishingItem> items) {
+        setExternalScriptsAllowlist(publisher);
+        return publisher.storeCertificates(admin, items);
+    }
+
+    private void setExternalScriptsAllowlist(final BasePublisher publisher) {
         if (publisher.isCallingExternalScript()) {
             final ExternalScriptsConfiguration externalScriptsConfiguration = (ExternalScriptsConfiguration) globalConfigurationSession.
                     getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID);
@@ -517,26 +833,6 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
                 publisher.setExternalScriptsAllowlist(allowlist);
             }
         }
-        if (publisher.isFullEntityPublishingSupported()) {
-            return publisher.storeCertificate(admin, certWrapper.getCertificateDataOrCopy(), certWrapper.getBase64CertData(), password, userDN, extendedinformation);
-        } else {
-            final BaseCertificateData certificateData = certWrapper.getBaseCertificateData();
-            final String cAFingerprint = certificateData.getCaFingerprint();
-            final int status = certificateData.getStatus();
-            final int type = certificateData.getType();
-            final long revocationDate = certificateData.getRevocationDate();
-            final int revocationReason = certificateData.getRevocationReason();
-            final String username = certificateData.getUsername();
-            final String tag  = certificateData.getTag();
-            final Integer certificateProfileId = certificateData.getCertificateProfileId();
-            final Long updateTime = certificateData.getUpdateTime();
-            // ECA-9491 Tmp. until refactored.
-            if (extendedinformation != null) {
-                extendedinformation.setAccountBindingId(certificateData.getAccountBindingId());
-            }
-            return publisher.storeCertificate(admin, certWrapper.getCertificate(), username, password, userDN, cAFingerprint, status, type, revocationDate,
-                    revocationReason, tag, certificateProfileId, updateTime, extendedinformation);
-        }
     }
 
     /** Publishers do not run a part of regular transactions and expect to run in auto-commit mode. */
@@ -544,16 +840,7 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
     @Override
     public boolean publishCRLNonTransactional(BasePublisher publisher, AuthenticationToken admin, byte[] incrl, String cafp, int number, String userDN)
             throws PublisherException {
-        if (publisher.isCallingExternalScript()) {
-            final ExternalScriptsConfiguration externalScriptsConfiguration = (ExternalScriptsConfiguration) globalConfigurationSession.
-                    getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID);
-            if (externalScriptsConfiguration.getEnableExternalScripts()) {
-                final ExternalScriptsAllowlist allowlist = ExternalScriptsAllowlist.fromText(
-                        externalScriptsConfiguration.getExternalScriptsWhitelist(),
-                        externalScriptsConfiguration.getIsExternalScriptsWhitelistEnabled());                
-                publisher.setExternalScriptsAllowlist(allowlist);
-            }
-        }
+        setExternalScriptsAllowlist(publisher);
         return publisher.storeCRL(admin, incrl, cafp, number, userDN);
     }
     
@@ -561,16 +848,7 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
     @Override
     public boolean publishOcspResponsesNonTransactional(CustomPublisherContainer publisher, AuthenticationToken admin, OcspResponseData ocspResponseData)
             throws PublisherException {
-        if (publisher.isCallingExternalScript()) {
-            final ExternalScriptsConfiguration externalScriptsConfiguration = (ExternalScriptsConfiguration) globalConfigurationSession.
-                    getCachedConfiguration(GlobalConfiguration.GLOBAL_CONFIGURATION_ID);
-            if (externalScriptsConfiguration.getEnableExternalScripts()) {
-                final ExternalScriptsAllowlist allowlist = ExternalScriptsAllowlist.fromText(
-                        externalScriptsConfiguration.getExternalScriptsWhitelist(),
-                        externalScriptsConfiguration.getIsExternalScriptsWhitelistEnabled());                
-                publisher.setExternalScriptsAllowlist(allowlist);
-            }
-        }
+        setExternalScriptsAllowlist(publisher);
         return publisher.storeOcspResponseData(ocspResponseData);
     }
 
@@ -582,7 +860,7 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
         final boolean parallel = EjbcaConfiguration.isPublishParallelEnabled();
         // Are we doing parallel publishing (only meaningful if there is more than one publisher configured)?
         if (parallel && publishers.size() > 1) {
-            final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            final List<Future<Object>> futures = new ArrayList<Future<Object>>();
             BasePublisher publisherFirst = null;
             for (final BasePublisher publisher : publishers) {
                 if (publisherFirst == null) {
@@ -590,13 +868,10 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
                     publisherFirst = publisher;
                 } else {
                     // ...and the rest of the publishers will be executed in new threads
-                    final Future<Boolean> future = getExecutorService().submit(new Callable<Boolean>() {
+                    final Future<Object> future = getExecutorService().submit(new Callable<Object>() {
                         @Override
-                        public Boolean call() throws Exception {
-                            if (!publishCertificateNonTransactional(publisher, admin, certWrapper, password, userDN, extendedinformation)) {
-                                throw new PublisherException("Return code from publisher is false.");
-                            }
-                            return Boolean.TRUE;
+                        public Object call() {
+                            return publishCertificateDirect(publisher, admin, certWrapper, password, userDN, extendedinformation);
                         }
                     });
                     futures.add(future);
@@ -605,22 +880,13 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
             // Wait at most 300 seconds in total for all the publishers to complete.
             final long deadline = System.currentTimeMillis() + 300000L;
             // Execute the first publishing in the calling thread
-            Object publisherResultFirst;
-            try {
-                if (!publishCertificateNonTransactional(publisherFirst, admin, certWrapper, password, userDN, extendedinformation)) {
-                    throw new PublisherException("Return code from publisher is false.");
-                }
-                publisherResultFirst = Boolean.TRUE;
-            } catch (Exception e) {
-                publisherResultFirst = getAsPublisherException(e);
-            }
-            publisherResults.add(publisherResultFirst);
+            publisherResults.add(publishCertificateDirect(publisherFirst, admin, certWrapper, password, userDN, extendedinformation));
             // Wait for all the background threads to finish and get the result from each invocation
-            for (final Future<Boolean> future : futures) {
+            for (final Future<Object> future : futures) {
                 Object publisherResult;
                 try {
                     final long maxTimeToWait = Math.max(1000L, deadline - System.currentTimeMillis());
-                    publisherResult = Boolean.valueOf(future.get(maxTimeToWait, TimeUnit.MILLISECONDS));
+                    publisherResult = future.get(maxTimeToWait, TimeUnit.MILLISECONDS);
                 } catch (Exception e) {
                     publisherResult = getAsPublisherException(e);
                 }
@@ -629,19 +895,50 @@ public class PublisherQueueSessionBean implements PublisherQueueSessionLocal {
         } else {
             // Perform publishing sequentially (old fall back behavior)
             for (final BasePublisher publisher : publishers) {
-                try {
-                    if (!publishCertificateNonTransactional(publisher, admin, certWrapper, password, userDN, extendedinformation)) {
-                        throw new PublisherException("Return code from publisher is false.");
-                    }
-                    publisherResults.add(Boolean.TRUE);
-                } catch (Exception e) {
-                    publisherResults.add(getAsPublisherException(e));
-                }
+                publisherResults.add(publishCertificateDirect(publisher, admin, certWrapper, password, userDN, extendedinformation));
             }
         }
         return publisherResults;
     }
 
+    /**
+     * Publishes a certificate directly to a publisher, unless the publisher uses the queue for certificates and could not be reached too many
+     * times in a row. Whether the publisher could be reached is recorded by the {@link PublisherCircuitBreaker} of publishers that use the queue.
+     *
+     * @return Boolean.TRUE if the certificate was published, or a PublisherException if it was not
+     */
+    private Object publishCertificateDirect(final BasePublisher publisher, final AuthenticationToken admin, final CertificateDataWrapper certWrapper,
+            final String password, final String userDN, final ExtendedInformation extendedinformation) {
+        final boolean useCircuitBreaker = publisher.getUseQueueForCertificates();
+        final PublisherCircuitBreaker circuitBreaker = PublisherCircuitBreaker.INSTANCE;
+        if (useCircuitBreaker && !circuitBreaker.isDirectPublishingAllowed(publisher)) {
+            final String msg = intres.getLocalizedMessage("publisher.circuitopen", publisher.getName(), circuitBreaker.getFailures(publisher));
+            if (log.isDebugEnabled()) {
+                log.debug(msg);
+            }
+            return new PublisherException(msg);
+        }
+        try {
+            if (!publishCertificateNonTransactional(publisher, admin, certWrapper, password, userDN, extendedinformation)) {
+                throw new PublisherException("Return code from publisher is false.");
+            }
+            if (useCircuitBreaker) {
+                circuitBreaker.recordSuccess(publisher);
+            }
+            return Boolean.TRUE;
+        } catch (Exception e) {
+            if (useCircuitBreaker) {
+                if (PublisherCircuitBreaker.isUnavailable(e)) {
+                    circuitBreaker.recordFailure(publisher);
+                } else {
+                    // The publisher was reached, but did not accept the certificate
+                    circuitBreaker.recordSuccess(publisher);
+                }
+            }
+            return getAsPublisherException(e);
+        }
+    }
+
     private PublisherException getAsPublisherException(final Exception e) {
         if (log.isDebugEnabled()) {
             log.debug("Publisher threw exception", e);
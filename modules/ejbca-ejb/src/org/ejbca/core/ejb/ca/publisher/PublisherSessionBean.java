@@ -648,6 +648,7 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
             htp.setPublisher(publisher);
             // Since loading a Publisher is quite complex, we simple purge the cache here
             PublisherCache.INSTANCE.removeEntry(htp.getId());
+            PublisherCircuitBreaker.INSTANCE.removeEntry(htp.getId());
             final String msg = intres.getLocalizedMessage("publisher.changedpublisher", name);
             final Map<String, Object> details = new LinkedHashMap<>();
             details.put("msg", msg);
@@ -719,6 +720,7 @@ public class PublisherSessionBean implements PublisherSessionLocal, PublisherSes
                 entityManager.remove(htp);
                 // Purge the cache here
                 PublisherCache.INSTANCE.removeEntry(htp.getId());
+                PublisherCircuitBreaker.INSTANCE.removeEntry(htp.getId());
                 final String msg = intres.getLocalizedMessage("publisher.removedpublisher", name);
                 final Map<String, Object> details = new LinkedHashMap<>();
                 details.put("msg", msg);
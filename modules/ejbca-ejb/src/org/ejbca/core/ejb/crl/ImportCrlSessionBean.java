@@ -13,18 +13,10 @@
 package org.ejbca.core.ejb.crl;
 
 import java.math.BigInteger;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.SignatureException;
 import java.security.cert.CRLException;
-import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
-import java.text.ParseException;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
@@ -32,18 +24,18 @@ import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 
 import org.apache.log4j.Logger;
-import org.bouncycastle.asn1.ASN1GeneralizedTime;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.ca.CAInfo;
 import org.cesecore.certificates.certificate.CertificateConstants;
-import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlImportException;
 import org.cesecore.certificates.crl.CrlStoreException;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
-import org.cesecore.certificates.util.cert.CrlExtensions;
+import org.cesecore.certificates.util.cert.StreamingCrlParser;
 import org.cesecore.jndi.JndiConstants;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
 import org.ejbca.core.ejb.ra.NoSuchEndEntityException;
 import org.ejbca.core.model.approval.ApprovalException;
@@ -70,17 +62,18 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
     public void importCrl(final AuthenticationToken authenticationToken, final CAInfo cainfo, final byte[] crlbytes, final int crlPartitionIndex)
             throws CrlImportException, CrlStoreException, CRLException, AuthorizationDeniedException {
 
-        X509CRL x509crl = CertTools.getCRLfromByteArray(crlbytes);
+        // The entries are read one at a time, so only one batch of them is kept in memory however large the CRL is
+        final StreamingCrlParser crl = new StreamingCrlParser(crlbytes);
         
         X509Certificate cacert = (X509Certificate) cainfo.getCertificateChain().iterator().next();
         final String caFingerprint = CertTools.getFingerprintAsString(cacert);
         final String issuerDn = CertTools.getSubjectDN(cacert);
         
-        verifyCrlIssuer(x509crl, issuerDn, cacert);
+        verifyCrlIssuer(crl, issuerDn, cacert);
         
         // Check if the CRL is already stored locally
-        final boolean isDeltaCrl = CrlExtensions.getDeltaCRLIndicator(x509crl).intValue() != -1;
-        final int downloadedCrlNumber = CrlExtensions.getCrlNumber(x509crl).intValue();
+        final boolean isDeltaCrl = crl.getDeltaCRLIndicator().intValue() != -1;
+        final int downloadedCrlNumber = crl.getCrlNumber().intValue();
         if (log.isTraceEnabled()) {
             log.trace("Delta CRL:  " + isDeltaCrl);
             log.trace("IssuerDn:   " + issuerDn);
@@ -90,72 +83,43 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
             }
         }
         
-        X509CRL lastCrlOfSameType = getLastCrlOfSameType(x509crl, isDeltaCrl, issuerDn, crlPartitionIndex);
-        if (lastCrlOfSameType != null && !x509crl.getThisUpdate().after(lastCrlOfSameType.getThisUpdate())) {
+        final CRLInfo lastCrlOfSameType = crlStoreSession.getLastCRLInfoLightWeight(issuerDn, crlPartitionIndex, isDeltaCrl);
+        if (lastCrlOfSameType != null && !crl.getThisUpdate().after(lastCrlOfSameType.getCreateDate())) {
             log.info((isDeltaCrl ? "Delta" : "Full") + " CRL number " + downloadedCrlNumber + " for CA '" + cainfo.getName() +
                     "' is not newer than last known " + (isDeltaCrl ? "delta" : "full") + " CRL. Ignoring download.");
             return;
         }
         
-        // If the CRL is newer than the last known or there wasn't any old one, loop through it
-        if (x509crl.getRevokedCertificates()==null) {
-            log.info("No revoked certificates in " + (isDeltaCrl?"delta":"full") + " CRL for CA '" + cainfo.getName() + "'");
-        } else {
-            final Set<X509CRLEntry> crlEntries = new HashSet<X509CRLEntry>();
-            crlEntries.addAll(x509crl.getRevokedCertificates());
-            if (log.isDebugEnabled()) {
-                log.debug("Downloaded CRL contains " + crlEntries.size() + " entries.");
-            }
-            
-            if(lastCrlOfSameType != null && lastCrlOfSameType.getRevokedCertificates()!=null) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Last known CRL contains " + lastCrlOfSameType.getRevokedCertificates().size() + " entries.");
+        // If the CRL is newer than the last known or there wasn't any old one, loop through it. Each batch of entries is compared with the
+        // current status of the certificates in the database, and only the differences are stored, so importing a CRL again changes nothing.
+        final int batchSize = Math.max(1, EjbcaConfiguration.getCrlImportBatchSize());
+        final List<StreamingCrlParser.Entry> batch = new ArrayList<>(batchSize);
+        int entryCount = 0;
+        int revokedCount = 0;
+        StreamingCrlParser.Entry crlEntry;
+        while ((crlEntry = crl.nextEntry()) != null) {
+            entryCount++;
+            if (crlEntry.getCertificateIssuer() != null) {
+                final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().toString());
+                if (!issuerDn.equals(entryIssuerDn)) {
+                    log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + crlEntry.getSerialNumber() + " will be ignored.");
                 }
-                // Remove all entries that were processed last time
-                crlEntries.removeAll(lastCrlOfSameType.getRevokedCertificates());
             }
-        
-            log.info("Found " + crlEntries.size() + " new entires in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn + "' compared to previous.");
-            // For each entry that was updated after the last known CRL, create/update a new database entry with the new status
-            for (final X509CRLEntry crlEntry : crlEntries) {
-                final Date revocationDate = crlEntry.getRevocationDate();
-                final BigInteger serialNumber = crlEntry.getSerialNumber();
-                Date invalidityDate = null;
-                ASN1GeneralizedTime asn1GeneralizedTime = CrlExtensions.extractInvalidityDate(crlEntry);
-                if (asn1GeneralizedTime != null) {
-                    try {
-                        invalidityDate = asn1GeneralizedTime.getDate();
-                    } catch (ParseException e) {
-                        log.info("Failed to parse invalidityDate for crl entry with serial number " + serialNumber);
-                    }
-                }
-                final int reasonCode = CrlExtensions.extractReasonCode(crlEntry);
-                if (crlEntry.getCertificateIssuer()!=null) {
-                    final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().getName());
-                    if (!issuerDn.equals(entryIssuerDn)) {
-                        log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + serialNumber + " will be ignored.");
-                    }
-                }
-                
-                final CertificateDataWrapper cdw = certStoreSession.getCertificateDataByIssuerAndSerno(issuerDn, serialNumber);
-                if(isLimitedCertificate(issuerDn, serialNumber, cdw)) {
-                    // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
-                    certStoreSession.updateLimitedCertificateDataStatus(authenticationToken, cainfo.getCAId(), issuerDn, serialNumber, revocationDate, reasonCode, caFingerprint, invalidityDate);
-                } else {
-                    final String serialHex = serialNumber.toString(16).toUpperCase();
-                    log.info("Revoking '" + serialHex + "' " + "(" + serialNumber.toString() + ")");
-                    try {
-                        //log.info("Reason code: " + reason);
-                        endentityManagementSession.revokeCert(authenticationToken, serialNumber, crlEntry.getRevocationDate(), invalidityDate, issuerDn, reasonCode, false);
-                    } catch (AlreadyRevokedException e) {
-                        log.warn("Failed to revoke '" + serialHex + "'. (Status might be 'Archived'.) Error message was: " + e.getMessage());
-                    } catch (ApprovalException | RevokeBackDateNotAllowedForProfileException | NoSuchEndEntityException | WaitingForApprovalException e) {
-                        throw new CrlImportException("Failed to revoke certificate with serial number " + serialHex, e);
-                    }
-                    
-                }
+            batch.add(crlEntry);
+            if (batch.size() == batchSize) {
+                revokedCount += importCrlEntries(authenticationToken, cainfo, issuerDn, caFingerprint, batch);
+                batch.clear();
             }
         }
+        if (!batch.isEmpty()) {
+            revokedCount += importCrlEntries(authenticationToken, cainfo, issuerDn, caFingerprint, batch);
+        }
+        if (entryCount == 0) {
+            log.info("No revoked certificates in " + (isDeltaCrl?"delta":"full") + " CRL for CA '" + cainfo.getName() + "'");
+        } else {
+            log.info("Processed " + entryCount + " entries in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn
+                    + "', " + revokedCount + " certificates had their revocation status changed.");
+        }
         // Calculate (make up) the CRL Number if the number was not present
         final int newCrlNumber;
         if (downloadedCrlNumber==0) {
@@ -165,11 +129,37 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
             newCrlNumber = downloadedCrlNumber;
         }
         // Last of all, store the CRL if there were no errors during creation of database entries
-        crlStoreSession.storeCRL(authenticationToken, x509crl.getEncoded(), caFingerprint, newCrlNumber, issuerDn, crlPartitionIndex, x509crl.getThisUpdate(), x509crl.getNextUpdate(), isDeltaCrl?1:-1);
+        crlStoreSession.storeCRL(authenticationToken, crlbytes, caFingerprint, newCrlNumber, issuerDn, crlPartitionIndex, crl.getThisUpdate(), crl.getNextUpdate(), isDeltaCrl?1:-1);
     
     }
+
+    /**
+     * Stores the status of a batch of CRL entries. Limited certificates are created or updated in one transaction, while certificates
+     * that exist in full are revoked one by one, so that the end entity, publishers and approvals are handled as in a normal revocation.
+     *
+     * @return the number of certificates that were revoked in full
+     */
+    private int importCrlEntries(final AuthenticationToken authenticationToken, final CAInfo cainfo, final String issuerDn, final String caFingerprint,
+            final List<StreamingCrlParser.Entry> crlEntries) throws CrlImportException, AuthorizationDeniedException {
+        final List<StreamingCrlParser.Entry> fullEntries = certStoreSession.updateLimitedCertificateDataStatus(authenticationToken, cainfo.getCAId(), issuerDn,
+                crlEntries, caFingerprint);
+        for (final StreamingCrlParser.Entry crlEntry : fullEntries) {
+            final BigInteger serialNumber = crlEntry.getSerialNumber();
+            final String serialHex = serialNumber.toString(16).toUpperCase();
+            log.info("Revoking '" + serialHex + "' " + "(" + serialNumber.toString() + ")");
+            try {
+                endentityManagementSession.revokeCert(authenticationToken, serialNumber, crlEntry.getRevocationDate(), crlEntry.getInvalidityDate(), issuerDn,
+                        crlEntry.getReasonCode(), false);
+            } catch (AlreadyRevokedException e) {
+                log.warn("Failed to revoke '" + serialHex + "'. (Status might be 'Archived'.) Error message was: " + e.getMessage());
+            } catch (ApprovalException | RevokeBackDateNotAllowedForProfileException | NoSuchEndEntityException | WaitingForApprovalException e) {
+                throw new CrlImportException("Failed to revoke certificate with serial number " + serialHex, e);
+            }
+        }
+        return fullEntries.size();
+    }
     
-    private void verifyCrlIssuer(final X509CRL crl, final String issuerDN, final X509Certificate cacert) throws CrlImportException {
+    private void verifyCrlIssuer(final StreamingCrlParser crl, final String issuerDN, final X509Certificate cacert) throws CrlImportException {
         log.info("CA: " + issuerDN);
         // Read the supplied CRL and verify that it is issued by the specified CA
         if (!crl.getIssuerX500Principal().equals(cacert.getSubjectX500Principal())) {
@@ -177,28 +167,12 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
         }
         
         try {
-            crl.verify(cacert.getPublicKey());
-        } catch (InvalidKeyException | CRLException | NoSuchAlgorithmException | NoSuchProviderException | SignatureException e) {
-            throw new CrlImportException("Failed to verify CRL signature.", e);
-        }
-    }
-    
-    private X509CRL getLastCrlOfSameType(final X509CRL crl, final boolean isDeltaCrl, final String issuerDN, final int crlPartitionIndex) {
-        X509CRL lastCrlOfSameType = null;
-        final byte[] lastCrl = crlStoreSession.getLastCRL(issuerDN, crlPartitionIndex, isDeltaCrl);
-        if(lastCrl != null) {
-            try {
-                lastCrlOfSameType = CertTools.getCRLfromByteArray(lastCrl);
-            } catch (CRLException e) {
-                log.warn("Could not retrieve an older CRL issued by " + issuerDN, e);
+            if (!crl.isSignatureValid(cacert.getPublicKey())) {
+                throw new CrlImportException("Failed to verify CRL signature.");
             }
+        } catch (CRLException e) {
+            throw new CrlImportException("Failed to verify CRL signature.", e);
         }
-        return lastCrlOfSameType;
-    }
-    
-    private boolean isLimitedCertificate(final String issuerDn, final BigInteger serialNumber, final CertificateDataWrapper cdw) {
-        final String limitedFingerprint = CertTools.getFingerprintAsString((issuerDn+";"+serialNumber).getBytes());
-        return (cdw==null) || (limitedFingerprint.equals(cdw.getCertificateData().getFingerprint()));
     }
 
 }
@@ -13,6 +13,9 @@
 package org.ejbca.core.ejb.crl;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.cert.CRLException;
 import java.security.cert.Certificate;
 import java.security.cert.X509CRL;
@@ -20,12 +23,17 @@ import java.security.cert.X509CRLEntry;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -67,12 +75,16 @@ import org.cesecore.certificates.certificate.NoConflictCertificateStoreSessionLo
 import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlCreateSessionLocal;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.PackedRevokedCertInfoCollection;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCodec;
+import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.LogRedactionUtils;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
 
 import com.keyfactor.CesecoreException;
@@ -89,6 +101,12 @@ import com.keyfactor.util.keys.token.CryptoTokenOfflineException;
 public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, PublishingCrlSessionRemote {
 
     private static final Logger log = Logger.getLogger(PublishingCrlSessionBean.class);
+
+    private static final String SNAPSHOT_FILE_PREFIX = "revokedcerts-";
+    private static final String SNAPSHOT_FILE_SUFFIX = ".snap";
+    /** Certificates updated this long before the previous listing are read again when listing revoked certificates incrementally */
+    private static final long SNAPSHOT_UPDATE_TIME_OVERLAP = 5 * 60 * 1000L;
+
     /** Internal localization of logs and errors */
     private static final InternalResources intres = InternalResources.getInstance();
 
@@ -133,121 +151,270 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
 
     @Override
     public Set<Integer> createCRLs(final AuthenticationToken admin, final Collection<Integer> caids, final long addtocrloverlaptime) throws AuthorizationDeniedException {
+        return CrlGenerationResult.getCaIdsWithAllCrlsCreated(createDueCrls(admin, caids, addtocrloverlaptime, false));
+    }
+
+    @Override
+    public Set<Integer> createDeltaCRLs(final AuthenticationToken admin, final Collection<Integer> caids, long crloverlaptime) throws AuthorizationDeniedException {
+        return CrlGenerationResult.getCaIdsWithAllCrlsCreated(createDueCrls(admin, caids, crloverlaptime, true));
+    }
+
+    @Override
+    public List<CrlGenerationResult> createDueCrls(final AuthenticationToken admin, final Collection<Integer> caids, final long addToCrlOverlapTime,
+            final boolean deltaCrl) throws AuthorizationDeniedException {
         final Collection<Integer> caIdsToProcess;
         if (caids==null || caids.contains(Integer.valueOf(CAConstants.ALLCAS))) {
             caIdsToProcess = caSession.getAllCaIds();
         } else {
             caIdsToProcess = caids;
         }
-        Set<Integer> createdcrls = new HashSet<>();
+        final long startTime = System.currentTimeMillis();
+        final Date now = new Date(startTime);
+        final List<CrlJob> jobs = new ArrayList<>();
         for (final int caid : caIdsToProcess) {
             if (log.isDebugEnabled()) {
-                log.debug("createCRLs for caid: " + caid);
+                log.debug((deltaCrl ? "createDeltaCRLs" : "createCRLs") + " for caid: " + caid);
             }
             try {
-                if (publishingCrlSession.createCRLNewConditioned(admin, caid, addtocrloverlaptime)) {
-                    createdcrls.add(caid);
-                }
-            } catch (CryptoTokenOfflineException | CAOfflineException | CADoesntExistsException e) {
+                jobs.addAll(getCrlJobs(admin, caid, now, addToCrlOverlapTime, deltaCrl));
+            } catch (CADoesntExistsException e) {
+                final String msg = intres.getLocalizedMessage("createcrl.errorcreate", caid, e.getMessage());
+                log.error(msg, e);
+            }
+        }
+        // The most urgent CRLs are started first. The jobs are queued in this order, so with a single thread they also complete in this order.
+        final List<CrlJob> dueJobs = new ArrayList<>();
+        for (final CrlJob job : jobs) {
+            if (job.due) {
+                dueJobs.add(job);
+            }
+        }
+        dueJobs.sort(Comparator.comparingLong(job -> job.deadline));
+        final int threads = Math.max(1, Math.min(EjbcaConfiguration.getCrlGenerationThreads(), dueJobs.size()));
+        runCrlJobs(admin, dueJobs, deltaCrl, threads);
+
+        final List<CrlGenerationResult> results = new ArrayList<>(jobs.size());
+        Exception rethrow = null;
+        int created = 0;
+        for (final CrlJob job : jobs) {
+            if (job.failure instanceof CesecoreException) {
                 // Don't fail all generation just because one of the CAs had token offline or similar.
                 // Continue working with the others, but log an error message in system logs, use error logging
                 // since it might be something that should call for attention of the operators, CRL generation is important.
-                String msg = intres.getLocalizedMessage("createcrl.errorcreate", caid, e.getMessage());
-                log.error(msg, e);
+                final String msg = intres.getLocalizedMessage("createcrl.errorcreate", job.ca.getCAId(), job.failure.getMessage());
+                log.error(msg, job.failure);
+                if (deltaCrl) {
+                    final Map<String, Object> details = new LinkedHashMap<>();
+                    details.put("msg", msg);
+                    logSession.log(EventTypes.CRL_CREATION, EventStatus.FAILURE, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(),
+                            String.valueOf(job.ca.getCAId()), null, null, details);
+                }
+            } else if (job.failure != null && rethrow == null) {
+                rethrow = job.failure;
+            }
+            if (job.created) {
+                created++;
             }
+            results.add(new CrlGenerationResult(job.ca.getCAId(), job.crlPartitionIndex, deltaCrl, job.due, job.created, job.durationMillis,
+                    job.failure == null ? null : job.failure.getMessage()));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Created " + created + " of " + dueJobs.size() + " due " + (deltaCrl ? "delta CRLs" : "CRLs") + " for " + caIdsToProcess.size()
+                    + " CAs in " + (System.currentTimeMillis() - startTime) + " ms using " + threads + " threads.");
         }
-        return createdcrls;
+        if (rethrow instanceof AuthorizationDeniedException) {
+            throw (AuthorizationDeniedException) rethrow;
+        } else if (rethrow instanceof RuntimeException) {
+            throw (RuntimeException) rethrow;
+        } else if (rethrow != null) {
+            throw new EJBException(rethrow);
+        }
+        return results;
     }
 
-    @Override
-    public Set<Integer> createDeltaCRLs(final AuthenticationToken admin, final Collection<Integer> caids, long crloverlaptime) throws AuthorizationDeniedException {
-        final Collection<Integer> caIdsToProcess;
-        if (caids==null || caids.contains(Integer.valueOf(CAConstants.ALLCAS))) {
-            caIdsToProcess = caSession.getAllCaIds();
-        } else {
-            caIdsToProcess = caids;
+    /**
+     * Creates the CRLs of the jobs, in the order of the list, and stores the outcome in each job.
+     * <p>
+     * CA objects set fields such as the CA token and certificate chain lazily, without synchronization, so when several threads are used,
+     * only the first job of each CA uses the CA object of the job. The other jobs of the same CA read a CA object of their own. The crypto token is shared, in
+     * the same way as when certificates are issued by several threads at the same time.
+     */
+    private void runCrlJobs(final AuthenticationToken admin, final List<CrlJob> jobs, final boolean deltaCrl, final int threads) {
+        if (threads == 1) {
+            for (final CrlJob job : jobs) {
+                runCrlJob(admin, job, deltaCrl, false);
+            }
+            return;
         }
-        Set<Integer> createddeltacrls = new HashSet<>();
-        for (final int caid : caIdsToProcess) {
-            if (log.isDebugEnabled()) {
-                log.debug("createDeltaCRLs for caid: " + caid);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(jobs.size());
+            final Set<Integer> caIdsInUse = new HashSet<>();
+            for (final CrlJob job : jobs) {
+                final boolean readCa = !caIdsInUse.add(job.ca.getCAId());
+                futures.add(executor.submit(() -> runCrlJob(admin, job, deltaCrl, readCa)));
             }
-            try {
-                if (publishingCrlSession.createDeltaCrlConditioned(admin, caid, crloverlaptime)) {
-                    createddeltacrls.add(caid);
-                }
-            } catch (CesecoreException e) {
-                // Don't fail all generation just because one of the CAs had token offline or similar.
-                // Continue working with the others, but log a warning message in system logs.
-                final String msg = intres.getLocalizedMessage("createcrl.errorcreate", caid, e.getMessage());
-                log.error(msg, e);
-                final Map<String, Object> details = new LinkedHashMap<>();
-                details.put("msg", msg);
-                logSession.log(EventTypes.CRL_CREATION, EventStatus.FAILURE, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);
+            for (final Future<?> future : futures) {
+                future.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EJBException("Interrupted while creating CRLs.", e);
+        } catch (ExecutionException e) {
+            // Not expected, since runCrlJob catches all exceptions
+            throw new EJBException("Unexpected failure while creating CRLs.", e);
+        } finally {
+            executor.shutdownNow();
         }
-        return createddeltacrls;
+    }
+
+    /** @param readCa true if the job must read a CA object of its own, since another job of the same CA may run at the same time */
+    private void runCrlJob(final AuthenticationToken admin, final CrlJob job, final boolean deltaCrl, final boolean readCa) {
+        final long startTime = System.currentTimeMillis();
+        try {
+            final CA ca = readCa ? (CA) caSession.getCAInternal(job.ca.getCAId(), null, null, false) : job.ca;
+            if (ca == null) {
+                throw new CADoesntExistsException("CA with id " + job.ca.getCAId() + " does not exist.");
+            }
+            job.created = createCrl(admin, ca, job, deltaCrl);
+        } catch (Exception e) { // NOPMD: the exception is reported when all jobs have completed
+            job.failure = e;
+        } finally {
+            job.durationMillis = System.currentTimeMillis() - startTime;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug((deltaCrl ? "Delta CRL" : "CRL") + " job for CA '" + job.ca.getName() + "' partition " + job.crlPartitionIndex + " completed in "
+                    + job.durationMillis + " ms, created=" + job.created);
+        }
+    }
+
+    /** Creates the CRL of a job with the given CA object, in a separate transaction unless called within one */
+    private boolean createCrl(final AuthenticationToken admin, final CA ca, final CrlJob job, final boolean deltaCrl)
+            throws CryptoTokenOfflineException, CAOfflineException, AuthorizationDeniedException {
+        if (deltaCrl) {
+            return publishingCrlSession.internalCreateDeltaCRL(admin, ca, job.crlPartitionIndex, job.lastBaseCrlInfo) != null;
+        }
+        return publishingCrlSession.internalCreateCRL(admin, ca, job.crlPartitionIndex, job.lastBaseCrlInfo, new Date()) != null;
     }
 
     @Override
     public boolean createCRLNewConditioned(AuthenticationToken admin, int caId, long addToCrlOverlapTime) throws CryptoTokenOfflineException, CADoesntExistsException, AuthorizationDeniedException, CAOfflineException {
-        final Date now = new Date();
+        return createCrlsConditioned(admin, caId, addToCrlOverlapTime, false);
+    }
+
+    @Override
+    public boolean createDeltaCrlConditioned(AuthenticationToken admin, int caid, long addToCrlOverlapTime)
+            throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException {
+        return createCrlsConditioned(admin, caid, addToCrlOverlapTime, true);
+    }
+
+    /** Creates the CRLs of all partitions of a CA that need to be updated, one at a time, and returns true if all of them were created. */
+    private boolean createCrlsConditioned(final AuthenticationToken admin, final int caId, final long addToCrlOverlapTime, final boolean deltaCrl)
+            throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException {
+        final List<CrlJob> jobs = getCrlJobs(admin, caId, new Date(), addToCrlOverlapTime, deltaCrl);
+        boolean result = !jobs.isEmpty();
+        try {
+            for (final CrlJob job : jobs) {
+                result &= job.due && createCrl(admin, job.ca, job, deltaCrl);
+            }
+        } catch (CryptoTokenOfflineException e) {
+            log.warn("Crypto token is offline for CA "+caId+" generating CRL.");
+            throw e;
+        }
+        return result;
+    }
+
+    /** A CRL or delta CRL of one CA and CRL partition. The outcome is set when the job has been run. */
+    private static final class CrlJob {
+        private final CA ca;
+        private final int crlPartitionIndex;
+        private final CRLInfo lastBaseCrlInfo;
+        private final boolean due;
+        /** Time when the CRL should have been created at the latest, i.e. nextUpdate of the current CRL minus overlap time */
+        private final long deadline;
+        private volatile boolean created;
+        private volatile long durationMillis;
+        private volatile Exception failure;
+
+        private CrlJob(final CA ca, final int crlPartitionIndex, final CRLInfo lastBaseCrlInfo, final boolean due, final long deadline) {
+            this.ca = ca;
+            this.crlPartitionIndex = crlPartitionIndex;
+            this.lastBaseCrlInfo = lastBaseCrlInfo;
+            this.due = due;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Checks the CA, and each of its CRL partitions, to see which CRLs need to be updated.
+     *
+     * @return one job per CRL partition, or an empty list if no CRLs should be created for the CA
+     */
+    private List<CrlJob> getCrlJobs(final AuthenticationToken admin, final int caId, final Date now, final long addToCrlOverlapTime, final boolean deltaCrl)
+            throws CADoesntExistsException, AuthorizationDeniedException {
         // Get CA checks authorization to the CA
         final CA ca = (CA) caSession.getCA(admin, caId);
+        if (ca == null) {
+            throw new CADoesntExistsException("CA with id " + caId + " does not exist.");
+        }
         final CAInfo cainfo = ca.getCAInfo();
-        try {
-            if (cainfo.getStatus() == CAConstants.CA_EXTERNAL) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for external CA "+cainfo.getName());
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_WAITING_CERTIFICATE_RESPONSE) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for CA "+cainfo.getName() +" awaiting certificate response.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_REVOKED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for CA "+cainfo.getName() +" that is revoked.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_UNINITIALIZED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for CA "+cainfo.getName() +" that is uninitialized.");
-                }
-            } else {
-                if (cainfo instanceof X509CAInfo) {
-                    final Certificate cacert = getCaCertificate(cainfo);
-                    // Don't create CRLs if the CA has expired
-                    if (cacert != null && CertTools.getNotAfter(cacert).after(now)) {
-                        if (cainfo.getStatus() == CAConstants.CA_OFFLINE )  {
-                            // Normal event to not create CRLs for CAs that are deliberately set off line
-                            String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
-                            log.info(msg);
-                        } else {
-                            boolean result = createCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
-                            final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
-                            if (crlPartitions != null) {
-                                for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
-                                    result &= createCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
-                                }
+        final String crlType = deltaCrl ? "delta CRL" : "CRL";
+        final List<CrlJob> jobs = new ArrayList<>();
+        if (cainfo.getStatus() == CAConstants.CA_EXTERNAL) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate "+crlType+" for external CA "+cainfo.getName());
+            }
+        } else if (cainfo.getStatus() == CAConstants.CA_WAITING_CERTIFICATE_RESPONSE) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate "+crlType+" for CA "+cainfo.getName() +" awaiting certificate response.");
+            }
+        } else if (cainfo.getStatus() == CAConstants.CA_REVOKED) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate "+crlType+" for CA "+cainfo.getName() +" that is revoked.");
+            }
+        } else if (cainfo.getStatus() == CAConstants.CA_UNINITIALIZED) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate "+crlType+" for CA "+cainfo.getName() +" that is uninitialized.");
+            }
+        } else {
+            if (cainfo instanceof X509CAInfo) {
+                final Certificate cacert = getCaCertificate(cainfo);
+                // Don't create CRLs if the CA has expired
+                if (cacert != null && CertTools.getNotAfter(cacert).after(now)) {
+                    if (deltaCrl && cainfo.getDeltaCRLPeriod() <= 0) {
+                        return jobs;
+                    }
+                    if (cainfo.getStatus() == CAConstants.CA_OFFLINE )  {
+                        // Normal event to not create CRLs for CAs that are deliberately set off line
+                        String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
+                        log.info(msg);
+                    } else {
+                        jobs.add(getCrlJob(ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime, deltaCrl));
+                        final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
+                        if (crlPartitions != null) {
+                            for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
+                                jobs.add(getCrlJob(ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime, deltaCrl));
                             }
-                            return result;
                         }
-                    } else if (log.isDebugEnabled() && cacert != null) {
-                        log.debug("Not creating CRL for expired CA "+cainfo.getName()+". CA subjectDN='"+CertTools.getSubjectDN(cacert)+"', expired: "+CertTools.getNotAfter(cacert));
-                    } else if (log.isDebugEnabled()) {
-                        log.debug("Not creating CRL for CA without CA certificate: "+cainfo.getName());
                     }
+                } else if (log.isDebugEnabled() && cacert != null) {
+                    log.debug("Not creating "+crlType+" for expired CA "+cainfo.getName()+". CA subjectDN='"+CertTools.getSubjectDN(cacert)+"', expired: "+CertTools.getNotAfter(cacert));
+                } else if (log.isDebugEnabled()) {
+                    log.debug("Not creating "+crlType+" for CA without CA certificate: "+cainfo.getName());
                 }
             }
-            return false;
-        } catch (CryptoTokenOfflineException e) {
-            log.warn("Crypto token is offline for CA "+caId+" generating CRL.");
-            throw e;
         }
+        return jobs;
+    }
+
+    private CrlJob getCrlJob(final CA ca, final Certificate cacert, final int crlPartitionIndex, final Date now, final long addToCrlOverlapTime,
+            final boolean deltaCrl) {
+        return deltaCrl ? getDeltaCrlJobForActiveCa(ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime)
+                : getCrlJobForActiveCa(ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
     }
 
-    /** Creates a CRL for a CRL partition. The CA is assumed to be active (no checks are performed) */
-    private boolean createCrlForActiveCa(final AuthenticationToken admin, final CA ca, final Certificate cacert, final int crlPartitionIndex,
-            final Date now, final long addToCrlOverlapTime) throws CryptoTokenOfflineException, CAOfflineException, AuthorizationDeniedException {
+    /** Checks if a CRL for a CRL partition needs to be created. The CA is assumed to be active (no checks are performed) */
+    private CrlJob getCrlJobForActiveCa(final CA ca, final Certificate cacert, final int crlPartitionIndex, final Date now, final long addToCrlOverlapTime) {
         final CAInfo cainfo = ca.getCAInfo();
         if (log.isDebugEnabled()) {
             log.debug("Checking to see if CA '"+cainfo.getName()+"' ("+cainfo.getCAId()+") needs CRL generation.");
@@ -303,77 +470,16 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             String msg = intres.getLocalizedMessage("createcrl.crlinfonull", cainfo.getName());
             log.info(msg);
         }
-        if (now.getTime() + overlap >= nextScheduledUpdate) {
-            if (log.isDebugEnabled()) {
-                log.debug("Creating CRL for CA, because:"+(now.getTime()+overlap)+" >= "+nextScheduledUpdate);
-            }
-            return (internalCreateCRL(admin, ca, crlPartitionIndex, lastBaseCrlInfo, new Date()) != null);
-        }
-        return false;
-    }
-
-    @Override
-    public boolean createDeltaCrlConditioned(AuthenticationToken admin, int caid, long addToCrlOverlapTime)
-            throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException {
-        boolean ret = false;
-        final Date now = new Date();
-        final CA ca = (CA) caSession.getCA(admin, caid);
-        final CAInfo cainfo = ca.getCAInfo();
-        try{
-            if (cainfo.getStatus() == CAConstants.CA_EXTERNAL) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for external CA "+cainfo.getName());
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_WAITING_CERTIFICATE_RESPONSE) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for CA "+cainfo.getName() +" awaiting certificate response.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_REVOKED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for CA "+cainfo.getName() +" that is revoked.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_UNINITIALIZED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for CA "+cainfo.getName() +" that is uninitialized.");
-                }
-            } else {
-                if (cainfo instanceof X509CAInfo) {
-                    final Certificate cacert = getCaCertificate(cainfo);
-                    // Don't create CRLs if the CA has expired
-                    if (cacert != null && CertTools.getNotAfter(cacert).after(now)) {
-                        if (cainfo.getDeltaCRLPeriod() > 0) {
-                            if (cainfo.getStatus() == CAConstants.CA_OFFLINE) {
-                                // Normal event to not create CRLs for CAs that are deliberately set off line
-                                String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
-                                log.info(msg);
-                            } else {
-                                boolean result = createDeltaCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
-                                final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
-                                if (crlPartitions != null) {
-                                    for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
-                                        result &= createDeltaCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
-                                    }
-                                }
-                                return result;
-                            }
-                        }
-                    } else if (log.isDebugEnabled() && cacert != null) {
-                        log.debug("Not creating delta CRL for expired CA "+cainfo.getName()+". CA subjectDN='"+CertTools.getSubjectDN(cacert)+"', expired: "+CertTools.getNotAfter(cacert));
-                    } else if (log.isDebugEnabled()) {
-                        log.debug("Not creating delta CRL for CA without CA certificate: "+cainfo.getName());
-                    }
-                }
-            }
-        } catch (CryptoTokenOfflineException e) {
-            log.warn("Crypto token is offline for CA "+caid+" generating CRL.");
-            throw e;
+        final boolean due = now.getTime() + overlap >= nextScheduledUpdate;
+        if (due && log.isDebugEnabled()) {
+            log.debug("Creating CRL for CA, because:"+(now.getTime()+overlap)+" >= "+nextScheduledUpdate);
         }
-        return ret;
+        return new CrlJob(ca, crlPartitionIndex, lastBaseCrlInfo, due, nextScheduledUpdate - overlap);
     }
 
-    /** Creates a Delta CRL for a CRL partition. The CA is assumed to be active (no checks are performed) */
-    private boolean createDeltaCrlForActiveCa(AuthenticationToken admin, final CA ca, final Certificate cacert, final int crlPartitionIndex,
-            final Date now, final long addToCrlOverlapTime) throws CryptoTokenOfflineException, CAOfflineException, AuthorizationDeniedException {
+    /** Checks if a delta CRL for a CRL partition needs to be created. The CA is assumed to be active (no checks are performed) */
+    private CrlJob getDeltaCrlJobForActiveCa(final CA ca, final Certificate cacert, final int crlPartitionIndex, final Date now,
+            final long addToCrlOverlapTime) {
         if (log.isDebugEnabled()) {
             log.debug("Checking to see if CA '"+ca.getName()+"' needs Delta CRL generation.");
         }
@@ -386,17 +492,19 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                 log.debug("Read deltacrlinfo for CA: "+ca.getName()+", lastNumber="+lastDeltaCrlInfo.getLastCRLNumber()+", expireDate="+lastDeltaCrlInfo.getExpireDate());
             }
         }
+        final long deadline = (lastDeltaCrlInfo == null ? 0 : lastDeltaCrlInfo.getExpireDate().getTime()) - addToCrlOverlapTime;
         if (lastDeltaCrlInfo == null || (now.getTime() + addToCrlOverlapTime) >= lastDeltaCrlInfo.getExpireDate().getTime()){
             final CRLInfo lastBaseCrlInfo = crlSession.getLastCRLInfo(certSubjectDN, crlPartitionIndex, false);
             if (lastBaseCrlInfo != null) {
-                return publishingCrlSession.internalCreateDeltaCRL(admin, ca, crlPartitionIndex, lastBaseCrlInfo) != null;
+                return new CrlJob(ca, crlPartitionIndex, lastBaseCrlInfo, true, deadline);
             } else {
                 log.info("No full CRL exists when trying to generate delta CRL for caid "+ca.getCAId());
             }
         }
-        return false;
+        return new CrlJob(ca, crlPartitionIndex, null, false, deadline);
     }
 
+
     @Override
     public boolean forceCRL(final AuthenticationToken admin, final int caid, final int crlPartitionIndex, final Date validFrom) throws CADoesntExistsException, AuthorizationDeniedException, CryptoTokenOfflineException, CAOfflineException {
         final CA ca = (CA) caSession.getCA(admin, caid);
@@ -473,6 +581,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         final CAInfo cainfo = ca.getCAInfo();
         String ret = null;
         Collection<RevokedCertInfo> revokedCertificates = null;
+        RevokedCertInfoSnapshot.Writer snapshotWriter = null;
         try {
             final Certificate cacert = getCaCertificate(cainfo);
             // DN from the CA issuing the CRL to be used when searching for the CRL in the database.
@@ -490,8 +599,37 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
                     log.debug("Listing revoked certificates. Free memory=" + freeMemory);
                 }
-                revokedCertificates = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, false,
-                        crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl, getAllowInvalidityDate(cainfo));
+                final String snapshotDirectory = EjbcaConfiguration.getCrlIncrementalDirectory();
+                if (snapshotDirectory != null && ca.getCAType() == CAInfo.CATYPE_X509 && !((X509CA) ca).getNameChanged()) {
+                    // List the revoked certificates in CertificateData incrementally, from the snapshot written when the last CRL was created
+                    final Path snapshotFile = Paths.get(snapshotDirectory, SNAPSHOT_FILE_PREFIX + ca.getCAId() + "-" + crlPartitionIndex + SNAPSHOT_FILE_SUFFIX);
+                    final long listedAt = System.currentTimeMillis();
+                    final RevokedCertInfoSnapshot snapshot = openSnapshot(snapshotFile, caCertSubjectDN, crlPartitionIndex, getAllowInvalidityDate(cainfo), listedAt);
+                    try {
+                        snapshotWriter = RevokedCertInfoSnapshot.createWriter(snapshotFile, caCertSubjectDN, crlPartitionIndex, getAllowInvalidityDate(cainfo),
+                                listedAt, snapshot == null ? listedAt : snapshot.getFullyListedAt(), keepExpiredCertsOnCrl ? Long.MIN_VALUE : lastBaseCrlCreationDate.getTime());
+                        final Collection<RevokedCertInfo> revokedInCertData = listRevokedCertInfoInCertificateData(snapshot, snapshotWriter, caCertSubjectDN,
+                                crlPartitionIndex, lastBaseCrlCreationDate.getTime(), getAllowInvalidityDate(cainfo));
+                        revokedCertificates = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, revokedInCertData, false,
+                                crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl, getAllowInvalidityDate(cainfo));
+                    } catch (IOException e) {
+                        log.warn("Unable to use snapshot of revoked certificates " + snapshotFile + ", listing all revoked certificates: " + e.getMessage());
+                        closeSnapshotWriter(snapshotWriter);
+                        snapshotWriter = null;
+                        deleteSnapshot(snapshotFile);
+                    }
+                }
+                if (revokedCertificates == null && CesecoreConfiguration.getDatabaseRevokedCertInfoFetchKeyset()) {
+                    // Read with keyset pagination, without serializing and compressing each entry
+                    final Collection<RevokedCertInfo> packedRevokedCertificates = new PackedRevokedCertInfoCollection();
+                    noConflictCertificateStoreSession.streamRevokedCertInfo(caCertSubjectDN, crlPartitionIndex, lastBaseCrlCreationDate.getTime(),
+                            keepExpiredCertsOnCrl, getAllowInvalidityDate(cainfo), packedRevokedCertificates::add);
+                    revokedCertificates = packedRevokedCertificates;
+                }
+                if (revokedCertificates == null) {
+                    revokedCertificates = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, false,
+                            crlPartitionIndex, lastBaseCrlCreationDate.getTime(), keepExpiredCertsOnCrl, getAllowInvalidityDate(cainfo));
+                }
 
                 //if X509 CA is marked as it has gone through Name Change add certificates revoked with old names
                 if(ca.getCAType()==CAInfo.CATYPE_X509 && ((X509CA)ca).getNameChanged()){
@@ -516,7 +654,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     }
                     //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
                     Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revokedCertificates;
-                    revokedCertificates = new CompressedCollection<>(RevokedCertInfo.class);
+                    revokedCertificates = RevokedCertInfoCodec.createCompressedCollection();
                     if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
                         revokedCertificates.addAll(revokedCertificatesBeforeLastCANameChange);
                     }
@@ -574,6 +712,13 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                 if (crlBytes != null) {
                     ret = CertTools.getFingerprintAsString(crlBytes);
                 }
+                if (snapshotWriter != null) {
+                    try {
+                        snapshotWriter.commit();
+                    } catch (IOException e) {
+                        log.warn("Unable to write snapshot of revoked certificates, the next CRL will list all revoked certificates: " + e.getMessage());
+                    }
+                }
                 // This debug logging is very, very heavy if you have large CRLs. Please don't use it :-)
                 //              if (log.isDebugEnabled()) {
                 //              X509CRL crl = CertTools.getCRLfromByteArray(crlBytes);
@@ -596,6 +741,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             if (revokedCertificates!=null) {
                 revokedCertificates.clear();
             }
+            closeSnapshotWriter(snapshotWriter);
         }
         if (log.isTraceEnabled()) {
             log.trace("<internalCreateCRL()");
@@ -603,6 +749,69 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         return ret;
     }
 
+    /**
+     * @return the snapshot of revoked certificates, or null if there is none or it is older than {@link EjbcaConfiguration#getCrlIncrementalMaxAge()}
+     *      and the revoked certificates should be listed in full
+     */
+    private RevokedCertInfoSnapshot openSnapshot(final Path snapshotFile, final String issuerDN, final int crlPartitionIndex, final boolean allowInvalidityDate,
+            final long now) {
+        final RevokedCertInfoSnapshot snapshot = RevokedCertInfoSnapshot.open(snapshotFile, issuerDN, crlPartitionIndex, allowInvalidityDate);
+        if (snapshot != null && now - snapshot.getFullyListedAt() > EjbcaConfiguration.getCrlIncrementalMaxAge()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Snapshot " + snapshotFile + " was last listed in full at " + new Date(snapshot.getFullyListedAt()) + ", listing all revoked certificates.");
+            }
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Lists the revoked certificates in CertificateData for a base CRL and writes them to a new snapshot. If there is a snapshot from
+     * the last base CRL, only the certificates that have been updated since are read from the database.
+     */
+    private Collection<RevokedCertInfo> listRevokedCertInfoInCertificateData(final RevokedCertInfoSnapshot snapshot, final RevokedCertInfoSnapshot.Writer snapshotWriter,
+            final String issuerDN, final int crlPartitionIndex, final long lastBaseCrlDate, final boolean allowInvalidityDate) throws IOException {
+        if (snapshot == null) {
+            final Collection<RevokedCertInfo> revokedInCertData = certificateStoreSession.listRevokedCertInfo(issuerDN, false, crlPartitionIndex, lastBaseCrlDate,
+                    allowInvalidityDate);
+            for (final RevokedCertInfo revokedCertInfo : revokedInCertData) {
+                snapshotWriter.add(revokedCertInfo);
+            }
+            return revokedInCertData;
+        }
+        // Revocations are committed some time after their updateTime is set, and the clocks of the nodes in a cluster may differ
+        final Collection<RevokedCertInfo> changes = certificateStoreSession.listRevokedCertInfoChanges(issuerDN, crlPartitionIndex,
+                snapshot.getListedAt() - SNAPSHOT_UPDATE_TIME_OVERLAP, allowInvalidityDate);
+        try {
+            final Collection<RevokedCertInfo> revokedInCertData = snapshot.applyChanges(changes, snapshotWriter);
+            if (log.isDebugEnabled()) {
+                log.debug("Applied " + changes.size() + " changes to " + snapshot.getEntryCount() + " revoked certificates from snapshot, giving "
+                        + revokedInCertData.size() + " revoked certificates.");
+            }
+            return revokedInCertData;
+        } finally {
+            changes.clear();
+        }
+    }
+
+    private void closeSnapshotWriter(final RevokedCertInfoSnapshot.Writer snapshotWriter) {
+        if (snapshotWriter != null) {
+            try {
+                snapshotWriter.close();
+            } catch (IOException e) {
+                log.debug("Unable to remove temporary snapshot file: " + e.getMessage());
+            }
+        }
+    }
+
+    private void deleteSnapshot(final Path snapshotFile) {
+        try {
+            Files.deleteIfExists(snapshotFile);
+        } catch (IOException e) {
+            log.info("Unable to remove snapshot of revoked certificates " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Generates a new Delta CRL by looking in the database for revoked
      * certificates since the last complete CRL issued and generating a CRL with
@@ -710,7 +919,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     }
                     //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
                     Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revcertinfos;
-                    revcertinfos = new CompressedCollection<>(RevokedCertInfo.class);
+                    revcertinfos = RevokedCertInfoCodec.createCompressedCollection();
                     if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
                         revcertinfos.addAll(revokedCertificatesBeforeLastCANameChange);
                     }
@@ -721,7 +930,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     log.debug("Found "+revcertinfos.size()+" revoked certificates.");
                 }
                 // Go through them and create a CRL, i.e. add to cert list to be included in CRL
-                certs = new CompressedCollection<>(RevokedCertInfo.class);
+                certs = RevokedCertInfoCodec.createCompressedCollection();
                 for (final RevokedCertInfo ci : revcertinfos) {
                     final boolean certificateIsReleasedFromHold = ci.getReason() == RevocationReasons.REMOVEFROMCRL.getDatabaseValue();
                     final boolean certificateAppearsOnBaseCrl = lastBaseCrlInfo.getCrl().getRevokedCertificate(ci.getUserCertificate()) != null;
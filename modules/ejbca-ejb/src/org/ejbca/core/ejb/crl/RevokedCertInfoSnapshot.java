@@ -0,0 +1,277 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCodec;
+import org.cesecore.util.CompressedCollection;
+
+/**
+ * File with the revoked certificates in CertificateData of one CA and CRL partition, as they were listed when the last base CRL
+ * was created. The next base CRL is then created from the file and the certificates whose updateTime has changed since the listing,
+ * instead of listing all revoked certificates again.
+ * <p>
+ * The file starts with a fixed size header, followed by one record per revoked certificate. It is written to a temporary file
+ * that replaces the previous file when {@link Writer#commit()} is called, so a file is always complete. The file is only a cache
+ * of the database and is ignored if it can not be read.
+ */
+final class RevokedCertInfoSnapshot {
+
+    private static final Logger log = Logger.getLogger(RevokedCertInfoSnapshot.class);
+
+    private static final int MAGIC = 0x45524349; // "ERCI"
+    private static final int VERSION = 1;
+    /** Offset of the entry count, which is written when the file is committed */
+    private static final int ENTRY_COUNT_OFFSET = 36;
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Path file;
+    private final long listedAt;
+    private final long fullyListedAt;
+    private final long entryCount;
+
+    private RevokedCertInfoSnapshot(final Path file, final long listedAt, final long fullyListedAt, final long entryCount) {
+        this.file = file;
+        this.listedAt = listedAt;
+        this.fullyListedAt = fullyListedAt;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Reads the header of a snapshot.
+     *
+     * @param file the snapshot file
+     * @param issuerDN subject DN of the CA certificate
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION
+     * @param allowInvalidityDate true if the snapshot must include invalidity dates
+     * @return the snapshot, or null if there is no snapshot, or it was written for other settings or could not be read
+     */
+    static RevokedCertInfoSnapshot open(final Path file, final String issuerDN, final int crlPartitionIndex, final boolean allowInvalidityDate) {
+        try (final DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.info("Ignoring " + file + ", it is not a snapshot of revoked certificates of this version.");
+                return null;
+            }
+            if (in.readInt() != issuerDN.hashCode() || in.readInt() != crlPartitionIndex || in.readBoolean() != allowInvalidityDate) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Ignoring " + file + ", it was written for another CA, CRL partition or invalidity date setting.");
+                }
+                return null;
+            }
+            in.skipBytes(3);
+            final long listedAt = in.readLong();
+            final long fullyListedAt = in.readLong();
+            final long entryCount = in.readLong();
+            return new RevokedCertInfoSnapshot(file, listedAt, fullyListedAt, entryCount);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.info("Unable to read snapshot of revoked certificates " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** @return the time when the revoked certificates were listed, so changes made after this time are not included */
+    long getListedAt() {
+        return listedAt;
+    }
+
+    /** @return the time when the revoked certificates were last listed in full, instead of incrementally */
+    long getFullyListedAt() {
+        return fullyListedAt;
+    }
+
+    long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Applies changes to the revoked certificates of the snapshot. Entries in the snapshot for which there is a change are replaced
+     * by the change, or left out if the certificate is no longer revoked.
+     *
+     * @param changes certificates whose revocation status may have changed since the snapshot was listed, where certificates that
+     *      are not revoked have the reason REMOVEFROMCRL
+     * @param writer writer of the new snapshot, to which all revoked certificates are added
+     * @return all revoked certificates
+     * @throws IOException if the snapshot could not be read or the new snapshot could not be written
+     */
+    CompressedCollection<RevokedCertInfo> applyChanges(final Collection<RevokedCertInfo> changes, final Writer writer) throws IOException {
+        final Map<String, RevokedCertInfo> changesByFingerprint = new LinkedHashMap<>();
+        for (final RevokedCertInfo change : changes) {
+            changesByFingerprint.put(change.getCertificateFingerprint(), change);
+        }
+        final CompressedCollection<RevokedCertInfo> revokedCertInfos = RevokedCertInfoCodec.createCompressedCollection();
+        boolean success = false;
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            in.skipBytes(ENTRY_COUNT_OFFSET + 8);
+            for (long i = 0; i < entryCount; i++) {
+                final RevokedCertInfo revokedCertInfo = readEntry(in);
+                if (!changesByFingerprint.containsKey(revokedCertInfo.getCertificateFingerprint())) {
+                    revokedCertInfos.add(revokedCertInfo);
+                    writer.add(revokedCertInfo);
+                }
+            }
+            for (final RevokedCertInfo change : changesByFingerprint.values()) {
+                if (change.isRevoked()) {
+                    revokedCertInfos.add(change);
+                    writer.add(change);
+                }
+            }
+            revokedCertInfos.closeForWrite();
+            success = true;
+        } catch (EOFException e) {
+            throw new IOException("Snapshot " + file + " is truncated.", e);
+        } finally {
+            if (!success) {
+                revokedCertInfos.clear();
+            }
+        }
+        return revokedCertInfos;
+    }
+
+    /**
+     * Creates a writer of a new snapshot. The new snapshot replaces the existing one when it is committed.
+     *
+     * @param file the snapshot file
+     * @param issuerDN subject DN of the CA certificate
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION
+     * @param allowInvalidityDate true if the entries include invalidity dates
+     * @param listedAt the time when listing of revoked certificates started
+     * @param fullyListedAt the time when the revoked certificates were last listed in full
+     * @param excludeExpiredBefore entries of certificates that expired before this time are not written, since they are archived
+     *      when the CRL is created
+     * @return the writer
+     * @throws IOException if the temporary file could not be created
+     */
+    static Writer createWriter(final Path file, final String issuerDN, final int crlPartitionIndex, final boolean allowInvalidityDate,
+            final long listedAt, final long fullyListedAt, final long excludeExpiredBefore) throws IOException {
+        return new Writer(file, issuerDN, crlPartitionIndex, allowInvalidityDate, listedAt, fullyListedAt, excludeExpiredBefore);
+    }
+
+    /** Writer of a new snapshot, which must be closed to remove the temporary file if it was not committed. */
+    static final class Writer implements Closeable {
+        private final Path file;
+        private final Path temporaryFile;
+        private final DataOutputStream out;
+        private final long excludeExpiredBefore;
+        private long entryCount = 0;
+        private boolean closed = false;
+
+        private Writer(final Path file, final String issuerDN, final int crlPartitionIndex, final boolean allowInvalidityDate, final long listedAt,
+                final long fullyListedAt, final long excludeExpiredBefore) throws IOException {
+            this.file = file;
+            this.excludeExpiredBefore = excludeExpiredBefore;
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            temporaryFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(issuerDN.hashCode());
+            out.writeInt(crlPartitionIndex);
+            out.writeBoolean(allowInvalidityDate);
+            out.write(new byte[3]);
+            out.writeLong(listedAt);
+            out.writeLong(fullyListedAt);
+            out.writeLong(0); // Entry count, written on commit
+        }
+
+        /** Adds an entry, unless the certificate has expired before the time given when the writer was created. */
+        void add(final RevokedCertInfo revokedCertInfo) throws IOException {
+            final long expireDate = revokedCertInfo.getExpireDate() == null ? 0 : revokedCertInfo.getExpireDate().getTime();
+            if (expireDate != 0 && expireDate < excludeExpiredBefore) {
+                return;
+            }
+            final byte[] fingerprint = revokedCertInfo.getCertificateFingerprint().getBytes(StandardCharsets.US_ASCII);
+            final byte[] serialNumber = revokedCertInfo.getUserCertificate().toByteArray();
+            out.writeShort(fingerprint.length);
+            out.write(fingerprint);
+            out.writeShort(serialNumber.length);
+            out.write(serialNumber);
+            out.writeLong(revokedCertInfo.getRevocationDate() == null ? 0 : revokedCertInfo.getRevocationDate().getTime());
+            out.writeInt(revokedCertInfo.getReason());
+            out.writeLong(expireDate);
+            out.writeBoolean(revokedCertInfo.isInvalidityDateSet());
+            out.writeLong(revokedCertInfo.isInvalidityDateSet() ? revokedCertInfo.getInvalidityDate().getTime() : 0);
+            entryCount++;
+        }
+
+        long getEntryCount() {
+            return entryCount;
+        }
+
+        /**
+         * Writes the entry count and replaces the previous snapshot with the new one.
+         *
+         * @throws IOException if the snapshot could not be written
+         */
+        void commit() throws IOException {
+            out.close();
+            try (final FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                final ByteBuffer count = ByteBuffer.allocate(8);
+                count.putLong(entryCount).flip();
+                channel.write(count, ENTRY_COUNT_OFFSET);
+                channel.force(true);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            closed = true;
+            if (log.isDebugEnabled()) {
+                log.debug("Wrote snapshot of " + entryCount + " revoked certificates to " + file);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    out.close();
+                } finally {
+                    Files.deleteIfExists(temporaryFile);
+                }
+            }
+        }
+    }
+
+    private static RevokedCertInfo readEntry(final DataInputStream in) throws IOException {
+        final byte[] fingerprint = new byte[in.readUnsignedShort()];
+        in.readFully(fingerprint);
+        final byte[] serialNumber = new byte[in.readUnsignedShort()];
+        in.readFully(serialNumber);
+        final long revocationDate = in.readLong();
+        final int reason = in.readInt();
+        final long expireDate = in.readLong();
+        final boolean invalidityDateSet = in.readBoolean();
+        final long invalidityDate = in.readLong();
+        return new RevokedCertInfo(fingerprint, serialNumber, revocationDate, reason, expireDate, invalidityDateSet ? invalidityDate : null);
+    }
+}
@@ -12,20 +12,17 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ocsp;
 
-import java.security.PrivateKey;
 import java.security.cert.CertificateEncodingException;
-import java.security.cert.X509Certificate;
 import java.util.Date;
 import java.util.concurrent.Callable;
 
-import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.ocsp.BasicOCSPResp;
 import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
 import org.bouncycastle.cert.ocsp.OCSPException;
-import org.bouncycastle.operator.BufferingContentSigner;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.OperatorCreationException;
-import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
 import org.cesecore.certificates.ocsp.exception.OcspFailureException;
 import org.cesecore.util.LogRedactionUtils;
 
@@ -42,22 +39,30 @@ public class HsmResponseThread implements Callable<BasicOCSPResp> {
 
     private final BasicOCSPRespBuilder basicRes;
     private final String signingAlgorithm;
-    private final PrivateKey signerKey;
-    private final JcaX509CertificateHolder[] chain;
-    private final String provider;
+    private final OcspSigningCacheEntry ocspSigningCacheEntry;
+    private final X509CertificateHolder[] chain;
     private final Date producedAt;
 
-    public HsmResponseThread(final BasicOCSPRespBuilder basicRes, final String signingAlgorithm, final PrivateKey signerKey,
-            final X509Certificate[] chain, final String provider, final Date producedAt) throws OcspFailureException {
+    /**
+     * @param basicRes the response to sign, with the responder ID of the cache entry
+     * @param signingAlgorithm the signature algorithm
+     * @param ocspSigningCacheEntry the entry holding the signing key and the pre-encoded certificate chain to include
+     * @param producedAt the producedAt time of the response, or null for the current time
+     */
+    public HsmResponseThread(final BasicOCSPRespBuilder basicRes, final String signingAlgorithm, final OcspSigningCacheEntry ocspSigningCacheEntry,
+            final Date producedAt) throws OcspFailureException {
         this.basicRes = basicRes;
         this.signingAlgorithm = signingAlgorithm;
-        this.signerKey = signerKey;
-        this.provider = provider;
+        this.ocspSigningCacheEntry = ocspSigningCacheEntry;
         this.producedAt = producedAt;
-        try {
-            this.chain = CertTools.convertToX509CertificateHolder(chain);
-        } catch (CertificateEncodingException e) {
-            throw new OcspFailureException(LogRedactionUtils.getRedactedException(e));
+        if (ocspSigningCacheEntry.getResponseCertChainHolders() != null) {
+            this.chain = ocspSigningCacheEntry.getResponseCertChainHolders();
+        } else {
+            try {
+                this.chain = CertTools.convertToX509CertificateHolder(ocspSigningCacheEntry.getResponseCertChain());
+            } catch (CertificateEncodingException e) {
+                throw new OcspFailureException(LogRedactionUtils.getRedactedException(e));
+            }
         }
     }
 
@@ -65,15 +70,13 @@ public class HsmResponseThread implements Callable<BasicOCSPResp> {
     public BasicOCSPResp call() throws OCSPException {
         try {
             /*
-             * BufferingContentSigner defaults to allocating a 4096 bytes buffer. Since a rather large OCSP response (e.g. signed with 4K
-             * RSA key, nonce and a one level chain) is less then 2KiB, this is generally a waste of allocation and garbage collection.
+             * The response data is DER encoded and written to the signer in a single write, so the signer does not need the
+             * BufferingContentSigner that was used before (which allocated a 20 KiB buffer for every response).
              * 
              * In high performance environments, the full OCSP response should in general be smaller than 1492 bytes to fit in a single
              * Ethernet frame.
-             * 
-             * Lowering this allocation from 20480 to 4096 bytes under ECA-4084 which should still be plenty.
              */
-            final ContentSigner signer = new BufferingContentSigner(new JcaContentSignerBuilder(signingAlgorithm).setProvider(provider).build(signerKey), 20480);
+            final ContentSigner signer = ocspSigningCacheEntry.createContentSigner(signingAlgorithm);
             return basicRes.build(signer, chain, producedAt!=null? producedAt : new Date());
         } catch (OperatorCreationException e) {
             throw new OcspFailureException(e);
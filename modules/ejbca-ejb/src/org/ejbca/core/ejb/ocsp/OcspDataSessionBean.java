@@ -51,6 +51,24 @@ public class OcspDataSessionBean implements OcspDataSessionLocal, OcspDataSessio
         log.trace("<persistOcspData");
     }
 
+    @Override
+    public void storeOcspDataBatch(final List<OcspResponseData> ocspResponseDataList) {
+        log.trace(">storeOcspDataBatch");
+        final int flushInterval = 100;
+        int count = 0;
+        for (final OcspResponseData responseData : ocspResponseDataList) {
+            this.entityManager.persist(responseData);
+            if (++count % flushInterval == 0) {
+                this.entityManager.flush();
+                this.entityManager.clear();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Stored " + count + " OCSP responses.");
+        }
+        log.trace("<storeOcspDataBatch");
+    }
+
     @Override
     public List<OcspResponseData> findOcspDataByCaId(final Integer caId) {
         log.trace(">findOcspDataByCaId");
@@ -188,6 +206,39 @@ public class OcspDataSessionBean implements OcspDataSessionLocal, OcspDataSessio
         return rowsDeleted;
     }
 
+    @Override
+    public List<Integer> findOcspDataCaIds() {
+        final TypedQuery<Integer> query = this.entityManager.createNamedQuery("findOcspDataCaIds", Integer.class);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Object[]> findOcspDataForCleanup(final Integer caId, final long cutoffTime, final String afterSerialNumber, final int maxResults) {
+        final TypedQuery<Object[]> query = this.entityManager.createNamedQuery(afterSerialNumber == null ? "findFirstOcspDataForCleanup" : "findOcspDataForCleanup",
+                Object[].class);
+        query.setParameter("caId", caId);
+        query.setParameter("cutoffTime", cutoffTime);
+        if (afterSerialNumber != null) {
+            query.setParameter("afterSerialNumber", afterSerialNumber);
+        }
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    @Override
+    public int deleteOcspDataByIds(final List<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        final Query query = this.entityManager.createNamedQuery("deleteOcspDataByIds");
+        query.setParameter("ids", ids);
+        final int rowsDeleted = query.executeUpdate();
+        if (log.isTraceEnabled()) {
+            log.trace("deleteOcspDataByIds yielded " + rowsDeleted + " rows deleted of " + ids.size() + " requested.");
+        }
+        return rowsDeleted;
+    }
+
     private OcspResponseData getOcspResponseDataByCaIdSerialNumber(final Integer caId, final String serialNumber) {
         final TypedQuery<OcspResponseData> query = this.entityManager.createNamedQuery("findOcspDataByCaIdSerialNumber", OcspResponseData.class);
         query.setParameter("caId", caId);
@@ -201,7 +252,7 @@ public class OcspDataSessionBean implements OcspDataSessionLocal, OcspDataSessio
      *
      * @return the difference in milliseconds, between time at beginning of current second and midnight, January 1, 1970 UTC.
     */
-    private long getCleanupCutoffTime() {
+    static long getCleanupCutoffTime() {
         long currentTimeMillis = System.currentTimeMillis();
         // OCSP response data is stored without millisecond values, therefore to avoid deletion of responses generated
         // after start of the cleanup job, we need to process records that were saved till beginning of current second.
@@ -13,6 +13,7 @@
 package org.ejbca.core.ejb.ocsp;
 
 import org.apache.log4j.Logger;
+import org.cesecore.config.OcspConfiguration;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
 import org.cesecore.jndi.JndiConstants;
 import org.ejbca.config.GlobalConfiguration;
@@ -29,7 +30,17 @@ import javax.ejb.TimerConfig;
 import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @version $Id$
@@ -58,6 +69,13 @@ public class OcspResponseCleanupSessionBean implements OcspResponseCleanupSessio
     @EJB
     private GlobalConfigurationSessionLocal globalConfigurationSession;
 
+    public OcspResponseCleanupSessionBean() { }
+
+    /** Constructor for unit tests */
+    protected OcspResponseCleanupSessionBean(final OcspDataSessionLocal ocspDataSession) {
+        this.ocspDataSession = ocspDataSession;
+    }
+
     @PostConstruct
     public void ejbCreate() {
         timerService = sessionContext.getTimerService();
@@ -215,12 +233,149 @@ public class OcspResponseCleanupSessionBean implements OcspResponseCleanupSessio
         return timerService.createCalendarTimer(expression, new TimerConfig(timerInfo, false));
     }
 
+    /**
+     * Deletes all but the latest OCSP responses of each certificate, one CA at a time in each of at most
+     * {@link OcspConfiguration#getCleanupThreads()} threads. Each batch is read and deleted in its own short transaction,
+     * so no large ranges of OcspResponseData are locked while the job runs.
+     *
+     * @return the number of deleted rows
+     */
     private int cleanUpOcspResponses() {
         try {
-            return ocspDataSession.deleteOldOcspData();
+            final long cutoffTime = OcspDataSessionBean.getCleanupCutoffTime();
+            final int batchSize = OcspConfiguration.getCleanupBatchSize();
+            final List<Integer> caIds = ocspDataSession.findOcspDataCaIds();
+            final CleanupProgress progress = new CleanupProgress(caIds.size());
+            final int threads = Math.min(OcspConfiguration.getCleanupThreads(), caIds.size());
+            if (threads <= 1) {
+                for (final Integer caId : caIds) {
+                    cleanUpOcspResponses(caId, cutoffTime, batchSize, progress);
+                }
+            } else {
+                final ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    final Map<Integer, Future<?>> futures = new LinkedHashMap<>();
+                    for (final Integer caId : caIds) {
+                        futures.put(caId, executor.submit(() -> cleanUpOcspResponses(caId, cutoffTime, batchSize, progress)));
+                    }
+                    for (final Map.Entry<Integer, Future<?>> future : futures.entrySet()) {
+                        try {
+                            future.getValue().get();
+                        } catch (ExecutionException e) {
+                            log.warn("OCSP cleanup of CA " + future.getKey() + " has failed: ", e.getCause());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.warn("OCSP cleanup job was interrupted.");
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+            progress.logCompleted();
+            return (int) Math.min(Integer.MAX_VALUE, progress.getRowsDeleted());
         } catch (Exception ex) {
             log.warn("OCSP cleanup job has failed: ", ex);
             return 0;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Deletes all but the latest OCSP responses of each certificate issued by a CA, in batches ordered by serial number.
+     * A batch may end in the middle of the responses of a serial number, which are then left for the next batch. If a single
+     * serial number has more responses than fit in a batch, the batch is repeated until all old responses are deleted.
+     *
+     * @return the number of deleted rows
+     */
+    long cleanUpOcspResponses(final Integer caId, final long cutoffTime, final int batchSize, final CleanupProgress progress) {
+        final long start = System.currentTimeMillis();
+        long rowsDeleted = 0;
+        // The first batch is read without a serial number condition. An empty string would not do, since Oracle treats it as null.
+        String afterSerialNumber = null;
+        while (!Thread.currentThread().isInterrupted()) {
+            final String batchStart = afterSerialNumber;
+            final List<Object[]> rows = ocspDataSession.findOcspDataForCleanup(caId, cutoffTime, batchStart, batchSize);
+            if (rows.isEmpty()) {
+                break;
+            }
+            final boolean lastBatch = rows.size() < batchSize;
+            final String firstSerialNumber = (String) rows.get(0)[1];
+            final String lastSerialNumber = (String) rows.get(rows.size() - 1)[1];
+            final boolean singleSerialNumber = firstSerialNumber.equals(lastSerialNumber);
+            final List<String> ids = new ArrayList<>();
+            String serialNumber = null;
+            long latestProducedAt = 0;
+            for (final Object[] row : rows) {
+                if (!lastBatch && !singleSerialNumber && lastSerialNumber.equals(row[1])) {
+                    // The remaining responses for this serial number may be in the next batch
+                    break;
+                }
+                if (!row[1].equals(serialNumber)) {
+                    serialNumber = (String) row[1];
+                    latestProducedAt = ((Number) row[2]).longValue();
+                    afterSerialNumber = serialNumber;
+                } else if (((Number) row[2]).longValue() < latestProducedAt) {
+                    ids.add((String) row[0]);
+                }
+            }
+            final int deleted = ocspDataSession.deleteOcspDataByIds(ids);
+            rowsDeleted += deleted;
+            progress.addRowsDeleted(deleted);
+            if (lastBatch) {
+                break;
+            }
+            if (singleSerialNumber && deleted > 0) {
+                // Read the same serial number again, there may be more old responses
+                afterSerialNumber = batchStart;
+            }
+        }
+        progress.caCompleted(caId, rowsDeleted, System.currentTimeMillis() - start);
+        return rowsDeleted;
+    }
+
+    /** Progress of a clean up job, shared by all threads. Logs progress at most once per {@link #LOG_INTERVAL} milliseconds. */
+    static final class CleanupProgress {
+        private static final long LOG_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+        private final long start = System.currentTimeMillis();
+        private final int caCount;
+        private final AtomicInteger casCompleted = new AtomicInteger();
+        private final AtomicLong rowsDeleted = new AtomicLong();
+        private final AtomicLong lastLogged = new AtomicLong(start);
+
+        CleanupProgress(final int caCount) {
+            this.caCount = caCount;
+        }
+
+        private void addRowsDeleted(final int rows) {
+            final long total = rowsDeleted.addAndGet(rows);
+            final long now = System.currentTimeMillis();
+            final long previous = lastLogged.get();
+            if (now - previous >= LOG_INTERVAL && lastLogged.compareAndSet(previous, now)) {
+                log.info("OCSP clean up in progress: " + casCompleted.get() + " of " + caCount + " CAs done, " + total + " OCSP responses deleted, "
+                        + getRowsPerSecond(total, now - start) + " rows/s.");
+            }
+        }
+
+        private void caCompleted(final int caId, final long rows, final long duration) {
+            casCompleted.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("Cleaned up " + rows + " OCSP responses of CA " + caId + " in " + duration + " ms, " + getRowsPerSecond(rows, duration) + " rows/s.");
+            }
+        }
+
+        private void logCompleted() {
+            final long total = rowsDeleted.get();
+            log.info("OCSP clean up of " + casCompleted.get() + " of " + caCount + " CAs completed, " + total + " OCSP responses deleted, "
+                    + getRowsPerSecond(total, System.currentTimeMillis() - start) + " rows/s.");
+        }
+
+        long getRowsDeleted() {
+            return rowsDeleted.get();
+        }
+
+        private static long getRowsPerSecond(final long rows, final long duration) {
+            return duration > 0 ? rows * 1000 / duration : rows;
+        }
+    }
+}
@@ -58,6 +58,7 @@ import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
 import org.bouncycastle.cert.ocsp.Req;
 import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
 import org.bouncycastle.cert.ocsp.UnknownStatus;
 import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
 import org.bouncycastle.operator.OperatorCreationException;
@@ -94,12 +95,15 @@ import org.cesecore.certificates.ocsp.cache.OcspDataConfigCache;
 import org.cesecore.certificates.ocsp.cache.OcspDataConfigCacheEntry;
 import org.cesecore.certificates.ocsp.cache.OcspExtensionsCache;
 import org.cesecore.certificates.ocsp.cache.OcspRequestSignerStatusCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
+import org.cesecore.certificates.ocsp.cache.PreProducedResponseStore;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
 import org.cesecore.certificates.ocsp.exception.CryptoProviderException;
 import org.cesecore.certificates.ocsp.exception.IllegalNonceException;
 import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
 import org.cesecore.certificates.ocsp.exception.OcspFailureException;
+import org.cesecore.certificates.ocsp.exception.OcspSigningQueueFullException;
 import org.cesecore.certificates.ocsp.extension.OCSPExtension;
 import org.cesecore.certificates.ocsp.extension.OCSPExtensionType;
 import org.cesecore.certificates.ocsp.logging.AuditLogger;
@@ -107,6 +111,7 @@ import org.cesecore.certificates.ocsp.logging.GuidHolder;
 import org.cesecore.certificates.ocsp.logging.PatternLogger;
 import org.cesecore.certificates.ocsp.logging.TransactionCounter;
 import org.cesecore.certificates.ocsp.logging.TransactionLogger;
+import org.cesecore.certificates.ocsp.status.RevocationIndexStatusProvider;
 import org.cesecore.certificates.util.cert.CertificateUtils;
 import org.cesecore.config.AvailableExtendedKeyUsagesConfiguration;
 import org.cesecore.config.ConfigurationHolder;
@@ -150,6 +155,9 @@ import javax.ejb.TimerConfig;
 import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -194,10 +202,9 @@ import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -211,15 +218,17 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     private static final int MAX_REQUEST_SIZE = 100000;
     /** Timer identifiers */
     private static final int TIMERID_OCSPSIGNINGCACHE = 1;
+    /** Set when a request has scheduled an immediate reload of the signing cache, so concurrent requests don't schedule more */
+    private static final AtomicBoolean signingCacheReloadScheduled = new AtomicBoolean(false);
 
     private static final Logger log = Logger.getLogger(OcspResponseGeneratorSessionBean.class);
 
     private static final InternalResources intres = InternalResources.getInstance();
     
-    private static volatile ExecutorService service = Executors.newCachedThreadPool();
-    
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
     /* When the sessionContext is injected, the timerService should be looked up.
      * This is due to the Glassfish EJB verifier complaining. 
      */
@@ -241,6 +250,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     private GlobalConfigurationSessionLocal globalConfigurationSession;
     @EJB
     private OcspDataSessionLocal ocspDataSession;
+    @EJB
+    private OcspRevocationIndexSessionLocal ocspRevocationIndexSession;
     
     @EJB
     private PublisherSessionLocal publisherSession;
@@ -301,11 +312,16 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
         // Cancel any waiting timers of this type
         cancelTimers(TIMERID_OCSPSIGNINGCACHE);
+        signingCacheReloadScheduled.set(false);
         
         try {
             // Verify card key holder
             GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration) globalConfigurationSession
                     .getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
+            final String configurationDigest = getSigningCacheConfigurationDigest(ocspConfiguration);
+            final long startTime = System.currentTimeMillis();
+            int reused = 0;
+            int rebuilt = 0;
             OcspSigningCache.INSTANCE.stagingStart();
             OcspDataConfigCache.INSTANCE.stagingStart();
             try {
@@ -375,7 +391,9 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                                 
                                 final String signatureProviderName = cryptoToken.getSignProviderName();
                                 if (!caCertificateChain.isEmpty()) {
-                                    generateOcspSigningCacheEntries(caCertificateChain, signatureProviderName, privateKey, ocspConfiguration, caToken);
+                                    // MS compatible CAs depend on certificates in the database, so they are always rebuilt
+                                    generateOcspSigningCacheEntries(caCertificateChain, signatureProviderName, privateKey, ocspConfiguration, caToken, null);
+                                    rebuilt++;
                                 } else {
                                     log.warn("CA with ID " + caId
                                             + " appears to lack a certificate in the database. This may be a serious error if not in a test environment.");
@@ -402,10 +420,20 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                                 log.warn("Referenced private key with alias " + keyPairAlias + " does not exist. Ignoring CA with id " + caId);
                                 continue;
                             }
+                            // Entries for CAs that have not changed since the last reload are reused, which saves building the entries.
+                            // The crypto token caches its key references, so the reference only changes when the token has been reactivated.
+                            final String caDigest = caCertificateChain.isEmpty() ? null
+                                    : getCaSigningCacheDigest(caInfo, cryptoToken, caCertificateChain.get(0), configurationDigest);
+                            if (caDigest != null && OcspSigningCache.INSTANCE.stagingAddUnchanged(caDigest, privateKey)) {
+                                generateOcspConfigCacheEntry(caCertificateChain.get(0), caId, preProduceOcspResponse, storeOcspResponseOnDemand, isMsCaCompatible);
+                                reused++;
+                                continue;
+                            }
                             final String signatureProviderName = cryptoToken.getSignProviderName();
                             if (!caCertificateChain.isEmpty()) {
-                                generateOcspSigningCacheEntries(caCertificateChain, signatureProviderName, privateKey, ocspConfiguration, caToken);
+                                generateOcspSigningCacheEntries(caCertificateChain, signatureProviderName, privateKey, ocspConfiguration, caToken, caDigest);
                                 generateOcspConfigCacheEntry(caCertificateChain.get(0), caId, preProduceOcspResponse, storeOcspResponseOnDemand, isMsCaCompatible);
+                                rebuilt++;
 
                             } else {
                                 log.warn("CA with ID " + caId
@@ -486,14 +514,27 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                                 + "' and serial number " + CertTools.getSerialNumber(ocspSigningCertificate) + " is expired.");
                     }
 
+                    // Key bindings signing on behalf of other CAs depend on the status of those CAs, so they are always rebuilt
+                    final String keyBindingDigest = ocspKeyBinding.getSignOcspResponseOnBehalf().isEmpty()
+                            ? getKeyBindingSigningCacheDigest(ocspKeyBinding, ocspSigningCertificate, configurationDigest) : null;
+                    if (keyBindingDigest != null && OcspSigningCache.INSTANCE.stagingAddUnchanged(keyBindingDigest,
+                            getCurrentPrivateKey(ocspKeyBinding.getCryptoTokenId(), ocspKeyBinding.getKeyPairAlias()))) {
+                        reused++;
+                        continue;
+                    }
                     OcspSigningCacheEntry ocspSigningCacheEntry = makeOcspSigningCacheEntry(ocspSigningCertificate, ocspKeyBinding);
                     if (ocspSigningCacheEntry != null) {
                         addSignResponseOnBehalfCasToCacheEntry(ocspSigningCacheEntry, ocspKeyBinding);
-                        OcspSigningCache.INSTANCE.stagingAdd(ocspSigningCacheEntry);
+                        OcspSigningCache.INSTANCE.stagingAdd(ocspSigningCacheEntry, keyBindingDigest);
+                        rebuilt++;
                     }
                 }
                 OcspSigningCache.INSTANCE.stagingCommit(ocspConfiguration.getOcspDefaultResponderReference());
                 OcspDataConfigCache.INSTANCE.stagingCommit();
+                if (log.isDebugEnabled()) {
+                    log.debug("Reloaded OCSP signing cache in " + (System.currentTimeMillis() - startTime) + " ms. Reused the entries of " + reused
+                            + " unchanged CAs and key bindings, rebuilt " + rebuilt + ".");
+                }
             } finally {
                 OcspSigningCache.INSTANCE.stagingRelease();
             }
@@ -574,8 +615,67 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         throw new IllegalStateException("No key matching Subject Key Id '" + new String(Hex.encode(certificateSubjectKeyId)) + "' found.");
     }
     
+    /**
+     * @return digest of the configuration that affects all OCSP signing cache entries
+     */
+    private String getSigningCacheConfigurationDigest(final GlobalOcspConfiguration ocspConfiguration) {
+        return ocspConfiguration.getOcspResponderIdType() + ";" + OcspConfiguration.getIncludeSignCert() + ";" + OcspConfiguration.getIncludeCertChain();
+    }
+
+    /**
+     * @return digest of everything the signing cache entry of an active CA is built from: the CA (which changes update time when
+     *      edited, renewed or its status changes), the availability of its crypto token and the revocation status of the CA certificate
+     */
+    private String getCaSigningCacheDigest(final CAInfo caInfo, final CryptoToken cryptoToken, final X509Certificate caCertificate,
+            final String configurationDigest) {
+        final CertificateStatus caCertificateStatus = getRevocationStatusWhenCasPrivateKeyIsCompromised(caCertificate, true);
+        return "ca;" + caInfo.getCAId() + ";" + (caInfo.getUpdateTime() == null ? 0 : caInfo.getUpdateTime().getTime()) + ";"
+                + caInfo.getCAToken().getSignatureAlgorithm() + ";" + cryptoToken.getId() + ";" + cryptoToken.getTokenStatus() + ";"
+                + CertTools.getFingerprintAsString(caCertificate) + ";" + caCertificateStatus + ";" + caCertificateStatus.revocationReason + ";"
+                + configurationDigest;
+    }
+
+    /**
+     * @return the current reference to a private key, or null if the crypto token does not exist or is offline, or the key does not exist
+     */
+    private PrivateKey getCurrentPrivateKey(final int cryptoTokenId, final String alias) {
+        final CryptoToken cryptoToken = cryptoTokenSession.getCryptoToken(cryptoTokenId);
+        if (cryptoToken == null) {
+            return null;
+        }
+        try {
+            return cryptoToken.getPrivateKey(alias);
+        } catch (CryptoTokenOfflineException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return digest of everything the signing cache entry of an OCSP key binding is built from: the key binding, its signing
+     *      certificate and the availability of its crypto token, or null if the crypto token does not exist
+     */
+    private String getKeyBindingSigningCacheDigest(final OcspKeyBinding ocspKeyBinding, final X509Certificate ocspSigningCertificate,
+            final String configurationDigest) {
+        final CryptoToken cryptoToken = cryptoTokenSession.getCryptoToken(ocspKeyBinding.getCryptoTokenId());
+        if (cryptoToken == null) {
+            return null;
+        }
+        final List<X509Certificate> caCertificateChain = getCaCertificateChain(ocspSigningCertificate);
+        final StringBuilder digest = new StringBuilder("keybinding;").append(ocspKeyBinding.getId()).append(';')
+                .append(ocspKeyBinding.getDataMapToPersist()).append(';').append(cryptoToken.getTokenStatus()).append(';')
+                .append(CertTools.getFingerprintAsString(ocspSigningCertificate)).append(';');
+        for (final X509Certificate caCertificate : caCertificateChain) {
+            digest.append(CertTools.getFingerprintAsString(caCertificate)).append(';');
+        }
+        if (!caCertificateChain.isEmpty()) {
+            final CertificateStatus caCertificateStatus = getRevocationStatusWhenCasPrivateKeyIsCompromised(caCertificateChain.get(0), true);
+            digest.append(caCertificateStatus).append(';').append(caCertificateStatus.revocationReason).append(';');
+        }
+        return digest.append(configurationDigest).toString();
+    }
+
     private void generateOcspSigningCacheEntries(List<X509Certificate> caCertificateChain, String signatureProviderName, PrivateKey privateKey,
-            GlobalOcspConfiguration ocspConfiguration, CAToken caToken) {
+            GlobalOcspConfiguration ocspConfiguration, CAToken caToken, String digest) {
         X509Certificate caCertificate = caCertificateChain.get(0);
         final CertificateStatus caCertificateStatus = getRevocationStatusWhenCasPrivateKeyIsCompromised(caCertificate, false);
 
@@ -583,7 +683,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 signatureProviderName, null, ocspConfiguration.getOcspResponderIdType());
         signingCacheEntry.setCrlSigningAlgorithm(caToken.getSignatureAlgorithm());
         
-        OcspSigningCache.INSTANCE.stagingAdd(signingCacheEntry);
+        OcspSigningCache.INSTANCE.stagingAdd(signingCacheEntry, digest);
         checkWarnings(caCertificateStatus, caCertificate);
     }
 
@@ -1246,6 +1346,17 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
         // reloadTokenAndChainCache cancels old timers and adds a new timer
         reloadOcspSigningCache();
+        try {
+            ocspRevocationIndexSession.refreshRevocationIndexes();
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh OCSP revocation indexes: " + e.getMessage(), e);
+        }
+        if (PreProducedResponseStore.INSTANCE.isEnabled()) {
+            final int compacted = PreProducedResponseStore.INSTANCE.compact();
+            if (compacted > 0) {
+                log.info("Compacted " + compacted + " local segments of pre-produced OCSP responses.");
+            }
+        }
         if (log.isTraceEnabled()) {
             log.trace("<timeoutHandler");
         }
@@ -1312,6 +1423,18 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         return ret;
     }
 
+    /** Schedules an immediate reload of the OCSP signing cache in the background, unless one has already been scheduled. */
+    private void scheduleSigningCacheReload() {
+        if (signingCacheReloadScheduled.compareAndSet(false, true)) {
+            try {
+                addTimer(1, TIMERID_OCSPSIGNINGCACHE);
+            } catch (RuntimeException e) {
+                signingCacheReloadScheduled.set(false);
+                log.info("Unable to schedule a reload of the OCSP signing cache: " + e.getMessage());
+            }
+        }
+    }
+
     /** 
      * 
      * @param req OCSP request to check
@@ -1352,6 +1475,21 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             String xForwardedFor, StringBuffer requestUrl, final AuditLogger auditLogger, final TransactionLogger transactionLogger,
             boolean isPreSigning, boolean issueFinalResponse, boolean includeExpiredCertificates)
             throws MalformedRequestException, OCSPException {
+        return getOcspResponse(request, requestCertificates, remoteAddress, xForwardedFor, requestUrl, auditLogger, transactionLogger, isPreSigning,
+                issueFinalResponse, includeExpiredCertificates, null, null);
+    }
+
+    /**
+     * @param preProducedResponses if not null, responses that should be persisted are added to this list instead of being stored
+     *      and published directly. Used when responses are pre-produced in batches.
+     * @param knownCertificateStatus the status of the certificate of a single CertID request if it has already been looked up, or null.
+     *      Only used when no OCSP extensions that need the certificate are configured.
+     * @see #getOcspResponse(byte[], X509Certificate[], String, String, StringBuffer, AuditLogger, TransactionLogger, boolean, boolean, boolean)
+     */
+    private OcspResponseInformation getOcspResponse(final byte[] request, final X509Certificate[] requestCertificates, String remoteAddress,
+            String xForwardedFor, StringBuffer requestUrl, final AuditLogger auditLogger, final TransactionLogger transactionLogger,
+            boolean isPreSigning, boolean issueFinalResponse, boolean includeExpiredCertificates, final List<OcspResponseData> preProducedResponses,
+            final CertificateStatus knownCertificateStatus) throws MalformedRequestException, OCSPException {
         //Check parameters
         if (auditLogger == null) {
             throw new InvalidParameterException("Illegal to pass a null audit logger to OcspResponseSession.getOcspResponse");
@@ -1381,6 +1519,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         X509Certificate signerCert = null;
         String serialNrForResponseStore = null;
         int caIdForResponseStore = 0;
+        CertificateID certIdForResponseCache = null;
+        int signerIdForResponseCache = 0;
         try {
             req = translateRequestFromByteArray(request, remoteAddress, transactionLogger);
             // Get the certificate status requests that are inside this OCSP req
@@ -1415,6 +1555,10 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             // If the Extended Revoked Definition should be added for certificates that we can not find in the database, see RFC6960 4.4.8
             boolean addExtendedRevokedExtension = false;
             Date producedAt = null;
+            // Single CertID requests without a nonce (or any other extension) can be answered from the response cache
+            final boolean useResponseCache = !isPreSigning && ocspRequests.length == 1 && !req.hasExtensions() && OcspResponseCache.INSTANCE.isEnabled();
+            // For requests with several CertIDs, the status of all certificates of the same issuer is looked up in a single query
+            final Map<String, Map<BigInteger, CertificateStatusHolder>> prefetchedStatuses = prefetchCertificateStatuses(ocspRequests);
             
             for (Req ocspRequest : ocspRequests) {
                 CertificateID certId = ocspRequest.getCertID();
@@ -1443,6 +1587,13 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 }
                 
                 ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(certId);
+                if (useResponseCache && ocspSigningCacheEntry != null) {
+                    final OcspResponseCache.CachedResponse cachedResponse = OcspResponseCache.INSTANCE.get(certId,
+                            getResponseCacheSignerId(ocspSigningCacheEntry));
+                    if (cachedResponse != null) {
+                        return getCachedOcspResponseInformation(cachedResponse, ocspSigningCacheEntry, auditLogger, transactionLogger);
+                    }
+                }
                 OcspDataConfigCacheEntry ocspDataConfig = OcspDataConfigCache.INSTANCE.getEntry(certId);
                 // Locate the CA which gave out the certificate
                 if (Objects.isNull(ocspSigningCacheEntry)) {
@@ -1450,10 +1601,12 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                     GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration) globalConfigurationSession
                             .getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
 
-                    // An extra cache reload in case we are on an MS compatible CA
+                    // An extra cache reload in case we are on an MS compatible CA. The reload runs in the background, so no request waits
+                    // for all CAs to be reloaded. When the signing cache may be updated with single entries, the missing entry is added
+                    // below, otherwise requests for the CA are answered as soon as the reload has completed.
                     if (Objects.isNull(ocspDataConfig) && OcspDataConfigCache.INSTANCE.getCaModeCompatiblePresent() ||
                             !Objects.isNull(ocspDataConfig) && ocspDataConfig.isMsCaCompatible()) {
-                        reloadOcspSigningCache();
+                        scheduleSigningCacheReload();
                     }
                     ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(certId);
                     ocspDataConfig = OcspDataConfigCache.INSTANCE.getEntry(certId);
@@ -1474,56 +1627,48 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 // We only store pre-produced single responses
                 if (ocspRequests.length == 1 && ocspDataConfig != null && ocspDataConfig.isPreProductionEnabled()) {
                     
-                    final OcspResponseData ocspResponseData = ocspDataSession.findOcspDataByCaIdSerialNumber(ocspDataConfig.getCaId(), certId.getSerialNumber().toString());
+                    final PreProducedResponseStore.StoredResponse preProducedResponse = findPreProducedResponse(ocspDataConfig.getCaId(),
+                            certId.getSerialNumber(), !isPreSigning);
 
                     // 1. If no stored response exists. Skip this, produce and new one and store it later on (if storing on-demand is enabled)
                     // 2. If a response is stored, still valid and request has only supported extensions: return it.
                     // 3. If a response is stored and nextUpdate is null: Ignore it and produce new response.
-                    if (!isPreSigning && ocspResponseData != null && ocspResponseData.getNextUpdate() != null
-                            && ocspResponseData.getNextUpdate() > System.currentTimeMillis()
+                    if (!isPreSigning && preProducedResponse != null && preProducedResponse.getNextUpdate() > System.currentTimeMillis()
                             && reqHasExtensionsOkToStoreResponse(req, ocspSigningCacheEntry)) {
-                        OCSPResp ocspResp = null;
-                        try {
-                            ocspResp = new OCSPResp(ocspResponseData.getOcspResponse());
-                            if (ocspSigningCacheEntry != null && ocspSigningCacheEntry.isUsingSeparateOcspSigningCertificate()) {
-                                maxAge = ocspSigningCacheEntry.getOcspKeyBinding().getMaxAge() * 1000L;
-                            }
-                            if (log.isDebugEnabled()) {
-                                log.debug("Returning pre-produced OCSP response for CA " + ocspResponseData.getCaId() + " and cert serial "
-                                        + ocspResponseData.getSerialNumber());
-                            }
-
-                            // Audit ant transaction log before returning the response info (if not a pre-signing situation).
-                            if (auditLogger.isEnabled()) {
-                                auditLogger.paramPut(AuditLogger.OCSPRESPONSE, StringTools.hex(ocspResponseData.getOcspResponse()));
-                                auditLogger.writeln();
-                                auditLogger.flush();
-                            }
-
-                            if (transactionLogger.isEnabled()) {
-                                if (ocspSigningCacheEntry != null) {
-                                    transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN,
-                                            ocspSigningCacheEntry.getSigningCertificateIssuerDn());
-                                    transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN_RAW,
-                                            ocspSigningCacheEntry.getSigningCertificateIssuerDnRaw());
-                                    // Issuer of the requested certificate is not logged to save database lookup
-                                }
-                                org.bouncycastle.cert.ocsp.CertificateStatus status = ((BasicOCSPResp) ocspResp.getResponseObject()).getResponses()[0]
-                                        .getCertStatus();
+                        if (ocspSigningCacheEntry != null && ocspSigningCacheEntry.isUsingSeparateOcspSigningCertificate()) {
+                            maxAge = ocspSigningCacheEntry.getOcspKeyBinding().getMaxAge() * 1000L;
+                        }
+                        if (log.isDebugEnabled()) {
+                            log.debug("Returning pre-produced OCSP response for CA " + ocspDataConfig.getCaId() + " and cert serial "
+                                    + certId.getSerialNumber());
+                        }
 
-                                transactionLogger.paramPut(TransactionLogger.CERT_STATUS, fetchCertStatus(status));
+                        // Audit ant transaction log before returning the response info (if not a pre-signing situation).
+                        if (auditLogger.isEnabled()) {
+                            auditLogger.paramPut(AuditLogger.OCSPRESPONSE, StringTools.hex(preProducedResponse.getEncodedResponse()));
+                            auditLogger.writeln();
+                            auditLogger.flush();
+                        }
 
-                                if (!Objects.isNull(status) && ((RevokedStatus) status).hasRevocationReason()) {
-                                    transactionLogger.paramPut(TransactionLogger.REV_REASON, ((RevokedStatus) status).getRevocationReason());
-                                }
-                                transactionLogger.writeln();
-                                transactionLogger.flush();
+                        if (transactionLogger.isEnabled()) {
+                            if (ocspSigningCacheEntry != null) {
+                                transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN,
+                                        ocspSigningCacheEntry.getSigningCertificateIssuerDn());
+                                transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN_RAW,
+                                        ocspSigningCacheEntry.getSigningCertificateIssuerDnRaw());
+                                // Issuer of the requested certificate is not logged to save database lookup
                             }
-                            return new OcspResponseInformation(ocspResp, maxAge, signerCert);
-                        } catch (IOException e) {
-                            log.warn("Pre-produced OCSP response for certificate with serialNr '" + certId.getSerialNumber()
-                                    + "' was malformed. Producing new response.");
+                            transactionLogger.paramPut(TransactionLogger.CERT_STATUS, preProducedResponse.getCertStatus());
+                            if (preProducedResponse.getRevocationReason() != RevokedCertInfo.NOT_REVOKED) {
+                                transactionLogger.paramPut(TransactionLogger.REV_REASON, preProducedResponse.getRevocationReason());
+                            }
+                            transactionLogger.writeln();
+                            transactionLogger.flush();
                         }
+                        // The stored bytes are returned as they are, without parsing the response again
+                        return new OcspResponseInformation(preProducedResponse.getEncodedResponse(), maxAge, signerCert,
+                                preProducedResponse.getThisUpdate(), preProducedResponse.getNextUpdate(),
+                                preProducedResponse.getCertStatus() == OCSPResponseItem.OCSP_UNKNOWN);
                     }
                     // All prerequisites for pre-production are OK. However, no valid response is persisted. Setting the serialNrForResponseStore will
                     // result in the produced one to be stored. Don't store responses without nextUpdate set.
@@ -1533,8 +1678,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                         finalResponseTime.clear();
                         finalResponseTime.set(9999, 11, 31, 23, 59, 59); 
                         // 99991231235959Z "final response" must not be overwritten.
-                        if (ocspResponseData == null || 
-                            ocspResponseData.getNextUpdate() != finalResponseTime.getTimeInMillis()) {
+                        if (preProducedResponse == null || 
+                            preProducedResponse.getNextUpdate() != finalResponseTime.getTimeInMillis()) {
                             serialNrForResponseStore = certId.getSerialNumber().toString();
                             caIdForResponseStore = ocspDataConfig.getCaId();
                         } else {
@@ -1721,7 +1866,19 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                         issuerDnOcspRequest = signedBehalfOfCaSubjectDn;
                         // we will also use certificate profile settings for issuing certificate
                     }
-                    if (extensionOids.isEmpty()) {
+                    final Map<BigInteger, CertificateStatusHolder> prefetchedIssuerStatuses = prefetchedStatuses.get(issuerDnOcspRequest);
+                    // The revocation index has no certificates or expiration dates, so it can not be used for extensions or pre-signing.
+                    // It gives no answer when it may be out of date, and the certificate is then looked up in the database.
+                    final CertificateStatus indexedStatus = extensionOids.isEmpty() && !isPreSigning && RevocationIndexStatusProvider.INSTANCE.isEnabled()
+                            ? RevocationIndexStatusProvider.INSTANCE.getStatus(issuerDnOcspRequest, certId.getSerialNumber()) : null;
+                    if (indexedStatus != null) {
+                        status = indexedStatus;
+                    } else if (knownCertificateStatus != null && ocspRequests.length == 1 && extensionOids.isEmpty()) {
+                        status = knownCertificateStatus;
+                    } else if (prefetchedIssuerStatuses != null && prefetchedIssuerStatuses.containsKey(certId.getSerialNumber())) {
+                        certificateStatusHolder = prefetchedIssuerStatuses.get(certId.getSerialNumber());
+                        status = certificateStatusHolder.getCertificateStatus();
+                    } else if (extensionOids.isEmpty()) {
                         status = certificateStoreSession.getStatus(issuerDnOcspRequest, certId.getSerialNumber());
                     } else {
                         certificateStatusHolder = certificateStoreSession.getCertificateAndStatus(issuerDnOcspRequest, certId.getSerialNumber());
@@ -1874,6 +2031,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                         nextUpdate = cal.getTimeInMillis();
                     }
                     respItem = new OCSPResponseItem(certId, certStatus, nextUpdate);
+                    // Don't cache responses for non existing certificates, since the certificate may be issued before nextUpdate
+                    if (useResponseCache && !status.equals(CertificateStatus.NOT_AVAILABLE)) {
+                        certIdForResponseCache = certId;
+                        signerIdForResponseCache = getResponseCacheSignerId(ocspSigningCacheEntry);
+                    }
                     final OcspKeyBinding ocspKeyBinding = ocspSigningCacheEntry.getOcspKeyBinding();
                     if (ocspKeyBinding != null && ocspKeyBinding.getOcspExtensions().contains(OCSPObjectIdentifiers.id_pkix_ocsp_archive_cutoff.getId())) {
                         addArchiveCutoff(respItem, ocspSigningCacheEntry.getIssuerCaCertificate(), ocspKeyBinding);
@@ -2014,6 +2176,22 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             if (!isPreSigning && auditLogger.isEnabled()) {
                 auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.MALFORMED_REQUEST);
             }
+        } catch (OcspSigningQueueFullException e) {
+            if (!isPreSigning && transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            if (!isPreSigning && auditLogger.isEnabled()) {
+                auditLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            log.info(intres.getLocalizedMessage("ocsp.errorprocessreq", e.getMessage()));
+            // RFC 2560: responseBytes are not set on error.
+            ocspResponse = responseGenerator.build(OCSPRespBuilder.TRY_LATER, null);
+            if (!isPreSigning && transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+            }
+            if (!isPreSigning && auditLogger.isEnabled()) {
+                auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+            }
         } catch (NoSuchAlgorithmException | CertificateException | CryptoTokenOfflineException e) {
             ocspResponse = processDefaultError(isPreSigning, responseGenerator, transactionLogger, auditLogger, e);
         }
@@ -2052,15 +2230,215 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         if (serialNrForResponseStore != null && caIdForResponseStore != 0 && 
                 ocspResponse.getStatus() == OCSPRespBuilder.SUCCESSFUL) { 
             try {
-                storeOcspResponse(caIdForResponseStore, serialNrForResponseStore, ocspResponse);
+                if (preProducedResponses != null) {
+                    final OcspResponseData responseData = createOcspResponseData(caIdForResponseStore, serialNrForResponseStore, ocspResponse);
+                    if (responseData != null) {
+                        preProducedResponses.add(responseData);
+                    }
+                } else {
+                    storeOcspResponse(caIdForResponseStore, serialNrForResponseStore, ocspResponse);
+                }
             } catch (OCSPException | IOException e) {
                 // Log the error and reply anyway
                 log.warn("Error storing OCSP response for certificate with serialNr '" + serialNrForResponseStore);
             }
         }
+        if (certIdForResponseCache != null && respBytes != null && ocspResponse.getStatus() == OCSPRespBuilder.SUCCESSFUL) {
+            cacheOcspResponse(certIdForResponseCache, signerIdForResponseCache, ocspResponse, respBytes, maxAge, signerCert);
+        }
         return new OcspResponseInformation(ocspResponse, maxAge, signerCert);
     }
 
+    /**
+     * @return identifier of the signer of responses from the given signing cache entry, used as part of the lookup key in the OCSP response
+     * cache. The identifier changes when the signing certificate is renewed or when the issuer of the signer is revoked.
+     */
+    private int getResponseCacheSignerId(final OcspSigningCacheEntry ocspSigningCacheEntry) {
+        final X509Certificate signingCertificate = ocspSigningCacheEntry.getSigningCertificate();
+        int signerId = signingCertificate != null ? signingCertificate.hashCode() : 0;
+        if (ocspSigningCacheEntry.getOcspKeyBinding() != null) {
+            signerId = 31 * signerId + ocspSigningCacheEntry.getOcspKeyBinding().getId();
+        }
+        return CertificateStatus.REVOKED.equals(ocspSigningCacheEntry.getIssuerCaCertificateStatus()) ? ~signerId : signerId;
+    }
+
+    /** Adds a successfully signed single response to the OCSP response cache, if it has a nextUpdate. */
+    private void cacheOcspResponse(final CertificateID certId, final int signerId, final OCSPResp ocspResponse, final byte[] respBytes, final long maxAge,
+            final X509Certificate signerCert) {
+        try {
+            final SingleResp singleResponse = ((BasicOCSPResp) ocspResponse.getResponseObject()).getResponses()[0];
+            if (singleResponse.getNextUpdate() == null) {
+                return;
+            }
+            final org.bouncycastle.cert.ocsp.CertificateStatus status = singleResponse.getCertStatus();
+            final int revocationReason = status instanceof RevokedStatus && ((RevokedStatus) status).hasRevocationReason()
+                    ? ((RevokedStatus) status).getRevocationReason() : RevokedCertInfo.NOT_REVOKED;
+            OcspResponseCache.INSTANCE.put(certId, signerId, new OcspResponseCache.CachedResponse(respBytes, singleResponse.getThisUpdate().getTime(),
+                    singleResponse.getNextUpdate().getTime(),
+                    maxAge, signerCert, fetchCertStatus(status), revocationReason));
+        } catch (OCSPException e) {
+            log.debug("Not caching OCSP response, could not parse signed response: " + e.getMessage());
+        }
+    }
+
+    /** Audit and transaction logs a response served from the OCSP response cache, in the same way as pre-produced responses. */
+    private OcspResponseInformation getCachedOcspResponseInformation(final OcspResponseCache.CachedResponse cachedResponse,
+            final OcspSigningCacheEntry ocspSigningCacheEntry, final AuditLogger auditLogger, final TransactionLogger transactionLogger) {
+        if (log.isDebugEnabled()) {
+            log.debug("Returning cached OCSP response signed by '" + ocspSigningCacheEntry.getSigningCertificateIssuerDn() + "'.");
+        }
+        if (auditLogger.isEnabled()) {
+            auditLogger.paramPut(AuditLogger.OCSPRESPONSE, StringTools.hex(cachedResponse.getEncodedResponse()));
+            auditLogger.writeln();
+            auditLogger.flush();
+        }
+        if (transactionLogger.isEnabled()) {
+            transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN, ocspSigningCacheEntry.getSigningCertificateIssuerDn());
+            transactionLogger.paramPut(TransactionLogger.OCSP_CERT_ISSUER_NAME_DN_RAW, ocspSigningCacheEntry.getSigningCertificateIssuerDnRaw());
+            transactionLogger.paramPut(TransactionLogger.CERT_STATUS, cachedResponse.getCertStatus());
+            if (cachedResponse.getRevocationReason() != RevokedCertInfo.NOT_REVOKED) {
+                transactionLogger.paramPut(TransactionLogger.REV_REASON, cachedResponse.getRevocationReason());
+            }
+            transactionLogger.writeln();
+            transactionLogger.flush();
+        }
+        return new OcspResponseInformation(cachedResponse.getEncodedResponse(), cachedResponse.getMaxAge(), cachedResponse.getSignerCertificate(),
+                cachedResponse.getThisUpdate(), cachedResponse.getNextUpdate(), cachedResponse.getCertStatus() == OCSPResponseItem.OCSP_UNKNOWN);
+    }
+
+    /**
+     * Looks up the status of the requested certificates with one query per issuer, for requests with more than one CertID.
+     * Only CertIDs with an active entry in the OCSP signing cache, that does not sign on behalf of other CAs and whose CA
+     * is not revoked, are included. The status of all other certificates is looked up one by one while building the response.
+     * Certificates answered by the revocation index are skipped, unless the certificates are needed for OCSP extensions.
+     *
+     * @param ocspRequests the CertIDs of the request
+     * @return a map from issuer DN to a map from serial number to status, where the certificate is only included if the
+     *      OCSP key binding has OCSP extensions configured. Empty for single CertID requests.
+     */
+    private Map<String, Map<BigInteger, CertificateStatusHolder>> prefetchCertificateStatuses(final Req[] ocspRequests) {
+        if (ocspRequests.length <= 1) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Set<BigInteger>> serialNumbersByIssuer = new HashMap<>();
+        final Set<String> issuersWithExtensions = new HashSet<>();
+        for (final Req ocspRequest : ocspRequests) {
+            final CertificateID certId = ocspRequest.getCertID();
+            final OcspSigningCacheEntry entry = OcspSigningCache.INSTANCE.getEntry(certId);
+            if (entry == null || !entry.getSignedBehalfOfCaIds().isEmpty() || entry.getIssuerCaCertificateStatus().equals(CertificateStatus.REVOKED)) {
+                continue;
+            }
+            final String issuerDn = CertTools.getSubjectDN(entry.getIssuerCaCertificate());
+            final boolean hasExtensions = entry.getOcspKeyBinding() != null && !entry.getOcspKeyBinding().getOcspExtensions().isEmpty();
+            if (!hasExtensions && RevocationIndexStatusProvider.INSTANCE.isEnabled()
+                    && RevocationIndexStatusProvider.INSTANCE.getStatus(issuerDn, certId.getSerialNumber()) != null) {
+                continue;
+            }
+            serialNumbersByIssuer.computeIfAbsent(issuerDn, k -> new HashSet<>()).add(certId.getSerialNumber());
+            if (hasExtensions) {
+                issuersWithExtensions.add(issuerDn);
+            }
+        }
+        final Map<String, Map<BigInteger, CertificateStatusHolder>> result = new HashMap<>();
+        for (final Map.Entry<String, Set<BigInteger>> issuer : serialNumbersByIssuer.entrySet()) {
+            if (issuersWithExtensions.contains(issuer.getKey())) {
+                result.put(issuer.getKey(), certificateStoreSession.getCertificatesAndStatuses(issuer.getKey(), issuer.getValue()));
+            } else {
+                final Map<BigInteger, CertificateStatusHolder> statuses = new HashMap<>();
+                certificateStoreSession.getStatuses(issuer.getKey(), issuer.getValue())
+                        .forEach((serialNumber, status) -> statuses.put(serialNumber, new CertificateStatusHolder(null, status)));
+                result.put(issuer.getKey(), statuses);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the pre-produced response for a certificate, in the local store if enabled, and otherwise in the database.
+     * Responses read from the database are added to the local store.
+     *
+     * @param caId the CA that issued the certificate
+     * @param serialNumber serial number of the certificate
+     * @param useLocalStore false to always read from the database, for example when pre-producing responses
+     * @return the pre-produced response, which may have passed its nextUpdate (0 if not set), or null if there is no valid
+     *      pre-produced response
+     */
+    private PreProducedResponseStore.StoredResponse findPreProducedResponse(final int caId, final BigInteger serialNumber,
+            final boolean useLocalStore) {
+        final boolean localStoreEnabled = useLocalStore && PreProducedResponseStore.INSTANCE.isEnabled();
+        if (localStoreEnabled) {
+            final PreProducedResponseStore.StoredResponse storedResponse = PreProducedResponseStore.INSTANCE.get(caId, serialNumber);
+            if (storedResponse != null) {
+                return storedResponse;
+            }
+        }
+        final OcspResponseData ocspResponseData = ocspDataSession.findOcspDataByCaIdSerialNumber(caId, serialNumber.toString());
+        if (ocspResponseData == null) {
+            if (localStoreEnabled) {
+                PreProducedResponseStore.INSTANCE.remove(caId, serialNumber);
+            }
+            return null;
+        }
+        try {
+            final PreProducedResponseStore.StoredResponse storedResponse = createStoredResponse(ocspResponseData);
+            if (localStoreEnabled && storedResponse.getNextUpdate() > System.currentTimeMillis()) {
+                PreProducedResponseStore.INSTANCE.put(caId, serialNumber, storedResponse);
+            }
+            return storedResponse;
+        } catch (IOException | OCSPException | RuntimeException e) {
+            log.warn("Pre-produced OCSP response for certificate with serialNr '" + serialNumber + "' was malformed. Producing new response.");
+            return null;
+        }
+    }
+
+    /** @return the persisted response, with the information needed to serve it without parsing it again */
+    private PreProducedResponseStore.StoredResponse createStoredResponse(final OcspResponseData ocspResponseData) throws IOException, OCSPException {
+        final BasicOCSPResp basicResponse = (BasicOCSPResp) new OCSPResp(ocspResponseData.getOcspResponse()).getResponseObject();
+        final SingleResp singleResponse = basicResponse.getResponses()[0];
+        final org.bouncycastle.cert.ocsp.CertificateStatus status = singleResponse.getCertStatus();
+        final int revocationReason = status instanceof RevokedStatus && ((RevokedStatus) status).hasRevocationReason()
+                ? ((RevokedStatus) status).getRevocationReason() : RevokedCertInfo.NOT_REVOKED;
+        final Long nextUpdate = ocspResponseData.getNextUpdate();
+        return new PreProducedResponseStore.StoredResponse(ocspResponseData.getOcspResponse(), ocspResponseData.getProducedAt(),
+                singleResponse.getThisUpdate().getTime(), nextUpdate == null ? 0 : nextUpdate, fetchCertStatus(status), revocationReason);
+    }
+
+    /**
+     * Adds responses that have just been persisted to the local store of pre-produced responses, if enabled. The responses are
+     * added once the transaction has committed, so a rolled back response is never served from the local store.
+     */
+    private void addToPreProducedResponseStore(final int caId, final OcspResponseData responseData) {
+        if (!PreProducedResponseStore.INSTANCE.isEnabled()) {
+            return;
+        }
+        runAfterCommit(() -> {
+            try {
+                PreProducedResponseStore.INSTANCE.put(caId, new BigInteger(responseData.getSerialNumber()), createStoredResponse(responseData));
+            } catch (IOException | OCSPException | RuntimeException e) {
+                log.debug("Not adding OCSP response to the local store: " + e.getMessage());
+            }
+        });
+    }
+
+    /** Runs the action when the current transaction has committed, or directly if there is no transaction. */
+    private void runAfterCommit(final Runnable action) {
+        if (transactionSynchronizationRegistry == null || transactionSynchronizationRegistry.getTransactionStatus() == Status.STATUS_NO_TRANSACTION) {
+            action.run();
+            return;
+        }
+        transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {}
+
+            @Override
+            public void afterCompletion(final int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+
     private int fetchCertStatus(org.bouncycastle.cert.ocsp.CertificateStatus certStatus) {
         if (Objects.isNull(certStatus)) {
             return OCSPResponseItem.OCSP_GOOD;
@@ -2072,6 +2450,16 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     }
 
     private void storeOcspResponse(final int caId, final String serialNr, final OCSPResp ocspResponse) throws OCSPException, IOException {
+        final OcspResponseData responseData = createOcspResponseData(caId, serialNr, ocspResponse);
+        if (responseData != null) {
+            ocspDataSession.storeOcspData(responseData);
+            addToPreProducedResponseStore(caId, responseData);
+            publishOcspResponse(caId, responseData);
+        }
+    }
+
+    /** @return the response wrapped for persistence, or null if the response has no nextUpdate and should not be persisted */
+    private OcspResponseData createOcspResponseData(final int caId, final String serialNr, final OCSPResp ocspResponse) throws OCSPException, IOException {
         // Redundantly storing producedAt and nextUpdate, next to the canned response itself for faster querying. 
         // Assuming this is a single response (we don't store it otherwise), we can safely pick nextUpdate from first index.
         long producedAt = ((BasicOCSPResp)ocspResponse.getResponseObject()).getProducedAt().getTime();
@@ -2079,12 +2467,10 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         final Date nextUpdateDate = ((BasicOCSPResp)ocspResponse.getResponseObject()).getResponses()[0].getNextUpdate();
         if (nextUpdateDate == null) {
             log.debug("Not persisting OCSP Response. nextUpdate is set to null");
-            return;
+            return null;
         }
         nextUpdate = nextUpdateDate.getTime();
-        final OcspResponseData responseData = new OcspResponseData(UUID.randomUUID().toString(), caId, serialNr, producedAt, nextUpdate, ocspResponse.getEncoded());
-        ocspDataSession.storeOcspData(responseData);
-        publishOcspResponse(caId, responseData);
+        return new OcspResponseData(UUID.randomUUID().toString(), caId, serialNr, producedAt, nextUpdate, ocspResponse.getEncoded());
     }
     
     private void publishOcspResponse(final int caId, final OcspResponseData responseData) {
@@ -2303,6 +2689,31 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     
     @Override
     public void preSignOcspResponse(X509Certificate cacert, final BigInteger serialNr, boolean issueFinalResponse, boolean includeExpiredCertificates, String certIDHashAlgorithm) {
+        preSignOcspResponse(cacert, serialNr, null, issueFinalResponse, includeExpiredCertificates, certIDHashAlgorithm, null);
+    }
+
+    @Override
+    public OcspResponseData preProduceOcspResponse(final X509Certificate cacert, final BigInteger serialNr, final CertificateStatus status,
+            final boolean issueFinalResponse, final boolean includeExpiredCertificates, final String certIDHashAlgorithm) {
+        final List<OcspResponseData> preProducedResponses = new ArrayList<>(1);
+        preSignOcspResponse(cacert, serialNr, status, issueFinalResponse, includeExpiredCertificates, certIDHashAlgorithm, preProducedResponses);
+        return preProducedResponses.isEmpty() ? null : preProducedResponses.get(0);
+    }
+
+    @Override
+    public void storePreProducedOcspResponses(final int caId, final List<OcspResponseData> responses) {
+        if (responses.isEmpty()) {
+            return;
+        }
+        ocspDataSession.storeOcspDataBatch(responses);
+        for (final OcspResponseData responseData : responses) {
+            addToPreProducedResponseStore(caId, responseData);
+            publishOcspResponse(caId, responseData);
+        }
+    }
+
+    private void preSignOcspResponse(X509Certificate cacert, final BigInteger serialNr, final CertificateStatus status, boolean issueFinalResponse,
+            boolean includeExpiredCertificates, String certIDHashAlgorithm, final List<OcspResponseData> preProducedResponses) {
         final OCSPReq req;
         final OCSPReqBuilder gen = new OCSPReqBuilder();
         final int localTransactionId = TransactionCounter.INSTANCE.getTransactionNumber();
@@ -2325,7 +2736,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
 
             gen.addRequest(certId);
             req = gen.build();
-            getOcspResponse(req.getEncoded(), null, remoteAddress, null, null, auditLogger, transactionLogger, true, issueFinalResponse, includeExpiredCertificates);
+            getOcspResponse(req.getEncoded(), null, remoteAddress, null, null, auditLogger, transactionLogger, true, issueFinalResponse, includeExpiredCertificates,
+                    preProducedResponses, status);
         } catch (Throwable e) {
             final String errMsg = intres.getLocalizedMessage("ocsp.errorprocessreq", LogRedactionUtils.getRedactedMessage(e.getMessage()));
             log.info(errMsg);
@@ -2370,8 +2782,6 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     private BasicOCSPResp generateBasicOcspResp(Extensions exts, List<OCSPResponseItem> responses, String sigAlg,
                         X509Certificate signerCert, OcspSigningCacheEntry ocspSigningCacheEntry, Date producedAt)
                                 throws OCSPException, CryptoTokenOfflineException {
-        final PrivateKey signerKey = ocspSigningCacheEntry.getPrivateKey();
-        final String provider = ocspSigningCacheEntry.getSignatureProviderName();
         BasicOCSPResp returnval = null;
         BasicOCSPRespBuilder basicRes = new BasicOCSPRespBuilder(ocspSigningCacheEntry.getRespId());
         if (responses != null) {
@@ -2387,9 +2797,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 basicRes.setResponseExtensions(exts);
             }
         }
-        final X509Certificate[] chain = ocspSigningCacheEntry.getResponseCertChain();
         if (log.isDebugEnabled()) {
-            log.debug("The response certificate chain contains " + chain.length + " certificates");
+            log.debug("The response certificate chain contains " + ocspSigningCacheEntry.getResponseCertChain().length + " certificates");
         }
         /*
          * The below code breaks the EJB standard by creating its own thread pool and creating a single thread (of the HsmResponseThread 
@@ -2399,7 +2808,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
          * Note that this does in no way break the spirit of the EJB standard, which is to not interrupt EJB's transaction handling by 
          * competing with its own thread pool, since these operations have no database impact.
          */
-        final Future<BasicOCSPResp> task = service.submit(new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
+        final Future<BasicOCSPResp> task = OcspSigningScheduler.INSTANCE.submit(getSigningSchedulerKey(ocspSigningCacheEntry),
+                new HsmResponseThread(basicRes, sigAlg, ocspSigningCacheEntry, producedAt));
         try {
             returnval = task.get(HsmResponseThread.HSM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
@@ -2442,6 +2852,18 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         return returnval;
     }
 
+    /**
+     * @return the key used to schedule signing operations for the signer, i.e. the crypto token and key alias of the OCSP key binding,
+     *      or the signature provider and signing certificate if the CA signs the responses directly
+     */
+    private String getSigningSchedulerKey(final OcspSigningCacheEntry ocspSigningCacheEntry) {
+        final OcspKeyBinding ocspKeyBinding = ocspSigningCacheEntry.getOcspKeyBinding();
+        if (ocspKeyBinding != null) {
+            return OcspSigningScheduler.getKey(ocspKeyBinding.getCryptoTokenId(), ocspKeyBinding.getKeyPairAlias());
+        }
+        return ocspSigningCacheEntry.getSignatureProviderName() + ":" + ocspSigningCacheEntry.getSigningCertificate().getSerialNumber().toString(16);
+    }
+
     private Date verifyNextUpdateDate(X509Certificate signerCert, Date nextUpdate) {
         if (nextUpdate != null) {
             TimeZone tz = TimeZone.getTimeZone("GMT");
@@ -2808,6 +3230,13 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     
     @Override
     public String healthCheck() {
+        if (log.isDebugEnabled()) {
+            // Statistics are only logged, anything returned from the health check is considered an error
+            if (OcspResponseCache.INSTANCE.isEnabled()) {
+                log.debug(OcspResponseCache.INSTANCE.getStatistics());
+            }
+            log.debug(OcspSigningScheduler.INSTANCE.getStatistics());
+        }
         final StringBuilder sb = new StringBuilder();
         // Check that there are no ACTIVE OcspKeyBindings that are not in the cache before checking usability..
         for (InternalKeyBindingInfo internalKeyBindingInfo : internalKeyBindingMgmtSession
@@ -2913,6 +3342,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     @Override
     public void deleteOcspDataByCaIdSerialNumber(final int caId, final String serialNumber) {
         ocspDataSession.deleteOcspDataByCaIdSerialNumber(caId, serialNumber);
+        PreProducedResponseStore.INSTANCE.remove(caId, new BigInteger(serialNumber));
     }
 }
 
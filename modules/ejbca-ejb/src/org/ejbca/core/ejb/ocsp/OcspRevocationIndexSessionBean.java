@@ -0,0 +1,164 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.certificate.CertificateData;
+import org.cesecore.certificates.certificate.CertificateDataSessionLocal;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.certificates.ocsp.status.RevocationIndex;
+import org.cesecore.certificates.ocsp.status.RevocationIndexStatusProvider;
+import org.cesecore.config.CesecoreConfiguration;
+
+import com.keyfactor.util.CertTools;
+
+/**
+ * Builds and refreshes the memory-mapped revocation indexes of the CAs in the OCSP signing cache. A new index is built from
+ * all certificates of the CA. Later refreshes read the certificates updated since the last refresh, and the certificates
+ * that {@link RevocationIndexStatusProvider} has marked as changed.
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.REQUIRED)
+public class OcspRevocationIndexSessionBean implements OcspRevocationIndexSessionLocal {
+
+    private static final Logger log = Logger.getLogger(OcspRevocationIndexSessionBean.class);
+
+    /** Number of certificates read from the database in each query */
+    private static final int PAGE_SIZE = 10000;
+
+    @EJB
+    private CertificateDataSessionLocal certificateDataSession;
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int refreshRevocationIndexes() {
+        final RevocationIndexStatusProvider provider = RevocationIndexStatusProvider.INSTANCE;
+        if (!provider.isEnabled()) {
+            return 0;
+        }
+        final Set<String> issuerDns = new HashSet<>();
+        for (final OcspSigningCacheEntry entry : OcspSigningCache.INSTANCE.getEntries()) {
+            if (entry.getIssuerCaCertificate() != null) {
+                issuerDns.add(CertTools.getSubjectDN(entry.getIssuerCaCertificate()));
+            }
+        }
+        provider.retainIssuers(issuerDns);
+        int written = 0;
+        for (final String issuerDn : issuerDns) {
+            try {
+                if (refreshRevocationIndex(provider, issuerDn)) {
+                    written++;
+                }
+            } catch (IOException e) {
+                log.warn("Unable to write revocation index for '" + issuerDn + "': " + e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    /** @return true if a new index file was written */
+    private boolean refreshRevocationIndex(final RevocationIndexStatusProvider provider, final String issuerDn) throws IOException {
+        final Path file = provider.getIndexFile(issuerDn);
+        Files.createDirectories(file.getParent());
+        final RevocationIndex current = provider.getIndex(issuerDn);
+        // Every change committed before this time is either read below, or has been marked as changed and is read again
+        final long refreshTime = System.currentTimeMillis();
+        final Map<BigInteger, Long> changedCertificates = provider.getChangedCertificates(issuerDn, refreshTime);
+        final long updatedSince;
+        final RevocationIndex index;
+        int rows = 0;
+        try (final RevocationIndex.Builder builder = current == null ? RevocationIndex.builder(issuerDn, file) : current.toBuilder(file)) {
+            // Read back as far as the revocation change log does, since a certificate can be committed long after its updateTime
+            updatedSince = current == null ? -1 : Math.max(0, current.getLastUpdateTime() - CesecoreConfiguration.getRevocationChangeLogReadOverlap());
+            String lastFingerprint = null;
+            while (true) {
+                final List<Object[]> page = certificateDataSession.findRevocationIndexData(issuerDn, updatedSince, lastFingerprint, PAGE_SIZE);
+                for (final Object[] row : page) {
+                    update(builder, issuerDn, new BigInteger((String) row[1]), toInt(row[2], 0), toLong(row[3], -1), toInt(row[4], -1),
+                            toInt(row[5], CertificateProfileConstants.NO_CERTIFICATE_PROFILE), toLong(row[6], -1), toLong(row[7], 0));
+                }
+                rows += page.size();
+                if (page.size() < PAGE_SIZE) {
+                    break;
+                }
+                lastFingerprint = (String) page.get(page.size() - 1)[0];
+            }
+            if (current != null && !changedCertificates.isEmpty()) {
+                // Read the marked certificates again, which also finds limited entries that have been removed from the database
+                final List<String> serialNumbers = new ArrayList<>();
+                for (final BigInteger serialNumber : changedCertificates.keySet()) {
+                    serialNumbers.add(serialNumber.toString());
+                }
+                final Set<BigInteger> removed = new HashSet<>(changedCertificates.keySet());
+                for (int i = 0; i < serialNumbers.size(); i += PAGE_SIZE) {
+                    for (final CertificateData certificateData : certificateDataSession.findByIssuerDNSerialNumbers(issuerDn,
+                            serialNumbers.subList(i, Math.min(i + PAGE_SIZE, serialNumbers.size())))) {
+                        final BigInteger serialNumber = new BigInteger(certificateData.getSerialNumber());
+                        update(builder, issuerDn, serialNumber, certificateData.getStatus(), certificateData.getRevocationDate(),
+                                certificateData.getRevocationReason(), toInt(certificateData.getCertificateProfileId(), CertificateProfileConstants.NO_CERTIFICATE_PROFILE),
+                                toLong(certificateData.getInvalidityDate(), -1), toLong(certificateData.getUpdateTime(), 0));
+                        removed.remove(serialNumber);
+                    }
+                }
+                for (final BigInteger serialNumber : removed) {
+                    builder.remove(serialNumber);
+                }
+                rows += serialNumbers.size();
+            }
+            if (!builder.isModified()) {
+                provider.swap(current, refreshTime, changedCertificates);
+                if (log.isDebugEnabled()) {
+                    log.debug("Revocation index for '" + issuerDn + "' is up to date.");
+                }
+                return false;
+            }
+            index = builder.write();
+        }
+        provider.swap(index, refreshTime, changedCertificates);
+        log.info((updatedSince == -1 ? "Built" : "Updated") + " revocation index for '" + issuerDn + "' from " + rows + " certificates in "
+                + (System.currentTimeMillis() - refreshTime) + " ms. " + index.getRevokedCount() + " of " + index.getIssuedCount() + " certificates are revoked.");
+        return true;
+    }
+
+    private void update(final RevocationIndex.Builder builder, final String issuerDn, final BigInteger serialNumber, final int status, final long revocationDate,
+            final int revocationReason, final int certificateProfileId, final long invalidityDate, final long updateTime) throws IOException {
+        if (!builder.update(serialNumber, status, revocationDate, revocationReason, invalidityDate, certificateProfileId, updateTime)) {
+            log.info("Serial number " + serialNumber.toString(16) + " of '" + issuerDn + "' is too long for the revocation index.");
+        }
+    }
+
+    private static int toInt(final Object value, final int defaultValue) {
+        return value == null ? defaultValue : ((Number) value).intValue();
+    }
+
+    private static long toLong(final Object value, final long defaultValue) {
+        return value == null ? defaultValue : ((Number) value).longValue();
+    }
+}
@@ -0,0 +1,160 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ocsp.exception.OcspSigningQueueFullException;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * Runs OCSP signing operations on one bounded thread pool per signing key (crypto token and key alias), so that a slow or
+ * deadlocked HSM only holds up requests signed with its own keys. Each key has at most {@link OcspConfiguration#getSigningMaxConcurrency()}
+ * signing threads and a queue of at most {@link OcspConfiguration#getSigningQueueSize()} waiting responses. When the queue is
+ * full, the request is rejected immediately instead of spawning more threads.
+ * <p>
+ * The pools are created on first use with the configuration in effect at that time.
+ */
+public enum OcspSigningScheduler {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(OcspSigningScheduler.class);
+
+    /** Idle signing threads are stopped after this time. */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /** Signing pool and statistics for one signing key. */
+    private static final class KeyScheduler {
+        private final String key;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalQueueTimeNanos = new AtomicLong();
+        private final AtomicLong totalSignTimeNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        private KeyScheduler(final String key, final int concurrency, final int queueSize) {
+            this.key = key;
+            final AtomicInteger threadNumber = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(concurrency, concurrency, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                    runnable -> {
+                        final Thread thread = new Thread(runnable, "OcspSigner-" + key + "-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        private <T> Future<T> submit(final Callable<T> task) {
+            final long queuedAt = System.nanoTime();
+            try {
+                return executor.submit(() -> {
+                    final long startedAt = System.nanoTime();
+                    try {
+                        return task.call();
+                    } finally {
+                        final long finishedAt = System.nanoTime();
+                        totalQueueTimeNanos.addAndGet(startedAt - queuedAt);
+                        totalSignTimeNanos.addAndGet(finishedAt - startedAt);
+                        maxLatencyNanos.accumulateAndGet(finishedAt - queuedAt, Math::max);
+                        completed.incrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                throw new OcspSigningQueueFullException("Signing queue for key '" + key + "' is full (" + executor.getQueue().size() + " waiting).");
+            }
+        }
+
+        private String getStatistics() {
+            final long completedCount = completed.get();
+            final long averageQueueTime = completedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalQueueTimeNanos.get() / completedCount);
+            final long averageSignTime = completedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalSignTimeNanos.get() / completedCount);
+            return key + ": queued=" + executor.getQueue().size() + ", active=" + executor.getActiveCount() + ", completed=" + completedCount
+                    + ", rejected=" + rejected.get() + ", avgQueueTime=" + averageQueueTime + "us, avgSignTime=" + averageSignTime + "us, maxLatency="
+                    + TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get()) + "ms";
+        }
+    }
+
+    private final Map<String, KeyScheduler> schedulers = new ConcurrentHashMap<>();
+
+    /**
+     * Queues a signing operation for the given key.
+     *
+     * @param key identifier of the signing key, see {@link #getKey(int, String)}
+     * @param task the signing operation
+     * @return a future for the result of the signing operation
+     * @throws OcspSigningQueueFullException if the maximum number of operations are already waiting for this key
+     */
+    public <T> Future<T> submit(final String key, final Callable<T> task) throws OcspSigningQueueFullException {
+        return schedulers.computeIfAbsent(key, k -> {
+            final int concurrency = OcspConfiguration.getSigningMaxConcurrency();
+            final int queueSize = OcspConfiguration.getSigningQueueSize();
+            if (log.isDebugEnabled()) {
+                log.debug("Creating OCSP signing scheduler for key '" + k + "' with concurrency " + concurrency + " and queue size " + queueSize + ".");
+            }
+            return new KeyScheduler(k, concurrency, queueSize);
+        }).submit(task);
+    }
+
+    /**
+     * @param cryptoTokenId id of the crypto token holding the signing key
+     * @param keyAlias alias of the signing key
+     * @return the scheduler key for the signing key
+     */
+    public static String getKey(final int cryptoTokenId, final String keyAlias) {
+        return cryptoTokenId + ":" + keyAlias;
+    }
+
+    /** @return the number of responses waiting to be signed with the given key */
+    public int getQueueDepth(final String key) {
+        final KeyScheduler scheduler = schedulers.get(key);
+        return scheduler == null ? 0 : scheduler.executor.getQueue().size();
+    }
+
+    /** @return the number of requests that were rejected because the queue of the given key was full */
+    public long getRejectedCount(final String key) {
+        final KeyScheduler scheduler = schedulers.get(key);
+        return scheduler == null ? 0 : scheduler.rejected.get();
+    }
+
+    /** @return a human readable summary of queue depth and latency for each signing key */
+    public String getStatistics() {
+        final StringBuilder sb = new StringBuilder("OCSP signing schedulers:");
+        for (final KeyScheduler scheduler : schedulers.values()) {
+            sb.append(' ').append('[').append(scheduler.getStatistics()).append(']');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops all signing threads. Operations already waiting are abandoned. New schedulers are created on next use, using
+     * the current configuration.
+     */
+    public void reset() {
+        for (final KeyScheduler scheduler : schedulers.values()) {
+            scheduler.executor.shutdownNow();
+        }
+        schedulers.clear();
+    }
+}
@@ -12,9 +12,16 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ocsp;
 
+import org.apache.log4j.Logger;
 import org.cesecore.certificates.ca.CA;
 import org.cesecore.certificates.certificate.BaseCertificateData;
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.oscp.OcspResponseData;
 
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -22,8 +29,18 @@ import javax.ejb.TransactionAttributeType;
 import java.math.BigInteger;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static org.cesecore.certificates.certificate.CertificateConstants.DEFAULT_CERTID_HASH_ALGORITHM;
@@ -34,8 +51,24 @@ import static org.ejbca.util.CAUtils.isDoPreProduceOcspResponses;
 @TransactionAttribute(TransactionAttributeType.REQUIRED)
 public class PreSigningOcspResponseSessionBean implements PreSigningOcspResponseSessionLocal {
 
+	private static final Logger log = Logger.getLogger(PreSigningOcspResponseSessionBean.class);
+
+	/**
+	 * Shared by all pre-production runs, with ocsp.presigning.threads threads. Each run submits at most that many tasks at a time, and the
+	 * queue holds the tasks of a few concurrent runs. Tasks that do not fit in the queue are run by the submitting thread, which slows
+	 * down further submissions instead of starting more threads.
+	 */
+	private static final ThreadPoolExecutor executorService = new ThreadPoolExecutor(OcspConfiguration.getPreSigningThreads(),
+			OcspConfiguration.getPreSigningThreads(), 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(4 * OcspConfiguration.getPreSigningThreads()),
+			new ThreadPoolExecutor.CallerRunsPolicy());
+	static {
+		executorService.allowCoreThreadTimeOut(true);
+	}
+
 	@EJB
 	private OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession;
+	@EJB
+	private CertificateStoreSessionLocal certificateStoreSession;
 
 	@Override
 	public boolean isOcspExists(Integer caId, String serialNumber) {
@@ -54,6 +87,82 @@ public class PreSigningOcspResponseSessionBean implements PreSigningOcspResponse
 		}
 	}
 
+	@Override
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	@Asynchronous
+	public Future<Integer> preSignOcspResponses(final CA ca, final long expireDate) {
+		final List<Certificate> certificateChain = ca.getCertificateChain();
+		if (!isDoPreProduceOcspResponses(ca) || certificateChain == null || certificateChain.isEmpty()
+				|| !(certificateChain.get(0) instanceof X509Certificate)) {
+			return new AsyncResult<>(0);
+		}
+		final X509Certificate caCertificate = (X509Certificate) certificateChain.get(0);
+		final int batchSize = OcspConfiguration.getPreSigningBatchSize();
+		final int threads = executorService.getMaximumPoolSize();
+		final long startTime = System.currentTimeMillis();
+		int stored = 0;
+		int offset = 0;
+		List<String> serialNumbers;
+		do {
+			serialNumbers = certificateStoreSession.findSerialNrByIssuerAndExpireDateWithLimitAndOffset(ca.getSubjectDN(), expireDate, batchSize, offset);
+			offset += serialNumbers.size();
+			final List<BigInteger> batch = new ArrayList<>(serialNumbers.size());
+			for (final String serialNumber : serialNumbers) {
+				batch.add(new BigInteger(serialNumber));
+			}
+			// One query for the status of the whole batch, instead of one per response
+			final Map<BigInteger, CertificateStatus> statuses = batch.isEmpty() ? Collections.emptyMap()
+					: certificateStoreSession.getStatuses(ca.getSubjectDN(), batch);
+			final List<OcspResponseData> responses = signBatch(threads, caCertificate, batch, statuses);
+			ocspResponseGeneratorSession.storePreProducedOcspResponses(ca.getCAId(), responses);
+			stored += responses.size();
+		} while (serialNumbers.size() == batchSize);
+		if (log.isDebugEnabled()) {
+			log.debug("Pre-produced " + stored + " OCSP responses for " + offset + " certificates of CA '" + ca.getName() + "' in "
+					+ (System.currentTimeMillis() - startTime) + " ms using " + threads + " signing threads.");
+		}
+		return new AsyncResult<>(stored);
+	}
+
+	/**
+	 * Signs one batch of responses in parallel, with at most the given number of signing tasks running at a time.
+	 * Each task signs responses from the batch until there are no more.
+	 */
+	private List<OcspResponseData> signBatch(final int threads, final X509Certificate caCertificate, final List<BigInteger> serialNumbers,
+			final Map<BigInteger, CertificateStatus> statuses) {
+		final Queue<BigInteger> remaining = new ConcurrentLinkedQueue<>(serialNumbers);
+		final List<Future<List<OcspResponseData>>> futures = new ArrayList<>(threads);
+		for (int i = 0; i < Math.min(threads, serialNumbers.size()); i++) {
+			futures.add(executorService.submit(() -> {
+				final List<OcspResponseData> signed = new ArrayList<>();
+				BigInteger serialNumber;
+				while ((serialNumber = remaining.poll()) != null) {
+					final OcspResponseData responseData = ocspResponseGeneratorSession.preProduceOcspResponse(caCertificate, serialNumber,
+							statuses.get(serialNumber), true, true, DEFAULT_CERTID_HASH_ALGORITHM);
+					if (responseData != null) {
+						signed.add(responseData);
+					}
+				}
+				return signed;
+			}));
+		}
+		final List<OcspResponseData> responses = new ArrayList<>(serialNumbers.size());
+		try {
+			for (final Future<List<OcspResponseData>> future : futures) {
+				try {
+					responses.addAll(future.get());
+				} catch (ExecutionException e) {
+					log.info("Failed to pre-produce OCSP responses: " + e.getCause().getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			remaining.clear();
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while pre-producing OCSP responses.", e);
+		}
+		return responses;
+	}
+
 	private void preSign(CA ca, BaseCertificateData certData) {
 		List<Certificate> certificateChain = ca.getCertificateChain();
 		if (!certificateChain.isEmpty()) {
@@ -634,6 +634,9 @@ public class UpgradeSessionBean implements UpgradeSessionLocal, UpgradeSessionRe
                 return false;
             }
         }
+        if (isLesserThan(oldVersion, "8.2.0.2")) {
+            upgradePublisherQueueIndex();
+        }
         setLastUpgradedToVersion(InternalConfiguration.getAppVersionNumber());
         return true;
     }
@@ -2215,7 +2218,48 @@ public class UpgradeSessionBean implements UpgradeSessionLocal, UpgradeSessionRe
     }
 
     /**
-     * Replaces a database index. Called by {@link #fixPartitionedCrlIndexes}.
+     * Replaces the index on (publisherId, publishStatus, timeCreated) of PublisherQueueData with an index that also contains the primary key,
+     * which the Publish Queue Process Service uses to continue reading the queue after the last entry of the previous chunk.
+     * The new index is created even if the old index does not exist, since the worker relies on it for every chunk.
+     */
+    private void upgradePublisherQueueIndex() {
+        final String createIndexQuery = "CREATE INDEX publisherqueue_idx5 ON PublisherQueueData (publisherId, publishStatus, timeCreated, pk)";
+        IndexUpgradeResult result = upgradeSession.upgradeIndex("publisherqueue_idx3", "PublisherQueueData", createIndexQuery);
+        if (result == IndexUpgradeResult.NO_EXISTNG_INDEX && upgradeSession.createIndex("publisherqueue_idx5", "PublisherQueueData", createIndexQuery)) {
+            result = IndexUpgradeResult.OK_UPDATED;
+        }
+        if (result != IndexUpgradeResult.OK_UPDATED) {
+            log.info("You can update the index of the publisher queue manually by running the following SQL queries:");
+            log.info("    DROP INDEX publisherqueue_idx3 ON PublisherQueueData;");
+            log.info("    CREATE INDEX publisherqueue_idx5 ON PublisherQueueData (publisherId, publishStatus, timeCreated, pk);");
+            // Consider the upgrade to be complete, even if this fails. The queue can be read without the index, only slower.
+        }
+    }
+
+    /**
+     * Creates a database index. Called by {@link #upgradePublisherQueueIndex}.
+     * Runs in a new transaction because the query will fail if the index already exists.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    @Override
+    public boolean createIndex(final String indexName, final String tableName, final String createIndexQuery) {
+        try {
+            final long startReindex = System.currentTimeMillis();
+            log.debug("Executing SQL query: " + createIndexQuery);
+            entityManager.createNativeQuery(createIndexQuery).executeUpdate();
+            log.info("Successfully created index '" + indexName + "' for database table '" + tableName + "'. Completed in " + (System.currentTimeMillis() - startReindex) + " ms.");
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Index '" + indexName + "' could not be created for database table '" + tableName + "'. Perhaps it already exists? " + e);
+            if (log.isDebugEnabled()) {
+                log.debug("Error stack trace for index creation", e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Replaces a database index. Called by {@link #fixPartitionedCrlIndexes} and {@link #upgradePublisherQueueIndex}.
      * Runs in a new transaction because the queries will fail if the index does not exist.
      */
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
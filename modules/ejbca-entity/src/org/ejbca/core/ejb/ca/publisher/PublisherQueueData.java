@@ -80,6 +80,8 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     private String fingerprint;
     private int publisherId;
     private String volatileData;
+    private Long leaseExpireTime;
+    private String leaseOwner;
 	private int rowVersion = 0;
 	private String rowProtection;
 	
@@ -162,6 +164,19 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     public String getVolatileData() { return volatileData; }
     public void setVolatileData(String volatileData) { this.volatileData = volatileData; }
 
+    /**
+     * Time (milliseconds since epoch) when the claim of a queue worker on this entry expires, or null if the entry is
+     * not claimed. An expired claim, for example of a node that stopped while publishing, can be taken by any node.
+     */
+    //@Column
+    public Long getLeaseExpireTime() { return leaseExpireTime; }
+    public void setLeaseExpireTime(Long leaseExpireTime) { this.leaseExpireTime = leaseExpireTime; }
+
+    /** Identifier of the claim of a queue worker on this entry, or null if the entry is not claimed. */
+    //@Column
+    public String getLeaseOwner() { return leaseOwner; }
+    public void setLeaseOwner(String leaseOwner) { this.leaseOwner = leaseOwner; }
+
     //@Version @Column
 	public int getRowVersion() { return rowVersion; }
 	public void setRowVersion(int rowVersion) { this.rowVersion = rowVersion; }
@@ -244,6 +259,7 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     protected String getProtectString(final int version) {
         final ProtectionStringBuilder build = new ProtectionStringBuilder();
         // rowVersion is automatically updated by JPA, so it's not important, it is only used for optimistic locking
+        // leaseExpireTime and leaseOwner are only used to distribute the queue between workers, and are updated without protection
         build.append(getPk()).append(getTimeCreated()).append(getLastUpdate()).append(getPublishStatus());
         build.append(getTryCounter()).append(getPublishType()).append(getFingerprint()).append(getPublisherId()).append(getVolatileData());
         return build.toString();
@@ -282,6 +298,16 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     // Search functions.
     //
 
+    /** Condition for items that come after the item given by the parameters afterTimeCreated and afterPk, when ordered by timeCreated and pk */
+    private static final String AFTER_ENTRY_CONDITION = " AND (a.timeCreated>:afterTimeCreated OR (a.timeCreated=:afterTimeCreated AND a.pk>:afterPk))";
+
+    private static void setAfterEntryParameters(final Query query, final long afterTimeCreated, final String afterPk) {
+        if (afterPk != null) {
+            query.setParameter("afterTimeCreated", afterTimeCreated);
+            query.setParameter("afterPk", afterPk);
+        }
+    }
+
     /** @return the found entity instance or null if the entity does not exist */
     public static PublisherQueueData findByPk(EntityManager entityManager, String pk) {
     	return entityManager.find(PublisherQueueData.class, pk);
@@ -297,7 +323,8 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
 
     /**
      * Lookup publisher queue data items with the specified status in the database, for the publisher specified. The results are ordered
-     * by the time they were created in descending order (i.e. newest items first).
+     * by the time they were created in ascending order (i.e. oldest items first), and by primary key for items created at the same time.
+     * Since the database has to skip <code>offset</code> rows, use {@link #findDataByPublisherIdAndStatusAfter} to read a large queue.
      * 
      * @param entityManager the entity manager used to create the query.
      * @param publisherId the id of a publisher, only publisher queue data items for this publisher is returned.
@@ -310,7 +337,7 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     public static List<PublisherQueueData> findDataByPublisherIdAndStatus(EntityManager entityManager, int publisherId, int publishStatus,
             int maxRows, int offset) {
         final Query query = entityManager.createQuery(
-                "SELECT a FROM PublisherQueueData a WHERE a.publisherId=:publisherId AND a.publishStatus=:publishStatus ORDER BY a.timeCreated DESC");
+                "SELECT a FROM PublisherQueueData a WHERE a.publisherId=:publisherId AND a.publishStatus=:publishStatus ORDER BY a.timeCreated ASC, a.pk ASC");
     	query.setParameter("publisherId", publisherId);
     	query.setParameter("publishStatus", publishStatus);
     	if(maxRows > 0 ) {
@@ -320,6 +347,88 @@ public class PublisherQueueData extends ProtectedData implements Serializable {
     	return query.getResultList();
     }
 
+    /**
+     * Lookup publisher queue data items with the specified status in the database, for the publisher specified, that come after a given
+     * item in the order of {@link #findDataByPublisherIdAndStatus}. The query continues from the given item in the index on
+     * (publisherId, publishStatus, timeCreated, pk), so it takes the same time for every chunk of a large queue, and items that are
+     * removed from the queue between the queries do not make it skip other items.
+     *
+     * @param entityManager the entity manager used to create the query.
+     * @param publisherId the id of a publisher, only publisher queue data items for this publisher is returned.
+     * @param publishStatus one of the constants in {@link PublisherConst}, only publisher queue data items with this status is returned.
+     * @param afterTimeCreated the creation time of the item to continue after.
+     * @param afterPk the primary key of the item to continue after, or null to start with the oldest item.
+     * @param maxRows the maximum number of rows fetched.
+     * @return return a list of publisher queue data items.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<PublisherQueueData> findDataByPublisherIdAndStatusAfter(EntityManager entityManager, int publisherId, int publishStatus,
+            long afterTimeCreated, String afterPk, int maxRows) {
+        final Query query = entityManager.createQuery("SELECT a FROM PublisherQueueData a WHERE a.publisherId=:publisherId AND a.publishStatus=:publishStatus"
+                + (afterPk == null ? "" : AFTER_ENTRY_CONDITION) + " ORDER BY a.timeCreated ASC, a.pk ASC");
+        query.setParameter("publisherId", publisherId);
+        query.setParameter("publishStatus", publishStatus);
+        setAfterEntryParameters(query, afterTimeCreated, afterPk);
+        query.setMaxResults(maxRows);
+        return query.getResultList();
+    }
+
+    /**
+     * Lookup the primary keys of pending publisher queue data items, that are not claimed by a queue worker or whose claim has expired.
+     * The results are ordered by the time they were created in ascending order (i.e. oldest items first), and by primary key for items
+     * created at the same time.
+     *
+     * @param entityManager the entity manager used to create the query.
+     * @param publisherId the id of a publisher, only publisher queue data items for this publisher is returned.
+     * @param now the current time, claims that expire before this time are ignored.
+     * @param afterTimeCreated the creation time of the item to continue after, see {@link #findDataByPublisherIdAndStatusAfter}.
+     * @param afterPk the primary key of the item to continue after, or null to start with the oldest item.
+     * @param maxRows the maximum number of rows fetched.
+     * @return a list of primary keys, never null.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<String> findUnclaimedPendingPks(EntityManager entityManager, int publisherId, long now, long afterTimeCreated, String afterPk,
+            int maxRows) {
+        final Query query = entityManager.createQuery("SELECT a.pk FROM PublisherQueueData a WHERE a.publisherId=:publisherId AND a.publishStatus="
+                + PublisherConst.STATUS_PENDING + (afterPk == null ? "" : AFTER_ENTRY_CONDITION)
+                + " AND (a.leaseExpireTime IS NULL OR a.leaseExpireTime<:now) ORDER BY a.timeCreated ASC, a.pk ASC");
+        query.setParameter("publisherId", publisherId);
+        query.setParameter("now", now);
+        setAfterEntryParameters(query, afterTimeCreated, afterPk);
+        query.setMaxResults(maxRows);
+        return query.getResultList();
+    }
+
+    /**
+     * Claims pending publisher queue data items for a queue worker. Items that were claimed by another worker after they were looked up,
+     * and whose claim has not expired, are skipped. The check and the update are made by the database in the same statement, so an item
+     * is never claimed by two workers at the same time.
+     *
+     * @param entityManager the entity manager used to create the query.
+     * @param pks primary keys of the items to claim.
+     * @param leaseOwner identifier of the claim, that is unique for each invocation.
+     * @param now the current time, claims that expire before this time are taken over.
+     * @param leaseExpireTime the time when the new claim expires.
+     * @return the number of items that were claimed.
+     */
+    public static int claimPendingEntries(EntityManager entityManager, List<String> pks, String leaseOwner, long now, long leaseExpireTime) {
+        final Query query = entityManager.createQuery("UPDATE PublisherQueueData a SET a.leaseOwner=:leaseOwner, a.leaseExpireTime=:leaseExpireTime"
+                + " WHERE a.pk IN (:pks) AND a.publishStatus=" + PublisherConst.STATUS_PENDING + " AND (a.leaseExpireTime IS NULL OR a.leaseExpireTime<:now)");
+        query.setParameter("leaseOwner", leaseOwner);
+        query.setParameter("leaseExpireTime", leaseExpireTime);
+        query.setParameter("pks", pks);
+        query.setParameter("now", now);
+        return query.executeUpdate();
+    }
+
+    /** @return the publisher queue data items claimed with the given claim identifier, ordered by the time they were created in ascending order. */
+    @SuppressWarnings("unchecked")
+    public static List<PublisherQueueData> findByLeaseOwner(EntityManager entityManager, String leaseOwner) {
+        final Query query = entityManager.createQuery("SELECT a FROM PublisherQueueData a WHERE a.leaseOwner=:leaseOwner ORDER BY a.timeCreated ASC, a.pk ASC");
+        query.setParameter("leaseOwner", leaseOwner);
+        return query.getResultList();
+    }
+
 	/** @return return the count. */
 	public static long findCountOfPendingEntriesForPublisher(EntityManager entityManager, int publisherId) {
 		Query query = entityManager.createQuery("SELECT COUNT(a) FROM PublisherQueueData a WHERE a.publisherId=:publisherId AND publishStatus=" + PublisherConst.STATUS_PENDING);
@@ -15,6 +15,7 @@ package org.ejbca.ui.web.protocol;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.OCSPException;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
@@ -45,8 +46,14 @@ import com.keyfactor.util.StringTools;
 import com.keyfactor.util.keys.token.CryptoTokenOfflineException;
 
 import javax.ejb.EJB;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -54,7 +61,14 @@ import java.io.IOException;
 import java.net.URLDecoder;
 import java.security.InvalidKeyException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** 
  * Servlet implementing server side of the Online Certificate Status Protocol (OCSP)
@@ -76,6 +90,9 @@ public class OCSPServlet extends HttpServlet {
     @EJB
     private GlobalConfigurationSessionLocal globalConfigurationSession;
 
+    /** Generates responses to asynchronously processed requests. Guarded by "this". */
+    private transient ThreadPoolExecutor asyncExecutor = null;
+
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
         try {
@@ -220,20 +237,97 @@ public class OCSPServlet extends HttpServlet {
         }
     }
 
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (asyncExecutor != null) {
+                asyncExecutor.shutdownNow();
+                asyncExecutor = null;
+            }
+        }
+        super.destroy();
+    }
+
     private void processOcspRequest(HttpServletRequest request, HttpServletResponse response, final HttpMethod httpMethod) throws ServletException {
-        final String remoteAddress = request.getRemoteAddr();
-        final String xForwardedFor = StringTools.getCleanXForwardedFor(request.getHeader("X-Forwarded-For"));
-        StringBuffer requestUrl = request.getRequestURL();
-        
-        if (request.getQueryString() != null) {
-            requestUrl = requestUrl.append("?" + request.getQueryString());
+        final OcspRequestContext context = new OcspRequestContext(request, httpMethod);
+        if (OcspConfiguration.isAsyncEnabled() && request.isAsyncSupported()) {
+            processOcspRequestAsync(context, request, response, httpMethod);
+            return;
         }
+        final OcspResponseInformation ocspResponseInformation = context.generateResponse(() -> checkAndGetRequestBytes(request, httpMethod));
+        try {
+            final byte[] ocspResponseBytes = addResponseHeaders(request, response, httpMethod, ocspResponseInformation);
+            response.getOutputStream().write(ocspResponseBytes);
+            response.getOutputStream().flush();
+        } catch (Exception e) {
+            log.error("", e);
+            context.flushLoggers();
+        }
+    }
 
-        final int localTransactionId = TransactionCounter.INSTANCE.getTransactionNumber();
-        final GlobalOcspConfiguration configuration = (GlobalOcspConfiguration) globalConfigurationSession.getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
-        TransactionLogger transactionLogger = new TransactionLogger(localTransactionId, GuidHolder.INSTANCE.getGlobalUid(), remoteAddress, configuration);
-        AuditLogger auditLogger = new AuditLogger("", localTransactionId, GuidHolder.INSTANCE.getGlobalUid(), remoteAddress, configuration);
+    /**
+     * Reads the request body with a {@link ReadListener}, generates the response on the async executor and writes it with a
+     * {@link WriteListener}, so the HTTP worker thread is released as soon as it would otherwise block.
+     */
+    private void processOcspRequestAsync(final OcspRequestContext context, final HttpServletRequest request, final HttpServletResponse response,
+            final HttpMethod httpMethod) throws ServletException {
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        final AsyncOcspExchange exchange = new AsyncOcspExchange(context, asyncContext, request, response, httpMethod);
+        asyncContext.addListener(exchange);
+        if (!HttpMethod.POST.equals(httpMethod)) {
+            // The request of a GET is in the URL, which has already been read
+            exchange.dispatch(() -> checkAndGetRequestBytes(request, httpMethod));
+            return;
+        }
+        final int contentLength = request.getContentLength();
+        if (log.isDebugEnabled()) {
+            log.debug("Received asynchronous POST request with content length: " + contentLength + " from " + request.getRemoteAddr());
+        }
+        if (contentLength > LimitLengthASN1Reader.MAX_REQUEST_SIZE) {
+            final String msg = intres.getLocalizedMessage("ocsp.toolarge", LimitLengthASN1Reader.MAX_REQUEST_SIZE, contentLength);
+            log.info(msg);
+            exchange.dispatch(() -> {
+                throw new MalformedRequestException(msg);
+            });
+            return;
+        }
         try {
+            final ServletInputStream in = request.getInputStream();
+            in.setReadListener(new AsyncOcspRequestReader(exchange, in, contentLength));
+        } catch (IOException e) {
+            exchange.dispatch(() -> {
+                throw e;
+            });
+        }
+    }
+
+    /** Supplies the DER encoded OCSP request, or throws the reason why it could not be read. */
+    private interface RequestBytesSupplier {
+        byte[] get() throws IOException, MalformedRequestException;
+    }
+
+    /** Per-request state that is needed to generate and log a response, captured on the HTTP worker thread. */
+    private final class OcspRequestContext {
+        private final String remoteAddress;
+        private final String xForwardedFor;
+        private final StringBuffer requestUrl;
+        private final X509Certificate[] requestCertificates;
+        private final TransactionLogger transactionLogger;
+        private final AuditLogger auditLogger;
+
+        private OcspRequestContext(final HttpServletRequest request, final HttpMethod httpMethod) {
+            remoteAddress = request.getRemoteAddr();
+            xForwardedFor = StringTools.getCleanXForwardedFor(request.getHeader("X-Forwarded-For"));
+            final StringBuffer url = request.getRequestURL();
+            if (request.getQueryString() != null) {
+                url.append("?" + request.getQueryString());
+            }
+            requestUrl = url;
+            requestCertificates = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
+            final int localTransactionId = TransactionCounter.INSTANCE.getTransactionNumber();
+            final GlobalOcspConfiguration configuration = (GlobalOcspConfiguration) globalConfigurationSession.getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
+            transactionLogger = new TransactionLogger(localTransactionId, GuidHolder.INSTANCE.getGlobalUid(), remoteAddress, configuration);
+            auditLogger = new AuditLogger("", localTransactionId, GuidHolder.INSTANCE.getGlobalUid(), remoteAddress, configuration);
             if (auditLogger.isEnabled()) {
                 auditLogger.paramPut(PatternLogger.LOG_ID, Integer.valueOf(localTransactionId));
                 auditLogger.paramPut(PatternLogger.SESSION_ID, sessionID);
@@ -245,92 +339,288 @@ public class OCSPServlet extends HttpServlet {
                 transactionLogger.paramPut(PatternLogger.CLIENT_IP, remoteAddress);
                 transactionLogger.paramPut(TransactionLogger.FORWARDED_FOR, xForwardedFor);
             }
-            OCSPRespBuilder responseGenerator = new OCSPRespBuilder();
-            OcspResponseInformation ocspResponseInformation = null;
+        }
+
+        /** @return the response to the request, or an error response if the request could not be read or processed */
+        private OcspResponseInformation generateResponse(final RequestBytesSupplier requestBytesSupplier) {
             try {
-                byte[] requestBytes = checkAndGetRequestBytes(request, httpMethod);
-                X509Certificate[] requestCertificates = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
-                ocspResponseInformation = integratedOcspResponseGeneratorSession.getOcspResponse(
+                final byte[] requestBytes = requestBytesSupplier.get();
+                return integratedOcspResponseGeneratorSession.getOcspResponse(
                         requestBytes, requestCertificates, remoteAddress, xForwardedFor, requestUrl, auditLogger, transactionLogger, false, false, false);
             } catch (MalformedRequestException e) {
-                if (transactionLogger.isEnabled()) {
-                    transactionLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
-                }
-                if (auditLogger.isEnabled()) {
-                    auditLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
-                }
                 String errMsg = intres.getLocalizedMessage("ocsp.errorprocessreq", e.getMessage());
                 log.info(errMsg);
                 if (log.isDebugEnabled()) {
                     log.debug(errMsg, e);
                 }
-
-                // RFC 2560: responseBytes are not set on error.
-                ocspResponseInformation = new OcspResponseInformation(
-                    responseGenerator.build(OCSPRespBuilder.MALFORMED_REQUEST, null),
-                    OcspConfiguration.getMaxAge(CertificateProfileConstants.CERTPROFILE_NO_PROFILE),
-                    null
-                );
-                if (transactionLogger.isEnabled()) {
-                    transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.MALFORMED_REQUEST);
-                    transactionLogger.writeln();
-                }
-                if (auditLogger.isEnabled()) {
-                    auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.MALFORMED_REQUEST);
-                }
+                return errorResponse(OCSPRespBuilder.MALFORMED_REQUEST);
             } catch (Throwable e) { // NOPMD, we really want to catch everything here to return internal error on unexpected errors
-                if (transactionLogger.isEnabled()) {
-                    transactionLogger.paramPut(IPatternLogger.PROCESS_TIME, IPatternLogger.PROCESS_TIME);
-                }
-                if (auditLogger.isEnabled()) {
-                    auditLogger.paramPut(IPatternLogger.PROCESS_TIME, IPatternLogger.PROCESS_TIME);
-                }
                 final String errMsg = intres.getLocalizedMessage("ocsp.errorprocessreq", e.getMessage());
                 log.info(errMsg);
                 if (log.isDebugEnabled()) {
                     log.debug(errMsg, e);
                 }
+                return errorResponse(OCSPRespBuilder.INTERNAL_ERROR);
+            }
+        }
 
-                // RFC 2560: responseBytes are not set on error.
-                ocspResponseInformation = new OcspResponseInformation(
-                    responseGenerator.build(OCSPRespBuilder.INTERNAL_ERROR, null),
-                    OcspConfiguration.getMaxAge(CertificateProfileConstants.CERTPROFILE_NO_PROFILE),
-                    null
-                );
-                if (transactionLogger.isEnabled()) {
-                    transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.INTERNAL_ERROR);
-                    transactionLogger.writeln();
+        /** @return a response without responseBytes (RFC 2560), logged with the given status */
+        private OcspResponseInformation errorResponse(final int status) {
+            if (transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(IPatternLogger.PROCESS_TIME, IPatternLogger.PROCESS_TIME);
+            }
+            if (auditLogger.isEnabled()) {
+                auditLogger.paramPut(IPatternLogger.PROCESS_TIME, IPatternLogger.PROCESS_TIME);
+            }
+            final OcspResponseInformation ocspResponseInformation;
+            try {
+                ocspResponseInformation = new OcspResponseInformation(new OCSPRespBuilder().build(status, null),
+                        OcspConfiguration.getMaxAge(CertificateProfileConstants.CERTPROFILE_NO_PROFILE), null);
+            } catch (OCSPException e) {
+                throw new IllegalStateException(e);
+            }
+            if (transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(TransactionLogger.STATUS, status);
+                transactionLogger.writeln();
+            }
+            if (auditLogger.isEnabled()) {
+                auditLogger.paramPut(AuditLogger.STATUS, status);
+            }
+            return ocspResponseInformation;
+        }
+
+        private void flushLoggers() {
+            transactionLogger.flush();
+            auditLogger.flush();
+        }
+    }
+
+    /**
+     * One asynchronously processed request. Also listens for timeouts and errors of the async context, after which the
+     * response must no longer be touched.
+     */
+    private final class AsyncOcspExchange implements AsyncListener {
+        private final OcspRequestContext context;
+        private final AsyncContext asyncContext;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final HttpMethod httpMethod;
+        /** Set when the response has been claimed by the writer, a timeout or an error */
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        private AsyncOcspExchange(final OcspRequestContext context, final AsyncContext asyncContext, final HttpServletRequest request,
+                final HttpServletResponse response, final HttpMethod httpMethod) {
+            this.context = context;
+            this.asyncContext = asyncContext;
+            this.request = request;
+            this.response = response;
+            this.httpMethod = httpMethod;
+        }
+
+        /** Generates the response on the async executor, or answers tryLater directly if the executor is saturated. */
+        private void dispatch(final RequestBytesSupplier requestBytesSupplier) {
+            try {
+                getAsyncExecutor().execute(() -> write(context.generateResponse(requestBytesSupplier)));
+            } catch (RejectedExecutionException e) {
+                log.info("OCSP request from " + context.remoteAddress + " rejected, all " + OcspConfiguration.getAsyncThreads()
+                        + " threads are busy and the queue is full.");
+                write(context.errorResponse(OCSPRespBuilder.TRY_LATER));
+            }
+        }
+
+        private void write(final OcspResponseInformation ocspResponseInformation) {
+            // Claim the response before touching it, so a timeout can not complete the context and recycle the response while we write
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                final byte[] ocspResponseBytes = addResponseHeaders(request, response, httpMethod, ocspResponseInformation);
+                final ServletOutputStream out = response.getOutputStream();
+                out.setWriteListener(new WriteListener() {
+                    private boolean written = false;
+
+                    @Override
+                    public void onWritePossible() throws IOException {
+                        if (!written) {
+                            written = true;
+                            out.write(ocspResponseBytes);
+                        }
+                        // isReady() is false until the container has sent the buffered response, and then we are called again
+                        if (out.isReady()) {
+                            complete();
+                        }
+                    }
+
+                    @Override
+                    public void onError(final Throwable t) {
+                        log.info("Failed to write OCSP response to " + context.remoteAddress + ": " + t.getMessage());
+                        complete();
+                    }
+                });
+            } catch (Exception e) {
+                log.error("", e);
+                context.flushLoggers();
+                complete();
+            }
+        }
+
+        private void complete() {
+            if (completed.compareAndSet(false, true)) {
+                asyncContext.complete();
+            }
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) throws IOException {
+            if (done.compareAndSet(false, true)) {
+                log.info("Timeout processing OCSP request from " + context.remoteAddress + ".");
+                context.flushLoggers();
+                if (!response.isCommitted()) {
+                    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+                complete();
+            }
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) throws IOException {
+            if (done.compareAndSet(false, true)) {
+                log.info("Error processing OCSP request from " + context.remoteAddress + ": " + event.getThrowable());
+                context.flushLoggers();
+                complete();
+            }
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) throws IOException {
+            done.set(true);
+            completed.set(true);
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) throws IOException {
+        }
+    }
+
+    /**
+     * Reads the body of a POST request without blocking, directly into an array of the announced content length. Only
+     * requests without content length (chunked encoding) need to grow the buffer, limited to the maximum request size.
+     */
+    private final class AsyncOcspRequestReader implements ReadListener {
+        private final AsyncOcspExchange exchange;
+        private final ServletInputStream in;
+        private final int contentLength;
+        private byte[] buffer;
+        private int length = 0;
+        private boolean dispatched = false;
+
+        private AsyncOcspRequestReader(final AsyncOcspExchange exchange, final ServletInputStream in, final int contentLength) {
+            this.exchange = exchange;
+            this.in = in;
+            this.contentLength = contentLength;
+            this.buffer = new byte[contentLength >= 0 ? contentLength : 1024];
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            while (!dispatched && in.isReady() && !in.isFinished()) {
+                if (length == buffer.length) {
+                    if (contentLength >= 0) {
+                        // Like the blocking reader, we only use the announced length and ignore any additional data
+                        log.warn("Client at " + exchange.context.remoteAddress + " is sending more data than the announced content length " + contentLength + ".");
+                        onAllDataRead();
+                        return;
+                    }
+                    if (buffer.length > LimitLengthASN1Reader.MAX_REQUEST_SIZE) {
+                        // Rejected as too large
+                        onAllDataRead();
+                        return;
+                    }
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, LimitLengthASN1Reader.MAX_REQUEST_SIZE + 1));
                 }
-                if (auditLogger.isEnabled()) {
-                    auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.INTERNAL_ERROR);
+                final int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    break;
                 }
+                length += read;
             }
+        }
 
-            byte[] ocspResponseBytes = ocspResponseInformation.getOcspResponse();
-            response.setContentType("application/ocsp-response");
-            response.setContentLength(ocspResponseBytes.length);
+        @Override
+        public void onAllDataRead() {
+            if (dispatched) {
+                return;
+            }
+            dispatched = true;
+            final byte[] requestBytes = length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+            exchange.dispatch(() -> {
+                if (requestBytes.length == 0) {
+                    final String msg = intres.getLocalizedMessage("ocsp.emptyreq", exchange.context.remoteAddress);
+                    log.info(msg);
+                    throw new MalformedRequestException(msg);
+                }
+                if (requestBytes.length > LimitLengthASN1Reader.MAX_REQUEST_SIZE) {
+                    final String msg = intres.getLocalizedMessage("ocsp.toolarge", LimitLengthASN1Reader.MAX_REQUEST_SIZE, requestBytes.length);
+                    log.info(msg);
+                    throw new MalformedRequestException(msg);
+                }
+                return requestBytes;
+            });
+        }
 
-            GlobalOcspConfiguration ocspConfig = (GlobalOcspConfiguration) globalConfigurationSession
-                .getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
-            if (ocspResponseInformation.getStatus() == OCSPResp.UNAUTHORIZED && ocspConfig.getExplicitNoCacheUnauthorizedResponsesEnabled()) {
-                addHeaderNoCache(response);
+        @Override
+        public void onError(final Throwable t) {
+            if (!dispatched) {
+                dispatched = true;
+                exchange.dispatch(() -> {
+                    throw new IOException("Failed to read OCSP request.", t);
+                });
             }
-            addRfc5019CacheHeaders(request, response, ocspResponseInformation);
-      
-            
-            if (HttpMethod.POST.equals(httpMethod)) {
-                addOcspPostHeaders(response, ocspResponseInformation);
+        }
+    }
+
+    /** @return the executor generating responses for asynchronous requests, created on first use */
+    private ThreadPoolExecutor getAsyncExecutor() {
+        synchronized (this) {
+            if (asyncExecutor == null) {
+                final int threads = OcspConfiguration.getAsyncThreads();
+                final AtomicInteger threadNumber = new AtomicInteger();
+                asyncExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(OcspConfiguration.getAsyncQueueSize()), runnable -> {
+                            final Thread thread = new Thread(runnable, "OcspAsync-" + threadNumber.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                asyncExecutor.allowCoreThreadTimeOut(true);
             }
-            
-            response.getOutputStream().write(ocspResponseBytes);
-            response.getOutputStream().flush();
-        } catch (Exception e) {
-            log.error("", e);
-            transactionLogger.flush();
-            auditLogger.flush();
+            return asyncExecutor;
         }
     }
-    
+
+    /**
+     * Sets the content type, length and cache headers of the response.
+     *
+     * @return the encoded response to write
+     */
+    private byte[] addResponseHeaders(final HttpServletRequest request, final HttpServletResponse response, final HttpMethod httpMethod,
+            final OcspResponseInformation ocspResponseInformation) throws IOException, OCSPException {
+        final byte[] ocspResponseBytes = ocspResponseInformation.getOcspResponse();
+        response.setContentType("application/ocsp-response");
+        response.setContentLength(ocspResponseBytes.length);
+
+        GlobalOcspConfiguration ocspConfig = (GlobalOcspConfiguration) globalConfigurationSession
+            .getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
+        if (ocspResponseInformation.getStatus() == OCSPResp.UNAUTHORIZED && ocspConfig.getExplicitNoCacheUnauthorizedResponsesEnabled()) {
+            addHeaderNoCache(response);
+        }
+        addRfc5019CacheHeaders(request, response, ocspResponseInformation);
+        if (HttpMethod.POST.equals(httpMethod)) {
+            addOcspPostHeaders(response, ocspResponseInformation);
+        }
+        return ocspResponseBytes;
+    }
+
     private void addOcspPostHeaders(HttpServletResponse response, OcspResponseInformation ocspResponseInformation) {
         
         if (!ocspResponseInformation.shouldAddCacheHeaders()) {